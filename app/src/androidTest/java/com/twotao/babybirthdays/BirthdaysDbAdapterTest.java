@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.io.File;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+/**
+ * Opens and closes the database the way the screens do, many times over,
+ * and checks the shared connection does not leak: the references are all
+ * given back and the process holds no more file handles than it started
+ * with.
+ *
+ * @author Jim
+ *
+ */
+public class BirthdaysDbAdapterTest extends AndroidTestCase {
+
+	private static final int SESSIONS = 1000;
+
+	// handles the test itself may open along the way, such as a log file
+	private static final int HANDLE_SLACK = 4;
+
+	/**
+	 * Every session opens and closes the connection, as when the app is
+	 * started and left again
+	 */
+	public void testSessionsDoNotLeakHandles() {
+		assertEquals(0, BirthdaysDbAdapter.getOpenCount());
+
+		// the first session opens files that later sessions reuse
+		runSession();
+		int handles = countOpenHandles();
+
+		for (int i = 0; i < SESSIONS; i++) {
+			runSession();
+			assertEquals(0, BirthdaysDbAdapter.getOpenCount());
+		}
+		assertTrue("handles grew from " + handles + " to " + countOpenHandles(),
+				countOpenHandles() <= handles + HANDLE_SLACK);
+	}
+
+	/**
+	 * While the list holds the connection open, every edit screen session
+	 * shares it rather than opening another
+	 */
+	public void testSessionsShareTheOpenConnection() {
+		BirthdaysDbAdapter list = new BirthdaysDbAdapter(getContext()).open();
+		try {
+			runSession();
+			int handles = countOpenHandles();
+
+			for (int i = 0; i < SESSIONS; i++) {
+				runSession();
+				assertEquals(1, BirthdaysDbAdapter.getOpenCount());
+			}
+			assertTrue("handles grew from " + handles + " to " + countOpenHandles(),
+					countOpenHandles() <= handles + HANDLE_SLACK);
+		} finally {
+			list.close();
+		}
+		assertEquals(0, BirthdaysDbAdapter.getOpenCount());
+	}
+
+	/*
+	 * What a screen does with the database between being created and
+	 * destroyed, reading through the adapter before closing it
+	 */
+	private void runSession() {
+		BirthdaysDbAdapter adapter = new BirthdaysDbAdapter(getContext()).open();
+		try {
+			adapter.countBirthdays();
+			Cursor c = adapter.fetchAllBirthdays();
+			c.close();
+		} finally {
+			adapter.close();
+		}
+	}
+
+	private static int countOpenHandles() {
+		return new File("/proc/self/fd").list().length;
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import android.content.Context;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * Shows the AgeStatistics in the header above the list: how many birthdays
+ * are in each age group and their average age, in the same units as the
+ * ages of the rows.
+ *
+ * @author Jim
+ *
+ */
+class AgeStatisticsHeader {
+
+	private static final int[] GROUP_VIEW_IDS = {
+		R.id.stats_group_weeks, R.id.stats_group_months, R.id.stats_group_years
+	};
+
+	private static final int[] GROUP_LABEL_IDS = {
+		R.string.stats_group_weeks, R.string.stats_group_months, R.string.stats_group_years
+	};
+
+	private final Context mContext;
+	private final TextView[] mGroupTexts = new TextView[AgeStatistics.GROUP_COUNT];
+	private final String[] mGroupLabels = new String[AgeStatistics.GROUP_COUNT];
+	private final AgeTextFormatter mFormatter;
+	private final AgeCalculator mAgeCalculator = new AgeCalculator();
+	private final char[] mAgeChars = new char[AgeTextFormatter.TEXT_BUFFER_SIZE];
+
+	/**
+	 * @param context
+	 * @param header the inflated birthdays_header layout
+	 */
+	AgeStatisticsHeader(Context context, View header) {
+		mContext = context;
+		for (int i = 0; i < AgeStatistics.GROUP_COUNT; i++) {
+			mGroupTexts[i] = (TextView) header.findViewById(GROUP_VIEW_IDS[i]);
+			mGroupLabels[i] = context.getString(GROUP_LABEL_IDS[i]);
+		}
+		mFormatter = BirthdayListAdapter.newAgeTextFormatter(context);
+	}
+
+	/**
+	 * Shows the current counts of the statistics
+	 *
+	 * @param statistics the ages of every birthday
+	 */
+	void bind(AgeStatistics statistics) {
+
+		mAgeCalculator.setToday(System.currentTimeMillis());
+		for (int i = 0; i < AgeStatistics.GROUP_COUNT; i++) {
+			int count = statistics.getGroupCount(i);
+			if (count == 0) {
+				mGroupTexts[i].setText(mContext.getString(R.string.stats_group_empty,
+						mGroupLabels[i]));
+				continue;
+			}
+
+			// the age of a birthday born the average age ago
+			mAgeCalculator.computeFromEpochDay(statistics.getTodayEpochDay()
+					- statistics.getGroupAverageAge(i));
+			int length = mFormatter.writeAgeText(mAgeChars, mAgeCalculator.getCount(),
+					mAgeCalculator.getUnit());
+			mGroupTexts[i].setText(mContext.getString(R.string.stats_group, mGroupLabels[i],
+					count, new String(mAgeChars, 0, length)));
+		}
+	}
+}
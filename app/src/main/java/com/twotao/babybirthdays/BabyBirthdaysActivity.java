@@ -3,69 +3,676 @@
  */
 package com.twotao.babybirthdays;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import android.app.ListActivity;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
+import android.content.IntentFilter;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.SubMenu;
 import android.view.View;
 import android.widget.AdapterView.AdapterContextMenuInfo;
+import android.widget.EditText;
 import android.widget.ListView;
+import android.widget.Toast;
 
 public class BabyBirthdaysActivity extends ListActivity {
 	
+    private static final String TAG = "BabyBirthdaysActivity";
+
     private static final int ACTIVITY_CREATE=0;
     private static final int ACTIVITY_EDIT=1;
 
     private static final int INSERT_ID = Menu.FIRST;
     private static final int DELETE_ID = Menu.FIRST + 1;
+    private static final int IMPORT_ID = Menu.FIRST + 2;
+    private static final int EXPORT_ID = Menu.FIRST + 3;
+    private static final int DUMP_METRICS_ID = Menu.FIRST + 4;
+    private static final int SORT_ID = Menu.FIRST + 5;
+    private static final int SORT_CREATED_ID = Menu.FIRST + 6;
+    private static final int SORT_AGE_ID = Menu.FIRST + 7;
+    private static final int SORT_BIRTH_MONTH_ID = Menu.FIRST + 8;
+    private static final int SORT_GROUP = 1;
+
+    // the preference holding the BirthdaySections sort mode of the list
+    private static final String PREF_SORT_MODE = "sort_mode";
+
+    // how many pages of a list too long to load are held at once, about a
+    // screen each
+    private static final int MAX_PAGES = 4;
+
+    // the file on the external storage used for import and export
+    private static final String TRANSFER_FILE_NAME = "baby_birthdays.csv";
 
-    private BirthdaysDbAdapter mDbHelper;
+    // the file in the app's private storage the metrics are dumped to
+    private static final String METRICS_FILE_NAME = "metrics.txt";
+
+    // how long the list takes to refill, from asking to showing the rows
+    private static final Metrics.Timer FILL_TIMER = Metrics.timer("list.fillData");
+    private long mFillStart;
+
+    // how long after a change to the list its snapshot is saved, so a burst
+    // of changes is saved once
+    private static final long SNAPSHOT_DELAY_MILLIS = 1000;
+
+    // the deletes made from the list run one at a time on a thread of their
+    // own, as the edit screen's writes do, against a database reference
+    // opened by the first of them; the list itself is read through the loader
+    private BirthdayRepository mRepository;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
 //    private ListView mListView;
+
+    // the listed birthdays and their ages, replaced by each load of the list
+    // and otherwise kept up to date one changed row at a time
+    private BirthdayListModel mModel = new BirthdayListModel();
+    private AgeLabelTable mAgeLabels = new AgeLabelTable();
+    private int mSortMode;
+    private BirthdaySections mSections;
+
+    // the ages of every birthday whatever the search, kept up to date one
+    // changed row at a time and counted again by the loads that read every
+    // row, or by the next load once a bulk change made them stale
+    private AgeStatistics mStatistics = new AgeStatistics();
+    private boolean mStatisticsStale;
+
+    // a count of the statistics that keep no rows is in flight, which a
+    // change made meanwhile may or may not be in, so it is counted again
+    private boolean mStatisticsCounting;
+    private AgeStatisticsHeader mStatisticsHeader;
+
+    private BirthdayListAdapter mBirthdays;
+    private BirthdaysLoader mLoader;
+
+    // pages through the list instead of the model when it is too long
+    private BirthdayPager mPager;
+    private boolean mPaged;
+
+    // the text typed into the search box, or null to list every birthday
+    private String mFilter;
+
+    // changes made while a load is in flight, which the loaded rows may not
+    // include yet, so they are applied again once it arrives
+    private boolean mLoading;
+    private boolean mDestroyed;
+    private final ArrayList<PendingChange> mPendingChanges = new ArrayList<PendingChange>();
+
+    // the snapshot the list was first shown from, until the first load
+    // arrives to be compared with it
+    private BirthdayListModel mSnapshot;
+    private boolean mSnapshotDirty;
+    private final Handler mHandler = new Handler();
+    private final Runnable mSaveSnapshot = new Runnable() {
+
+        public void run() {
+            saveSnapshot();
+        }
+    };
+
+    private static class PendingChange {
+
+        final long rowId;
+        final String name;
+        final int birthEpochDay;
+        final boolean deleted;
+
+        PendingChange(long rowId, String name, int birthEpochDay, boolean deleted) {
+            this.rowId = rowId;
+            this.name = name;
+            this.birthEpochDay = birthEpochDay;
+            this.deleted = deleted;
+        }
+    }
+
+    private final BirthdaysLoader.Callbacks mLoaderCallbacks = new BirthdaysLoader.Callbacks() {
+
+        public void onBirthdaysLoaded(BirthdayListModel model, AgeLabelTable ageLabels,
+                BirthdaySections sections, AgeStatistics statistics) {
+            if (Metrics.isEnabled()) {
+                FILL_TIMER.recordSince(mFillStart);
+            }
+            boolean sortChanged = mPaged || sections.getSortMode() != mSections.getSortMode();
+            mPaged = false;
+            mModel = model;
+            mAgeLabels = ageLabels;
+            mSections = sections;
+            mLoading = false;
+            changeStatistics(statistics);
+
+            for (int i = 0; i < mPendingChanges.size(); i++) {
+                PendingChange change = mPendingChanges.get(i);
+                if (change.deleted) {
+                    removeRow(change.rowId);
+                } else {
+                    putRow(change.rowId, change.name, change.birthEpochDay);
+                }
+            }
+            mPendingChanges.clear();
+
+            // only save the snapshot when the list differs from the one it
+            // was shown from
+            if (mFilter == null && (mSnapshot == null || !model.contentEquals(mSnapshot))) {
+                scheduleSnapshot();
+            }
+            mSnapshot = null;
+
+            mBirthdays.changeModel(model, ageLabels, sections);
+            if (sortChanged) {
+                resetFastScroll();
+            }
+        }
+
+        public void onBirthdaysPaged(BirthdayPageIndex index, AgeStatistics statistics) {
+            if (Metrics.isEnabled()) {
+                FILL_TIMER.recordSince(mFillStart);
+            }
+            changeStatistics(statistics);
+
+            // the count may not include changes made while it was read
+            boolean changed = !mPendingChanges.isEmpty();
+            mPendingChanges.clear();
+            mLoading = false;
+
+            // too long to snapshot, the pages are quick enough to arrive
+            mSnapshot = null;
+            mSnapshotDirty = false;
+            mHandler.removeCallbacks(mSaveSnapshot);
+            mLoader.deleteSnapshot();
+
+            mModel = new BirthdayListModel();
+            mAgeLabels = new AgeLabelTable();
+            mSections = new BirthdaySections(mSortMode);
+            mBirthdays.changeModel(mModel, mAgeLabels, mSections);
+
+            mPaged = true;
+            mPager.reset(index);
+            mBirthdays.changePager(mPager);
+            if (changed) {
+                mPager.invalidate();
+            }
+            resetFastScroll();
+        }
+
+        public void onStatisticsLoaded(AgeStatistics statistics) {
+            // counted after the last change was made, so there is nothing to
+            // apply to them again
+            mStatisticsCounting = false;
+            mStatistics = statistics;
+            mStatisticsStale = false;
+            mStatisticsHeader.bind(mStatistics);
+        }
+    };
+
+    // changes are reported on the thread that wrote them, which is often the
+    // background writer of the edit screen, so they are handed to the UI thread
+    private final BirthdaysDbAdapter.OnBirthdaysChangedListener mChangedListener =
+        new BirthdaysDbAdapter.OnBirthdaysChangedListener() {
+
+            public void onBirthdayInserted(final long rowId, final String name, final int birthEpochDay) {
+                runOnUiThread(new Runnable() {
+
+                    public void run() {
+                        updateStatistics(rowId, true, 0, birthEpochDay);
+                        if (mFilter != null) {
+                            // only the search knows whether the new name matches
+                            fillData();
+                            return;
+                        }
+                        applyPut(rowId, 0, name, birthEpochDay, true);
+                    }
+                });
+            }
+
+            public void onBirthdayUpdated(final long rowId, final int oldBirthEpochDay,
+                    final String name, final int birthEpochDay) {
+                runOnUiThread(new Runnable() {
+
+                    public void run() {
+                        updateStatistics(rowId, false, oldBirthEpochDay, birthEpochDay);
+                        if (mFilter != null) {
+                            fillData();
+                            return;
+                        }
+                        applyPut(rowId, oldBirthEpochDay, name, birthEpochDay, false);
+                    }
+                });
+            }
+
+            public void onBirthdayDeleted(final long rowId, final int oldBirthEpochDay) {
+                runOnUiThread(new Runnable() {
+
+                    public void run() {
+                        removeStatistics(rowId, oldBirthEpochDay);
+
+                        // a row that is gone can be dropped whether or not it matched
+                        if (mLoading) {
+                            mPendingChanges.add(new PendingChange(rowId, null, 0, true));
+                        }
+                        if (mPaged && mFilter != null) {
+                            // the pages only know the row was in the search
+                            // if it is held
+                            fillData();
+                            return;
+                        }
+                        if (mPaged) {
+                            mPager.rowDeleted(rowId, oldBirthEpochDay);
+                            return;
+                        }
+                        removeRow(rowId);
+                        mBirthdays.notifyDataSetChanged();
+                        scheduleSnapshot();
+                    }
+                });
+            }
+
+            public void onBirthdaysBulkChanged() {
+                runOnUiThread(new Runnable() {
+
+                    public void run() {
+                        // a search load does not count the statistics
+                        // unless they are stale
+                        mStatisticsStale = true;
+                        fillData();
+                    }
+                });
+            }
+        };
+
+    // the ages only change with the calendar day, so listen for it rolling over
+    private final BroadcastReceiver mDateChangedReceiver = new BroadcastReceiver() {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_TIMEZONE_CHANGED.equals(intent.getAction())) {
+                // the stored dates are calendar days and stay as they are, only
+                // today can move. The calculators holding today were made in
+                // the old zone, so load again to make them in the new one.
+                mStatisticsStale = true;
+                fillData();
+            } else {
+                refreshAges();
+            }
+        }
+    };
     
     /** Called when the activity is first created. */
     @Override
     public void onCreate(Bundle savedInstanceState) {
+        // a debug build records the metrics, which the menu can dump
+        Metrics.setEnabled(BuildConfig.DEBUG);
         super.onCreate(savedInstanceState);
         setContentView(R.layout.birthdays_list);
-        mDbHelper = new BirthdaysDbAdapter(this);
-        mDbHelper.open();
+        mSortMode = getPreferences(MODE_PRIVATE).getInt(PREF_SORT_MODE, BirthdaySections.SORT_CREATED);
+        mSections = new BirthdaySections(mSortMode);
+
+        // the database is opened in the background, show the list as it was
+        // last time until the first load replaces it. The ages are worked
+        // out by the adapter as the rows are shown.
+        mLoader = new BirthdaysLoader(this, mLoaderCallbacks);
+        mSnapshot = mLoader.readSnapshot();
+        if (mSnapshot != null) {
+            mModel = mSnapshot;
+            mSections = BirthdaySections.load(mSortMode, mModel);
+        }
         
         // Add a header to the list view
         ListView listView = getListView();
         View header = getLayoutInflater().inflate(R.layout.birthdays_header, null);
         listView.addHeaderView(header, null, false);
+        mStatisticsHeader = new AgeStatisticsHeader(this, header);
+        if (mSnapshot != null) {
+            mStatistics = AgeStatistics.load(mSnapshot);
+        }
+        mStatisticsHeader.bind(mStatistics);
 //        listView.addHeaderView(header);
         
+        // Now create the list adapter and set it to display, the rows are
+        // swapped in once the first load finishes
+        mBirthdays = new BirthdayListAdapter(this, R.layout.birthdays_row, mModel, mAgeLabels,
+                mSections);
+        setListAdapter(mBirthdays);
+        listView.setFastScrollEnabled(true);
+
+        // search the names as they are typed
+        EditText search = (EditText) findViewById(R.id.search);
+        search.addTextChangedListener(new TextWatcher() {
+
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            public void afterTextChanged(Editable s) {
+                String filter = s.toString().trim();
+                mFilter = (filter.length() == 0) ? null : filter;
+                fillData();
+            }
+        });
+
+        mPager = new BirthdayPager(this, BirthdaysLoader.PAGE_SIZE, MAX_PAGES, new BirthdayPager.Callbacks() {
+
+            public void onPagesChanged() {
+                mBirthdays.notifyDataSetChanged();
+            }
+        });
+        BirthdaysDbAdapter.registerChangedListener(mChangedListener);
         fillData();
         registerForContextMenu(getListView());
+
+        // post any milestones that are due and set the alarm for the next
+        BirthdayReminders.getInstance(this).tick();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_DATE_CHANGED);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        registerReceiver(mDateChangedReceiver, filter);
+
+        // the day may have rolled over while we were in the background
+        refreshAges();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        unregisterReceiver(mDateChangedReceiver);
+
+        // the process may be killed once we are in the background
+        if (mSnapshotDirty) {
+            saveSnapshot();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        BirthdaysDbAdapter.unregisterChangedListener(mChangedListener);
+
+        // stop any load in flight, changes already handed to the UI thread
+        // must not start another
+        mDestroyed = true;
+        mHandler.removeCallbacks(mSaveSnapshot);
+        mLoader.destroy();
+        mPager.destroy();
+
+        // after any delete still queued
+        mWriter.execute(new Runnable() {
+
+            public void run() {
+                if (mRepository != null) {
+                    mRepository.close();
+                }
+            }
+        });
+        mWriter.shutdown();
     }
 
+    /*
+     * Starts loading the rows matching the search, or all of the rows, from
+     * the database in the background, the list is updated when they arrive
+     */
     private void fillData() {
-        // Get all of the rows from the database and create the item list
-        Cursor birthdaysCursor = mDbHelper.fetchAllBirthdays();
-        startManagingCursor(birthdaysCursor);
+        if (mDestroyed) {
+            return;
+        }
+        if (Metrics.isEnabled()) {
+            mFillStart = System.nanoTime();
+        }
+        mLoading = true;
+        mPendingChanges.clear();
+        mLoader.load(mFilter, mSortMode, mFilter == null || mStatisticsStale);
+    }
 
-        // Create an array to specify the fields we want to display in the list
-        String[] from = new String[]{BirthdaysDbAdapter.KEY_NAME, BirthdaysDbAdapter.KEY_BIRTHDATE, BirthdaysDbAdapter.KEY_BIRTHDATE};
+    /*
+     * Applies a created or edited row to the list, remembering it if a load
+     * is in flight. The old birth date of an edited row places it in the
+     * pages of a paged list.
+     */
+    private void applyPut(long rowId, int oldBirthEpochDay, String name, int birthEpochDay,
+            boolean inserted) {
+        if (mLoading) {
+            mPendingChanges.add(new PendingChange(rowId, name, birthEpochDay, false));
+        }
+        if (mPaged) {
+            if (inserted) {
+                mPager.rowInserted(rowId, name, birthEpochDay);
+            } else {
+                mPager.rowUpdated(rowId, oldBirthEpochDay, name, birthEpochDay);
+            }
+            return;
+        }
+        putRow(rowId, name, birthEpochDay);
+        mBirthdays.notifyDataSetChanged();
+        scheduleSnapshot();
+    }
 
-        // and an array of the fields we want to bind those fields to
-        int[] to = new int[]{R.id.text1, R.id.text2, R.id.text3};
+    /*
+     * Saves the snapshot of the unfiltered list shortly, replacing any save
+     * already scheduled
+     */
+    private void scheduleSnapshot() {
+        if (mFilter != null || mPaged) {
+            return;
+        }
+        mSnapshotDirty = true;
+        mHandler.removeCallbacks(mSaveSnapshot);
+        mHandler.postDelayed(mSaveSnapshot, SNAPSHOT_DELAY_MILLIS);
+    }
 
-        // Now create a simple cursor adapter and set it to display
-        BirthdayCursorAdapter birthdays = 
-            new BirthdayCursorAdapter(this, R.layout.birthdays_row, birthdaysCursor, from, to);
-        
-        setListAdapter(birthdays);
+    /*
+     * Saves the snapshot now, if the list is still the unfiltered one, a
+     * later load of the unfiltered list schedules it again otherwise
+     */
+    private void saveSnapshot() {
+        mHandler.removeCallbacks(mSaveSnapshot);
+        mSnapshotDirty = false;
+        if (mFilter == null && !mPaged && !mDestroyed) {
+            mLoader.saveSnapshot(mModel);
+        }
+    }
+
+    /*
+     * Deletes a birthday on the writer thread, the list hears about it from
+     * the change listener once it is gone
+     */
+    private void deleteBirthday(final long rowId) {
+        mWriter.execute(new Runnable() {
+
+            public void run() {
+                if (mRepository == null) {
+                    mRepository = new BirthdaysDbAdapter(BabyBirthdaysActivity.this).open();
+                }
+                mRepository.deleteBirthday(rowId);
+            }
+        });
+    }
+
+    /*
+     * Swaps in the statistics counted by a load, if it counted them. Changes
+     * made while it was in flight are applied to them again, which is
+     * harmless for those it already counted.
+     */
+    private void changeStatistics(AgeStatistics statistics) {
+        if (statistics == null) {
+            return;
+        }
+        mStatistics = statistics;
+        mStatisticsStale = false;
+        if (!statistics.keepsRows()) {
+            // counted from a scan that keeps no rows, which may or may not
+            // hold the changes made while it ran, so count them again if
+            // there were any
+            if (!mPendingChanges.isEmpty()) {
+                countStatistics();
+            }
+            mStatisticsHeader.bind(mStatistics);
+            return;
+        }
+        for (int i = 0; i < mPendingChanges.size(); i++) {
+            PendingChange change = mPendingChanges.get(i);
+            if (change.deleted) {
+                mStatistics.remove(change.rowId);
+            } else {
+                mStatistics.put(change.rowId, change.birthEpochDay);
+            }
+        }
+        mStatisticsHeader.bind(mStatistics);
+    }
+
+    /*
+     * Counts a row that was added or edited. Statistics that do not keep the
+     * rows are moved by the birth day the row had, which the change reports.
+     */
+    private void updateStatistics(long rowId, boolean inserted, int oldBirthEpochDay,
+            int birthEpochDay) {
+        if (mStatistics.keepsRows()) {
+            mStatistics.put(rowId, birthEpochDay);
+        } else if (mStatisticsCounting) {
+            countStatistics();
+            return;
+        } else if (inserted) {
+            mStatistics.add(birthEpochDay);
+        } else {
+            mStatistics.move(oldBirthEpochDay, birthEpochDay);
+        }
+        mStatisticsHeader.bind(mStatistics);
+    }
+
+    /*
+     * Stops counting a deleted row
+     */
+    private void removeStatistics(long rowId, int oldBirthEpochDay) {
+        if (mStatistics.keepsRows()) {
+            mStatistics.remove(rowId);
+        } else if (mStatisticsCounting) {
+            countStatistics();
+            return;
+        } else {
+            mStatistics.subtract(oldBirthEpochDay);
+        }
+        mStatisticsHeader.bind(mStatistics);
+    }
+
+    /*
+     * Counts the statistics that keep no rows again, in the background
+     */
+    private void countStatistics() {
+        mStatisticsCounting = true;
+        mLoader.loadStatistics();
+    }
+
+    /*
+     * The fast scroller only reads the sections when it is set up, so set it
+     * up again when they change
+     */
+    private void resetFastScroll() {
+        getListView().setFastScrollEnabled(false);
+        getListView().setFastScrollEnabled(true);
+    }
+
+    private void putRow(long rowId, String name, int birthEpochDay) {
+        int position = mModel.indexOf(rowId);
+        if (position >= 0) {
+            mSections.remove(rowId, mModel.getBirthEpochDay(position));
+        }
+        mSections.put(rowId, birthEpochDay);
+        mModel.put(rowId, name, birthEpochDay);
+        mAgeLabels.put(rowId, birthEpochDay);
+    }
+
+    private void removeRow(long rowId) {
+        int position = mModel.indexOf(rowId);
+        if (position >= 0) {
+            mSections.remove(rowId, mModel.getBirthEpochDay(position));
+        }
+        mModel.remove(rowId);
+        mAgeLabels.remove(rowId);
+    }
+
+    /*
+     * Recomputes the ages if the calendar day has changed, and redraws the list
+     */
+    private void refreshAges() {
+        if (mStatistics.refreshToday()) {
+            mStatisticsHeader.bind(mStatistics);
+        }
+        boolean agesChanged = mAgeLabels.refreshToday();
+        if (mSections.refreshToday() || agesChanged) {
+            mBirthdays.notifyDataSetChanged();
+        }
+    }
+
+    /*
+     * Reorders the list, remembering the choice for next time
+     */
+    private void setSortMode(int sortMode) {
+        if (sortMode == mSortMode) {
+            return;
+        }
+        mSortMode = sortMode;
+        getPreferences(MODE_PRIVATE).edit().putInt(PREF_SORT_MODE, sortMode).commit();
+        fillData();
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         super.onCreateOptionsMenu(menu);
         menu.add(0, INSERT_ID, 0, R.string.menu_insert);
+        menu.add(0, IMPORT_ID, 0, R.string.menu_import);
+        menu.add(0, EXPORT_ID, 0, R.string.menu_export);
+
+        SubMenu sort = menu.addSubMenu(0, SORT_ID, 0, R.string.menu_sort);
+        sort.add(SORT_GROUP, SORT_CREATED_ID, 0, R.string.sort_created);
+        sort.add(SORT_GROUP, SORT_AGE_ID, 0, R.string.sort_age);
+        sort.add(SORT_GROUP, SORT_BIRTH_MONTH_ID, 0, R.string.sort_birth_month);
+        sort.setGroupCheckable(SORT_GROUP, true, true);
+
+        if (Metrics.isEnabled()) {
+            menu.add(0, DUMP_METRICS_ID, 0, R.string.menu_dump_metrics);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        int checked;
+        switch (mSortMode) {
+            case BirthdaySections.SORT_AGE:
+                checked = SORT_AGE_ID;
+                break;
+            case BirthdaySections.SORT_BIRTH_MONTH:
+                checked = SORT_BIRTH_MONTH_ID;
+                break;
+            default:
+                checked = SORT_CREATED_ID;
+                break;
+        }
+        MenuItem item = menu.findItem(checked);
+        if (item != null) {
+            item.setChecked(true);
+        }
         return true;
     }
 
@@ -75,11 +682,107 @@ public class BabyBirthdaysActivity extends ListActivity {
             case INSERT_ID:
                 createBirthday();
                 return true;
+            case IMPORT_ID:
+                transferBirthdays(true);
+                return true;
+            case EXPORT_ID:
+                transferBirthdays(false);
+                return true;
+            case DUMP_METRICS_ID:
+                dumpMetrics();
+                return true;
+            case SORT_CREATED_ID:
+                setSortMode(BirthdaySections.SORT_CREATED);
+                return true;
+            case SORT_AGE_ID:
+                setSortMode(BirthdaySections.SORT_AGE);
+                return true;
+            case SORT_BIRTH_MONTH_ID:
+                setSortMode(BirthdaySections.SORT_BIRTH_MONTH);
+                return true;
         }
 
         return super.onMenuItemSelected(featureId, item);
     }
 
+    /*
+     * Imports or exports all of the birthdays through the transfer file on
+     * the external storage, on a thread of its own as the file may be large
+     */
+    private void transferBirthdays(final boolean importing) {
+
+        if (!Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
+            Toast.makeText(this, R.string.transfer_no_storage, Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        final File file = new File(Environment.getExternalStorageDirectory(), TRANSFER_FILE_NAME);
+        // the transfer holds the database open for itself, as it may still be
+        // running after this activity is destroyed
+        final BirthdaysDbAdapter dbHelper = new BirthdaysDbAdapter(this).open();
+        final BirthdayTransfer transfer = new BirthdayTransfer(dbHelper);
+
+        new Thread(new Runnable() {
+
+            public void run() {
+                String message;
+                try {
+                    if (importing) {
+                        // a file imported twice only adds the rows it did not
+                        // have the first time
+                        int count = transfer.importFrom(file, BirthdayTransfer.DUPLICATES_SKIP);
+                        int duplicates = transfer.getDuplicateCount();
+                        message = (duplicates == 0) ? getString(R.string.import_done, count)
+                                : getString(R.string.import_done_duplicates, count, duplicates);
+                    } else {
+                        int count = transfer.exportTo(file);
+                        message = getString(R.string.export_done, count, file.getPath());
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Transfer of " + file + " failed", e);
+                    message = getString(R.string.transfer_failed, e.getMessage());
+                } finally {
+                    dbHelper.close();
+                }
+
+                final String result = message;
+                runOnUiThread(new Runnable() {
+
+                    public void run() {
+                        Toast.makeText(BabyBirthdaysActivity.this, result, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "BirthdayTransfer").start();
+    }
+
+    /*
+     * Writes the metrics to the log, and to a file in the app's private
+     * storage that can be pulled off the device
+     */
+    private void dumpMetrics() {
+
+        StringWriter table = new StringWriter();
+        File file = new File(getFilesDir(), METRICS_FILE_NAME);
+        try {
+            Metrics.dump(table);
+            for (String line : table.toString().split("\n")) {
+                Log.i(TAG, line);
+            }
+
+            FileWriter out = new FileWriter(file);
+            try {
+                out.write(table.toString());
+            } finally {
+                out.close();
+            }
+            Toast.makeText(this, getString(R.string.metrics_dumped, file.getPath()),
+                    Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + file, e);
+        }
+    }
+
     @Override
     public void onCreateContextMenu(ContextMenu menu, View v,
             ContextMenuInfo menuInfo) {
@@ -92,8 +795,7 @@ public class BabyBirthdaysActivity extends ListActivity {
         switch(item.getItemId()) {
             case DELETE_ID:
                 AdapterContextMenuInfo info = (AdapterContextMenuInfo) item.getMenuInfo();
-                mDbHelper.deleteBirthday(info.id);
-                fillData();
+                deleteBirthday(info.id);
                 return true;
         }
         return super.onContextItemSelected(item);
@@ -111,10 +813,4 @@ public class BabyBirthdaysActivity extends ListActivity {
         i.putExtra(BirthdaysDbAdapter.KEY_ROWID, id);
         startActivityForResult(i, ACTIVITY_EDIT);
     }
-
-    @Override
-    protected void onActivityResult(int requestCode, int resultCode, Intent intent) {
-        super.onActivityResult(requestCode, resultCode, intent);
-        fillData();
-    }
 }
\ No newline at end of file
@@ -16,10 +16,10 @@
 
 package com.twotao.babybirthdays;
 
-import java.util.Calendar;
-
 import android.app.Activity;
-import android.database.Cursor;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.DialogInterface;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.Button;
@@ -28,16 +28,38 @@ import android.widget.EditText;
 
 public class BirthdayEdit extends Activity {
 
+    private static final int DIALOG_DUPLICATE = 0;
+
     private EditText mNameText;
     private DatePicker mBirthdateChooser;
-    private Long mRowId;
-	private BirthdaysDbAdapter mDbHelper;
+    private Button mConfirmButton;
+
+    // writes the edits in the background, kept across configuration changes
+    // so a birthday still being created is not created twice
+    private BirthdaySaver mSaver;
+    private boolean mSaverRetained;
+    private boolean mDestroyed;
+
+    // whether the stored birthday is shown once the saver has read it, or
+    // the widgets keep the state they restored
+    private boolean mShowStored;
+
+    private final BirthdaySaver.LoadCallback mLoadCallback = new BirthdaySaver.LoadCallback() {
+
+        public void onLoaded(Birthday birthday) {
+            if (mDestroyed) {
+                return;
+            }
+            mConfirmButton.setEnabled(true);
+            if (birthday != null && mShowStored) {
+                showStored(birthday);
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        mDbHelper = new BirthdaysDbAdapter(this);
-        mDbHelper.open();
         
         setContentView(R.layout.birthday_edit);
         setTitle(R.string.edit_birthday);
@@ -45,82 +67,151 @@ public class BirthdayEdit extends Activity {
         mNameText = (EditText) findViewById(R.id.name);
         mBirthdateChooser = (DatePicker) findViewById(R.id.birthdate);
 
-        Button confirmButton = (Button) findViewById(R.id.confirm);
+        mConfirmButton = (Button) findViewById(R.id.confirm);
+
+        mSaver = (BirthdaySaver) getLastNonConfigurationInstance();
+        if (mSaver == null) {
+            Long rowId = (savedInstanceState == null) ? null :
+                (Long) savedInstanceState.getSerializable(BirthdaysDbAdapter.KEY_ROWID);
+            if (rowId == null) {
+                Bundle extras = getIntent().getExtras();
+                rowId = extras != null ? extras.getLong(BirthdaysDbAdapter.KEY_ROWID)
+                                       : null;
+            }
 
-        mRowId = (savedInstanceState == null) ? null :
-            (Long) savedInstanceState.getSerializable(BirthdaysDbAdapter.KEY_ROWID);
-        if (mRowId == null) {
-            Bundle extras = getIntent().getExtras();
-            mRowId = extras != null ? extras.getLong(BirthdaysDbAdapter.KEY_ROWID)
-                                    : null;
+            // the widgets restore their own state when the activity is recreated
+            mSaver = new BirthdaySaver(this);
+            populateFields(rowId, savedInstanceState == null);
+        } else if (mSaver.isLoading()) {
+            // the activity before this one did not get to show the stored
+            // birthday, so it is shown here when it arrives
+            mShowStored = true;
+            mSaver.setLoadCallback(mLoadCallback);
         }
 
-        populateFields();
-        
-        confirmButton.setOnClickListener(new View.OnClickListener() {
+        // nothing is saved until the stored birthday has been read
+        mConfirmButton.setEnabled(!mSaver.isLoading());
+        mConfirmButton.setOnClickListener(new View.OnClickListener() {
 
             public void onClick(View view) {
-                setResult(RESULT_OK);
-                finish();
+                String name = getName();
+                if (name.trim().length() == 0) {
+                    confirm();
+                    return;
+                }
+                // warn before saving the same child twice
+                mSaver.checkDuplicate(name, getBirthEpochDay(), new BirthdaySaver.DuplicateCallback() {
+
+                    public void onDuplicateChecked(long duplicateRowId) {
+                        if (mDestroyed) {
+                            return;
+                        }
+                        if (duplicateRowId == 0) {
+                            confirm();
+                        } else {
+                            showDialog(DIALOG_DUPLICATE);
+                        }
+                    }
+                });
             }
 
         });
     }
+
+    private void confirm() {
+        mSaver.flush(getName(), getBirthEpochDay());
+        setResult(RESULT_OK);
+        finish();
+    }
+
+    @Override
+    protected Dialog onCreateDialog(int id) {
+        if (id == DIALOG_DUPLICATE) {
+            return new AlertDialog.Builder(this)
+                    .setMessage(R.string.duplicate_warning)
+                    .setPositiveButton(R.string.save_anyway, new DialogInterface.OnClickListener() {
+
+                        public void onClick(DialogInterface dialog, int which) {
+                            mSaver.allowDuplicate(getName(), getBirthEpochDay());
+                            confirm();
+                        }
+                    })
+                    .setNegativeButton(android.R.string.cancel, null)
+                    .create();
+        }
+        return super.onCreateDialog(id);
+    }
     
-    private void populateFields() {
-        final Calendar birthdate = Calendar.getInstance();
-        
-        if (mRowId != null) {
-            Cursor birthday = mDbHelper.fetchBirthday(mRowId);
-            startManagingCursor(birthday);
-            mNameText.setText(birthday.getString(
-                    birthday.getColumnIndexOrThrow(BirthdaysDbAdapter.KEY_NAME)));
-            
-            // get the date in milliseconds and create the calendar object
-            long testTime = birthday.getLong(
-                    birthday.getColumnIndexOrThrow(BirthdaysDbAdapter.KEY_BIRTHDATE));
-            birthdate.setTimeInMillis(testTime);
-            
-            // now update the date picker widget to show the stored date
-            mBirthdateChooser.updateDate(birthdate.get(Calendar.YEAR), 
-            		birthdate.get(Calendar.MONTH), birthdate.get(Calendar.DAY_OF_MONTH));
+    /*
+     * Has the saver read the stored birthday as the snapshot the edits are
+     * saved against, showing it in the widgets if asked to
+     */
+    private void populateFields(Long rowId, boolean showStored) {
+
+        if (rowId == null || rowId == 0) {
+            // a new birthday, compared against the blank form
+            mSaver.setSnapshot(0, "", getBirthEpochDay());
+            return;
         }
+
+        // a birthday that no longer exists is compared against the blank form
+        mShowStored = showStored;
+        mSaver.load(rowId, getBirthEpochDay(), mLoadCallback);
+    }
+
+    /*
+     * Shows the stored birthday in the widgets
+     */
+    private void showStored(Birthday birthday) {
+
+        mNameText.setText(birthday.getName());
+
+        // now update the date picker widget to show the stored date
+        int date = AgeCalculator.civilFromEpochDay(birthday.getBirthEpochDay());
+        mBirthdateChooser.updateDate(AgeCalculator.yearOf(date),
+                AgeCalculator.monthOf(date) - 1, AgeCalculator.dayOf(date));
     }
 
 	@Override
 	protected void onSaveInstanceState(Bundle outState) {
 		super.onSaveInstanceState(outState);
-        saveState();
-        outState.putSerializable(BirthdaysDbAdapter.KEY_ROWID, mRowId);
+        // onPause follows closely, and writes this along with anything newer
+        mSaver.save(getName(), getBirthEpochDay());
+        long rowId = mSaver.getRowId();
+        outState.putSerializable(BirthdaysDbAdapter.KEY_ROWID, (rowId == 0) ? null : rowId);
 	}
 
 	@Override
 	protected void onPause() {
 		super.onPause();
-        saveState();
+        mSaver.flush(getName(), getBirthEpochDay());
 	}
 
 	@Override
-	protected void onResume() {
-		super.onResume();
-        populateFields();
+	public Object onRetainNonConfigurationInstance() {
+        mSaverRetained = true;
+        return mSaver;
 	}
-	
-	private void saveState() {
-        final Calendar adjustedDate = Calendar.getInstance();
-        String name = mNameText.getText().toString();
-        
-        // set the updated date and store it in milliseconds
-        adjustedDate.set(mBirthdateChooser.getYear(), mBirthdateChooser.getMonth(), mBirthdateChooser.getDayOfMonth());
-        long birthdate = adjustedDate.getTimeInMillis();
-
-        if (mRowId == null) {
-            long id = mDbHelper.createBirthday(name, birthdate);
-            if (id > 0) {
-                mRowId = id;
-            }
-        } else {
-            mDbHelper.updateBirthday(mRowId, name, birthdate);
+
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+        mDestroyed = true;
+        if (!mSaverRetained) {
+            mSaver.close();
         }
+	}
+
+    private String getName() {
+        return mNameText.getText().toString();
+    }
+
+    /*
+     * Returns the chosen date as an epoch day, which is the same day whatever
+     * the time zone
+     */
+    private int getBirthEpochDay() {
+        return AgeCalculator.epochDayFromCivil(mBirthdateChooser.getYear(),
+                mBirthdateChooser.getMonth() + 1, mBirthdateChooser.getDayOfMonth());
     }
 }
@@ -0,0 +1,290 @@
+/**
+ * 
+ */
+package com.twotao.babybirthdays;
+
+import java.text.DateFormatSymbols;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.SectionIndexer;
+import android.widget.TextView;
+
+/**
+ * This class adapts the in-memory list of birthdays to the list view, so we
+ * can display the row data as dates, not milliseconds as they are stored in
+ * the database. It also uses some logic to display the age of the person on
+ * each row, based on how old they are - in days, weeks, months and years.
+ * 
+ * The rows come from a BirthdayListModel, which is kept up to date with the
+ * single rows that change, so the adapter never needs to be recreated or the
+ * table queried again after an edit. The rows are shown in the order of a
+ * BirthdaySections, which also gives the sections for fast scrolling.
+ * 
+ * A list too long to load at once is shown through a BirthdayPager instead,
+ * in the order the birthdays were added, with the ages of those rows worked
+ * out as they are bound rather than kept for every row.
+ * 
+ * TODO: The values used for age determination may become customizable and will
+ * need to use the DB to get stored data.
+ * 
+ * @author Jim
+ * 
+ */
+public class BirthdayListAdapter extends BaseAdapter implements SectionIndexer {
+	
+	// Not sure if this is needed, as it isn't used much
+	private Context mContext;
+	private int mLayout;
+
+	private BirthdayListModel mModel;
+	private BirthdaySections mSections;
+	private String[] mSectionLabels;
+
+	// the pages of a list too long to load, or null when the model is used
+	private BirthdayPager mPager;
+
+	// the precomputed ages and the reusable state used to format each row, so
+	// that binding a row does not need to allocate any objects
+	private AgeLabelTable mAgeLabels;
+	private final BirthdayRowBinder mBinder;
+
+	private static final String[] NO_SECTIONS = {""};
+
+	private static final Metrics.Timer BIND_TIMER = Metrics.timer("list.bindRow");
+	private static final Metrics.Counter INFLATE_COUNTER = Metrics.counter("list.inflateRow");
+
+	/*
+	 * The views of a single row, along with the texts that back them
+	 */
+	private static class RowViews extends BirthdayRowBinder.RowText {
+
+		final TextView nameText;
+		final TextView birthdayText;
+		final TextView ageText;
+
+		RowViews(View v) {
+			nameText = (TextView) v.findViewById(R.id.text1);
+			birthdayText = (TextView) v.findViewById(R.id.text2);
+			ageText = (TextView) v.findViewById(R.id.text3);
+		}
+	}
+
+	/**
+	 * @param context
+	 * @param layout the layout of each row
+	 * @param model the birthdays to display
+	 * @param ageLabels the precomputed ages of the rows in the model
+	 * @param sections the display order of the rows in the model
+	 */
+	public BirthdayListAdapter(Context context, int layout, BirthdayListModel model,
+			AgeLabelTable ageLabels, BirthdaySections sections) {
+		mContext = context;
+		mLayout = layout;
+		mModel = model;
+		mAgeLabels = ageLabels;
+		mSections = sections;
+		mSectionLabels = sectionLabelsFor(sections.getSortMode());
+
+		mBinder = new BirthdayRowBinder(newAgeTextFormatter(context));
+	}
+
+	/*
+	 * Creates a formatter with the unit words of the current locale, shared
+	 * with the statistics header
+	 */
+	static AgeTextFormatter newAgeTextFormatter(Context context) {
+		return new AgeTextFormatter(
+				new String[] {
+						context.getString(R.string.day), context.getString(R.string.week),
+						context.getString(R.string.month), context.getString(R.string.year) },
+				new String[] {
+						context.getString(R.string.days), context.getString(R.string.weeks),
+						context.getString(R.string.months), context.getString(R.string.years) });
+	}
+
+	/**
+	 * Swaps in a newly loaded model along with the ages and order of its rows
+	 *
+	 * @param model the birthdays to display
+	 * @param ageLabels the precomputed ages of the rows in the model
+	 * @param sections the display order of the rows in the model
+	 */
+	public void changeModel(BirthdayListModel model, AgeLabelTable ageLabels,
+			BirthdaySections sections) {
+		mModel = model;
+		mAgeLabels = ageLabels;
+		if (sections.getSortMode() != mSections.getSortMode()) {
+			mSectionLabels = sectionLabelsFor(sections.getSortMode());
+		}
+		mSections = sections;
+		mPager = null;
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Shows the rows of a pager, in place of the model, until the next
+	 * changeModel()
+	 *
+	 * @param pager the pages of the birthdays to display
+	 */
+	public void changePager(BirthdayPager pager) {
+		mPager = pager;
+		notifyDataSetChanged();
+	}
+
+	public int getCount() {
+		return (mPager != null) ? mPager.getCount() : mSections.size();
+	}
+
+	public Object getItem(int position) {
+		if (mPager != null) {
+			BirthdayPage page = mPager.getPageFor(position);
+			int offset = position % mPager.getPageSize();
+			return (page != null && offset < page.size())
+					? page.getRows().getName(page.getRowPosition(offset)) : null;
+		}
+		return mModel.getName(modelPosition(position));
+	}
+
+	public long getItemId(int position) {
+		if (mPager != null) {
+			BirthdayPage page = mPager.getPageFor(position);
+			int offset = position % mPager.getPageSize();
+			return (page != null && offset < page.size()) ? page.getId(offset) : -1;
+		}
+		return mSections.getRowId(position);
+	}
+
+	public Object[] getSections() {
+		return (mPager != null) ? NO_SECTIONS : mSectionLabels;
+	}
+
+	public int getPositionForSection(int section) {
+		return (mPager != null) ? 0 : mSections.getPositionForSection(section);
+	}
+
+	public int getSectionForPosition(int position) {
+		return (mPager != null) ? 0 : mSections.getSectionForPosition(position);
+	}
+
+	@Override
+	public boolean hasStableIds() {
+		return true;
+	}
+
+	public View getView(int position, View convertView, ViewGroup parent) {
+
+		long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+		View v = convertView;
+		if (v == null) {
+			if (Metrics.isEnabled()) {
+				INFLATE_COUNTER.increment();
+			}
+			final LayoutInflater inflater = LayoutInflater.from(mContext);
+			v = inflater.inflate(mLayout, parent, false);
+
+			// keep the row's views with it, so they are only found once
+			v.setTag(new RowViews(v));
+		}
+
+		// create the row to display
+		if (mPager != null) {
+			createPagedRowDisplay((RowViews) v.getTag(), position);
+		} else {
+			createRowDisplay((RowViews) v.getTag(), position);
+		}
+
+		if (Metrics.isEnabled()) {
+			BIND_TIMER.recordSince(start);
+		}
+		return v;
+	}
+
+	/*
+	 * Creates the customized display for each row in the main birthday list
+	 */
+	private void createRowDisplay(RowViews row, int displayPosition) {
+
+		mBinder.bind(row, mModel, mAgeLabels, mSections.getRowId(displayPosition));
+		showText(row);
+	}
+
+	/*
+	 * Creates the display of a row from its page, leaving it blank until the
+	 * page arrives
+	 */
+	private void createPagedRowDisplay(RowViews row, int position) {
+
+		BirthdayPage page = mPager.getPageFor(position);
+		int offset = position % mPager.getPageSize();
+		if (page == null || offset >= page.size()) {
+			setText(row.nameText, null);
+			setText(row.birthdayText, null);
+			setText(row.ageText, null);
+			return;
+		}
+
+		mBinder.bindPaged(row, page.getRows(), page.getRowPosition(offset),
+				System.currentTimeMillis());
+		showText(row);
+	}
+
+	/*
+	 * Hands the bound texts of a row to its views: the name, the birthday in
+	 * MMM-DD format and the age
+	 */
+	private static void showText(RowViews row) {
+		if (row.nameText != null) {
+			row.nameText.setText(row.nameChars, row.nameOffset, row.nameLength);
+		}
+		if (row.birthdayText != null) {
+			row.birthdayText.setText(row.birthdayChars, 0, row.birthdayLength);
+		}
+		if (row.ageText != null) {
+			row.ageText.setText(row.ageChars, 0, row.ageLength);
+		}
+	}
+
+	private static void setText(TextView view, String text) {
+		if (view != null) {
+			view.setText(text);
+		}
+	}
+
+	private int modelPosition(int displayPosition) {
+		return mModel.indexOf(mSections.getRowId(displayPosition));
+	}
+
+	/*
+	 * The short labels shown by the fast scroller for each section of a sort
+	 * mode
+	 */
+	private String[] sectionLabelsFor(int sortMode) {
+
+		switch (sortMode) {
+			case BirthdaySections.SORT_AGE:
+				int years = BirthdaySections.LAST_SECTION_YEAR - BirthdaySections.FIRST_SECTION_YEAR + 1;
+				String[] ages = new String[BirthdaySections.AGE_SECTION_YEARS + years];
+				ages[AgeCalculator.UNIT_DAYS] = mContext.getString(R.string.section_days);
+				ages[AgeCalculator.UNIT_WEEKS] = mContext.getString(R.string.section_weeks);
+				ages[AgeCalculator.UNIT_MONTHS] = mContext.getString(R.string.section_months);
+				for (int i = 0; i < years; i++) {
+					int year = BirthdaySections.FIRST_SECTION_YEAR + i;
+					ages[BirthdaySections.AGE_SECTION_YEARS + i] = mContext.getString(
+							(year == BirthdaySections.LAST_SECTION_YEAR) ? R.string.section_years_over
+									: R.string.section_years, year);
+				}
+				return ages;
+			case BirthdaySections.SORT_BIRTH_MONTH:
+				String[] months = new String[12];
+				System.arraycopy(new DateFormatSymbols().getShortMonths(), 0, months, 0, months.length);
+				return months;
+			default:
+				return new String[] {""};
+		}
+	}
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.os.Handler;
+
+/**
+ * Feeds the birthday list a page at a time when there are too many birthdays
+ * to load at once. The pages are held in a BirthdayPageCache and fetched by
+ * keyset on a background thread, so scrolling never waits on the database
+ * and memory stays the same however long the list is.
+ *
+ * Asking for a row near the end of its page fetches the next page ahead of
+ * time, and near the start the page before, so scrolling at a normal speed
+ * finds the rows already there. A row whose page has not arrived yet is
+ * reported as missing, and the callbacks are told when it arrives.
+ *
+ * The pager is used from the thread that created it. A single changed row
+ * is applied to the held pages and the BirthdayPageIndex in memory by
+ * BirthdayPageCache, and the pages it moved are fetched again by keyset from
+ * the page before or the nearest anchor, so an edit costs a page of rows
+ * rather than a count or a walk of the table. A change the rows are not
+ * known for is handled by invalidate(), which reads the keys of the list
+ * again and fetches the page being viewed before dropping the old pages.
+ *
+ * @author Jim
+ *
+ */
+public class BirthdayPager {
+
+	/**
+	 * Told on the thread that created the pager when pages arrive
+	 */
+	public interface Callbacks {
+
+		void onPagesChanged();
+	}
+
+	// opened by the first task on the background thread, and only used there
+	private BirthdayRepository mRepository;
+	private final Callbacks mCallbacks;
+	private final Handler mHandler = new Handler();
+	private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+	private final BirthdayPageCache mCache;
+	private final int mPrefetchDistance;
+
+	// the pages being fetched, and a count bumped by invalidate() so pages
+	// fetched before a change are dropped
+	private final HashSet<Integer> mLoading = new HashSet<Integer>();
+	private volatile int mGeneration;
+	private int mViewedPage;
+	private final int[] mIncompletePages;
+
+	/**
+	 * Opens a reference to the database of its own on the background thread,
+	 * which is held until destroy()
+	 *
+	 * @param context the context to open the database with
+	 * @param pageSize the number of birthdays in each page
+	 * @param maxPages the most pages to hold at once
+	 * @param callbacks told when pages arrive
+	 */
+	public BirthdayPager(final Context context, int pageSize, int maxPages, Callbacks callbacks) {
+		mCallbacks = callbacks;
+		mCache = new BirthdayPageCache(pageSize, maxPages);
+		mIncompletePages = new int[maxPages];
+		mPrefetchDistance = pageSize / 4;
+		mExecutor.execute(new Runnable() {
+
+			public void run() {
+				mRepository = new BirthdaysDbAdapter(context).open();
+			}
+		});
+	}
+
+	/**
+	 * Drops every page and starts over with a new list
+	 *
+	 * @param index the index of the list, from BirthdayPageIndex.load()
+	 */
+	public void reset(BirthdayPageIndex index) {
+		mGeneration++;
+		mLoading.clear();
+		mCache.reset(index);
+		mViewedPage = 0;
+	}
+
+	public int getCount() {
+		return mCache.getCount();
+	}
+
+	/**
+	 * Finds the page holding a row, fetching it if it is not held, along with
+	 * the page either side if the row is near its edge
+	 *
+	 * @param position the position of the row
+	 * @return the page, with the row at position % getPageSize(), or null if
+	 *         it has not arrived yet
+	 */
+	public BirthdayPage getPageFor(int position) {
+
+		int page = mCache.pageOf(position);
+		mViewedPage = page;
+
+		int offset = position - page * mCache.getPageSize();
+		if (offset >= mCache.getPageSize() - mPrefetchDistance) {
+			fetch(page + 1);
+		} else if (offset < mPrefetchDistance) {
+			fetch(page - 1);
+		}
+
+		BirthdayPage rows = mCache.getPage(page);
+		if (rows == null) {
+			fetch(page);
+		}
+		return rows;
+	}
+
+	public int getPageSize() {
+		return mCache.getPageSize();
+	}
+
+	/**
+	 * Applies a newly created birthday to the held pages
+	 *
+	 * @param rowId id of the birthday
+	 * @param name the name of the birthday
+	 * @param birthEpochDay the birth date as a local epoch day
+	 */
+	public void rowInserted(long rowId, String name, int birthEpochDay) {
+		mCache.rowInserted(rowId, name, birthEpochDay);
+		pagesChanged();
+	}
+
+	/**
+	 * Applies an edited birthday to the held pages
+	 *
+	 * @param rowId id of the birthday
+	 * @param oldBirthEpochDay the birth date the row had
+	 * @param name the new name
+	 * @param birthEpochDay the new birth date as a local epoch day
+	 */
+	public void rowUpdated(long rowId, int oldBirthEpochDay, String name, int birthEpochDay) {
+		mCache.rowUpdated(rowId, oldBirthEpochDay, name, birthEpochDay);
+		pagesChanged();
+	}
+
+	/**
+	 * Applies a deleted birthday to the held pages, and fetches again the
+	 * pages left short of a row
+	 *
+	 * @param rowId id of the birthday
+	 * @param birthEpochDay the birth date the row had
+	 */
+	public void rowDeleted(long rowId, int birthEpochDay) {
+		mCache.rowDeleted(rowId, birthEpochDay);
+		pagesChanged();
+	}
+
+	/**
+	 * Reads the keys of the list again after the birthdays have changed in a
+	 * way not known row by row, and fetches the page being viewed, before
+	 * swapping both in
+	 */
+	public void invalidate() {
+
+		mGeneration++;
+		mLoading.clear();
+		final int generation = mGeneration;
+		final int page = mViewedPage;
+		final BirthdayPageIndex current = mCache.getIndex();
+		final int sortMode = current.getSortMode();
+		final String filter = current.getFilter();
+		final int pageSize = current.getPageSize();
+
+		mExecutor.execute(new Runnable() {
+
+			public void run() {
+				BirthdayRepository.Keys keys = mRepository.fetchKeys(sortMode, filter);
+				final BirthdayPageIndex index;
+				try {
+					index = BirthdayPageIndex.load(sortMode, filter, pageSize, keys);
+				} finally {
+					keys.close();
+				}
+				final BirthdayPage rows = BirthdayPageCache.loadPage(mRepository,
+						BirthdayPageCache.getStart(index, page));
+
+				mHandler.post(new Runnable() {
+
+					public void run() {
+						if (generation == mGeneration) {
+							mCache.reset(index);
+							mCache.putPage(page, rows, page);
+							mCallbacks.onPagesChanged();
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Stops fetching pages and the background thread, the pager cannot be
+	 * used afterwards. The database is closed on the background thread, after
+	 * any fetch still running there.
+	 */
+	public void destroy() {
+		mGeneration++;
+		mExecutor.execute(new Runnable() {
+
+			public void run() {
+				mRepository.close();
+			}
+		});
+		mExecutor.shutdown();
+	}
+
+	/*
+	 * Drops the fetches in flight, which may have read the rows before the
+	 * change, and fetches again the pages it left short
+	 */
+	private void pagesChanged() {
+
+		mGeneration++;
+		mLoading.clear();
+		int count = mCache.getIncompletePages(mIncompletePages);
+		for (int i = 0; i < count; i++) {
+			load(mIncompletePages[i]);
+		}
+		mCallbacks.onPagesChanged();
+	}
+
+	/*
+	 * Fetches a page in the background, if it is in range and not already
+	 * held or being fetched
+	 */
+	private void fetch(int page) {
+
+		if (page < 0 || page >= mCache.getPageCount() || mCache.getPage(page) != null) {
+			return;
+		}
+		load(page);
+	}
+
+	/*
+	 * Fetches a page in the background, held or not, unless it is already
+	 * being fetched
+	 */
+	private void load(final int page) {
+
+		if (!mLoading.add(page)) {
+			return;
+		}
+
+		final int generation = mGeneration;
+		final BirthdayPageCache.PageStart start = mCache.getStart(page);
+
+		mExecutor.execute(new Runnable() {
+
+			public void run() {
+				if (generation != mGeneration) {
+					return;
+				}
+				final BirthdayPage rows = BirthdayPageCache.loadPage(mRepository, start);
+
+				mHandler.post(new Runnable() {
+
+					public void run() {
+						if (generation == mGeneration) {
+							mLoading.remove(page);
+							mCache.putPage(page, rows, mViewedPage);
+							mCallbacks.onPagesChanged();
+						}
+					}
+				});
+			}
+		});
+	}
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.app.AlarmManager;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+
+/**
+ * Posts a notification when a birthday reaches a milestone: one week, one
+ * month, six months, and then every birthday from the first year on.
+ *
+ * Nothing is loaded up front. Each tick finds the milestones falling since
+ * the last tick through the birth_day and month_day indexes with
+ * DueMilestones, reading only the rows that are due, and sets an alarm for
+ * the day of the next milestone with a few more index lookups. A tick in a
+ * fresh process, as when the alarm goes off, costs the same as one in a
+ * process that has been running for days, and does not grow with the number
+ * of birthdays. Adding or editing a birthday only works out the next
+ * milestone of that birthday, and ticks again if it comes before the alarm.
+ *
+ * The last day a tick ran is kept in the preferences, so a reminder is not
+ * posted twice when the process is started again on the same day, and the
+ * newest milestone missed while the device was off is still posted.
+ *
+ * There is a single instance per process. The days are guarded by the
+ * instance, and the database work is done on a background thread of its own.
+ *
+ * @author Jim
+ *
+ */
+public class BirthdayReminders {
+
+	private static final String PREFS_NAME = "reminders";
+	private static final String PREF_LAST_TICK_DAY = "last_tick_day";
+
+	private static final int ALARM_REQUEST_CODE = 0;
+	private static final int NUM_MONTHS_PER_YEAR = 12;
+
+	private static BirthdayReminders sInstance;
+
+	private final Context mContext;
+	private final AgeCalculator mAgeCalculator = new AgeCalculator();
+	private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+	// both guarded by this: the last day reminders were posted for, read
+	// from the preferences by the first tick, and the day the alarm is set for
+	private int mLastTickEpochDay = Integer.MIN_VALUE;
+	private int mAlarmEpochDay = Integer.MAX_VALUE;
+
+	private final BirthdaysDbAdapter.OnBirthdaysChangedListener mChangedListener =
+		new BirthdaysDbAdapter.OnBirthdaysChangedListener() {
+
+			public void onBirthdayInserted(long rowId, String name, int birthEpochDay) {
+				changed(birthEpochDay);
+			}
+
+			public void onBirthdayUpdated(long rowId, int oldBirthEpochDay, String name,
+					int birthEpochDay) {
+				changed(birthEpochDay);
+			}
+
+			public void onBirthdayDeleted(long rowId, int oldBirthEpochDay) {
+				// an alarm left for a deleted birthday finds nothing due and
+				// moves on to the next one
+			}
+
+			public void onBirthdaysBulkChanged() {
+				tick();
+			}
+		};
+
+	private final Runnable mTickRunnable = new Runnable() {
+
+		public void run() {
+			BirthdaysDbAdapter repository = new BirthdaysDbAdapter(mContext).open();
+			try {
+				postDue(repository);
+				scheduleAlarm(repository);
+			} finally {
+				repository.close();
+			}
+		}
+	};
+
+	private BirthdayReminders(Context context) {
+		mContext = context.getApplicationContext();
+		BirthdaysDbAdapter.registerChangedListener(mChangedListener);
+	}
+
+	/**
+	 * @param context any context of the app
+	 * @return the reminders of this process
+	 */
+	public static synchronized BirthdayReminders getInstance(Context context) {
+		if (sInstance == null) {
+			sInstance = new BirthdayReminders(context);
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Posts the milestones that are due in the background and sets the alarm
+	 * for the next one. Called when the app starts and when a change may have
+	 * brought the next milestone forward.
+	 */
+	public void tick() {
+		mExecutor.execute(mTickRunnable);
+	}
+
+	/**
+	 * Ticks in the background, and runs a callback once the tick is done,
+	 * whether or not it succeeded. The alarm receiver releases its wake lock
+	 * from the callback.
+	 *
+	 * @param whenDone run on the background thread after the tick
+	 */
+	public void tick(final Runnable whenDone) {
+		mExecutor.execute(new Runnable() {
+
+			public void run() {
+				try {
+					mTickRunnable.run();
+				} finally {
+					whenDone.run();
+				}
+			}
+		});
+	}
+
+	/*
+	 * Ticks again if a birthday that was added or edited now has the
+	 * earliest milestone not posted yet
+	 */
+	private void changed(int birthEpochDay) {
+		boolean earlier;
+		synchronized (this) {
+			if (mLastTickEpochDay == Integer.MIN_VALUE) {
+				earlier = true;
+			} else {
+				int from = mLastTickEpochDay + 1;
+				int next = MilestoneQueue.milestoneEpochDay(birthEpochDay,
+						MilestoneQueue.firstMilestone(birthEpochDay, from));
+				earlier = next < mAlarmEpochDay;
+			}
+		}
+		if (earlier) {
+			tick();
+		}
+	}
+
+	/*
+	 * Finds the milestones due since the last tick and posts a notification
+	 * for each, on the background thread
+	 */
+	private void postDue(BirthdaysDbAdapter repository) {
+
+		final List<Long> rowIds = new ArrayList<Long>();
+		final List<Integer> milestones = new ArrayList<Integer>();
+		int from;
+		int today;
+		synchronized (this) {
+			mAgeCalculator.setToday(System.currentTimeMillis());
+			today = mAgeCalculator.getTodayEpochDay();
+			if (mLastTickEpochDay == Integer.MIN_VALUE) {
+				SharedPreferences prefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+				mLastTickEpochDay = prefs.getInt(PREF_LAST_TICK_DAY, today - 1);
+			}
+			if (today <= mLastTickEpochDay) {
+				return;
+			}
+			from = mLastTickEpochDay + 1;
+		}
+
+		DueMilestones.pollDue(repository, from, today, new MilestoneQueue.OnMilestoneListener() {
+
+			public void onMilestone(long rowId, int milestone, int epochDay) {
+				rowIds.add(rowId);
+				milestones.add(milestone);
+			}
+		});
+		for (int i = 0; i < rowIds.size(); i++) {
+			Birthday birthday = repository.fetchBirthday(rowIds.get(i));
+			if (birthday != null) {
+				notify(birthday, milestones.get(i));
+			}
+		}
+
+		synchronized (this) {
+			mLastTickEpochDay = today;
+		}
+		mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+				.putInt(PREF_LAST_TICK_DAY, today).commit();
+	}
+
+	/*
+	 * Sets the alarm for midday on the day of the earliest milestone not
+	 * posted yet, if that is not the day it is already set for
+	 */
+	private void scheduleAlarm(BirthdaysDbAdapter repository) {
+
+		int from;
+		synchronized (this) {
+			from = mLastTickEpochDay + 1;
+		}
+		int next = DueMilestones.nextDueEpochDay(repository, from);
+
+		long triggerAt;
+		synchronized (this) {
+			if (next == mAlarmEpochDay) {
+				return;
+			}
+			mAlarmEpochDay = next;
+			triggerAt = (next == Integer.MAX_VALUE) ? 0 : mAgeCalculator.toMillis(next);
+		}
+
+		AlarmManager alarms = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+		PendingIntent operation = PendingIntent.getBroadcast(mContext, ALARM_REQUEST_CODE,
+				new Intent(mContext, ReminderReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+		if (triggerAt == 0) {
+			alarms.cancel(operation);
+		} else {
+			alarms.set(AlarmManager.RTC_WAKEUP, triggerAt, operation);
+		}
+	}
+
+	/*
+	 * Posts the notification for a single milestone, replacing any earlier
+	 * one for the same birthday, which opens the birthday when touched
+	 */
+	private void notify(Birthday birthday, int milestone) {
+
+		String age;
+		if (milestone == MilestoneQueue.MILESTONE_ONE_WEEK) {
+			age = "1 " + mContext.getString(R.string.week);
+		} else if (milestone < NUM_MONTHS_PER_YEAR) {
+			age = milestone + " "
+					+ mContext.getString(milestone == 1 ? R.string.month : R.string.months);
+		} else {
+			int years = milestone / NUM_MONTHS_PER_YEAR;
+			age = years + " " + mContext.getString(years == 1 ? R.string.year : R.string.years);
+		}
+
+		String title = mContext.getString(R.string.reminder_title);
+		String text = mContext.getString(R.string.reminder_text, birthday.getName(), age);
+
+		Intent edit = new Intent(mContext, BirthdayEdit.class);
+		edit.putExtra(BirthdaysDbAdapter.KEY_ROWID, birthday.getId());
+		edit.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+		int id = (int) birthday.getId();
+
+		Notification notification = new Notification(R.drawable.ic_launcher, text,
+				System.currentTimeMillis());
+		notification.setLatestEventInfo(mContext, title, text,
+				PendingIntent.getActivity(mContext, id, edit, PendingIntent.FLAG_UPDATE_CURRENT));
+		notification.flags |= Notification.FLAG_AUTO_CANCEL;
+
+		NotificationManager manager =
+			(NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+		manager.notify(id, notification);
+	}
+}
@@ -0,0 +1,387 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.os.Handler;
+import android.widget.Toast;
+
+/**
+ * Saves the birthday being edited without blocking the UI thread. The
+ * values to save are compared against a snapshot of what was loaded or last
+ * written, so saving unchanged values does not touch the database, and a new
+ * birthday is not created until it has a name.
+ *
+ * Calls to save() within a short delay of each other are merged into a
+ * single write of the newest values, and flush() writes them straight away.
+ * The writes themselves run one at a time on a background thread of their
+ * own, so each write sees the row id created by the one before it. The
+ * stored birthday is read by load() on the same thread, and saves are
+ * ignored until it has been read, so the blank form shown in the meantime is
+ * never written over it.
+ *
+ * Values that have the same name and birth date as another stored birthday
+ * are not written, unless allowDuplicate() was called for them, so a
+ * duplicate the user was warned about is not saved anyway when the screen is
+ * left. The user is told with a toast the first time values are left
+ * unsaved for that reason, as the screen may already be gone.
+ *
+ * The saver is used from the UI thread, and can outlive the activity that
+ * created it across a configuration change.
+ *
+ * @author Jim
+ *
+ */
+public class BirthdaySaver {
+
+	/**
+	 * Receives the stored birthday read by load(), on the UI thread
+	 */
+	public interface LoadCallback {
+
+		/**
+		 * @param birthday the stored birthday, or null if it no longer exists
+		 */
+		void onLoaded(Birthday birthday);
+	}
+
+	/**
+	 * Receives the result of checkDuplicate(), on the UI thread
+	 */
+	public interface DuplicateCallback {
+
+		/**
+		 * @param duplicateRowId the row id of another birthday with the same
+		 *        name and birth date, or 0 if there is none
+		 */
+		void onDuplicateChecked(long duplicateRowId);
+	}
+
+	// how long save() waits for another save before writing
+	private static final long SAVE_DELAY_MILLIS = 500;
+
+	// how many saves were asked for, how many of those had nothing to write,
+	// and how long the writes that were made took
+	private static final Metrics.Counter SAVE_REQUESTS = Metrics.counter("edit.saveRequested");
+	private static final Metrics.Counter SAVES_SKIPPED = Metrics.counter("edit.saveUnchanged");
+	private static final Metrics.Timer WRITE_TIMER = Metrics.timer("edit.write");
+
+	private final Context mContext;
+	private final BirthdayRepository mRepository;
+	private final Handler mHandler = new Handler();
+	private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+
+	// the row being edited, or 0 until a new birthday has been created
+	private volatile long mRowId;
+
+	// the values last loaded or written, and the newest values to be written,
+	// all guarded by this
+	private String mSavedName;
+	private int mSavedEpochDay;
+	private String mPendingName;
+	private int mPendingEpochDay;
+	private boolean mDirty;
+	private boolean mWriteQueued;
+	private boolean mLoading;
+
+	// values the user chose to save although they duplicate another
+	// birthday, guarded by this
+	private String mAllowedName;
+	private int mAllowedEpochDay;
+
+	// the last values left unsaved as a duplicate, which the user has been
+	// told about, only used on the background thread
+	private String mSkippedName;
+	private int mSkippedEpochDay;
+
+	// told when load() is done, replaced by the activity that retains the
+	// saver, only used on the UI thread
+	private LoadCallback mLoadCallback;
+
+	private final Runnable mFlushRunnable = new Runnable() {
+
+		public void run() {
+			flush();
+		}
+	};
+
+	private final Runnable mWriteRunnable = new Runnable() {
+
+		public void run() {
+			write();
+		}
+	};
+
+	private final Runnable mSkippedRunnable = new Runnable() {
+
+		public void run() {
+			Toast.makeText(mContext, R.string.duplicate_not_saved, Toast.LENGTH_LONG).show();
+		}
+	};
+
+	/**
+	 * Opens a reference to the database of its own, which is held until
+	 * close(), so it is not tied to the activity that created the saver
+	 *
+	 * @param context the context to open the database with
+	 */
+	public BirthdaySaver(Context context) {
+		mContext = context.getApplicationContext();
+		mRepository = new BirthdaysDbAdapter(context).open();
+	}
+
+	/**
+	 * Sets the values the birthday has in the database, which later saves are
+	 * compared against
+	 *
+	 * @param rowId the id of the row being edited, or 0 for a new birthday
+	 * @param name the stored name
+	 * @param birthEpochDay the stored birth date as a local epoch day
+	 */
+	public synchronized void setSnapshot(long rowId, String name, int birthEpochDay) {
+		mRowId = rowId;
+		mSavedName = name;
+		mSavedEpochDay = birthEpochDay;
+		mDirty = false;
+	}
+
+	/**
+	 * Reads the stored birthday on the background thread and sets it as the
+	 * snapshot, ignoring saves until the callback has been told
+	 *
+	 * @param rowId the id of the row to edit
+	 * @param blankEpochDay the birth date of the blank form, used as the
+	 *        snapshot if the birthday no longer exists
+	 * @param callback told the stored birthday on the UI thread
+	 */
+	public void load(final long rowId, final int blankEpochDay, LoadCallback callback) {
+		synchronized (this) {
+			mRowId = rowId;
+			mLoading = true;
+			mDirty = false;
+		}
+		mLoadCallback = callback;
+		mWriter.execute(new Runnable() {
+
+			public void run() {
+				final Birthday birthday = mRepository.fetchBirthday(rowId);
+				if (birthday == null) {
+					setSnapshot(0, "", blankEpochDay);
+				} else {
+					setSnapshot(rowId, birthday.getName(), birthday.getBirthEpochDay());
+				}
+				mHandler.post(new Runnable() {
+
+					public void run() {
+						synchronized (BirthdaySaver.this) {
+							mLoading = false;
+						}
+						mLoadCallback.onLoaded(birthday);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * @return true until the callback of load() has been told the stored
+	 *         birthday
+	 */
+	public synchronized boolean isLoading() {
+		return mLoading;
+	}
+
+	/**
+	 * Replaces the callback of a load() still running, for an activity that
+	 * retained the saver from the one that started it
+	 *
+	 * @param callback told the stored birthday on the UI thread
+	 */
+	public void setLoadCallback(LoadCallback callback) {
+		mLoadCallback = callback;
+	}
+
+	/**
+	 * Lets the values be written although they duplicate another stored
+	 * birthday, once the user has chosen to save them anyway
+	 *
+	 * @param name the name to allow
+	 * @param birthEpochDay the birth date to allow as a local epoch day
+	 */
+	public synchronized void allowDuplicate(String name, int birthEpochDay) {
+		mAllowedName = name;
+		mAllowedEpochDay = birthEpochDay;
+	}
+
+	/**
+	 * @return the id of the row being edited, or 0 if a new birthday has not
+	 *         been written yet
+	 */
+	public long getRowId() {
+		return mRowId;
+	}
+
+	/**
+	 * Saves the values after a short delay, replacing the values of any save
+	 * still waiting
+	 *
+	 * @param name the name to save
+	 * @param birthEpochDay the birth date to save as a local epoch day
+	 */
+	public void save(String name, int birthEpochDay) {
+		if (setPending(name, birthEpochDay)) {
+			mHandler.removeCallbacks(mFlushRunnable);
+			mHandler.postDelayed(mFlushRunnable, SAVE_DELAY_MILLIS);
+		}
+	}
+
+	/**
+	 * Saves the values now, along with any save still waiting
+	 *
+	 * @param name the name to save
+	 * @param birthEpochDay the birth date to save as a local epoch day
+	 */
+	public void flush(String name, int birthEpochDay) {
+		setPending(name, birthEpochDay);
+		flush();
+	}
+
+	/**
+	 * Queues the write of any save still waiting
+	 */
+	public void flush() {
+		mHandler.removeCallbacks(mFlushRunnable);
+		synchronized (this) {
+			if (!mDirty || mWriteQueued) {
+				return;
+			}
+			mWriteQueued = true;
+		}
+		mWriter.execute(mWriteRunnable);
+	}
+
+	/**
+	 * Looks for another stored birthday with the same name and birth date as
+	 * the values, on the background thread after any write already queued,
+	 * so the birthday being edited is never its own duplicate. The first
+	 * check reads every row into the duplicate index of the database.
+	 *
+	 * @param name the name to check
+	 * @param birthEpochDay the birth date to check as a local epoch day
+	 * @param callback told the result on the UI thread
+	 */
+	public void checkDuplicate(final String name, final int birthEpochDay,
+			final DuplicateCallback callback) {
+		mWriter.execute(new Runnable() {
+
+			public void run() {
+				final long duplicateRowId = mRepository.findDuplicate(name, birthEpochDay, mRowId);
+				mHandler.post(new Runnable() {
+
+					public void run() {
+						callback.onDuplicateChecked(duplicateRowId);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Writes any save still waiting and stops the background thread once it
+	 * is done, closing the database after the last write. The saver cannot
+	 * be used afterwards.
+	 */
+	public void close() {
+		flush();
+		mWriter.execute(new Runnable() {
+
+			public void run() {
+				mRepository.close();
+			}
+		});
+		mWriter.shutdown();
+	}
+
+	/*
+	 * Records the values to write, returning false if they are the same as
+	 * the ones in the database, would create a birthday without a name, or
+	 * the stored birthday is still being read
+	 */
+	private synchronized boolean setPending(String name, int birthEpochDay) {
+		if (mLoading) {
+			return false;
+		}
+		boolean changed = !name.equals(mSavedName) || birthEpochDay != mSavedEpochDay;
+		mDirty = changed && (mRowId != 0 || name.trim().length() > 0);
+
+		mPendingName = name;
+		mPendingEpochDay = birthEpochDay;
+		if (Metrics.isEnabled()) {
+			SAVE_REQUESTS.increment();
+			if (!mDirty) {
+				SAVES_SKIPPED.increment();
+			}
+		}
+		return mDirty;
+	}
+
+	/*
+	 * Writes the newest values on the background thread, any saves made
+	 * while it was queued are picked up by the same write
+	 */
+	private void write() {
+		String name;
+		int birthEpochDay;
+		boolean allowed;
+		synchronized (this) {
+			mWriteQueued = false;
+			if (!mDirty) {
+				return;
+			}
+			name = mPendingName;
+			birthEpochDay = mPendingEpochDay;
+			mDirty = false;
+			allowed = name.equals(mAllowedName) && birthEpochDay == mAllowedEpochDay;
+		}
+
+		long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+		boolean written;
+		if (!allowed && mRepository.findDuplicate(name, birthEpochDay, mRowId) != 0) {
+			// left unsaved, as the user has not chosen to save a duplicate
+			written = false;
+			if (!name.equals(mSkippedName) || birthEpochDay != mSkippedEpochDay) {
+				mSkippedName = name;
+				mSkippedEpochDay = birthEpochDay;
+				mHandler.post(mSkippedRunnable);
+			}
+		} else if (mRowId == 0) {
+			long rowId = mRepository.createBirthday(name, birthEpochDay);
+			written = rowId > 0;
+			if (written) {
+				mRowId = rowId;
+			}
+		} else {
+			written = mRepository.updateBirthday(mRowId, name, birthEpochDay);
+		}
+		if (Metrics.isEnabled()) {
+			WRITE_TIMER.recordSince(start);
+		}
+
+		synchronized (this) {
+			if (written) {
+				mSavedName = name;
+				mSavedEpochDay = birthEpochDay;
+			}
+			// values saved during the write were compared against the old
+			// snapshot, so compare them again ready for the next flush
+			if (!mDirty && (!name.equals(mPendingName) || birthEpochDay != mPendingEpochDay)) {
+				setPending(mPendingName, mPendingEpochDay);
+			}
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.database.Cursor;
+
+/**
+ * Imports and exports the whole birthdays table through a BirthdayCodec
+ * file. Both directions stream one row at a time, so memory use does not
+ * grow with the size of the file or the table. Imported rows are written in
+ * fixed size batches, each applied in a single transaction.
+ *
+ * An import can skip or merge the rows that duplicate a stored birthday, or
+ * an earlier row of the file. They are found by the in-memory duplicate index
+ * of BirthdaysDbAdapter as each batch is applied, so checking a row costs no
+ * query of its own.
+ *
+ * The work is done on the calling thread, which should not be the UI thread
+ * for anything but the smallest files.
+ *
+ * @author Jim
+ *
+ */
+public class BirthdayTransfer {
+
+	/**
+	 * The file extension of the binary format, any other file is read and
+	 * written as CSV
+	 */
+	public static final String BINARY_EXTENSION = ".bbd";
+
+	/**
+	 * Import every row of the file, duplicates included
+	 */
+	public static final int DUPLICATES_KEEP = 0;
+
+	/**
+	 * Leave out the rows that duplicate a stored birthday
+	 */
+	public static final int DUPLICATES_SKIP = 1;
+
+	/**
+	 * Update the stored birthday to the name of the row that duplicates it,
+	 * such as a different case or spacing
+	 */
+	public static final int DUPLICATES_MERGE = 2;
+
+	private static final int BATCH_SIZE = 500;
+
+	private final BirthdaysDbAdapter mDbHelper;
+
+	// the duplicates found by the last import
+	private int mDuplicateCount;
+
+	/**
+	 * @param dbHelper an open database to import into or export from
+	 */
+	public BirthdayTransfer(BirthdaysDbAdapter dbHelper) {
+		mDbHelper = dbHelper;
+	}
+
+	/**
+	 * @param file the file to read or write
+	 * @return the BirthdayCodec format used for the file, based on its name
+	 */
+	public static int formatOf(File file) {
+		return file.getName().endsWith(BINARY_EXTENSION) ? BirthdayCodec.FORMAT_BINARY
+				: BirthdayCodec.FORMAT_CSV;
+	}
+
+	/**
+	 * Adds the birthdays in the file to the database. Rows read before an
+	 * error in the file are kept.
+	 *
+	 * @param file the file to import
+	 * @param duplicates one of the DUPLICATES_ constants
+	 * @return the number of birthdays added, or merged
+	 * @throws IOException if the file could not be read or is malformed
+	 */
+	public int importFrom(File file, int duplicates) throws IOException {
+
+		int imported = 0;
+		mDuplicateCount = 0;
+		BirthdaysDbAdapter.Batch batch = new BirthdaysDbAdapter.Batch();
+
+		FileInputStream in = new FileInputStream(file);
+		try {
+			BirthdayCodec.Reader reader = BirthdayCodec.newReader(in.getChannel(), formatOf(file));
+			while (reader.next()) {
+				if (duplicates == DUPLICATES_KEEP) {
+					batch.create(reader.getName(), reader.getBirthEpochDay());
+				} else {
+					batch.createUnique(reader.getName(), reader.getBirthEpochDay(),
+							duplicates == DUPLICATES_MERGE);
+				}
+				if (batch.size() == BATCH_SIZE) {
+					imported += applyBatch(batch);
+					batch.clear();
+				}
+			}
+			imported += applyBatch(batch);
+		} catch (IOException e) {
+			// keep the rows read before the error, not just the full batches
+			imported += applyBatch(batch);
+			throw e;
+		} finally {
+			in.close();
+			if (imported > 0) {
+				BirthdaysDbAdapter.notifyBulkChanged();
+			}
+		}
+
+		return imported;
+	}
+
+	/**
+	 * @return the number of rows the last import found to be duplicates,
+	 *         which were skipped or merged
+	 */
+	public int getDuplicateCount() {
+		return mDuplicateCount;
+	}
+
+	/*
+	 * Applies a batch of imported rows, counting the duplicates found
+	 */
+	private int applyBatch(BirthdaysDbAdapter.Batch batch) {
+		int applied = mDbHelper.applyBatch(batch, false);
+		for (int i = 0; i < batch.size(); i++) {
+			if (batch.isDuplicate(i)) {
+				mDuplicateCount++;
+			}
+		}
+		return applied;
+	}
+
+	/**
+	 * Writes every birthday in the database to the file, replacing it. The
+	 * rows are written to a temporary file first, so a failed export leaves
+	 * any previous file in place.
+	 *
+	 * @param file the file to write
+	 * @return the number of birthdays written
+	 * @throws IOException if the file could not be written
+	 */
+	public int exportTo(File file) throws IOException {
+
+		int exported = 0;
+		File temp = new File(file.getPath() + ".tmp");
+
+		Cursor c = mDbHelper.fetchAllBirthdays();
+		try {
+			int nameCol = c.getColumnIndexOrThrow(BirthdaysDbAdapter.KEY_NAME);
+			int birthDayCol = c.getColumnIndexOrThrow(BirthdaysDbAdapter.KEY_BIRTH_DAY);
+
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				BirthdayCodec.Writer writer = BirthdayCodec.newWriter(out.getChannel(), formatOf(file));
+				while (c.moveToNext()) {
+					writer.write(c.getString(nameCol), c.getInt(birthDayCol));
+					exported++;
+				}
+				writer.flush();
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+		} finally {
+			c.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Could not replace " + file);
+		}
+
+		return exported;
+	}
+}
@@ -4,12 +4,23 @@
 
 package com.twotao.babybirthdays;
 
-import android.content.ContentValues;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MergeCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.util.Log;
 
 /**
@@ -20,28 +31,328 @@ import android.util.Log;
  * @author Jim
  *
  */
-public class BirthdaysDbAdapter {
+public class BirthdaysDbAdapter implements BirthdayRepository, DueMilestones.Source {
     
 	public static final String KEY_NAME 		= "name";
-    public static final String KEY_BIRTHDATE 	= "birthdate";
+    public static final String KEY_BIRTH_DAY 	= "birth_day";
     public static final String KEY_ROWID 		= "_id";
+    public static final String KEY_MONTH_DAY 	= "month_day";
 
     private static final String TAG = "BirthdaysDbAdapter";
-    private DatabaseHelper mDbHelper;
     private SQLiteDatabase mDb;
 
+    private static final String DATABASE_NAME = "baby_data";
+    private static final String DATABASE_TABLE = BirthdaySchema.TABLE;
+    private static final int DATABASE_VERSION = BirthdaySchema.VERSION;
+
+    private static final String[] ALL_COLUMNS = {KEY_ROWID, KEY_NAME, KEY_BIRTH_DAY};
+
+    private static final String CHANGES_SQL = "select changes()";
+
     /**
-     * Database creation sql statement
+     * The one database connection of the process, shared by every adapter
+     * instance and opened by the first of them. Each open() takes a
+     * reference and each close() gives one back, the connection is closed
+     * along with the compiled statements when the last one is given back.
+     * Guarded by sOpenLock.
      */
-    private static final String DATABASE_CREATE =
-        "create table birthdays (_id integer primary key autoincrement, "
-        + "name text not null, birthdate integer not null);";
+    private static final Object sOpenLock = new Object();
+    private static DatabaseHelper sDbHelper;
+    private static SQLiteDatabase sDb;
+    private static int sOpenCount;
 
-    private static final String DATABASE_NAME = "baby_data";
-    private static final String DATABASE_TABLE = "birthdays";
-    private static final int DATABASE_VERSION = 2;
+    // the compiled statements are shared with the connection, and bound and
+    // run only while holding sWriteLock, so writes through different
+    // adapter instances never read each other's changes()
+    private static final Object sWriteLock = new Object();
+    private static SQLiteStatement sInsertStatement;
+    private static SQLiteStatement sUpdateStatement;
+    private static SQLiteStatement sDeleteStatement;
+    private static SQLiteStatement sChangesStatement;
+    private static SQLiteStatement sBirthDayStatement;
+
+    // returned by readBirthDay() for a row that does not exist
+    private static final long NO_ROW = Long.MIN_VALUE;
 
     private final Context mCtx;
+    private boolean mOpen;
+
+    // SQLiteDatabase.enableWriteAheadLogging() arrived in Honeycomb
+    private static final int WAL_MIN_SDK = 11;
+
+    // works out today for the upcoming birthdays, in the local time zone
+    private final AgeCalculator mAgeCalculator = new AgeCalculator();
+
+    /**
+     * Callback for code that keeps its own copy of the birthdays, such as the
+     * list, and needs to hear exactly which rows were changed from any screen
+     * so it can apply just those changes. The callbacks are made after the
+     * change succeeded and in the order the changes were made, without any
+     * lock held, on the thread of that change or of one made just after it.
+     */
+    public interface OnBirthdaysChangedListener {
+
+        /**
+         * @param rowId id of the new birthday
+         * @param name the name of the new birthday
+         * @param birthEpochDay the birth date of the new birthday, as a
+         *        local epoch day
+         */
+        void onBirthdayInserted(long rowId, String name, int birthEpochDay);
+
+        /**
+         * @param rowId id of the updated birthday
+         * @param oldBirthEpochDay the birth date before the update, so counts
+         *        kept by birth date can move the row without a copy of it
+         * @param name the new name
+         * @param birthEpochDay the new birth date, as a local epoch day
+         */
+        void onBirthdayUpdated(long rowId, int oldBirthEpochDay, String name, int birthEpochDay);
+
+        /**
+         * @param rowId id of the deleted birthday
+         * @param oldBirthEpochDay the birth date the birthday had
+         */
+        void onBirthdayDeleted(long rowId, int oldBirthEpochDay);
+
+        /**
+         * Called after a bulk change, such as an import, that was too large
+         * to report row by row. Anything holding a copy of the birthdays
+         * should load it again.
+         */
+        void onBirthdaysBulkChanged();
+    }
+
+    // shared by every adapter instance, as each screen opens its own. The
+    // listeners are added and removed on the UI thread while the writes that
+    // report to them run on background threads, so each report goes through a
+    // snapshot of the list.
+    private static final List<OnBirthdaysChangedListener> sChangedListeners =
+        new CopyOnWriteArrayList<OnBirthdaysChangedListener>();
+
+    /*
+     * A change waiting to be told to the listeners
+     */
+    private static final class Change {
+
+        static final int INSERTED = 0;
+        static final int UPDATED = 1;
+        static final int DELETED = 2;
+        static final int BULK_CHANGED = 3;
+
+        final int mType;
+        final long mRowId;
+        final int mOldBirthEpochDay;
+        final String mName;
+        final int mBirthEpochDay;
+
+        Change(int type, long rowId, int oldBirthEpochDay, String name, int birthEpochDay) {
+            mType = type;
+            mRowId = rowId;
+            mOldBirthEpochDay = oldBirthEpochDay;
+            mName = name;
+            mBirthEpochDay = birthEpochDay;
+        }
+    }
+
+    // the writes queue their changes while holding sWriteLock, so the queue
+    // is in the order of the writes, and deliverChanges() tells them to the
+    // listeners once the lock is released, so a slow listener or one that
+    // calls back in never holds up or deadlocks a write. A single thread
+    // delivers at a time so the listeners hear the changes in order. Guarded
+    // by sChangesLock.
+    private static final Object sChangesLock = new Object();
+    private static List<Change> sPendingChanges = new ArrayList<Change>();
+    private static boolean sDeliveringChanges;
+
+    /**
+     * The most recently fetched single birthdays, by row id, so opening the
+     * same birthday again does not go back to the database. The cache is
+     * shared by every adapter instance, as a write through any of them must
+     * invalidate the rows it changed. All of the cache fields are guarded by
+     * sRecordCache.
+     */
+    private static final int RECORD_CACHE_SIZE = 64;
+
+    private static final Map<Long, Birthday> sRecordCache =
+        new LinkedHashMap<Long, Birthday>(RECORD_CACHE_SIZE, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Birthday> eldest) {
+                return size() > RECORD_CACHE_SIZE;
+            }
+        };
+
+    // bumped by every invalidation, a row read before a write finished is
+    // not cached if the write invalidated in the meantime
+    private static int sRecordCacheGeneration;
+    private static int sRecordCacheHits;
+    private static int sRecordCacheMisses;
+
+    /**
+     * The names and birth dates of every row, for findDuplicate() and the
+     * unique creates of a batch. It is read from the table on first use and
+     * then kept up to date by every write, so checking a name never goes back
+     * to the database. It is guarded by sWriteLock and dropped when the
+     * shared connection closes.
+     */
+    private static DuplicateIndex sDuplicateIndex;
+
+    // how long the reads and writes take, see Metrics
+    private static final Metrics.Timer CREATE_TIMER = Metrics.timer("db.create");
+    private static final Metrics.Timer UPDATE_TIMER = Metrics.timer("db.update");
+    private static final Metrics.Timer DELETE_TIMER = Metrics.timer("db.delete");
+    private static final Metrics.Timer BATCH_TIMER = Metrics.timer("db.applyBatch");
+    private static final Metrics.Timer FETCH_TIMER = Metrics.timer("db.fetchBirthday");
+    private static final Metrics.Timer QUERY_TIMER = Metrics.timer("db.queryList");
+    private static final Metrics.Counter FETCH_CACHE_HITS = Metrics.counter("db.fetchBirthday.cacheHit");
+    private static final Metrics.Timer DUPLICATE_INDEX_TIMER = Metrics.timer("db.loadDuplicateIndex");
+
+    /**
+     * A list of creates, updates and deletes to be applied together in one
+     * transaction by applyBatch(). The batch can be cleared and refilled, so
+     * a long stream of writes can be applied in fixed size chunks.
+     */
+    public static class Batch {
+
+        static final int OP_CREATE = 0;
+        static final int OP_UPDATE = 1;
+        static final int OP_DELETE = 2;
+        static final int OP_CREATE_UNIQUE = 3;
+        static final int OP_CREATE_OR_MERGE = 4;
+
+        private static final int INITIAL_CAPACITY = 16;
+
+        int[] mOps = new int[INITIAL_CAPACITY];
+        long[] mRowIds = new long[INITIAL_CAPACITY];
+        String[] mNames = new String[INITIAL_CAPACITY];
+        int[] mBirthEpochDays = new int[INITIAL_CAPACITY];
+        int[] mOldBirthEpochDays = new int[INITIAL_CAPACITY];
+        boolean[] mSucceeded = new boolean[INITIAL_CAPACITY];
+        boolean[] mDuplicate = new boolean[INITIAL_CAPACITY];
+        int mSize;
+
+        /**
+         * Add the creation of a new birthday, its row id can be read with
+         * getRowId() once the batch is applied
+         * 
+         * @return the index of the operation in the batch
+         */
+        public int create(String name, int birthEpochDay) {
+            return add(OP_CREATE, 0, name, birthEpochDay);
+        }
+
+        /**
+         * Add the creation of a new birthday unless it duplicates one that is
+         * stored or created earlier in the batch, compared as findDuplicate()
+         * compares them. A duplicate is not created, and isDuplicate() is true
+         * for it once the batch is applied.
+         * 
+         * @param merge true to update the existing birthday to the name of the
+         *        duplicate instead of skipping it
+         * @return the index of the operation in the batch
+         */
+        public int createUnique(String name, int birthEpochDay, boolean merge) {
+            return add(merge ? OP_CREATE_OR_MERGE : OP_CREATE_UNIQUE, 0, name, birthEpochDay);
+        }
+
+        /**
+         * Add an update of an existing birthday
+         * 
+         * @return the index of the operation in the batch
+         */
+        public int update(long rowId, String name, int birthEpochDay) {
+            return add(OP_UPDATE, rowId, name, birthEpochDay);
+        }
+
+        /**
+         * Add the deletion of a birthday
+         * 
+         * @return the index of the operation in the batch
+         */
+        public int delete(long rowId) {
+            return add(OP_DELETE, rowId, null, 0);
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * @param index index of the operation
+         * @return the row id of the operation, for a create the id of the new
+         *         row once the batch is applied
+         */
+        public long getRowId(int index) {
+            return mRowIds[index];
+        }
+
+        /**
+         * @param index index of the operation
+         * @return true if the operation succeeded when the batch was applied
+         */
+        public boolean succeeded(int index) {
+            return mSucceeded[index];
+        }
+
+        /**
+         * @param index index of the operation
+         * @return true if a unique create was found to be a duplicate when
+         *         the batch was applied, getRowId() is then the existing row,
+         *         and succeeded() is true if the row was merged
+         */
+        public boolean isDuplicate(int index) {
+            return mDuplicate[index];
+        }
+
+        /**
+         * Empty the batch, keeping its storage for the next operations
+         */
+        public void clear() {
+            for (int i = 0; i < mSize; i++) {
+                mNames[i] = null;
+            }
+            mSize = 0;
+        }
+
+        private int add(int op, long rowId, String name, int birthEpochDay) {
+            if (mSize == mOps.length) {
+                grow();
+            }
+            mOps[mSize] = op;
+            mRowIds[mSize] = rowId;
+            mNames[mSize] = name;
+            mBirthEpochDays[mSize] = birthEpochDay;
+            mSucceeded[mSize] = false;
+            mDuplicate[mSize] = false;
+            return mSize++;
+        }
+
+        private void grow() {
+            int capacity = mOps.length * 2;
+            int[] ops = new int[capacity];
+            long[] rowIds = new long[capacity];
+            String[] names = new String[capacity];
+            int[] birthEpochDays = new int[capacity];
+            int[] oldBirthEpochDays = new int[capacity];
+            boolean[] succeeded = new boolean[capacity];
+            boolean[] duplicate = new boolean[capacity];
+            System.arraycopy(mOps, 0, ops, 0, mSize);
+            System.arraycopy(mRowIds, 0, rowIds, 0, mSize);
+            System.arraycopy(mNames, 0, names, 0, mSize);
+            System.arraycopy(mBirthEpochDays, 0, birthEpochDays, 0, mSize);
+            System.arraycopy(mOldBirthEpochDays, 0, oldBirthEpochDays, 0, mSize);
+            System.arraycopy(mSucceeded, 0, succeeded, 0, mSize);
+            System.arraycopy(mDuplicate, 0, duplicate, 0, mSize);
+            mOps = ops;
+            mRowIds = rowIds;
+            mNames = names;
+            mBirthEpochDays = birthEpochDays;
+            mOldBirthEpochDays = oldBirthEpochDays;
+            mSucceeded = succeeded;
+            mDuplicate = duplicate;
+        }
+    }
 
     private static class DatabaseHelper extends SQLiteOpenHelper {
 
@@ -52,18 +363,107 @@ public class BirthdaysDbAdapter {
         @Override
         public void onCreate(SQLiteDatabase db) {
 
-            db.execSQL(DATABASE_CREATE);
+            for (String sql : BirthdaySchema.createStatements()) {
+                db.execSQL(sql);
+            }
         }
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         	
-        	// TODO:  Check to see if there is a way to save the data if the DB 
-        	//			needs to be upgraded (ALTER_TABLE?)
-            Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
-                    + newVersion + ", which will destroy all old data");
-            db.execSQL("DROP TABLE IF EXISTS birthdays");
-            onCreate(db);
+            // there are no steps from before version 2, which had a different
+            // table, so the data of those can not be kept
+            if (!BirthdayMigrations.MIGRATOR.canMigrate(oldVersion, newVersion)) {
+                Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
+                        + newVersion + ", which will destroy all old data");
+                db.execSQL("DROP TABLE IF EXISTS birthdays");
+                onCreate(db);
+                return;
+            }
+
+            Log.i(TAG, "Upgrading database from version " + oldVersion + " to "
+                    + newVersion);
+            long elapsed = BirthdayMigrations.MIGRATOR.migrate(new MigrationDatabase(db),
+                    oldVersion, newVersion, new SchemaMigrator.Listener() {
+
+                public void onMigrated(int toVersion, long elapsedMillis) {
+                    Log.i(TAG, "Migrated schema to version " + toVersion + " in "
+                            + elapsedMillis + "ms");
+                }
+            });
+            Log.i(TAG, "Migrated schema from version " + oldVersion + " to " + newVersion
+                    + " in " + elapsed + "ms");
+        }
+    }
+
+    /*
+     * The database being upgraded, as the migration steps see it
+     */
+    private static class MigrationDatabase implements SchemaMigrator.Database {
+
+        private final SQLiteDatabase mDb;
+
+        MigrationDatabase(SQLiteDatabase db) {
+            mDb = db;
+        }
+
+        public void execSQL(String sql) {
+            mDb.execSQL(sql);
+        }
+
+        public void execSQL(String sql, Object[] bindArgs) {
+            mDb.execSQL(sql, bindArgs);
+        }
+
+        public long longForQuery(String sql, Object[] bindArgs) {
+            return DatabaseUtils.longForQuery(mDb, sql, toStrings(bindArgs));
+        }
+
+        public SchemaMigrator.LongRows queryLongs(String sql, Object[] bindArgs) {
+            final Cursor c = mDb.rawQuery(sql, toStrings(bindArgs));
+            return new SchemaMigrator.LongRows() {
+
+                public boolean next() {
+                    return c.moveToNext();
+                }
+
+                public long getLong(int column) {
+                    return c.getLong(column);
+                }
+
+                public void close() {
+                    c.close();
+                }
+            };
+        }
+
+        public SchemaMigrator.Statement compileStatement(String sql) {
+            final SQLiteStatement statement = mDb.compileStatement(sql);
+            return new SchemaMigrator.Statement() {
+
+                public void bindLong(int index, long value) {
+                    statement.bindLong(index, value);
+                }
+
+                public void execute() {
+                    statement.execute();
+                }
+
+                public void close() {
+                    statement.close();
+                }
+            };
+        }
+
+        private static String[] toStrings(Object[] bindArgs) {
+            if (bindArgs == null) {
+                return null;
+            }
+            String[] args = new String[bindArgs.length];
+            for (int i = 0; i < bindArgs.length; i++) {
+                args[i] = String.valueOf(bindArgs[i]);
+            }
+            return args;
         }
     }
 
@@ -75,28 +475,120 @@ public class BirthdaysDbAdapter {
      */
     public BirthdaysDbAdapter(Context ctx) {
     	
-        this.mCtx = ctx;
+        // the shared connection can outlive the screen that opened it
+        this.mCtx = ctx.getApplicationContext();
     }
 
     /**
      * Open the birthdays database. If it cannot be opened, try to create a new
      * instance of the database. If it cannot be created, throw an exception to
-     * signal the failure
+     * signal the failure. The connection is shared by every adapter in the
+     * process, so only the first open() pays for opening it.
      * 
      * @return this (self reference, allowing this to be chained in an
      *         initialization call)
      * @throws SQLException if the database could be neither opened or created
      */
     public BirthdaysDbAdapter open() throws SQLException {
-    	
-        mDbHelper = new DatabaseHelper(mCtx);
-        mDb = mDbHelper.getWritableDatabase();
+
+        synchronized (sOpenLock) {
+            if (mOpen) {
+                return this;
+            }
+            if (sOpenCount == 0) {
+                openShared(mCtx);
+            }
+            sOpenCount++;
+            mOpen = true;
+            mDb = sDb;
+        }
         return this;
     }
 
+    /**
+     * Give back the reference to the database taken by open(), the
+     * connection is closed once every adapter has been closed. The adapter
+     * must not be used afterwards unless it is opened again.
+     */
     public void close() {
-    	
-        mDbHelper.close();
+
+        synchronized (sOpenLock) {
+            if (!mOpen) {
+                return;
+            }
+            mOpen = false;
+            mDb = null;
+            if (--sOpenCount == 0) {
+                closeShared();
+            }
+        }
+    }
+
+    /**
+     * @return the number of adapters holding the shared connection open
+     */
+    public static int getOpenCount() {
+        synchronized (sOpenLock) {
+            return sOpenCount;
+        }
+    }
+
+    /*
+     * Opens the shared connection and compiles the write statements once,
+     * they are rebound for every write
+     */
+    private static void openShared(Context ctx) {
+
+        DatabaseHelper dbHelper = new DatabaseHelper(ctx);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        enableWriteAheadLogging(db);
+
+        sInsertStatement = db.compileStatement(BirthdaySchema.INSERT_SQL);
+        sUpdateStatement = db.compileStatement(BirthdaySchema.UPDATE_SQL);
+        sDeleteStatement = db.compileStatement(BirthdaySchema.DELETE_SQL);
+        sChangesStatement = db.compileStatement(CHANGES_SQL);
+        sBirthDayStatement = db.compileStatement(BirthdaySchema.BIRTH_DAY_QUERY);
+        sDbHelper = dbHelper;
+        sDb = db;
+    }
+
+    private static void closeShared() {
+
+        synchronized (sWriteLock) {
+            sInsertStatement.close();
+            sUpdateStatement.close();
+            sDeleteStatement.close();
+            sChangesStatement.close();
+            sBirthDayStatement.close();
+            sInsertStatement = null;
+            sUpdateStatement = null;
+            sDeleteStatement = null;
+            sChangesStatement = null;
+            sBirthDayStatement = null;
+            sDuplicateIndex = null;
+        }
+        sDbHelper.close();
+        sDbHelper = null;
+        sDb = null;
+    }
+
+    /*
+     * Turns on write-ahead logging where the platform supports it, from API
+     * 11, so the list can be read while the edit screen writes. The call is
+     * made by reflection as the app is built against API 10.
+     */
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+
+        if (Build.VERSION.SDK_INT < WAL_MIN_SDK) {
+            return;
+        }
+        try {
+            Method enable = SQLiteDatabase.class.getMethod("enableWriteAheadLogging");
+            Boolean enabled = (Boolean) enable.invoke(db);
+            Log.i(TAG, "Write-ahead logging " + (enabled ? "enabled" : "not available"));
+        } catch (Exception e) {
+            Log.w(TAG, "Could not enable write-ahead logging", e);
+        }
     }
 
     /**
@@ -105,16 +597,27 @@ public class BirthdaysDbAdapter {
      * a -1 to indicate failure.
      * 
      * @param name the name of the person who has the birthday
-     * @param birthdate the birth date of the birthday
+     * @param birthEpochDay the birth date of the birthday, as a local epoch day
      * @return rowId or -1 if failed
      */
-    public long createBirthday(String name, long birthdate) {
-    	
-        ContentValues initialValues = new ContentValues();
-        initialValues.put(KEY_NAME, name);
-        initialValues.put(KEY_BIRTHDATE, birthdate);
+    public long createBirthday(String name, int birthEpochDay) {
 
-        return mDb.insert(DATABASE_TABLE, null, initialValues);
+        long rowId;
+        synchronized (sWriteLock) {
+            long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+            rowId = insertRow(name, birthEpochDay);
+            if (Metrics.isEnabled()) {
+                CREATE_TIMER.recordSince(start);
+            }
+            if (rowId > 0) {
+                invalidateRecord(rowId);
+                indexRow(rowId, name, birthEpochDay);
+                queueChange(new Change(Change.INSERTED, rowId, 0, name, birthEpochDay));
+            }
+        }
+        deliverChanges();
+
+        return rowId;
     }
 
     /**
@@ -125,39 +628,329 @@ public class BirthdaysDbAdapter {
      */
     public boolean deleteBirthday(long rowId) {
 
-        return mDb.delete(DATABASE_TABLE, KEY_ROWID + "=" + rowId, null) > 0;
+        boolean deleted;
+        synchronized (sWriteLock) {
+            long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+            long oldBirthEpochDay = readBirthDay(rowId);
+            deleted = oldBirthEpochDay != NO_ROW && deleteRow(rowId);
+            if (Metrics.isEnabled()) {
+                DELETE_TIMER.recordSince(start);
+            }
+            if (deleted) {
+                invalidateRecord(rowId);
+                if (sDuplicateIndex != null) {
+                    sDuplicateIndex.remove(rowId);
+                }
+                queueChange(new Change(Change.DELETED, rowId, (int) oldBirthEpochDay, null, 0));
+            }
+        }
+        deliverChanges();
+
+        return deleted;
     }
 
     /**
-     * Return a Cursor over the list of all birthdays in the database
+     * Return a Cursor over the list of all birthdays in the database, in the
+     * order they were created
      * 
      * @return Cursor over all birthdays
      */
     public Cursor fetchAllBirthdays() {
 
-        return mDb.query(DATABASE_TABLE, new String[] {KEY_ROWID, KEY_NAME,
-                KEY_BIRTHDATE}, null, null, null, null, null);
+        return mDb.query(DATABASE_TABLE, ALL_COLUMNS, null, null, null, null, KEY_ROWID);
+    }
+
+    /**
+     * Return the birthdays in the order they were created, as the rows of a
+     * BirthdayRepository
+     * 
+     * @return all birthdays
+     */
+    public Rows fetchAll() {
+
+        return timedRows(fetchAllBirthdays());
+    }
+
+    /**
+     * Return a page of birthdays by keyset on the sort key and row id, so a
+     * page deep into a large list costs the same as the first one and no
+     * cursor ever holds more than a page of rows. Each sort reads the row id
+     * b-tree or an index in order; a search narrows that to the matches of
+     * the full text index.
+     * 
+     * @param sortMode the BirthdaySections SORT_ constant to order them by
+     * @param filter the text typed to search for, or null for all birthdays
+     * @param afterSortKey the sort key of the row the page starts after
+     * @param afterRowId the row id of the row the page starts after
+     * @param limit the most birthdays to return
+     * @return the birthdays after the given row in the order of the sort
+     */
+    public Rows fetchPage(int sortMode, String filter, long afterSortKey, long afterRowId,
+            int limit) {
+
+        String match = (filter == null) ? null : NameSearch.toPrefixMatch(filter);
+        String[] args = (match == null) ? new String[3] : new String[] {null, null, null, match};
+        args[0] = Long.toString(afterSortKey);
+        args[1] = Long.toString(afterRowId);
+        args[2] = Integer.toString(limit);
+        return timedRows(mDb.rawQuery(BirthdaySchema.pageQuery(sortMode, match != null), args));
+    }
+
+    /**
+     * Return the sort key and row id of every birthday in the order of a
+     * sort, which only reads the row id b-tree or an index, so the pages of a
+     * long list can be found without walking the rows before each of them
+     * 
+     * @param sortMode the BirthdaySections SORT_ constant to order them by
+     * @param filter the text typed to search for, or null for all birthdays
+     * @return the keys of the birthdays, in the order of the sort
+     */
+    public Keys fetchKeys(int sortMode, String filter) {
+
+        String match = (filter == null) ? null : NameSearch.toPrefixMatch(filter);
+        return new CursorKeys(mDb.rawQuery(BirthdaySchema.keysQuery(sortMode, match != null),
+                (match == null) ? null : new String[] {match}));
+    }
+
+    /**
+     * @return the number of birthdays
+     */
+    public int countBirthdays() {
+
+        return (int) DatabaseUtils.queryNumEntries(mDb, DATABASE_TABLE);
+    }
+
+    /**
+     * Return the birthdays with a name matching the search text, in the
+     * order they were created. Every word of the text must match the start of
+     * a word of the name, ignoring the case of ASCII letters, so "jo sm"
+     * matches "John Smith". The lookup goes through the full text index of
+     * the names.
+     * 
+     * @param text the text typed to search for
+     * @return the matching birthdays, or all birthdays if the text has no
+     *         words
+     */
+    public Rows search(String text) {
+
+        String match = NameSearch.toPrefixMatch(text);
+        if (match == null) {
+            return fetchAll();
+        }
+
+        return timedRows(mDb.rawQuery(BirthdaySchema.SEARCH_QUERY, new String[] {match}));
+    }
+
+    /**
+     * Return the birthdays born in a range of days, from the birth day index
+     * 
+     * @param fromEpochDay the first birth day
+     * @param toEpochDay the last birth day, inclusive
+     * @return the birthdays born in the range
+     */
+    public Rows fetchBornBetween(int fromEpochDay, int toEpochDay) {
+
+        return new CursorRows(mDb.rawQuery(BirthdaySchema.BORN_BETWEEN_QUERY,
+                new String[] {Integer.toString(fromEpochDay), Integer.toString(toEpochDay)}));
+    }
+
+    /**
+     * Return the birthdays in a range of the calendar, from the month_day
+     * index
+     * 
+     * @param fromMonthDay the first month_day, as month * 100 + day
+     * @param toMonthDay the last month_day, inclusive
+     * @return the birthdays whose month_day is in the range
+     */
+    public Rows fetchMonthDaysBetween(int fromMonthDay, int toMonthDay) {
+
+        return new CursorRows(mDb.rawQuery(BirthdaySchema.MONTH_DAYS_BETWEEN_QUERY,
+                new String[] {Integer.toString(fromMonthDay), Integer.toString(toMonthDay)}));
+    }
+
+    /**
+     * @param afterEpochDay the day to look after
+     * @return the lowest birth day after the given day, or Integer.MAX_VALUE
+     *         if there is none
+     */
+    public int nextBirthEpochDay(int afterEpochDay) {
+
+        return queryDay(BirthdaySchema.NEXT_BIRTH_DAY_QUERY,
+                new String[] {Integer.toString(afterEpochDay)});
+    }
+
+    /**
+     * @param afterMonthDay the month_day to look after
+     * @param bornByEpochDay the last birth day of the birthdays looked at
+     * @return the lowest month_day after the given one of a birthday born by
+     *         the given day, or Integer.MAX_VALUE if there is none
+     */
+    public int nextMonthDay(int afterMonthDay, int bornByEpochDay) {
+
+        return queryDay(BirthdaySchema.NEXT_MONTH_DAY_QUERY,
+                new String[] {Integer.toString(afterMonthDay), Integer.toString(bornByEpochDay)});
+    }
+
+    /*
+     * Runs a query for a single day, which may not find one
+     */
+    private int queryDay(String sql, String[] selectionArgs) {
+
+        Cursor c = mDb.rawQuery(sql, selectionArgs);
+        try {
+            return c.moveToFirst() ? c.getInt(0) : Integer.MAX_VALUE;
+        } finally {
+            c.close();
+        }
+    }
+
+    /*
+     * Wraps the cursor of a list query as rows. The query only runs when the
+     * cursor is first counted or moved, so it is counted here to include the
+     * query in the timing, which the list load needs anyway.
+     */
+    private static Rows timedRows(Cursor c) {
+
+        long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+        c.getCount();
+        if (Metrics.isEnabled()) {
+            QUERY_TIMER.recordSince(start);
+        }
+        return new CursorRows(c);
+    }
+
+    /**
+     * Return a Cursor over all birthdays sorted by name, ignoring case. The
+     * rows are read in order from the name index.
+     * 
+     * @return Cursor over all birthdays
+     */
+    public Cursor fetchBirthdaysByName() {
+
+        return mDb.rawQuery(BirthdaySchema.BY_NAME_QUERY, null);
+    }
+
+    /**
+     * Return a Cursor over all birthdays sorted by age, youngest first. The
+     * rows are read in order from the birth day index.
+     * 
+     * @return Cursor over all birthdays
+     */
+    public Cursor fetchBirthdaysByAge() {
+
+        return mDb.rawQuery(BirthdaySchema.BY_AGE_QUERY, null);
+    }
+
+    /**
+     * Return a Cursor over the next birthdays to come, starting with any
+     * birthday today and wrapping around the end of the year. This is two
+     * range scans of the month_day index, one from today to the end of the
+     * year and one from the start of the year up to today, joined together.
+     * 
+     * @param limit the most birthdays to return
+     * @return Cursor over the upcoming birthdays, in the order they come up
+     */
+    public Cursor fetchUpcomingBirthdays(int limit) {
+
+        int today = AgeCalculator.civilFromEpochDay(
+                mAgeCalculator.toEpochDay(System.currentTimeMillis()));
+        String todayMonthDay = Integer.toString(
+                AgeCalculator.monthOf(today) * 100 + AgeCalculator.dayOf(today));
+
+        Cursor rest = mDb.rawQuery(BirthdaySchema.UPCOMING_QUERY,
+                new String[] {todayMonthDay, Integer.toString(limit)});
+        int remaining = limit - rest.getCount();
+        if (remaining <= 0) {
+            return rest;
+        }
+
+        Cursor wrapped = mDb.rawQuery(BirthdaySchema.UPCOMING_WRAPPED_QUERY,
+                new String[] {todayMonthDay, Integer.toString(remaining)});
+        return new MergeCursor(new Cursor[] {rest, wrapped});
     }
 
     /**
-     * Return a Cursor positioned at the birthday that matches the given rowId
+     * Return the birthday that matches the given rowId. Recently fetched
+     * birthdays are served from a small cache, which every write invalidates.
      * 
      * @param rowId id of birthday to retrieve
-     * @return Cursor positioned to matching birthday, if found
-     * @throws SQLException if birthday could not be found/retrieved
+     * @return the birthday, or null if there is none with that id
+     * @throws SQLException if birthday could not be retrieved
      */
-    public Cursor fetchBirthday(long rowId) throws SQLException {
+    public Birthday fetchBirthday(long rowId) throws SQLException {
 
+        int generation;
+        synchronized (sRecordCache) {
+            Birthday cached = sRecordCache.get(rowId);
+            if (cached != null) {
+                sRecordCacheHits++;
+                if (Metrics.isEnabled()) {
+                    FETCH_CACHE_HITS.increment();
+                }
+                return cached;
+            }
+            sRecordCacheMisses++;
+            generation = sRecordCacheGeneration;
+        }
+
+        long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+        Birthday birthday = null;
         Cursor mCursor =
-            mDb.query(true, DATABASE_TABLE, new String[] {KEY_ROWID,
-                    KEY_NAME, KEY_BIRTHDATE}, KEY_ROWID + "=" + rowId, null,
-                    null, null, null, null);
-        
-        if (mCursor != null) {
-            mCursor.moveToFirst();
+            mDb.query(DATABASE_TABLE, ALL_COLUMNS, KEY_ROWID + " = ?",
+                    new String[] {Long.toString(rowId)}, null, null, null);
+        try {
+            if (mCursor.moveToFirst()) {
+                birthday = new Birthday(rowId,
+                        mCursor.getString(mCursor.getColumnIndexOrThrow(KEY_NAME)),
+                        mCursor.getInt(mCursor.getColumnIndexOrThrow(KEY_BIRTH_DAY)));
+            }
+        } finally {
+            mCursor.close();
+        }
+        if (Metrics.isEnabled()) {
+            FETCH_TIMER.recordSince(start);
+        }
+
+        if (birthday != null) {
+            synchronized (sRecordCache) {
+                if (generation == sRecordCacheGeneration) {
+                    sRecordCache.put(rowId, birthday);
+                }
+            }
         }
         
-        return mCursor;
+        return birthday;
+    }
+
+    /**
+     * @return the number of fetchBirthday() calls served from the record
+     *         cache, across every adapter instance
+     */
+    public static int getRecordCacheHits() {
+        synchronized (sRecordCache) {
+            return sRecordCacheHits;
+        }
+    }
+
+    /**
+     * @return the number of fetchBirthday() calls that had to query the
+     *         database, across every adapter instance
+     */
+    public static int getRecordCacheMisses() {
+        synchronized (sRecordCache) {
+            return sRecordCacheMisses;
+        }
+    }
+
+    /*
+     * Drops a changed row from the record cache, once the change has been
+     * committed
+     */
+    private static void invalidateRecord(long rowId) {
+        synchronized (sRecordCache) {
+            sRecordCache.remove(rowId);
+            sRecordCacheGeneration++;
+        }
     }
 
     /**
@@ -167,15 +960,390 @@ public class BirthdaysDbAdapter {
      * 
      * @param rowId id of birthday to update
      * @param name value to set birthday name to
-     * @param birthdate value to set birthday birth date to
+     * @param birthEpochDay value to set birthday birth date to, as a local
+     *        epoch day
      * @return true if the birthday was successfully updated, false otherwise
      */
-    public boolean updateBirthday(long rowId, String name, long birthdate) {
-    	
-        ContentValues args = new ContentValues();
-        args.put(KEY_NAME, name);
-        args.put(KEY_BIRTHDATE, birthdate);
+    public boolean updateBirthday(long rowId, String name, int birthEpochDay) {
+
+        boolean updated;
+        synchronized (sWriteLock) {
+            long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+            long oldBirthEpochDay = readBirthDay(rowId);
+            updated = oldBirthEpochDay != NO_ROW && updateRow(rowId, name, birthEpochDay);
+            if (Metrics.isEnabled()) {
+                UPDATE_TIMER.recordSince(start);
+            }
+            if (updated) {
+                invalidateRecord(rowId);
+                indexRow(rowId, name, birthEpochDay);
+                queueChange(new Change(Change.UPDATED, rowId, (int) oldBirthEpochDay, name,
+                        birthEpochDay));
+            }
+        }
+        deliverChanges();
+
+        return updated;
+    }
+
+    /**
+     * Apply all of the creates, updates and deletes of a batch inside a single
+     * transaction, so they cost one commit rather than one each. Each
+     * operation succeeds or fails on its own in the same way as the single
+     * row methods, and the results are read back from the batch. Listeners
+     * are told about the changes once the transaction has committed.
+     * 
+     * @param batch the operations to apply
+     * @return the number of operations that succeeded
+     */
+    public int applyBatch(Batch batch) {
+
+        return applyBatch(batch, true);
+    }
+
+    /**
+     * Apply all of the operations of a batch inside a single transaction, as
+     * applyBatch(Batch), optionally without telling the listeners about each
+     * row. A caller streaming a large number of rows in several batches can
+     * call notifyBulkChanged() once at the end instead.
+     * 
+     * @param batch the operations to apply
+     * @param notifyRows true to tell the listeners about each changed row
+     * @return the number of operations that succeeded
+     */
+    public int applyBatch(Batch batch, boolean notifyRows) {
+
+        int succeeded = 0;
+        synchronized (sWriteLock) {
+            long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+            boolean committed = false;
+
+            // the unique creates need every stored row in the index
+            for (int i = 0; i < batch.mSize; i++) {
+                if (batch.mOps[i] == Batch.OP_CREATE_UNIQUE
+                        || batch.mOps[i] == Batch.OP_CREATE_OR_MERGE) {
+                    loadDuplicateIndex();
+                    break;
+                }
+            }
+
+            mDb.beginTransaction();
+            try {
+                for (int i = 0; i < batch.mSize; i++) {
+                    String name = batch.mNames[i];
+                    int birthEpochDay = batch.mBirthEpochDays[i];
+                    int op = batch.mOps[i];
+                    if (op == Batch.OP_CREATE_UNIQUE || op == Batch.OP_CREATE_OR_MERGE) {
+                        // the index is kept up to date below, so a duplicate
+                        // earlier in the batch is found as well
+                        long duplicateId = sDuplicateIndex.find(name, birthEpochDay, 0);
+                        if (duplicateId == 0) {
+                            op = Batch.OP_CREATE;
+                        } else {
+                            batch.mDuplicate[i] = true;
+                            batch.mRowIds[i] = duplicateId;
+                            op = (op == Batch.OP_CREATE_OR_MERGE) ? Batch.OP_UPDATE : -1;
+                        }
+                        // reported to the listeners as the write it became
+                        batch.mOps[i] = op;
+                    }
+
+                    boolean ok;
+                    switch (op) {
+                        case Batch.OP_CREATE:
+                            long rowId = insertRow(name, birthEpochDay);
+                            ok = rowId > 0;
+                            if (ok) {
+                                batch.mRowIds[i] = rowId;
+                                indexRow(rowId, name, birthEpochDay);
+                            }
+                            break;
+                        case Batch.OP_UPDATE:
+                            long oldBirthEpochDay = readBirthDay(batch.mRowIds[i]);
+                            ok = oldBirthEpochDay != NO_ROW
+                                    && updateRow(batch.mRowIds[i], name, birthEpochDay);
+                            if (ok) {
+                                batch.mOldBirthEpochDays[i] = (int) oldBirthEpochDay;
+                                indexRow(batch.mRowIds[i], name, birthEpochDay);
+                            }
+                            break;
+                        case Batch.OP_DELETE:
+                            oldBirthEpochDay = readBirthDay(batch.mRowIds[i]);
+                            ok = oldBirthEpochDay != NO_ROW && deleteRow(batch.mRowIds[i]);
+                            if (ok) {
+                                batch.mOldBirthEpochDays[i] = (int) oldBirthEpochDay;
+                                if (sDuplicateIndex != null) {
+                                    sDuplicateIndex.remove(batch.mRowIds[i]);
+                                }
+                            }
+                            break;
+                        default:
+                            // a skipped duplicate
+                            ok = false;
+                            break;
+                    }
+                    batch.mSucceeded[i] = ok;
+                    if (ok) {
+                        succeeded++;
+                    }
+                }
+                mDb.setTransactionSuccessful();
+                committed = true;
+            } finally {
+                mDb.endTransaction();
+                if (!committed) {
+                    // the index took the writes that were rolled back
+                    sDuplicateIndex = null;
+                }
+            }
+            if (Metrics.isEnabled()) {
+                BATCH_TIMER.recordSince(start);
+            }
+
+            for (int i = 0; i < batch.mSize; i++) {
+                if (batch.mSucceeded[i]) {
+                    invalidateRecord(batch.mRowIds[i]);
+                }
+            }
+
+            for (int i = 0; notifyRows && i < batch.mSize; i++) {
+                if (batch.mSucceeded[i]) {
+                    switch (batch.mOps[i]) {
+                        case Batch.OP_CREATE:
+                            queueChange(new Change(Change.INSERTED, batch.mRowIds[i], 0,
+                                    batch.mNames[i], batch.mBirthEpochDays[i]));
+                            break;
+                        case Batch.OP_UPDATE:
+                            queueChange(new Change(Change.UPDATED, batch.mRowIds[i],
+                                    batch.mOldBirthEpochDays[i], batch.mNames[i],
+                                    batch.mBirthEpochDays[i]));
+                            break;
+                        default:
+                            queueChange(new Change(Change.DELETED, batch.mRowIds[i],
+                                    batch.mOldBirthEpochDays[i], null, 0));
+                            break;
+                    }
+                }
+            }
+        }
+        deliverChanges();
+
+        return succeeded;
+    }
+
+    /**
+     * Finds a stored birthday with the same name and birth date, as
+     * BirthdayRepository.findDuplicate(). The first call since the database
+     * was opened reads every row, so it should not be made on the UI thread.
+     * 
+     * @param name the name to look for
+     * @param birthEpochDay the birth date to look for, as a local epoch day
+     * @param ignoreRowId a row that is not a duplicate of itself, or 0
+     * @return the row id of a duplicate, or 0 if there is none
+     */
+    public long findDuplicate(String name, int birthEpochDay, long ignoreRowId) {
+
+        synchronized (sWriteLock) {
+            return loadDuplicateIndex().find(name, birthEpochDay, ignoreRowId);
+        }
+    }
+
+    /*
+     * Reads every row into the duplicate index if it has not been since the
+     * database was opened, with sWriteLock held so no write is missed
+     */
+    private static DuplicateIndex loadDuplicateIndex() {
+
+        if (sDuplicateIndex == null) {
+            long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+            Rows rows = new CursorRows(sDb.query(DATABASE_TABLE, ALL_COLUMNS, null, null, null,
+                    null, null));
+            try {
+                sDuplicateIndex = DuplicateIndex.load(rows);
+            } finally {
+                rows.close();
+            }
+            if (Metrics.isEnabled()) {
+                DUPLICATE_INDEX_TIMER.recordSince(start);
+            }
+        }
+        return sDuplicateIndex;
+    }
+
+    /*
+     * Keeps a written row in the duplicate index, if it has been read
+     */
+    private static void indexRow(long rowId, String name, int birthEpochDay) {
+        if (sDuplicateIndex != null) {
+            sDuplicateIndex.put(rowId, name, birthEpochDay);
+        }
+    }
+
+    /*
+     * Reads the stored birth day of a row before it is written, so the
+     * listeners can be told the day it had, returning NO_ROW if there is no
+     * such row
+     */
+    private static long readBirthDay(long rowId) {
+
+        sBirthDayStatement.bindLong(1, rowId);
+        try {
+            return sBirthDayStatement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return NO_ROW;
+        }
+    }
+
+    /*
+     * Inserts a row with the compiled insert statement, returning the new row
+     * id or -1 if it could not be inserted
+     */
+    private static long insertRow(String name, int birthEpochDay) {
+
+        bindName(sInsertStatement, 1, name);
+        sInsertStatement.bindLong(2, birthEpochDay);
+        sInsertStatement.bindLong(3, BirthdaySchema.monthDayOf(birthEpochDay));
+        try {
+            return sInsertStatement.executeInsert();
+        } catch (SQLException e) {
+            Log.e(TAG, "Error inserting birthday", e);
+            return -1;
+        }
+    }
+
+    /*
+     * Updates a row with the compiled update statement, returning true if a
+     * row was changed
+     */
+    private static boolean updateRow(long rowId, String name, int birthEpochDay) {
+
+        bindName(sUpdateStatement, 1, name);
+        sUpdateStatement.bindLong(2, birthEpochDay);
+        sUpdateStatement.bindLong(3, BirthdaySchema.monthDayOf(birthEpochDay));
+        sUpdateStatement.bindLong(4, rowId);
+        sUpdateStatement.execute();
+        return sChangesStatement.simpleQueryForLong() > 0;
+    }
+
+    /*
+     * Deletes a row with the compiled delete statement, returning true if a
+     * row was removed
+     */
+    private static boolean deleteRow(long rowId) {
+
+        sDeleteStatement.bindLong(1, rowId);
+        sDeleteStatement.execute();
+        return sChangesStatement.simpleQueryForLong() > 0;
+    }
+
+    private static void bindName(SQLiteStatement statement, int index, String name) {
+        if (name == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, name);
+        }
+    }
+
+    /**
+     * Tell the listeners that a large number of rows changed, after writes
+     * that were applied without reporting their rows
+     */
+    public static void notifyBulkChanged() {
+        synchronized (sWriteLock) {
+            queueChange(new Change(Change.BULK_CHANGED, 0, 0, null, 0));
+        }
+        deliverChanges();
+    }
+
+    /*
+     * Adds a change to those waiting for the listeners, with sWriteLock held
+     * so the queue stays in the order of the writes
+     */
+    private static void queueChange(Change change) {
+        synchronized (sChangesLock) {
+            sPendingChanges.add(change);
+        }
+    }
+
+    /*
+     * Tells the listeners about the queued changes, with no lock held while
+     * they run. A thread that finds another already delivering leaves its
+     * changes to it, which keeps going until the queue is empty.
+     */
+    private static void deliverChanges() {
+
+        synchronized (sChangesLock) {
+            if (sDeliveringChanges) {
+                return;
+            }
+            sDeliveringChanges = true;
+        }
+
+        boolean delivered = false;
+        try {
+            while (true) {
+                List<Change> changes;
+                synchronized (sChangesLock) {
+                    if (sPendingChanges.isEmpty()) {
+                        sDeliveringChanges = false;
+                        delivered = true;
+                        return;
+                    }
+                    changes = sPendingChanges;
+                    sPendingChanges = new ArrayList<Change>();
+                }
+                for (Change change : changes) {
+                    deliver(change);
+                }
+            }
+        } finally {
+            if (!delivered) {
+                // a listener threw, let the next write deliver what is left
+                synchronized (sChangesLock) {
+                    sDeliveringChanges = false;
+                }
+            }
+        }
+    }
+
+    private static void deliver(Change change) {
+        for (OnBirthdaysChangedListener listener : sChangedListeners) {
+            switch (change.mType) {
+                case Change.INSERTED:
+                    listener.onBirthdayInserted(change.mRowId, change.mName, change.mBirthEpochDay);
+                    break;
+                case Change.UPDATED:
+                    listener.onBirthdayUpdated(change.mRowId, change.mOldBirthEpochDay,
+                            change.mName, change.mBirthEpochDay);
+                    break;
+                case Change.DELETED:
+                    listener.onBirthdayDeleted(change.mRowId, change.mOldBirthEpochDay);
+                    break;
+                default:
+                    listener.onBirthdaysBulkChanged();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Register a listener to be told about every birthday that is created,
+     * updated or deleted, through any adapter instance
+     * 
+     * @param listener the listener to add
+     */
+    public static void registerChangedListener(OnBirthdaysChangedListener listener) {
+
+        sChangedListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener added with registerChangedListener()
+     * 
+     * @param listener the listener to remove
+     */
+    public static void unregisterChangedListener(OnBirthdaysChangedListener listener) {
 
-        return mDb.update(DATABASE_TABLE, args, KEY_ROWID + "=" + rowId, null) > 0;
+        sChangedListeners.remove(listener);
     }
 }
@@ -0,0 +1,383 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Loads the list of birthdays on a background thread, so the UI thread never
+ * waits on the database query. The rows are copied into a BirthdayListModel
+ * and their ages worked out in the same background pass, and the query is
+ * closed before the results are handed over, and the display order and its
+ * fast scroll sections are sorted in the same pass.
+ *
+ * A list of more than PAGING_THRESHOLD birthdays, in any sort and with or
+ * without a search, is not loaded. Only its keys are read, into a
+ * BirthdayPageIndex, and the list is left to page through them with a
+ * BirthdayPager. The unfiltered list is counted first, so a short table
+ * reads no keys; a search reads the keys of its matches to count them.
+ *
+ * A load can also count the AgeStatistics of the whole table, from the
+ * loaded rows when every birthday was loaded and otherwise from a scan of
+ * the table, so a search does not pay for it on every key. A scan keeps only
+ * the counts, not the rows, so its statistics are changed by the birth day
+ * each change reports, and are only counted again with loadStatistics() when
+ * a change may have raced a scan.
+ *
+ * Results are handed back on the thread that created the loader. Starting a
+ * new load makes any load still in flight stale, and the results of a stale
+ * load are dropped instead of being delivered.
+ *
+ * The database is opened on the background thread too, as the first open
+ * may create or upgrade it. Until the first load arrives, the list can be
+ * shown from the BirthdaySnapshot the loader keeps of the unfiltered list.
+ *
+ * @author Jim
+ *
+ */
+public class BirthdaysLoader {
+
+	/**
+	 * Receives the results of a load, on the thread that created the loader
+	 */
+	public interface Callbacks {
+
+		/**
+		 * Called with the newest loaded birthdays
+		 *
+		 * @param model all of the birthdays
+		 * @param ageLabels the ages of the rows in the model
+		 * @param sections the display order of the rows in the model
+		 * @param statistics the ages of every birthday, or null if they
+		 *        were not asked for
+		 */
+		void onBirthdaysLoaded(BirthdayListModel model, AgeLabelTable ageLabels,
+				BirthdaySections sections, AgeStatistics statistics);
+
+		/**
+		 * Called instead of onBirthdaysLoaded() when there are too many
+		 * birthdays to load at once
+		 *
+		 * @param index where the pages of the list start, with the number
+		 *        of birthdays in it
+		 * @param statistics the ages of every birthday, or null if they
+		 *        were not asked for
+		 */
+		void onBirthdaysPaged(BirthdayPageIndex index, AgeStatistics statistics);
+
+		/**
+		 * Called with the statistics counted by loadStatistics()
+		 *
+		 * @param statistics the ages of every birthday, without the rows
+		 */
+		void onStatisticsLoaded(AgeStatistics statistics);
+	}
+
+	/**
+	 * The most birthdays loaded into memory at once for a list, more than
+	 * this are paged
+	 */
+	public static final int PAGING_THRESHOLD = 5000;
+
+	/**
+	 * The number of birthdays in each page of a paged list
+	 */
+	public static final int PAGE_SIZE = 50;
+
+	// how long the background part of each load takes, query included
+	private static final Metrics.Timer LOAD_TIMER = Metrics.timer("list.load");
+
+	// how long counting the age statistics takes, within the load
+	private static final Metrics.Timer STATISTICS_TIMER = Metrics.timer("list.statistics");
+
+	private static final String TAG = "BirthdaysLoader";
+
+	private static final String SNAPSHOT_FILE_NAME = "birthdays.snapshot";
+
+	// how long reading the snapshot takes on a cold start
+	private static final Metrics.Timer SNAPSHOT_READ_TIMER = Metrics.timer("list.readSnapshot");
+
+	// opened by the first task on the background thread, and only used there
+	private BirthdayRepository mRepository;
+	private final File mSnapshotFile;
+	private final Callbacks mCallbacks;
+	private final Handler mHandler = new Handler();
+	private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+	// bumped for every load, a load only delivers if it is still the newest
+	private final AtomicInteger mGeneration = new AtomicInteger();
+	private Future<?> mPending;
+
+	// bumped for every loadStatistics(), which is separate from the loads so
+	// a search does not drop it
+	private final AtomicInteger mStatisticsGeneration = new AtomicInteger();
+
+	/**
+	 * Opens a reference to the database of its own on the background thread,
+	 * which is held until destroy()
+	 *
+	 * @param context the context to open the database with
+	 * @param callbacks where to deliver the results
+	 */
+	public BirthdaysLoader(final Context context, Callbacks callbacks) {
+		mCallbacks = callbacks;
+		mSnapshotFile = new File(context.getFilesDir(), SNAPSHOT_FILE_NAME);
+		mExecutor.execute(new Runnable() {
+
+			public void run() {
+				mRepository = new BirthdaysDbAdapter(context).open();
+			}
+		});
+	}
+
+	/**
+	 * Reads the snapshot of the unfiltered list on the calling thread. This
+	 * maps a file of a few hundred kilobytes at most, so it is quick enough
+	 * to do on the UI thread ahead of the first load.
+	 *
+	 * @return the list as it was last saved, or null if there is no usable
+	 *         snapshot
+	 */
+	public BirthdayListModel readSnapshot() {
+
+		long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+		BirthdayListModel model = BirthdaySnapshot.read(mSnapshotFile);
+		if (Metrics.isEnabled()) {
+			SNAPSHOT_READ_TIMER.recordSince(start);
+		}
+		return model;
+	}
+
+	/**
+	 * Saves a snapshot of the unfiltered list. The rows are copied on the
+	 * calling thread and written to the file on the background thread.
+	 *
+	 * @param model all of the birthdays
+	 */
+	public void saveSnapshot(BirthdayListModel model) {
+
+		final ByteBuffer encoded = BirthdaySnapshot.encode(model);
+		mExecutor.execute(new Runnable() {
+
+			public void run() {
+				try {
+					BirthdaySnapshot.write(mSnapshotFile, encoded);
+				} catch (IOException e) {
+					Log.w(TAG, "Could not save the list snapshot", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Deletes the snapshot, for a list that is paged rather than loaded
+	 */
+	public void deleteSnapshot() {
+
+		mExecutor.execute(new Runnable() {
+
+			public void run() {
+				mSnapshotFile.delete();
+			}
+		});
+	}
+
+	/**
+	 * Starts loading all of the birthdays in the order they were added,
+	 * replacing any load in flight
+	 */
+	public void load() {
+		load(null, BirthdaySections.SORT_CREATED);
+	}
+
+	/**
+	 * Starts loading the birthdays with names matching the search text,
+	 * replacing any load in flight. The age statistics are counted when all
+	 * of the birthdays are loaded.
+	 *
+	 * @param filter the text typed to search for, or null for all birthdays
+	 * @param sortMode the BirthdaySections SORT_ constant to order them by
+	 */
+	public void load(String filter, int sortMode) {
+		load(filter, sortMode, filter == null);
+	}
+
+	/**
+	 * Starts loading the birthdays with names matching the search text,
+	 * replacing any load in flight
+	 *
+	 * @param filter the text typed to search for, or null for all birthdays
+	 * @param sortMode the BirthdaySections SORT_ constant to order them by
+	 * @param withStatistics whether to count the age statistics of the whole
+	 *        table as well
+	 */
+	public void load(final String filter, final int sortMode, final boolean withStatistics) {
+
+		cancel();
+
+		final int generation = mGeneration.get();
+		mPending = mExecutor.submit(new Runnable() {
+
+			public void run() {
+				if (generation != mGeneration.get()) {
+					return;
+				}
+
+				if (filter != null || mRepository.countBirthdays() > PAGING_THRESHOLD) {
+					final BirthdayPageIndex index = loadIndex(filter, sortMode);
+					if (index.getCount() > PAGING_THRESHOLD) {
+						final AgeStatistics statistics = withStatistics ? scanStatistics() : null;
+						mHandler.post(new Runnable() {
+
+							public void run() {
+								if (generation == mGeneration.get()) {
+									mCallbacks.onBirthdaysPaged(index, statistics);
+								}
+							}
+						});
+						return;
+					}
+				}
+
+				long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+				final BirthdayListModel model;
+				BirthdayRepository.Rows rows = (filter == null) ? mRepository.fetchAll()
+						: mRepository.search(filter);
+				try {
+					model = BirthdayListModel.load(rows);
+				} finally {
+					rows.close();
+				}
+				final AgeLabelTable ageLabels = new AgeLabelTable();
+				ageLabels.loadMissing(model);
+				final BirthdaySections sections = BirthdaySections.load(sortMode, model);
+				final AgeStatistics statistics;
+				if (!withStatistics) {
+					statistics = null;
+				} else if (filter == null) {
+					long statisticsStart = Metrics.isEnabled() ? System.nanoTime() : 0;
+					statistics = AgeStatistics.load(model);
+					if (Metrics.isEnabled()) {
+						STATISTICS_TIMER.recordSince(statisticsStart);
+					}
+				} else {
+					statistics = scanStatistics();
+				}
+				if (Metrics.isEnabled()) {
+					LOAD_TIMER.recordSince(start);
+				}
+
+				mHandler.post(new Runnable() {
+
+					public void run() {
+						if (generation == mGeneration.get()) {
+							mCallbacks.onBirthdaysLoaded(model, ageLabels, sections, statistics);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Starts counting the age statistics of the whole table again, without
+	 * loading the rows, replacing any count still in flight
+	 */
+	public void loadStatistics() {
+
+		final int generation = mStatisticsGeneration.incrementAndGet();
+		mExecutor.execute(new Runnable() {
+
+			public void run() {
+				if (generation != mStatisticsGeneration.get()) {
+					return;
+				}
+				final AgeStatistics statistics = scanStatistics();
+				mHandler.post(new Runnable() {
+
+					public void run() {
+						if (generation == mStatisticsGeneration.get()) {
+							mCallbacks.onStatisticsLoaded(statistics);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/*
+	 * Reads where the pages of a list start, from its keys alone
+	 */
+	private BirthdayPageIndex loadIndex(String filter, int sortMode) {
+
+		BirthdayRepository.Keys keys = mRepository.fetchKeys(sortMode, filter);
+		try {
+			return BirthdayPageIndex.load(sortMode, filter, PAGE_SIZE, keys);
+		} finally {
+			keys.close();
+		}
+	}
+
+	/*
+	 * Counts the age statistics from a scan of the whole table, for a load
+	 * that did not read every row. Only the counts are kept, so the memory
+	 * does not grow with the table.
+	 */
+	private AgeStatistics scanStatistics() {
+
+		long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+		AgeStatistics statistics;
+		BirthdayRepository.Rows rows = mRepository.fetchAll();
+		try {
+			statistics = AgeStatistics.count(rows);
+		} finally {
+			rows.close();
+		}
+		if (Metrics.isEnabled()) {
+			STATISTICS_TIMER.recordSince(start);
+		}
+		return statistics;
+	}
+
+	/**
+	 * Makes any load in flight stale, its results will not be delivered
+	 */
+	public void cancel() {
+
+		mGeneration.incrementAndGet();
+		if (mPending != null) {
+			mPending.cancel(false);
+			mPending = null;
+		}
+	}
+
+	/**
+	 * Cancels any load in flight and stops the background thread, the loader
+	 * cannot be used afterwards. The database is closed on the background
+	 * thread, after any query still running there.
+	 */
+	public void destroy() {
+
+		cancel();
+		mStatisticsGeneration.incrementAndGet();
+		mExecutor.execute(new Runnable() {
+
+			public void run() {
+				mRepository.close();
+			}
+		});
+		mExecutor.shutdown();
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import android.database.Cursor;
+
+/**
+ * The sort keys of a BirthdayRepository keys query, read from a database
+ * cursor with the sort key and row id columns
+ *
+ * @author Jim
+ *
+ */
+class CursorKeys implements BirthdayRepository.Keys {
+
+	private static final int SORT_KEY_COL = 0;
+	private static final int ID_COL = 1;
+
+	private final Cursor mCursor;
+
+	CursorKeys(Cursor c) {
+		mCursor = c;
+	}
+
+	public boolean next() {
+		return mCursor.moveToNext();
+	}
+
+	public long getSortKey() {
+		return mCursor.getLong(SORT_KEY_COL);
+	}
+
+	public long getId() {
+		return mCursor.getLong(ID_COL);
+	}
+
+	public void close() {
+		mCursor.close();
+	}
+}
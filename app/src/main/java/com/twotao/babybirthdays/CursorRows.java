@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import android.database.Cursor;
+
+/**
+ * The rows of a BirthdayRepository query, read from a database cursor with
+ * the row id, name and birth date columns
+ *
+ * @author Jim
+ *
+ */
+class CursorRows implements BirthdayRepository.Rows {
+
+	private final Cursor mCursor;
+	private final int mIdCol;
+	private final int mNameCol;
+	private final int mBirthDayCol;
+
+	CursorRows(Cursor c) {
+		mCursor = c;
+		mIdCol = c.getColumnIndexOrThrow(BirthdaysDbAdapter.KEY_ROWID);
+		mNameCol = c.getColumnIndexOrThrow(BirthdaysDbAdapter.KEY_NAME);
+		mBirthDayCol = c.getColumnIndexOrThrow(BirthdaysDbAdapter.KEY_BIRTH_DAY);
+	}
+
+	public int getCount() {
+		return mCursor.getCount();
+	}
+
+	public boolean next() {
+		return mCursor.moveToNext();
+	}
+
+	public long getId() {
+		return mCursor.getLong(mIdCol);
+	}
+
+	public String getName() {
+		return mCursor.getString(mNameCol);
+	}
+
+	public int getBirthEpochDay() {
+		return mCursor.getInt(mBirthDayCol);
+	}
+
+	public void close() {
+		mCursor.close();
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.PowerManager;
+
+/**
+ * Receives the alarm set by BirthdayReminders for the day of the next
+ * milestone, and when the device has booted, as alarms do not survive a
+ * restart.
+ *
+ * The device only stays awake while onReceive() runs, and the tick runs on
+ * the background thread of BirthdayReminders, so a partial wake lock is held
+ * from here until the tick is done.
+ *
+ * @author Jim
+ *
+ */
+public class ReminderReceiver extends BroadcastReceiver {
+
+	private static final String WAKE_LOCK_TAG = "BabyBirthdays.reminders";
+
+	@Override
+	public void onReceive(Context context, Intent intent) {
+
+		Metrics.setEnabled(BuildConfig.DEBUG);
+
+		PowerManager power = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+		final PowerManager.WakeLock wakeLock =
+			power.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_TAG);
+		wakeLock.acquire();
+
+		BirthdayReminders.getInstance(context).tick(new Runnable() {
+
+			public void run() {
+				wakeLock.release();
+			}
+		});
+	}
+}
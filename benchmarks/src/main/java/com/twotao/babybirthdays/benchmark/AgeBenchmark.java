@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays.benchmark;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twotao.babybirthdays.AgeCalculator;
+import com.twotao.babybirthdays.AgeTextFormatter;
+
+/**
+ * Measures working out and formatting the age of a single row, for each of
+ * the day, week, month and year branches of the age rules.
+ *
+ * @author Jim
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgeBenchmark {
+
+	// a fixed "today", 2012-06-15, so every run takes the same branches
+	static final long TODAY_MILLIS = 1339761600000L;
+
+	@Param({"days", "weeks", "months", "years"})
+	public String bucket;
+
+	private AgeCalculator mAgeCalculator;
+	private AgeTextFormatter mFormatter;
+	private int mBirthEpochDay;
+	private long mBirthdateMillis;
+	private final char[] mBuffer = new char[AgeTextFormatter.TEXT_BUFFER_SIZE];
+
+	@Setup
+	public void setUp() {
+		mAgeCalculator = new AgeCalculator(TimeZone.getTimeZone("UTC"));
+		mAgeCalculator.setToday(TODAY_MILLIS);
+		mFormatter = newFormatter();
+
+		int ageInDays;
+		if ("days".equals(bucket)) {
+			ageInDays = 3;
+		} else if ("weeks".equals(bucket)) {
+			ageInDays = 30;
+		} else if ("months".equals(bucket)) {
+			ageInDays = 200;
+		} else {
+			ageInDays = 1500;
+		}
+		mBirthEpochDay = mAgeCalculator.getTodayEpochDay() - ageInDays;
+		mBirthdateMillis = mAgeCalculator.toMillis(mBirthEpochDay);
+	}
+
+	static AgeTextFormatter newFormatter() {
+		return new AgeTextFormatter(
+				new String[] {"day", "week", "month", "year"},
+				new String[] {"days", "weeks", "months", "years"});
+	}
+
+	@Benchmark
+	public int computeFromEpochDay() {
+		mAgeCalculator.computeFromEpochDay(mBirthEpochDay);
+		return mAgeCalculator.getCount();
+	}
+
+	@Benchmark
+	public int computeFromMillis() {
+		mAgeCalculator.compute(mBirthdateMillis);
+		return mAgeCalculator.getCount();
+	}
+
+	/*
+	 * The work of binding one list row: the age and both texts
+	 */
+	@Benchmark
+	public int formatRow() {
+		mAgeCalculator.computeFromEpochDay(mBirthEpochDay);
+		int length = mFormatter.writeBirthdayText(mBuffer,
+				mAgeCalculator.getBirthMonth(), mAgeCalculator.getBirthDay());
+		length += mFormatter.writeAgeText(mBuffer,
+				mAgeCalculator.getCount(), mAgeCalculator.getUnit());
+		return length;
+	}
+}
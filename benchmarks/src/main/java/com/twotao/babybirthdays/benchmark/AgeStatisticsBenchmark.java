@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twotao.babybirthdays.AgeCalculator;
+import com.twotao.babybirthdays.AgeStatistics;
+import com.twotao.babybirthdays.BirthdayListModel;
+
+/**
+ * Measures keeping the age statistics of the list header: moving one row,
+ * counting a range of ages from the tree, and for comparison counting the
+ * groups by working out the age of every row.
+ *
+ * @author Jim
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgeStatisticsBenchmark {
+
+	@Param({"1000", "100000"})
+	public int rows;
+
+	private BirthdayListModel mModel;
+	private AgeStatistics mStatistics;
+	private AgeCalculator mAgeCalculator;
+	private int mToday;
+	private final Random mRandom = new Random(42);
+
+	@Setup
+	public void setUp() {
+		mAgeCalculator = new AgeCalculator();
+		mToday = mAgeCalculator.getTodayEpochDay();
+		mModel = new BirthdayListModel();
+		for (int i = 0; i < rows; i++) {
+			mModel.put(i + 1, null, randomBirthEpochDay());
+		}
+		mStatistics = AgeStatistics.load(mModel);
+	}
+
+	private int randomBirthEpochDay() {
+		return mToday - mRandom.nextInt(4000);
+	}
+
+	/*
+	 * The work of an edit arriving from the database
+	 */
+	@Benchmark
+	public int put() {
+		mStatistics.put(1 + mRandom.nextInt(rows), randomBirthEpochDay());
+		return mStatistics.getGroupCount(AgeStatistics.GROUP_MONTHS);
+	}
+
+	@Benchmark
+	public int countAged() {
+		int minAge = mRandom.nextInt(2000);
+		return mStatistics.countAged(minAge, minAge + 365);
+	}
+
+	/*
+	 * The groups counted without the statistics, from the age of every row
+	 */
+	@Benchmark
+	public int countByScan() {
+		int months = 0;
+		for (int i = 0; i < rows; i++) {
+			mAgeCalculator.computeFromEpochDay(mModel.getBirthEpochDay(i));
+			if (mAgeCalculator.getUnit() == AgeCalculator.UNIT_MONTHS) {
+				months++;
+			}
+		}
+		return months;
+	}
+}
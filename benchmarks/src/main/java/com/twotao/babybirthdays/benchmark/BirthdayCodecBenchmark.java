@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twotao.babybirthdays.BirthdayCodec;
+
+/**
+ * Measures reading and writing whole import/export files in each format,
+ * in memory so only the encoding is measured and not the storage.
+ *
+ * @author Jim
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BirthdayCodecBenchmark {
+
+	@Param({"100", "10000", "1000000"})
+	public int rows;
+
+	@Param({"csv", "binary"})
+	public String format;
+
+	private int mFormat;
+	private String[] mNames;
+	private int[] mBirthEpochDays;
+	private byte[] mEncoded;
+	private ByteArrayOutputStream mOut;
+
+	@Setup
+	public void setUp() throws IOException {
+		mFormat = "csv".equals(format) ? BirthdayCodec.FORMAT_CSV : BirthdayCodec.FORMAT_BINARY;
+
+		Random random = new Random(rows);
+		mNames = new String[rows];
+		mBirthEpochDays = new int[rows];
+		for (int i = 0; i < rows; i++) {
+			// every tenth name needs quoting in CSV
+			mNames[i] = (i % 10 == 0) ? "Baby, No. " + i : "Baby " + i;
+			mBirthEpochDays[i] = 15000 + random.nextInt(4000);
+		}
+
+		mOut = new ByteArrayOutputStream();
+		writeAll();
+		mEncoded = mOut.toByteArray();
+	}
+
+	@Benchmark
+	public int writeAll() throws IOException {
+		mOut.reset();
+		BirthdayCodec.Writer writer = BirthdayCodec.newWriter(Channels.newChannel(mOut), mFormat);
+		for (int i = 0; i < mNames.length; i++) {
+			writer.write(mNames[i], mBirthEpochDays[i]);
+		}
+		writer.flush();
+		return mOut.size();
+	}
+
+	@Benchmark
+	public long readAll() throws IOException {
+		BirthdayCodec.Reader reader = BirthdayCodec.newReader(
+				Channels.newChannel(new ByteArrayInputStream(mEncoded)), mFormat);
+		long total = 0;
+		while (reader.next()) {
+			total += reader.getName().length() + reader.getBirthEpochDay();
+		}
+		return total;
+	}
+}
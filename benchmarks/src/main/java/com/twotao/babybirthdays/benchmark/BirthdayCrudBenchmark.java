@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twotao.babybirthdays.Birthday;
+import com.twotao.babybirthdays.BirthdayListModel;
+import com.twotao.babybirthdays.BirthdayRepository;
+import com.twotao.babybirthdays.BirthdaySections;
+import com.twotao.babybirthdays.JdbcBirthdayRepository;
+import com.twotao.babybirthdays.MemoryBirthdayRepository;
+
+/**
+ * Measures the create, fetch, update, delete and search operations of a
+ * BirthdayRepository with the table pre-filled to each size. The jdbc
+ * storage is a file backed SQLite database through the xerial driver,
+ * running the same schema and SQL as the app, and the memory storage shows
+ * the cost of everything but the storage.
+ *
+ * @author Jim
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BirthdayCrudBenchmark {
+
+	private static final String[] FIRST_NAMES = {
+		"Emma", "Olivia", "Sophia", "Isabella", "Ava", "Mia", "Jacob", "Mason",
+		"William", "Jayden", "Noah", "Michael", "John", "Joseph", "Josephine", "Jonah"
+	};
+
+	// the rows in a page of the paged list
+	private static final int PAGE_SIZE = 50;
+
+	@Param({"100", "10000", "1000000"})
+	public int rows;
+
+	@Param({"jdbc", "memory"})
+	public String storage;
+
+	private File mFile;
+	private Connection mConnection;
+	private BirthdayRepository mRepository;
+	private final Random mRandom = new Random(42);
+
+	@Setup
+	public void setUp() throws IOException, SQLException {
+		if ("jdbc".equals(storage)) {
+			mFile = File.createTempFile("birthdays", ".db");
+			mConnection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getPath());
+			JdbcBirthdayRepository.createSchema(mConnection);
+			mRepository = new JdbcBirthdayRepository(mConnection);
+
+			// fill the table in one transaction, as an import would
+			mConnection.setAutoCommit(false);
+			fill();
+			mConnection.commit();
+			mConnection.setAutoCommit(true);
+		} else {
+			mRepository = new MemoryBirthdayRepository();
+			fill();
+		}
+
+		// the first check reads every row into the duplicate index
+		mRepository.findDuplicate(nameOf(0), 0, 0);
+	}
+
+	private void fill() {
+		for (int i = 0; i < rows; i++) {
+			mRepository.createBirthday(nameOf(i), randomBirthEpochDay());
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		mRepository.close();
+		if (mFile != null) {
+			mFile.delete();
+		}
+	}
+
+	private static String nameOf(int i) {
+		return FIRST_NAMES[i % FIRST_NAMES.length] + " " + i;
+	}
+
+	private int randomBirthEpochDay() {
+		return 15000 + mRandom.nextInt(4000);
+	}
+
+	private long randomRowId() {
+		return 1 + mRandom.nextInt(rows);
+	}
+
+	private static int loadPage(BirthdayRepository.Rows page) {
+		try {
+			return BirthdayListModel.load(page).size();
+		} finally {
+			page.close();
+		}
+	}
+
+	@Benchmark
+	public Birthday fetch() {
+		return mRepository.fetchBirthday(randomRowId());
+	}
+
+	@Benchmark
+	public boolean update() {
+		long rowId = randomRowId();
+		return mRepository.updateBirthday(rowId, nameOf((int) rowId), randomBirthEpochDay());
+	}
+
+	/*
+	 * A create followed by a delete of the same row, so the table stays at
+	 * the same size for the whole run
+	 */
+	@Benchmark
+	public boolean createAndDelete() {
+		long rowId = mRepository.createBirthday(nameOf(rows), randomBirthEpochDay());
+		return mRepository.deleteBirthday(rowId);
+	}
+
+	@Benchmark
+	public int searchByNamePrefix() {
+		BirthdayRepository.Rows matches = mRepository.search("jo");
+		int count = 0;
+		try {
+			while (matches.next()) {
+				count++;
+			}
+		} finally {
+			matches.close();
+		}
+		return count;
+	}
+
+	/*
+	 * The duplicate check of an imported row, which once the index is loaded
+	 * should cost the same whatever the size of the table and never touch the
+	 * storage. Half of the names are in the table, with other spellings.
+	 */
+	@Benchmark
+	public long findDuplicate() {
+		int i = mRandom.nextInt(rows * 2);
+		return mRepository.findDuplicate(nameOf(i).toUpperCase(), randomBirthEpochDay(), 0);
+	}
+
+	/*
+	 * A page of the paged list from the middle of the table, by keyset, which
+	 * should cost the same whatever the size of the table
+	 */
+	@Benchmark
+	public int fetchPage() {
+		return loadPage(mRepository.fetchPage(BirthdaySections.SORT_CREATED, null, 0, rows / 2,
+				PAGE_SIZE));
+	}
+
+	/*
+	 * A page of the list sorted by age from a random birth day, by keyset on
+	 * the birth day index read backwards
+	 */
+	@Benchmark
+	public int fetchAgePage() {
+		return loadPage(mRepository.fetchPage(BirthdaySections.SORT_AGE, null,
+				randomBirthEpochDay(), Long.MAX_VALUE, PAGE_SIZE));
+	}
+
+	/*
+	 * The background work of showing the list: every row copied into the
+	 * list model
+	 */
+	@Benchmark
+	public int loadList() {
+		BirthdayRepository.Rows all = mRepository.fetchAll();
+		try {
+			return BirthdayListModel.load(all).size();
+		} finally {
+			all.close();
+		}
+	}
+}
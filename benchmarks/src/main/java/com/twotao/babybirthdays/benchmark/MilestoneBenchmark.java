@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays.benchmark;
+
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twotao.babybirthdays.AgeCalculator;
+import com.twotao.babybirthdays.MemoryBirthdayRepository;
+import com.twotao.babybirthdays.MilestoneProjection;
+
+/**
+ * Measures projecting the milestones of every birthday over a year long
+ * window, both read to the end and for just the first page of a calendar.
+ * The birthdays are in memory, so only the projection is measured.
+ *
+ * @author Jim
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MilestoneBenchmark {
+
+	// the milestones on the first page of a printed calendar
+	private static final int PAGE_SIZE = 100;
+
+	@Param({"1000", "50000"})
+	public int rows;
+
+	private MemoryBirthdayRepository mRepository;
+	private int mFromEpochDay;
+
+	@Setup
+	public void setUp() {
+		AgeCalculator ageCalculator = new AgeCalculator(TimeZone.getTimeZone("UTC"));
+		ageCalculator.setToday(AgeBenchmark.TODAY_MILLIS);
+		mFromEpochDay = ageCalculator.getTodayEpochDay();
+
+		// children up to eight years old, with a few not born yet
+		Random random = new Random(42);
+		mRepository = new MemoryBirthdayRepository();
+		for (int i = 0; i < rows; i++) {
+			int birthEpochDay = mFromEpochDay + 100 - random.nextInt(3000);
+			mRepository.createBirthday("Baby " + i, birthEpochDay);
+		}
+	}
+
+	@Benchmark
+	public int projectYear() {
+		MilestoneProjection projection = MilestoneProjection.project(mRepository, mFromEpochDay,
+				mFromEpochDay + 365);
+		int count = 0;
+		while (projection.next()) {
+			count++;
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int projectFirstPage() {
+		MilestoneProjection projection = MilestoneProjection.project(mRepository, mFromEpochDay,
+				mFromEpochDay + 365);
+		int count = 0;
+		while (count < PAGE_SIZE && projection.next()) {
+			count++;
+		}
+		return count;
+	}
+}
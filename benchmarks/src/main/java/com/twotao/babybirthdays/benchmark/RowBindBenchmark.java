@@ -0,0 +1,299 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays.benchmark;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twotao.babybirthdays.AgeCalculator;
+import com.twotao.babybirthdays.AgeLabelTable;
+import com.twotao.babybirthdays.BirthdayListModel;
+import com.twotao.babybirthdays.BirthdayRowBinder;
+import com.twotao.babybirthdays.MemoryBirthdayRepository;
+
+/**
+ * Measures binding the rows of a 10,000 row list into recycled row views,
+ * reported as the time per row, before and after the list adapter was
+ * reworked.
+ *
+ * bindRowsAfter() runs BirthdayRowBinder, the routine BirthdayListAdapter
+ * binds every row through: ages looked up in the AgeLabelTable, and texts
+ * written into the row's own character buffers. The adapter only hands those
+ * texts to the views the row holds, so a change to the bind path shows up
+ * here.
+ *
+ * bindRowsBefore() is the row binding of the original BirthdayCursorAdapter,
+ * kept here as the fixed point the rework is measured against: the column
+ * and view lookups on every row, a Date and a SimpleDateFormat for the
+ * birthday, and Calendars and String concatenation for the age. Its Android
+ * views and cursor are not available on the desktop JVM, so they are stood
+ * in for by plain objects that do the same lookups: a row view whose
+ * findViewById() walks its children, and a cursor whose getColumnIndex()
+ * compares the column names ignoring case.
+ *
+ * @author Jim
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowBindBenchmark {
+
+	private static final int ROWS = 10000;
+	private static final int MAX_AGE_IN_DAYS = 10 * 365;
+
+	private static final int ID_TEXT1 = 1;
+	private static final int ID_TEXT2 = 2;
+	private static final int ID_TEXT3 = 3;
+
+	private static final String[] SINGULAR = {"day", "week", "month", "year"};
+	private static final String[] PLURAL = {"days", "weeks", "months", "years"};
+
+	/*
+	 * Stands in for a TextView, keeping what it was given as the framework
+	 * does
+	 */
+	static class FakeTextView {
+
+		final int id;
+		CharSequence text;
+		int length;
+
+		FakeTextView(int id) {
+			this.id = id;
+		}
+
+		void setText(CharSequence text) {
+			this.text = text;
+			this.length = text.length();
+		}
+	}
+
+	/*
+	 * Stands in for an inflated row, findViewById() walks the children as
+	 * ViewGroup does
+	 */
+	static class FakeRowView {
+
+		final FakeTextView[] children = {
+			new FakeTextView(ID_TEXT1), new FakeTextView(ID_TEXT2), new FakeTextView(ID_TEXT3)
+		};
+
+		FakeTextView findViewById(int id) {
+			for (FakeTextView child : children) {
+				if (child.id == id) {
+					return child;
+				}
+			}
+			return null;
+		}
+	}
+
+	/*
+	 * Stands in for the cursor of the original list, holding the birth date
+	 * in milliseconds as the original schema did
+	 */
+	static class FakeCursor {
+
+		final String[] columnNames = {"_id", "name", "birthdate"};
+		final String[] names;
+		final long[] birthdates;
+		int position;
+
+		FakeCursor(String[] names, long[] birthdates) {
+			this.names = names;
+			this.birthdates = birthdates;
+		}
+
+		int getColumnIndex(String columnName) {
+			for (int i = 0; i < columnNames.length; i++) {
+				if (columnNames[i].equalsIgnoreCase(columnName)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		String getString(int column) {
+			return names[position];
+		}
+
+		long getLong(int column) {
+			return birthdates[position];
+		}
+	}
+
+	// the same row is bound over and over, as when the list scrolls
+	private FakeRowView mBeforeRow;
+	private BirthdayRowBinder.RowText mAfterRow;
+
+	private FakeCursor mCursor;
+	private long mNowMillis;
+
+	private BirthdayListModel mModel;
+	private AgeLabelTable mAgeLabels;
+	private BirthdayRowBinder mBinder;
+
+	@Setup
+	public void setUp() {
+		AgeCalculator ageCalculator = new AgeCalculator();
+		int today = ageCalculator.getTodayEpochDay();
+		mNowMillis = System.currentTimeMillis();
+
+		Random random = new Random(ROWS);
+		MemoryBirthdayRepository repository = new MemoryBirthdayRepository();
+		String[] names = new String[ROWS];
+		long[] birthdates = new long[ROWS];
+		for (int i = 0; i < ROWS; i++) {
+			int birthEpochDay = today - random.nextInt(MAX_AGE_IN_DAYS);
+			names[i] = "Baby " + i;
+			birthdates[i] = ageCalculator.toMillis(birthEpochDay);
+			repository.createBirthday(names[i], birthEpochDay);
+		}
+		mCursor = new FakeCursor(names, birthdates);
+
+		mModel = BirthdayListModel.load(repository.fetchAll());
+		mAgeLabels = new AgeLabelTable();
+		mAgeLabels.loadMissing(mModel);
+		mBinder = new BirthdayRowBinder(AgeBenchmark.newFormatter());
+
+		mBeforeRow = new FakeRowView();
+		mAfterRow = new BirthdayRowBinder.RowText();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public int bindRowsBefore() {
+		int total = 0;
+		for (int i = 0; i < ROWS; i++) {
+			mCursor.position = i;
+			createRowDisplayBefore(mBeforeRow, mCursor);
+			total += mBeforeRow.children[2].length;
+		}
+		return total;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public int bindRowsAfter() {
+		int total = 0;
+		for (int i = 0; i < ROWS; i++) {
+			mBinder.bind(mAfterRow, mModel, mAgeLabels, mModel.getId(i));
+			total += mAfterRow.ageLength;
+		}
+		return total;
+	}
+
+	/*
+	 * The row binding of the original BirthdayCursorAdapter, with the unit
+	 * words taken from arrays in place of the string resources
+	 */
+	private void createRowDisplayBefore(FakeRowView v, FakeCursor c) {
+
+		int nameCol = c.getColumnIndex("name");
+		String name = c.getString(nameCol);
+
+		FakeTextView nameText = v.findViewById(ID_TEXT1);
+		if (nameText != null) {
+			nameText.setText(name);
+		}
+
+		int birthdateCol = c.getColumnIndex("birthdate");
+		long birthdateInMillis = c.getLong(birthdateCol);
+		Date birthdate = new Date(birthdateInMillis);
+
+		FakeTextView birthday = v.findViewById(ID_TEXT2);
+		if (birthday != null) {
+			SimpleDateFormat displayDate = new SimpleDateFormat("MMM-dd");
+			birthday.setText(displayDate.format(birthdate));
+		}
+
+		FakeTextView ageText = v.findViewById(ID_TEXT3);
+		if (ageText != null) {
+			String ageToDisplay = getAgeDisplayStringBefore(birthdate);
+			if (ageToDisplay != null) {
+				ageText.setText(ageToDisplay);
+			}
+		}
+	}
+
+	/*
+	 * The age rules of the original adapter, with the fixed time of the run
+	 * as now so every invocation takes the same branches
+	 */
+	private String getAgeDisplayStringBefore(Date birthdate) {
+
+		Date now = new Date(mNowMillis);
+		long timeSinceBirth = now.getTime() - birthdate.getTime();
+		int ageInDays = (int) (timeSinceBirth / AgeCalculator.MILLISECONDS_IN_DAY);
+
+		if (ageInDays < 7) {
+			return unitText(ageInDays, 0);
+		} else if (ageInDays < 56) {
+			return unitText(ageInDays / 7, 1);
+		}
+
+		int ageInYears = ageInDays / 365;
+		if (ageInDays >= 730) {
+			return unitText(ageInYears, 3);
+		}
+
+		int ageInMonths = ageInYears * 12;
+		final Calendar birthdateCal = Calendar.getInstance();
+		birthdateCal.setTimeInMillis(birthdate.getTime());
+		int birthMonth = birthdateCal.get(Calendar.MONTH);
+		int birthDay = birthdateCal.get(Calendar.DAY_OF_MONTH);
+
+		final Calendar nowCal = Calendar.getInstance();
+		nowCal.setTimeInMillis(now.getTime());
+		int nowMonth = nowCal.get(Calendar.MONTH);
+		int nowDay = nowCal.get(Calendar.DAY_OF_MONTH);
+
+		int monthDiff = nowMonth - birthMonth;
+		if (monthDiff < 0) {
+			ageInMonths += 12 + monthDiff;
+		} else if (monthDiff == 0 && nowDay < birthDay) {
+			ageInMonths += 12;
+		} else {
+			ageInMonths += monthDiff;
+		}
+		if (nowDay < birthDay) {
+			ageInMonths--;
+		}
+
+		if (ageInMonths < 2) {
+			return unitText(ageInDays / 7, 1);
+		}
+		return unitText(ageInMonths, 2);
+	}
+
+	private static String unitText(int count, int unit) {
+		String text = Integer.toString(count) + " ";
+		if (count == 1) {
+			text += SINGULAR[unit];
+		} else {
+			text += PLURAL[unit];
+		}
+		return text;
+	}
+}
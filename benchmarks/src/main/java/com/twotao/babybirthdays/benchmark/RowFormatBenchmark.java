@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays.benchmark;
+
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twotao.babybirthdays.AgeCalculator;
+import com.twotao.babybirthdays.AgeTextFormatter;
+
+/**
+ * Measures working out and formatting the age of every row of a list, as
+ * the batch pass of a load does, with birth dates spread over the last ten
+ * years so all of the branches are mixed together.
+ *
+ * @author Jim
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowFormatBenchmark {
+
+	private static final int MAX_AGE_IN_DAYS = 10 * 365;
+
+	@Param({"100", "10000", "1000000"})
+	public int rows;
+
+	private AgeCalculator mAgeCalculator;
+	private AgeTextFormatter mFormatter;
+	private int[] mBirthEpochDays;
+	private final char[] mBirthdayBuffer = new char[AgeTextFormatter.TEXT_BUFFER_SIZE];
+	private final char[] mAgeBuffer = new char[AgeTextFormatter.TEXT_BUFFER_SIZE];
+
+	@Setup
+	public void setUp() {
+		mAgeCalculator = new AgeCalculator(TimeZone.getTimeZone("UTC"));
+		mAgeCalculator.setToday(AgeBenchmark.TODAY_MILLIS);
+		mFormatter = AgeBenchmark.newFormatter();
+
+		Random random = new Random(rows);
+		int today = mAgeCalculator.getTodayEpochDay();
+		mBirthEpochDays = new int[rows];
+		for (int i = 0; i < rows; i++) {
+			mBirthEpochDays[i] = today - random.nextInt(MAX_AGE_IN_DAYS);
+		}
+	}
+
+	@Benchmark
+	public int formatAllRows() {
+		int total = 0;
+		for (int i = 0; i < mBirthEpochDays.length; i++) {
+			mAgeCalculator.computeFromEpochDay(mBirthEpochDays[i]);
+			total += mFormatter.writeBirthdayText(mBirthdayBuffer,
+					mAgeCalculator.getBirthMonth(), mAgeCalculator.getBirthDay());
+			total += mFormatter.writeAgeText(mAgeBuffer,
+					mAgeCalculator.getCount(), mAgeCalculator.getUnit());
+		}
+		return total;
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twotao.babybirthdays.BirthdayListModel;
+import com.twotao.babybirthdays.BirthdaySnapshot;
+
+/**
+ * Measures the list snapshot shown on a cold start: reading it back from
+ * its file, for comparing with loadList of BirthdayCrudBenchmark, and
+ * encoding it after a change.
+ *
+ * @author Jim
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+	// the largest list that is snapshotted rather than paged is 5000
+	@Param({"100", "5000"})
+	public int rows;
+
+	private File mFile;
+	private BirthdayListModel mModel;
+
+	@Setup
+	public void setUp() throws IOException {
+		Random random = new Random(42);
+		mModel = new BirthdayListModel();
+		for (int i = 0; i < rows; i++) {
+			mModel.put(i + 1, "Baby " + i, 15000 + random.nextInt(4000));
+		}
+		mFile = File.createTempFile("birthdays", ".snapshot");
+		BirthdaySnapshot.write(mFile, BirthdaySnapshot.encode(mModel));
+	}
+
+	@TearDown
+	public void tearDown() {
+		mFile.delete();
+	}
+
+	@Benchmark
+	public int read() {
+		return BirthdaySnapshot.read(mFile).size();
+	}
+
+	@Benchmark
+	public ByteBuffer encode() {
+		return BirthdaySnapshot.encode(mModel);
+	}
+}
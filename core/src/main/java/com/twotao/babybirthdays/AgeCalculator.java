@@ -0,0 +1,295 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.util.TimeZone;
+
+/**
+ * Works out the age bucket (days, weeks, months or years) for a birth date
+ * using plain epoch-day integers, so the list can ask for the age of every row
+ * without creating Date, Calendar or SimpleDateFormat objects.
+ *
+ * The calculator holds a snapshot of "today" that is taken once with
+ * setToday(), and the result of the last compute() call is kept in primitive
+ * fields that are read back through the getters. An instance is therefore not
+ * thread safe, and is meant to be owned by a single adapter.
+ *
+ * @author Jim
+ *
+ */
+public final class AgeCalculator {
+
+	public static final int UNIT_DAYS = 0;
+	public static final int UNIT_WEEKS = 1;
+	public static final int UNIT_MONTHS = 2;
+	public static final int UNIT_YEARS = 3;
+
+	public static final long MILLISECONDS_IN_DAY = 24L * 60L * 60L * 1000L;
+
+	private static final int NUM_DAYS_IN_WEEK = 7;
+	private static final int NUM_DAYS_IN_YEAR = 365;
+	private static final int NUM_MONTHS_PER_YEAR = 12;
+	private static final int NUM_WEEKS_FOR_DISPLAY = 8;
+	private static final int NUM_MONTHS_FOR_DISPLAY = 2;
+
+	private static final int NUM_DAYS_FOR_DAYS_DISPLAY = NUM_DAYS_IN_WEEK;
+
+	// where ages switch from weeks to months and from months to years, also
+	// the bounds of the AgeStatistics groups
+	static final int NUM_DAYS_FOR_WEEKS_DISPLAY = (NUM_WEEKS_FOR_DISPLAY * NUM_DAYS_IN_WEEK);
+	static final int NUM_DAYS_FOR_MONTHS_DISPLAY = (NUM_MONTHS_FOR_DISPLAY * NUM_DAYS_IN_YEAR);
+
+	private final TimeZone mTimeZone;
+
+	// the snapshot of today, taken in setToday()
+	private int mTodayEpochDay;
+	private int mTodayMonth;
+	private int mTodayDay;
+
+	// the results of the last compute() call
+	private int mUnit;
+	private int mCount;
+	private int mBirthMonth;
+	private int mBirthDay;
+
+	/**
+	 * Creates a calculator working in the default time zone, with today set
+	 * to the current time
+	 */
+	public AgeCalculator() {
+		this(TimeZone.getDefault());
+	}
+
+	/**
+	 * Creates a calculator working in the given time zone, with today set to
+	 * the current time
+	 *
+	 * @param timeZone the time zone used to turn milliseconds into dates
+	 */
+	public AgeCalculator(TimeZone timeZone) {
+		mTimeZone = timeZone;
+		setToday(System.currentTimeMillis());
+	}
+
+	/**
+	 * Takes the snapshot of "today" that all following ages are computed
+	 * against
+	 *
+	 * @param nowInMillis the current time in milliseconds
+	 * @return true if the calendar day changed from the previous snapshot
+	 */
+	public boolean setToday(long nowInMillis) {
+		int today = toEpochDay(nowInMillis);
+		if (today == mTodayEpochDay && mTodayMonth != 0) {
+			return false;
+		}
+
+		mTodayEpochDay = today;
+		int date = civilFromEpochDay(today);
+		mTodayMonth = monthOf(date);
+		mTodayDay = dayOf(date);
+		return true;
+	}
+
+	/**
+	 * @return the epoch day of the current "today" snapshot
+	 */
+	public int getTodayEpochDay() {
+		return mTodayEpochDay;
+	}
+
+	/**
+	 * Converts a time in milliseconds to the number of days since 1970-01-01
+	 * in the time zone of this calculator
+	 *
+	 * @param timeInMillis the time to convert
+	 * @return the local epoch day
+	 */
+	public int toEpochDay(long timeInMillis) {
+		long local = timeInMillis + mTimeZone.getOffset(timeInMillis);
+		return (int) floorDiv(local, MILLISECONDS_IN_DAY);
+	}
+
+	/**
+	 * Converts an epoch day back to milliseconds, at midday local time in the
+	 * time zone of this calculator so daylight saving shifts stay on the day
+	 *
+	 * @param epochDay the local epoch day
+	 * @return the time in milliseconds
+	 */
+	public long toMillis(int epochDay) {
+		long localMidday = epochDay * MILLISECONDS_IN_DAY + MILLISECONDS_IN_DAY / 2;
+		return localMidday - mTimeZone.getOffset(localMidday);
+	}
+
+	/**
+	 * Computes the age bucket for a birth date stored in milliseconds, the
+	 * result is read back with getUnit(), getCount(), getBirthMonth() and
+	 * getBirthDay()
+	 *
+	 * @param birthdateInMillis the birth date in milliseconds
+	 */
+	public void compute(long birthdateInMillis) {
+		computeFromEpochDay(toEpochDay(birthdateInMillis));
+	}
+
+	/**
+	 * Computes the age bucket for a birth date given as an epoch day
+	 *
+	 * TODO: not currently taking into consideration negatives - necessary?
+	 *
+	 * @param birthEpochDay the local epoch day of the birth date
+	 */
+	public void computeFromEpochDay(int birthEpochDay) {
+
+		int date = civilFromEpochDay(birthEpochDay);
+		mBirthMonth = monthOf(date);
+		mBirthDay = dayOf(date);
+
+		int ageInDays = mTodayEpochDay - birthEpochDay;
+
+		// if in the area to display days, count in days
+		if (ageInDays < NUM_DAYS_FOR_DAYS_DISPLAY) {
+			mUnit = UNIT_DAYS;
+			mCount = ageInDays;
+		}
+		// if in the area to display weeks, count in weeks
+		else if (ageInDays < NUM_DAYS_FOR_WEEKS_DISPLAY) {
+			mUnit = UNIT_WEEKS;
+			mCount = ageInDays / NUM_DAYS_IN_WEEK;
+		}
+		// beyond the month display we count years
+		else if (ageInDays >= NUM_DAYS_FOR_MONTHS_DISPLAY) {
+			mUnit = UNIT_YEARS;
+			mCount = ageInDays / NUM_DAYS_IN_YEAR;
+		}
+		// we must be in month display
+		else {
+			computeMonths(ageInDays);
+		}
+	}
+
+	/*
+	 * Counts the months by calendar date rather than an average month length,
+	 * falling back to weeks when there are not yet enough whole months
+	 */
+	private void computeMonths(int ageInDays) {
+
+		int ageInMonths = (ageInDays / NUM_DAYS_IN_YEAR) * NUM_MONTHS_PER_YEAR;
+
+		int monthDiff = (mTodayMonth - mBirthMonth);
+		if (monthDiff < 0) {
+			ageInMonths += (NUM_MONTHS_PER_YEAR + monthDiff);
+		}
+		// if it is the same birth month, it may be close to 12 or 24 months
+		else if ((monthDiff == 0) && (mTodayDay < mBirthDay)) {
+			ageInMonths += NUM_MONTHS_PER_YEAR;
+		}
+		else {
+			ageInMonths += monthDiff;
+		}
+
+		// subtract a month if today's day is before the birth day
+		if (mTodayDay < mBirthDay) {
+			ageInMonths--;
+		}
+
+		// the number of days for months can be a little longer than the weeks,
+		// and weeks read better than 1 month
+		if (ageInMonths < NUM_MONTHS_FOR_DISPLAY) {
+			mUnit = UNIT_WEEKS;
+			mCount = ageInDays / NUM_DAYS_IN_WEEK;
+		} else {
+			mUnit = UNIT_MONTHS;
+			mCount = ageInMonths;
+		}
+	}
+
+	/**
+	 * @return one of the UNIT_ constants for the last computed age
+	 */
+	public int getUnit() {
+		return mUnit;
+	}
+
+	/**
+	 * @return the number of units for the last computed age
+	 */
+	public int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * @return the birth month (1 - 12) of the last computed age
+	 */
+	public int getBirthMonth() {
+		return mBirthMonth;
+	}
+
+	/**
+	 * @return the birth day of month (1 - 31) of the last computed age
+	 */
+	public int getBirthDay() {
+		return mBirthDay;
+	}
+
+	/**
+	 * Converts an epoch day into a packed proleptic Gregorian date, which is
+	 * unpacked with yearOf(), monthOf() and dayOf()
+	 *
+	 * @param epochDay the number of days since 1970-01-01
+	 * @return the packed date
+	 */
+	public static int civilFromEpochDay(int epochDay) {
+		// shift the epoch to 0000-03-01 so the leap day is the last day of the year
+		int z = epochDay + 719468;
+		int era = (z >= 0 ? z : z - 146096) / 146097;
+		int dayOfEra = z - era * 146097;
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int mp = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		int month = mp < 10 ? mp + 3 : mp - 9;
+		int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		return (year << 9) | (month << 5) | day;
+	}
+
+	/**
+	 * Converts a proleptic Gregorian date into an epoch day
+	 *
+	 * @param year the year
+	 * @param month the month, 1 - 12
+	 * @param day the day of month, 1 - 31
+	 * @return the number of days since 1970-01-01
+	 */
+	public static int epochDayFromCivil(int year, int month, int day) {
+		int y = month <= 2 ? year - 1 : year;
+		int era = (y >= 0 ? y : y - 399) / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	public static int yearOf(int packedDate) {
+		return packedDate >> 9;
+	}
+
+	public static int monthOf(int packedDate) {
+		return (packedDate >> 5) & 0xF;
+	}
+
+	public static int dayOf(int packedDate) {
+		return packedDate & 0x1F;
+	}
+
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		if ((x % y != 0) && ((x ^ y) < 0)) {
+			q--;
+		}
+		return q;
+	}
+}
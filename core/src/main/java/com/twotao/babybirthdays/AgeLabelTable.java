@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * A side table of precomputed age labels for the birthday list, keyed by the
+ * row id. The age bucket (unit and count) and the birth month and day of every
+ * row are worked out once in a batch pass when the list loads, so binding a
+ * row only needs to look the values up.
+ *
+ * The labels only change when the calendar day rolls over, which is handled
+ * by refreshToday(), or when a birthday is edited, which is handled by put().
+ * The table is an open addressed hash over plain primitive arrays to keep it
+ * compact and free of per-row objects.
+ *
+ * @author Jim
+ *
+ */
+public class AgeLabelTable {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// row ids start at 1, so 0 marks an empty slot
+	private static final long EMPTY = 0;
+
+	private final AgeCalculator mAgeCalculator;
+
+	private long[] mIds;
+	private int[] mBirthEpochDays;
+	private int[] mCounts;
+	private byte[] mUnits;
+	private byte[] mBirthMonths;
+	private byte[] mBirthDays;
+	private int mSize;
+
+	/**
+	 * Creates an empty table, with today taken from the current time
+	 */
+	public AgeLabelTable() {
+		mAgeCalculator = new AgeCalculator();
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Adds the labels for every row of the model that is not already in the
+	 * table, in a single pass
+	 *
+	 * @param model the birthdays to label
+	 */
+	public void loadMissing(BirthdayListModel model) {
+
+		int size = model.size();
+		ensureCapacity(size);
+		for (int i = 0; i < size; i++) {
+			long rowId = model.getId(i);
+			if (indexOf(rowId) < 0) {
+				put(rowId, model.getBirthEpochDay(i));
+			}
+		}
+	}
+
+	/**
+	 * Adds or replaces the labels for a single row
+	 *
+	 * @param rowId id of the birthday
+	 * @param birthEpochDay the birth date as a local epoch day
+	 */
+	public void put(long rowId, int birthEpochDay) {
+
+		if ((mSize + 1) * 2 > mIds.length) {
+			resize(mIds.length * 2);
+		}
+
+		int index = slotFor(rowId);
+		if (mIds[index] == EMPTY) {
+			mIds[index] = rowId;
+			mSize++;
+		}
+		mBirthEpochDays[index] = birthEpochDay;
+		computeLabel(index);
+	}
+
+	/**
+	 * Removes the labels for a single row, if it is in the table
+	 *
+	 * @param rowId id of the birthday
+	 */
+	public void remove(long rowId) {
+
+		int index = indexOf(rowId);
+		if (index < 0) {
+			return;
+		}
+
+		// shift the following entries of the probe run back, so lookups never
+		// stop early at the hole that is left
+		int mask = mIds.length - 1;
+		int hole = index;
+		int next = (hole + 1) & mask;
+		while (mIds[next] != EMPTY) {
+			int home = hash(mIds[next]) & mask;
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				moveSlot(next, hole);
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		mIds[hole] = EMPTY;
+		mSize--;
+	}
+
+	/**
+	 * Moves "today" to the current date, recomputing every label if the
+	 * calendar day has changed since the last snapshot
+	 *
+	 * @return true if the labels were recomputed
+	 */
+	public boolean refreshToday() {
+
+		if (!mAgeCalculator.setToday(System.currentTimeMillis())) {
+			return false;
+		}
+
+		for (int i = 0; i < mIds.length; i++) {
+			if (mIds[i] != EMPTY) {
+				computeLabel(i);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the slot holding the labels for a row
+	 *
+	 * @param rowId id of the birthday
+	 * @return the slot index to pass to the getters, or -1 if not found
+	 */
+	public int indexOf(long rowId) {
+		int index = slotFor(rowId);
+		return (mIds[index] == EMPTY) ? -1 : index;
+	}
+
+	/**
+	 * @return one of the AgeCalculator.UNIT_ constants
+	 */
+	public int getUnit(int index) {
+		return mUnits[index];
+	}
+
+	public int getCount(int index) {
+		return mCounts[index];
+	}
+
+	/**
+	 * @return the birth month, 1 - 12
+	 */
+	public int getBirthMonth(int index) {
+		return mBirthMonths[index];
+	}
+
+	/**
+	 * @return the birth day of month, 1 - 31
+	 */
+	public int getBirthDay(int index) {
+		return mBirthDays[index];
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	/*
+	 * Computes the labels of a slot from its stored birth epoch day
+	 */
+	private void computeLabel(int index) {
+
+		mAgeCalculator.computeFromEpochDay(mBirthEpochDays[index]);
+		mUnits[index] = (byte) mAgeCalculator.getUnit();
+		mCounts[index] = mAgeCalculator.getCount();
+		mBirthMonths[index] = (byte) mAgeCalculator.getBirthMonth();
+		mBirthDays[index] = (byte) mAgeCalculator.getBirthDay();
+	}
+
+	/*
+	 * Returns the slot that holds the row id, or the empty slot where it
+	 * belongs
+	 */
+	private int slotFor(long rowId) {
+
+		int mask = mIds.length - 1;
+		int index = hash(rowId) & mask;
+		while (mIds[index] != EMPTY && mIds[index] != rowId) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	private void moveSlot(int from, int to) {
+		mIds[to] = mIds[from];
+		mBirthEpochDays[to] = mBirthEpochDays[from];
+		mCounts[to] = mCounts[from];
+		mUnits[to] = mUnits[from];
+		mBirthMonths[to] = mBirthMonths[from];
+		mBirthDays[to] = mBirthDays[from];
+	}
+
+	private void ensureCapacity(int rows) {
+		int capacity = mIds.length;
+		while ((mSize + rows) * 2 > capacity) {
+			capacity *= 2;
+		}
+		if (capacity != mIds.length) {
+			resize(capacity);
+		}
+	}
+
+	private void resize(int capacity) {
+
+		long[] ids = mIds;
+		int[] birthEpochDays = mBirthEpochDays;
+		int[] counts = mCounts;
+		byte[] units = mUnits;
+		byte[] birthMonths = mBirthMonths;
+		byte[] birthDays = mBirthDays;
+
+		allocate(capacity);
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] != EMPTY) {
+				int index = slotFor(ids[i]);
+				mIds[index] = ids[i];
+				mBirthEpochDays[index] = birthEpochDays[i];
+				mCounts[index] = counts[i];
+				mUnits[index] = units[i];
+				mBirthMonths[index] = birthMonths[i];
+				mBirthDays[index] = birthDays[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		mIds = new long[capacity];
+		mBirthEpochDays = new int[capacity];
+		mCounts = new int[capacity];
+		mUnits = new byte[capacity];
+		mBirthMonths = new byte[capacity];
+		mBirthDays = new byte[capacity];
+	}
+
+	private static int hash(long rowId) {
+		long h = rowId * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,522 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * Counts of the birthdays by age, kept up to date one changed row at a time
+ * so the list header never has to look at every row.
+ *
+ * The rows are counted in a FenwickTree with a bucket for each birth epoch
+ * day, alongside a second tree of the birth days themselves, so the number
+ * and average age of the birthdays in any range of ages take O(log n). The
+ * tree covers a window of WINDOW_DAYS birth days, about 44 years, ending a
+ * little after today to leave room for due dates. The birth days before and
+ * after the window are each counted in one extra bucket, so a range of ages
+ * that reaches past the window counts all of the rows beyond it.
+ *
+ * The counts of the three age groups shown in the header are also kept as
+ * plain counters. As today advances the rows move between the groups, so
+ * refreshToday() rebases the counters from the tree when the calendar day
+ * changes, and moves the window along once today nears its end.
+ *
+ * The birth day of every row is kept by row id, so an update or delete only
+ * needs the id. put() and remove() can be repeated for the same change.
+ * Statistics made by count() keep only the trees, for a table that is too
+ * long to hold a row id for each of its rows. They are changed by birth day
+ * instead, with add(), move() and subtract(), which need the day a row had
+ * before the change and must be made exactly once for each change.
+ *
+ * @author Jim
+ *
+ */
+public final class AgeStatistics {
+
+	/**
+	 * Under 8 weeks old, shown in days and weeks
+	 */
+	public static final int GROUP_WEEKS = 0;
+
+	/**
+	 * From 8 weeks to 2 years old, shown in months
+	 */
+	public static final int GROUP_MONTHS = 1;
+
+	/**
+	 * 2 years old and over, shown in years
+	 */
+	public static final int GROUP_YEARS = 2;
+
+	public static final int GROUP_COUNT = 3;
+
+	// the youngest age in days of each group, with the age after the last
+	private static final int[] GROUP_MIN_AGES = {
+		0, AgeCalculator.NUM_DAYS_FOR_WEEKS_DISPLAY, AgeCalculator.NUM_DAYS_FOR_MONTHS_DISPLAY,
+		Integer.MAX_VALUE
+	};
+
+	private static final int WINDOW_DAYS = 1 << 14;
+
+	// how far past today the window reaches when it is placed
+	private static final int FUTURE_DAYS = 1 << 9;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// row ids start at 1, so 0 marks an empty slot
+	private static final long EMPTY = 0;
+
+	private final AgeCalculator mAgeCalculator;
+
+	// open addressed by row id, as in AgeLabelTable, or null when only the
+	// counts are kept
+	private long[] mIds;
+	private int[] mBirthEpochDays;
+	private int mSize;
+
+	// the birth day of bucket 1, bucket 0 is every day before it and bucket
+	// WINDOW_DAYS + 1 every day after the window
+	private int mWindowStart;
+	private final FenwickTree mCounts = new FenwickTree(WINDOW_DAYS + 2);
+
+	// the birth days less mWindowStart, which keeps the sums small
+	private final FenwickTree mDaySums = new FenwickTree(WINDOW_DAYS + 2);
+
+	private final int[] mGroupCounts = new int[GROUP_COUNT];
+	private final long[] mGroupDaySums = new long[GROUP_COUNT];
+
+	/**
+	 * Creates empty statistics, with today taken from the current time
+	 */
+	public AgeStatistics() {
+		this(true);
+	}
+
+	private AgeStatistics(boolean keepRows) {
+		mAgeCalculator = new AgeCalculator();
+		mWindowStart = windowStartFor(mAgeCalculator.getTodayEpochDay());
+		if (keepRows) {
+			allocate(INITIAL_CAPACITY);
+		}
+	}
+
+	/**
+	 * Counts every row of a model
+	 *
+	 * @param model all of the birthdays
+	 * @return the statistics of the rows
+	 */
+	public static AgeStatistics load(BirthdayListModel model) {
+
+		AgeStatistics statistics = new AgeStatistics();
+		int size = model.size();
+		statistics.ensureCapacity(size);
+		for (int i = 0; i < size; i++) {
+			statistics.put(model.getId(i), model.getBirthEpochDay(i));
+		}
+		return statistics;
+	}
+
+	/**
+	 * Counts the rows of a repository query without keeping them, so the
+	 * memory used does not grow with the number of rows. The statistics are
+	 * changed by add(), move() and subtract() afterwards, rather than put()
+	 * and remove(). The rows are read to the end and left open.
+	 *
+	 * @param rows all of the birthdays
+	 * @return the statistics of the rows
+	 */
+	public static AgeStatistics count(BirthdayRepository.Rows rows) {
+
+		AgeStatistics statistics = new AgeStatistics(false);
+		while (rows.next()) {
+			statistics.count(rows.getBirthEpochDay(), 1);
+			statistics.mSize++;
+		}
+		return statistics;
+	}
+
+	/**
+	 * @return true if the rows are kept, so put() and remove() can be used,
+	 *         false for statistics made by count()
+	 */
+	public boolean keepsRows() {
+		return mIds != null;
+	}
+
+	/**
+	 * Adds or moves a single row
+	 *
+	 * @param rowId id of the birthday
+	 * @param birthEpochDay the birth date as a local epoch day
+	 */
+	public void put(long rowId, int birthEpochDay) {
+
+		checkKeepsRows();
+		if ((mSize + 1) * 2 > mIds.length) {
+			resize(mIds.length * 2);
+		}
+
+		int index = slotFor(rowId);
+		if (mIds[index] == EMPTY) {
+			mIds[index] = rowId;
+			mSize++;
+		} else {
+			count(mBirthEpochDays[index], -1);
+		}
+		mBirthEpochDays[index] = birthEpochDay;
+		count(birthEpochDay, 1);
+	}
+
+	/**
+	 * Removes a single row, if it is counted
+	 *
+	 * @param rowId id of the birthday
+	 */
+	public void remove(long rowId) {
+
+		checkKeepsRows();
+		int index = slotFor(rowId);
+		if (mIds[index] == EMPTY) {
+			return;
+		}
+		count(mBirthEpochDays[index], -1);
+
+		// shift the following entries of the probe run back, as in
+		// AgeLabelTable
+		int mask = mIds.length - 1;
+		int hole = index;
+		int next = (hole + 1) & mask;
+		while (mIds[next] != EMPTY) {
+			int home = hash(mIds[next]) & mask;
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				mIds[hole] = mIds[next];
+				mBirthEpochDays[hole] = mBirthEpochDays[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		mIds[hole] = EMPTY;
+		mSize--;
+	}
+
+	/**
+	 * Counts a new row in statistics made by count()
+	 *
+	 * @param birthEpochDay the birth date as a local epoch day
+	 */
+	public void add(int birthEpochDay) {
+		checkCountsOnly();
+		count(birthEpochDay, 1);
+		mSize++;
+	}
+
+	/**
+	 * Moves a row of statistics made by count() to a new birth date
+	 *
+	 * @param oldBirthEpochDay the birth date the row had
+	 * @param birthEpochDay the new birth date
+	 */
+	public void move(int oldBirthEpochDay, int birthEpochDay) {
+		checkCountsOnly();
+		count(oldBirthEpochDay, -1);
+		count(birthEpochDay, 1);
+	}
+
+	/**
+	 * Takes a deleted row out of statistics made by count()
+	 *
+	 * @param birthEpochDay the birth date the row had
+	 */
+	public void subtract(int birthEpochDay) {
+		checkCountsOnly();
+		count(birthEpochDay, -1);
+		mSize--;
+	}
+
+	/**
+	 * Moves "today" to the current date. If the calendar day has changed the
+	 * group counters are worked out again from the tree, and if today has
+	 * come near the end of the window the tree is rebuilt around it.
+	 *
+	 * @return true if the calendar day changed
+	 */
+	public boolean refreshToday() {
+
+		if (!mAgeCalculator.setToday(System.currentTimeMillis())) {
+			return false;
+		}
+
+		int windowStart = windowStartFor(mAgeCalculator.getTodayEpochDay());
+		if (Math.abs(windowStart - mWindowStart) > FUTURE_DAYS / 2) {
+			rebuild(windowStart);
+		} else {
+			rebaseGroups();
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of rows counted
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * @return the epoch day the ages are counted to
+	 */
+	public int getTodayEpochDay() {
+		return mAgeCalculator.getTodayEpochDay();
+	}
+
+	/*
+	 * The birth day of the first bucket of the window
+	 */
+	int getWindowStart() {
+		return mWindowStart;
+	}
+
+	/**
+	 * @param group one of the GROUP_ constants
+	 * @return the number of rows in the group
+	 */
+	public int getGroupCount(int group) {
+		return mGroupCounts[group];
+	}
+
+	/**
+	 * @param group one of the GROUP_ constants
+	 * @return the average age in days of the rows in the group, rounded
+	 *         down, or -1 if the group is empty
+	 */
+	public int getGroupAverageAge(int group) {
+		return averageAge(mGroupCounts[group], mGroupDaySums[group]);
+	}
+
+	/**
+	 * Counts the rows of an age in days within a range, from the tree
+	 *
+	 * @param minAge the youngest age to count
+	 * @param maxAge the age after the oldest to count
+	 * @return the number of rows at least minAge and under maxAge days old
+	 */
+	public int countAged(int minAge, int maxAge) {
+		int from = bucketForAge(maxAge - 1);
+		int to = bucketForAge(minAge) + 1;
+		return (from < to) ? (int) mCounts.sum(from, to) : 0;
+	}
+
+	/**
+	 * Works out the average age of the rows in a range of ages, from the tree
+	 *
+	 * @param minAge the youngest age to count
+	 * @param maxAge the age after the oldest to count
+	 * @return the average age in days, rounded down, or -1 if no rows are in
+	 *         the range
+	 */
+	public int averageAged(int minAge, int maxAge) {
+		int from = bucketForAge(maxAge - 1);
+		int to = bucketForAge(minAge) + 1;
+		if (from >= to) {
+			return -1;
+		}
+		long count = mCounts.sum(from, to);
+		return averageAge(count, mDaySums.sum(from, to) + count * mWindowStart);
+	}
+
+	/*
+	 * The average age of count rows whose birth days add up to daySum
+	 */
+	private int averageAge(long count, long daySum) {
+		if (count == 0) {
+			return -1;
+		}
+		long ageSum = count * mAgeCalculator.getTodayEpochDay() - daySum;
+		return (int) (ageSum / count);
+	}
+
+	/*
+	 * Adds or takes away a birth day in the trees and in its group counter
+	 */
+	private void count(int birthEpochDay, int delta) {
+
+		int bucket = bucketForDay(birthEpochDay);
+		mCounts.add(bucket, delta);
+		mDaySums.add(bucket, (long) delta * (birthEpochDay - mWindowStart));
+
+		int group = groupOf(mAgeCalculator.getTodayEpochDay() - birthEpochDay);
+		if (group >= 0) {
+			mGroupCounts[group] += delta;
+			mGroupDaySums[group] += (long) delta * birthEpochDay;
+		}
+	}
+
+	/*
+	 * Works out the group counters again from the trees, after today moved
+	 */
+	private void rebaseGroups() {
+
+		for (int group = 0; group < GROUP_COUNT; group++) {
+			int from = bucketForAge(GROUP_MIN_AGES[group + 1] - 1);
+			int to = bucketForAge(GROUP_MIN_AGES[group]) + 1;
+			long count = mCounts.sum(from, to);
+			mGroupCounts[group] = (int) count;
+			mGroupDaySums[group] = mDaySums.sum(from, to) + count * mWindowStart;
+		}
+	}
+
+	/*
+	 * Places the window at a new start and counts every row again, package
+	 * private so the tests can move the window without waiting for today to
+	 * move
+	 */
+	void rebuild(int windowStart) {
+
+		if (mIds == null) {
+			moveWindow(windowStart);
+			return;
+		}
+
+		mWindowStart = windowStart;
+		mCounts.clear();
+		mDaySums.clear();
+		for (int i = 0; i < GROUP_COUNT; i++) {
+			mGroupCounts[i] = 0;
+			mGroupDaySums[i] = 0;
+		}
+		for (int i = 0; i < mIds.length; i++) {
+			if (mIds[i] != EMPTY) {
+				count(mBirthEpochDays[i], 1);
+			}
+		}
+	}
+
+	/*
+	 * Places the window at a new start without the rows, moving the count of
+	 * each birth day in the old window to the bucket of the day in the new
+	 * one. The days of the rows before and after the old window are not
+	 * known, so they stay before and after the new one.
+	 */
+	private void moveWindow(int windowStart) {
+
+		int buckets = WINDOW_DAYS + 2;
+		long[] counts = new long[buckets];
+		long[] daySums = new long[buckets];
+		for (int i = 0; i < buckets; i++) {
+			counts[i] = mCounts.get(i);
+			daySums[i] = mDaySums.get(i) + counts[i] * mWindowStart;
+		}
+
+		int oldWindowStart = mWindowStart;
+		mWindowStart = windowStart;
+		mCounts.clear();
+		mDaySums.clear();
+		for (int i = 0; i < buckets; i++) {
+			if (counts[i] == 0) {
+				continue;
+			}
+			int bucket = (i == 0 || i == buckets - 1) ? i : bucketForDay(oldWindowStart + i - 1);
+			mCounts.add(bucket, counts[i]);
+			mDaySums.add(bucket, daySums[i] - counts[i] * mWindowStart);
+		}
+		rebaseGroups();
+	}
+
+	private void checkKeepsRows() {
+		if (mIds == null) {
+			throw new IllegalStateException("The rows of counted statistics are not kept");
+		}
+	}
+
+	private void checkCountsOnly() {
+		if (mIds != null) {
+			throw new IllegalStateException("The rows of these statistics are kept by row id");
+		}
+	}
+
+	private static int windowStartFor(int todayEpochDay) {
+		return todayEpochDay + FUTURE_DAYS - WINDOW_DAYS;
+	}
+
+	private static int groupOf(int age) {
+		if (age < 0) {
+			return -1;
+		}
+		int group = 0;
+		while (age >= GROUP_MIN_AGES[group + 1]) {
+			group++;
+		}
+		return group;
+	}
+
+	private int bucketForDay(int birthEpochDay) {
+		long offset = (long) birthEpochDay - mWindowStart;
+		if (offset < 0) {
+			return 0;
+		}
+		return (offset >= WINDOW_DAYS) ? WINDOW_DAYS + 1 : (int) offset + 1;
+	}
+
+	/*
+	 * The bucket of the rows of an age in days, which may be in the future
+	 * for a negative age
+	 */
+	private int bucketForAge(int age) {
+		long birthEpochDay = (long) mAgeCalculator.getTodayEpochDay() - age;
+		if (birthEpochDay < mWindowStart) {
+			return 0;
+		}
+		return (birthEpochDay >= mWindowStart + WINDOW_DAYS) ? WINDOW_DAYS + 1
+				: (int) (birthEpochDay - mWindowStart) + 1;
+	}
+
+	/*
+	 * Returns the slot that holds the row id, or the empty slot where it
+	 * belongs
+	 */
+	private int slotFor(long rowId) {
+
+		int mask = mIds.length - 1;
+		int index = hash(rowId) & mask;
+		while (mIds[index] != EMPTY && mIds[index] != rowId) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	private void ensureCapacity(int rows) {
+		int capacity = mIds.length;
+		while ((mSize + rows) * 2 > capacity) {
+			capacity *= 2;
+		}
+		if (capacity != mIds.length) {
+			resize(capacity);
+		}
+	}
+
+	private void resize(int capacity) {
+
+		long[] ids = mIds;
+		int[] birthEpochDays = mBirthEpochDays;
+
+		allocate(capacity);
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] != EMPTY) {
+				int index = slotFor(ids[i]);
+				mIds[index] = ids[i];
+				mBirthEpochDays[index] = birthEpochDays[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		mIds = new long[capacity];
+		mBirthEpochDays = new int[capacity];
+	}
+
+	private static int hash(long rowId) {
+		long h = rowId * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
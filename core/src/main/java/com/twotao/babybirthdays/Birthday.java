@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * A single stored birthday, as read back from a BirthdayRepository. The
+ * value is immutable, so it can be cached and handed between threads.
+ *
+ * @author Jim
+ *
+ */
+public final class Birthday {
+
+	private final long mId;
+	private final String mName;
+	private final int mBirthEpochDay;
+
+	/**
+	 * @param id the row id of the birthday
+	 * @param name the name of the person who has the birthday
+	 * @param birthEpochDay the birth date as a local epoch day
+	 */
+	public Birthday(long id, String name, int birthEpochDay) {
+		mId = id;
+		mName = name;
+		mBirthEpochDay = birthEpochDay;
+	}
+
+	public long getId() {
+		return mId;
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	/**
+	 * @return the birth date as a local epoch day, see AgeCalculator
+	 */
+	public int getBirthEpochDay() {
+		return mBirthEpochDay;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof Birthday)) {
+			return false;
+		}
+		Birthday other = (Birthday) o;
+		return mId == other.mId && mBirthEpochDay == other.mBirthEpochDay
+				&& (mName == null ? other.mName == null : mName.equals(other.mName));
+	}
+
+	@Override
+	public int hashCode() {
+		int result = (int) (mId ^ (mId >>> 32));
+		result = 31 * result + (mName == null ? 0 : mName.hashCode());
+		result = 31 * result + mBirthEpochDay;
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "Birthday[" + mId + ", " + mName + ", " + mBirthEpochDay + "]";
+	}
+}
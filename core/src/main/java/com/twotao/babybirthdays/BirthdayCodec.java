@@ -0,0 +1,571 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Streams birthdays to and from files, one record at a time through a fixed
+ * size buffer, so files of any length can be read or written in constant
+ * memory. A record is a name and a birth date given as an epoch day.
+ *
+ * Two formats are supported. CSV has a "name,birthdate" header and one
+ * record per line with the date as yyyy-MM-dd, quoting names as needed. The
+ * binary format starts with a four byte magic and version, followed by each
+ * record as the varint length of the UTF-8 name, the name bytes and the
+ * epoch day as a four byte int.
+ *
+ * The codec only reads and writes the channels, it is up to the caller to
+ * open and close them.
+ *
+ * @author Jim
+ *
+ */
+public final class BirthdayCodec {
+
+	public static final int FORMAT_CSV = 0;
+	public static final int FORMAT_BINARY = 1;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// the longest name a binary record may hold: the whole record, with a
+	// five byte length and the four byte date, must fit in the buffer,
+	// longer names are refused when written and treated as a corrupt file
+	// when read
+	static final int MAX_NAME_BYTES = BUFFER_SIZE - 9;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final byte[] CSV_HEADER = "name,birthdate\n".getBytes(UTF_8);
+	private static final byte[] BINARY_MAGIC = { 'B', 'B', 'D', 1 };
+
+	private BirthdayCodec() {
+	}
+
+	/**
+	 * Reads the records of a file one at a time, with next() moving to the
+	 * following record
+	 */
+	public abstract static class Reader {
+
+		String mName;
+		int mBirthEpochDay;
+
+		/**
+		 * Moves to the next record
+		 *
+		 * @return false at the end of the file
+		 * @throws IOException if the file could not be read or is malformed
+		 */
+		public abstract boolean next() throws IOException;
+
+		public String getName() {
+			return mName;
+		}
+
+		public int getBirthEpochDay() {
+			return mBirthEpochDay;
+		}
+	}
+
+	/**
+	 * Writes records one at a time, flush() must be called once the last
+	 * record is written
+	 */
+	public abstract static class Writer {
+
+		/**
+		 * Writes a record
+		 *
+		 * @param name the name of the birthday
+		 * @param birthEpochDay the birth date as an epoch day
+		 * @throws IOException if the record could not be written
+		 */
+		public abstract void write(String name, int birthEpochDay) throws IOException;
+
+		/**
+		 * Writes out anything still buffered
+		 *
+		 * @throws IOException if the buffer could not be written
+		 */
+		public abstract void flush() throws IOException;
+	}
+
+	/**
+	 * Creates a reader for a channel
+	 *
+	 * @param channel the channel to read from
+	 * @param format FORMAT_CSV or FORMAT_BINARY
+	 */
+	public static Reader newReader(ReadableByteChannel channel, int format) {
+		return (format == FORMAT_BINARY) ? new BinaryReader(channel) : new CsvReader(channel);
+	}
+
+	/**
+	 * Creates a writer for a channel
+	 *
+	 * @param channel the channel to write to
+	 * @param format FORMAT_CSV or FORMAT_BINARY
+	 */
+	public static Writer newWriter(WritableByteChannel channel, int format) {
+		return (format == FORMAT_BINARY) ? new BinaryWriter(channel) : new CsvWriter(channel);
+	}
+
+	/*
+	 * Buffered byte input from a channel
+	 */
+	private static class Input {
+
+		private final ReadableByteChannel mChannel;
+		final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		Input(ReadableByteChannel channel) {
+			mChannel = channel;
+			mBuffer.flip();
+		}
+
+		/*
+		 * Returns the next byte, or -1 at the end of the channel
+		 */
+		int read() throws IOException {
+			if (!mBuffer.hasRemaining() && !fill(1)) {
+				return -1;
+			}
+			return mBuffer.get() & 0xFF;
+		}
+
+		/*
+		 * Makes sure at least count bytes are buffered, returning false if
+		 * the channel ends first
+		 */
+		boolean fill(int count) throws IOException {
+			if (mBuffer.remaining() >= count) {
+				return true;
+			}
+			if (count > mBuffer.capacity()) {
+				// the channel would be read into a full buffer forever
+				throw new IOException("Record larger than the buffer");
+			}
+			mBuffer.compact();
+			try {
+				while (mBuffer.position() < count) {
+					if (mChannel.read(mBuffer) < 0) {
+						return false;
+					}
+				}
+			} finally {
+				mBuffer.flip();
+			}
+			return true;
+		}
+	}
+
+	/*
+	 * Buffered byte output to a channel
+	 */
+	private static class Output {
+
+		private final WritableByteChannel mChannel;
+		final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		Output(WritableByteChannel channel) {
+			mChannel = channel;
+		}
+
+		/*
+		 * Makes room for at least count bytes in the buffer
+		 */
+		void reserve(int count) throws IOException {
+			if (mBuffer.remaining() < count) {
+				flush();
+			}
+		}
+
+		void put(byte[] bytes, int offset, int length) throws IOException {
+			while (length > 0) {
+				reserve(1);
+				int chunk = Math.min(length, mBuffer.remaining());
+				mBuffer.put(bytes, offset, chunk);
+				offset += chunk;
+				length -= chunk;
+			}
+		}
+
+		void flush() throws IOException {
+			mBuffer.flip();
+			while (mBuffer.hasRemaining()) {
+				mChannel.write(mBuffer);
+			}
+			mBuffer.clear();
+		}
+	}
+
+	private static class CsvReader extends Reader {
+
+		private final Input mInput;
+
+		// the bytes of the field being read, grown as needed
+		private byte[] mField = new byte[256];
+		private int mFieldLength;
+
+		// the character that ended the last field, or -1 at the end of input
+		private int mTerminator;
+		private int mLine;
+
+		CsvReader(ReadableByteChannel channel) {
+			mInput = new Input(channel);
+		}
+
+		@Override
+		public boolean next() throws IOException {
+
+			while (true) {
+				mLine++;
+				readField();
+
+				// skip blank lines
+				if (mFieldLength == 0 && mTerminator != ',') {
+					if (mTerminator < 0) {
+						return false;
+					}
+					continue;
+				}
+
+				String name = new String(mField, 0, mFieldLength, UTF_8);
+				if (mTerminator != ',') {
+					throw new IOException("Missing birth date on line " + mLine);
+				}
+
+				readField();
+				int birthEpochDay;
+				try {
+					birthEpochDay = parseDate(mField, mFieldLength);
+				} catch (IOException e) {
+					// the first line may be a header
+					if (mLine == 1) {
+						skipLine();
+						continue;
+					}
+					throw new IOException("Bad birth date on line " + mLine);
+				}
+
+				skipLine();
+				mName = name;
+				mBirthEpochDay = birthEpochDay;
+				return true;
+			}
+		}
+
+		/*
+		 * Reads a single field into mField, unquoting it if needed, and
+		 * records the character that ended it
+		 */
+		private void readField() throws IOException {
+
+			mFieldLength = 0;
+			int b = mInput.read();
+
+			if (b == '"') {
+				while (true) {
+					b = mInput.read();
+					if (b < 0) {
+						throw new EOFException("Unterminated quote on line " + mLine);
+					}
+					if (b == '"') {
+						b = mInput.read();
+						if (b != '"') {
+							break;
+						}
+					}
+					if (b == '\n') {
+						mLine++;
+					}
+					append(b);
+				}
+			} else {
+				while (b >= 0 && b != ',' && b != '\n' && b != '\r') {
+					append(b);
+					b = mInput.read();
+				}
+			}
+
+			if (b == '\r') {
+				b = mInput.read();
+				if (b != '\n' && b >= 0) {
+					// a lone carriage return ends the line, keep the byte
+					mInput.mBuffer.position(mInput.mBuffer.position() - 1);
+					b = '\n';
+				}
+			}
+			mTerminator = b;
+		}
+
+		/*
+		 * Skips any extra fields up to the end of the current line
+		 */
+		private void skipLine() throws IOException {
+			while (mTerminator == ',') {
+				readField();
+			}
+		}
+
+		private void append(int b) {
+			if (mFieldLength == mField.length) {
+				byte[] field = new byte[mField.length * 2];
+				System.arraycopy(mField, 0, field, 0, mFieldLength);
+				mField = field;
+			}
+			mField[mFieldLength++] = (byte) b;
+		}
+	}
+
+	private static class CsvWriter extends Writer {
+
+		private final Output mOutput;
+		private boolean mHeaderWritten;
+
+		CsvWriter(WritableByteChannel channel) {
+			mOutput = new Output(channel);
+		}
+
+		@Override
+		public void write(String name, int birthEpochDay) throws IOException {
+
+			if (!mHeaderWritten) {
+				mOutput.put(CSV_HEADER, 0, CSV_HEADER.length);
+				mHeaderWritten = true;
+			}
+
+			byte[] bytes = name.getBytes(UTF_8);
+			if (needsQuotes(bytes)) {
+				mOutput.reserve(1);
+				mOutput.mBuffer.put((byte) '"');
+				for (int i = 0; i < bytes.length; i++) {
+					mOutput.reserve(2);
+					if (bytes[i] == '"') {
+						mOutput.mBuffer.put((byte) '"');
+					}
+					mOutput.mBuffer.put(bytes[i]);
+				}
+				mOutput.reserve(1);
+				mOutput.mBuffer.put((byte) '"');
+			} else {
+				mOutput.put(bytes, 0, bytes.length);
+			}
+
+			// ",yyyy-MM-dd\n" with room for a wider year
+			mOutput.reserve(16);
+			mOutput.mBuffer.put((byte) ',');
+			writeDate(mOutput.mBuffer, birthEpochDay);
+			mOutput.mBuffer.put((byte) '\n');
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (!mHeaderWritten) {
+				mOutput.put(CSV_HEADER, 0, CSV_HEADER.length);
+				mHeaderWritten = true;
+			}
+			mOutput.flush();
+		}
+
+		private static boolean needsQuotes(byte[] bytes) {
+			for (int i = 0; i < bytes.length; i++) {
+				byte b = bytes[i];
+				if (b == ',' || b == '"' || b == '\n' || b == '\r') {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static class BinaryReader extends Reader {
+
+		private final Input mInput;
+		private boolean mHeaderRead;
+		private byte[] mNameBytes = new byte[256];
+
+		BinaryReader(ReadableByteChannel channel) {
+			mInput = new Input(channel);
+		}
+
+		@Override
+		public boolean next() throws IOException {
+
+			if (!mHeaderRead) {
+				if (!mInput.fill(BINARY_MAGIC.length)) {
+					throw new EOFException("Missing header");
+				}
+				for (int i = 0; i < BINARY_MAGIC.length; i++) {
+					if (mInput.mBuffer.get() != BINARY_MAGIC[i]) {
+						throw new IOException("Not a birthdays file");
+					}
+				}
+				mHeaderRead = true;
+			}
+
+			// the name length, as a varint
+			int b = mInput.read();
+			if (b < 0) {
+				return false;
+			}
+			int length = 0;
+			int shift = 0;
+			while ((b & 0x80) != 0) {
+				length |= (b & 0x7F) << shift;
+				shift += 7;
+				b = mInput.read();
+				if (b < 0 || shift > 21) {
+					throw new IOException("Bad record length");
+				}
+			}
+			length |= b << shift;
+			if (length > MAX_NAME_BYTES) {
+				throw new IOException("Bad record length");
+			}
+
+			if (length > mNameBytes.length) {
+				mNameBytes = new byte[Math.max(length, mNameBytes.length * 2)];
+			}
+			if (!mInput.fill(length + 4)) {
+				throw new EOFException("Truncated record");
+			}
+			mInput.mBuffer.get(mNameBytes, 0, length);
+
+			mName = new String(mNameBytes, 0, length, UTF_8);
+			mBirthEpochDay = mInput.mBuffer.getInt();
+			return true;
+		}
+	}
+
+	private static class BinaryWriter extends Writer {
+
+		private final Output mOutput;
+		private boolean mHeaderWritten;
+
+		BinaryWriter(WritableByteChannel channel) {
+			mOutput = new Output(channel);
+		}
+
+		@Override
+		public void write(String name, int birthEpochDay) throws IOException {
+
+			writeHeader();
+
+			byte[] bytes = name.getBytes(UTF_8);
+			if (bytes.length > MAX_NAME_BYTES) {
+				throw new IOException("Name too long");
+			}
+
+			mOutput.reserve(5);
+			int length = bytes.length;
+			while (length >= 0x80) {
+				mOutput.mBuffer.put((byte) ((length & 0x7F) | 0x80));
+				length >>>= 7;
+			}
+			mOutput.mBuffer.put((byte) length);
+
+			mOutput.put(bytes, 0, bytes.length);
+			mOutput.reserve(4);
+			mOutput.mBuffer.putInt(birthEpochDay);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			writeHeader();
+			mOutput.flush();
+		}
+
+		private void writeHeader() throws IOException {
+			if (!mHeaderWritten) {
+				mOutput.put(BINARY_MAGIC, 0, BINARY_MAGIC.length);
+				mHeaderWritten = true;
+			}
+		}
+	}
+
+	/*
+	 * Parses a yyyy-MM-dd date into an epoch day
+	 */
+	private static int parseDate(byte[] text, int length) throws IOException {
+
+		int dash1 = indexOf(text, length, '-', 0);
+		int dash2 = (dash1 < 0) ? -1 : indexOf(text, length, '-', dash1 + 1);
+		if (dash1 < 1 || dash2 < 0) {
+			throw new IOException("Bad date");
+		}
+
+		int year = parseDigits(text, 0, dash1);
+		int month = parseDigits(text, dash1 + 1, dash2);
+		int day = parseDigits(text, dash2 + 1, length);
+		if (month < 1 || month > 12 || day < 1 || day > 31) {
+			throw new IOException("Bad date");
+		}
+
+		// a day past the end of its month, such as 02-31, comes back as a
+		// day of the next month
+		int epochDay = AgeCalculator.epochDayFromCivil(year, month, day);
+		if (AgeCalculator.dayOf(AgeCalculator.civilFromEpochDay(epochDay)) != day) {
+			throw new IOException("Bad date");
+		}
+		return epochDay;
+	}
+
+	private static int indexOf(byte[] text, int length, char c, int from) {
+		for (int i = from; i < length; i++) {
+			if (text[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int parseDigits(byte[] text, int start, int end) throws IOException {
+		if (start >= end || end - start > 9) {
+			throw new IOException("Bad date");
+		}
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = text[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new IOException("Bad date");
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/*
+	 * Writes an epoch day as yyyy-MM-dd, the year padded to four digits
+	 */
+	private static void writeDate(ByteBuffer buffer, int epochDay) {
+
+		int date = AgeCalculator.civilFromEpochDay(epochDay);
+		int year = AgeCalculator.yearOf(date);
+		if (year >= 10000) {
+			buffer.put((byte) ('0' + year / 10000));
+			year %= 10000;
+		}
+		buffer.put((byte) ('0' + year / 1000));
+		buffer.put((byte) ('0' + (year / 100) % 10));
+		buffer.put((byte) ('0' + (year / 10) % 10));
+		buffer.put((byte) ('0' + year % 10));
+		buffer.put((byte) '-');
+		putTwoDigits(buffer, AgeCalculator.monthOf(date));
+		buffer.put((byte) '-');
+		putTwoDigits(buffer, AgeCalculator.dayOf(date));
+	}
+
+	private static void putTwoDigits(ByteBuffer buffer, int value) {
+		buffer.put((byte) ('0' + value / 10));
+		buffer.put((byte) ('0' + value % 10));
+	}
+}
@@ -0,0 +1,349 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * The in-memory copy of the birthdays shown in the list. It is loaded once
+ * from the database and then kept up to date by applying the single rows that
+ * were inserted, updated or deleted, so an edit never needs the whole table
+ * queried again.
+ *
+ * Rows are kept in row id order, which is the order they were created in, so
+ * new rows are appended and a row is found by a binary search of its id.
+ *
+ * The rows are held in columns of primitives rather than an object each: the
+ * row ids, the birth dates as local epoch days, and the names packed one
+ * after another into a single shared char buffer, found by an offset and a
+ * length. A row takes about 20 bytes plus two for each character of its
+ * name, and a name can be bound straight from the buffer without creating a
+ * String. The characters written into the buffer are never changed; a name
+ * that is edited is written again at the end, and the buffer is copied into
+ * a new array when it fills up or when most of it is no longer used. A text
+ * view that was given a range of the buffer therefore keeps showing the
+ * right name until it is bound again.
+ *
+ * @author Jim
+ *
+ */
+public class BirthdayListModel {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// the expected length of a name, for sizing the buffer of a new model
+	private static final int AVERAGE_NAME_LENGTH = 12;
+
+	// the length stored for a row with no name
+	static final int NULL_NAME = -1;
+
+	private long[] mIds;
+	private int[] mBirthEpochDays;
+	private int[] mNameOffsets;
+	private int[] mNameLengths;
+	private int mSize;
+
+	// the packed names, used up to mNameEnd, of which mLiveNameChars are
+	// still the names of rows
+	private char[] mNameBuffer;
+	private int mNameEnd;
+	private int mLiveNameChars;
+
+	/**
+	 * Creates an empty model
+	 */
+	public BirthdayListModel() {
+		this(INITIAL_CAPACITY);
+	}
+
+	private BirthdayListModel(int capacity) {
+		mIds = new long[capacity];
+		mBirthEpochDays = new int[capacity];
+		mNameOffsets = new int[capacity];
+		mNameLengths = new int[capacity];
+		mNameBuffer = new char[capacity * AVERAGE_NAME_LENGTH];
+	}
+
+	/**
+	 * Loads a model from the rows of a repository query, ordered by row id.
+	 * The rows are read to the end and left open.
+	 *
+	 * @param rows the birthdays to load
+	 * @return the loaded model
+	 */
+	public static BirthdayListModel load(BirthdayRepository.Rows rows) {
+
+		BirthdayListModel model = new BirthdayListModel(Math.max(rows.getCount(), INITIAL_CAPACITY));
+		while (rows.next()) {
+			model.put(rows.getId(), rows.getName(), rows.getBirthEpochDay());
+		}
+		return model;
+	}
+
+	/*
+	 * Wraps columns read back from a BirthdaySnapshot, which has checked the
+	 * ids are in order and the name lengths add up to the characters
+	 */
+	static BirthdayListModel fromColumns(long[] ids, int[] birthEpochDays, int[] nameLengths,
+			char[] names, int size) {
+
+		BirthdayListModel model = new BirthdayListModel(0);
+		model.mIds = ids;
+		model.mBirthEpochDays = birthEpochDays;
+		model.mNameLengths = nameLengths;
+		model.mNameOffsets = new int[ids.length];
+		model.mNameBuffer = names;
+		model.mSize = size;
+
+		int end = 0;
+		for (int i = 0; i < size; i++) {
+			model.mNameOffsets[i] = end;
+			end += Math.max(nameLengths[i], 0);
+		}
+		model.mNameEnd = end;
+		model.mLiveNameChars = end;
+		return model;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public long getId(int position) {
+		return mIds[position];
+	}
+
+	/**
+	 * Creates a String of the name, for code that is not binding rows
+	 *
+	 * @param position the position of the row
+	 * @return the name, which may be null
+	 */
+	public String getName(int position) {
+		int length = mNameLengths[position];
+		return (length == NULL_NAME) ? null
+				: new String(mNameBuffer, mNameOffsets[position], length);
+	}
+
+	/**
+	 * @return the buffer holding the names, to be read with getNameOffset()
+	 *         and getNameLength(). The buffer is replaced as the model
+	 *         grows, so it is only good until the next change.
+	 */
+	public char[] getNameBuffer() {
+		return mNameBuffer;
+	}
+
+	public int getNameOffset(int position) {
+		return mNameOffsets[position];
+	}
+
+	/**
+	 * @return the number of characters in the name, 0 for a row with no name
+	 */
+	public int getNameLength(int position) {
+		return Math.max(mNameLengths[position], 0);
+	}
+
+	/*
+	 * The length of the name as stored, NULL_NAME for a row with no name
+	 */
+	int getStoredNameLength(int position) {
+		return mNameLengths[position];
+	}
+
+	/**
+	 * @return the birth date as a local epoch day
+	 */
+	public int getBirthEpochDay(int position) {
+		return mBirthEpochDays[position];
+	}
+
+	/**
+	 * Finds the position of a row
+	 *
+	 * @param rowId id of the birthday
+	 * @return the position of the row, or -1 if it is not in the model
+	 */
+	public int indexOf(long rowId) {
+		int index = search(rowId);
+		return (index >= 0) ? index : -1;
+	}
+
+	/**
+	 * Compares the rows of two models, for telling whether a reload changed
+	 * anything
+	 *
+	 * @param other the model to compare with
+	 * @return true if both have the same rows, with the same names and birth
+	 *         dates
+	 */
+	public boolean contentEquals(BirthdayListModel other) {
+
+		if (other.mSize != mSize) {
+			return false;
+		}
+		for (int i = 0; i < mSize; i++) {
+			if (mIds[i] != other.mIds[i] || mBirthEpochDays[i] != other.mBirthEpochDays[i]
+					|| mNameLengths[i] != other.mNameLengths[i]) {
+				return false;
+			}
+			int offset = mNameOffsets[i];
+			int otherOffset = other.mNameOffsets[i];
+			for (int j = getNameLength(i) - 1; j >= 0; j--) {
+				if (mNameBuffer[offset + j] != other.mNameBuffer[otherOffset + j]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a row, or replaces it if a row with the same id is already in the
+	 * model. A new row normally has the highest id, so it is appended.
+	 *
+	 * @param rowId id of the birthday
+	 * @param name the name of the birthday
+	 * @param birthEpochDay the birth date as a local epoch day
+	 */
+	public void put(long rowId, String name, int birthEpochDay) {
+
+		int index = (mSize == 0 || rowId > mIds[mSize - 1]) ? -(mSize + 1) : search(rowId);
+		if (index >= 0) {
+			mLiveNameChars -= getNameLength(index);
+		} else {
+			index = -(index + 1);
+			if (mSize == mIds.length) {
+				grow();
+			}
+			if (index < mSize) {
+				int moved = mSize - index;
+				System.arraycopy(mIds, index, mIds, index + 1, moved);
+				System.arraycopy(mBirthEpochDays, index, mBirthEpochDays, index + 1, moved);
+				System.arraycopy(mNameOffsets, index, mNameOffsets, index + 1, moved);
+				System.arraycopy(mNameLengths, index, mNameLengths, index + 1, moved);
+			}
+			mIds[index] = rowId;
+			mSize++;
+		}
+
+		// the slot still has the length of the old name, or of whatever row
+		// was there before, which a compaction to make room for the new name
+		// must not copy as it is not counted as live
+		mNameLengths[index] = NULL_NAME;
+		mBirthEpochDays[index] = birthEpochDay;
+		appendName(index, name);
+	}
+
+	/**
+	 * Removes a row, if it is in the model
+	 *
+	 * @param rowId id of the birthday
+	 * @return true if the row was removed
+	 */
+	public boolean remove(long rowId) {
+
+		int index = search(rowId);
+		if (index < 0) {
+			return false;
+		}
+
+		mLiveNameChars -= getNameLength(index);
+		int moved = mSize - index - 1;
+		System.arraycopy(mIds, index + 1, mIds, index, moved);
+		System.arraycopy(mBirthEpochDays, index + 1, mBirthEpochDays, index, moved);
+		System.arraycopy(mNameOffsets, index + 1, mNameOffsets, index, moved);
+		System.arraycopy(mNameLengths, index + 1, mNameLengths, index, moved);
+		mSize--;
+		return true;
+	}
+
+	/*
+	 * Writes the name of a row at the end of the buffer, first copying the
+	 * live names into a new buffer if there is no room
+	 */
+	private void appendName(int index, String name) {
+
+		if (name == null) {
+			mNameOffsets[index] = mNameEnd;
+			mNameLengths[index] = NULL_NAME;
+			return;
+		}
+
+		int length = name.length();
+		if (mNameEnd + length > mNameBuffer.length) {
+			// leave room for the rows to come, and the name being written
+			int needed = mLiveNameChars + length;
+			compactNames(Math.max(needed * 2, mIds.length * AVERAGE_NAME_LENGTH));
+		}
+
+		name.getChars(0, length, mNameBuffer, mNameEnd);
+		mNameOffsets[index] = mNameEnd;
+		mNameLengths[index] = length;
+		mNameEnd += length;
+		mLiveNameChars += length;
+	}
+
+	/*
+	 * Copies the names of the rows, in row order, into a new buffer, leaving
+	 * behind the names of rows that were removed or renamed
+	 */
+	private void compactNames(int capacity) {
+
+		char[] buffer = new char[capacity];
+		int end = 0;
+		for (int i = 0; i < mSize; i++) {
+			int length = mNameLengths[i];
+			if (length > 0) {
+				System.arraycopy(mNameBuffer, mNameOffsets[i], buffer, end, length);
+			}
+			mNameOffsets[i] = end;
+			end += Math.max(length, 0);
+		}
+
+		mNameBuffer = buffer;
+		mNameEnd = end;
+	}
+
+	/*
+	 * Binary search for the row id, returning its index if found, otherwise
+	 * (-(insertion point) - 1)
+	 */
+	private int search(long rowId) {
+
+		int low = 0;
+		int high = mSize - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midId = mIds[mid];
+			if (midId < rowId) {
+				low = mid + 1;
+			} else if (midId > rowId) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private void grow() {
+
+		int capacity = Math.max(mIds.length * 2, INITIAL_CAPACITY);
+
+		long[] ids = new long[capacity];
+		int[] births = new int[capacity];
+		int[] offsets = new int[capacity];
+		int[] lengths = new int[capacity];
+		System.arraycopy(mIds, 0, ids, 0, mSize);
+		System.arraycopy(mBirthEpochDays, 0, births, 0, mSize);
+		System.arraycopy(mNameOffsets, 0, offsets, 0, mSize);
+		System.arraycopy(mNameLengths, 0, lengths, 0, mSize);
+
+		mIds = ids;
+		mBirthEpochDays = births;
+		mNameOffsets = offsets;
+		mNameLengths = lengths;
+	}
+}
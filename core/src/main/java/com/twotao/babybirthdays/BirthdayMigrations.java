@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * The steps that upgrade the birthdays schema from one version to the next,
+ * from version 2 up to BirthdaySchema.VERSION. Each step keeps the SQL of its
+ * own version, as later versions change the current schema.
+ *
+ * @author Jim
+ *
+ */
+public final class BirthdayMigrations {
+
+	// rows converted by each query of the version 5 migration
+	private static final int CONVERT_CHUNK_SIZE = 5000;
+
+	public static final SchemaMigrator MIGRATOR = new SchemaMigrator(new SchemaMigrator.Migration[] {
+
+		// version 3 adds the month_day column, filled in from the birth
+		// dates, and the indexes for the sorted queries
+		new SchemaMigrator.Migration(3) {
+
+			@Override
+			public void apply(SchemaMigrator.Database db) {
+				SchemaMigrator.rebuildTable(db, "birthdays",
+						"create table %s (_id integer primary key autoincrement, "
+						+ "name text not null, birthdate integer not null, "
+						+ "month_day integer not null default 0);",
+						"_id, name, birthdate, month_day",
+						"_id, name, birthdate, cast(strftime('%m%d', birthdate / 1000, "
+						+ "'unixepoch', 'localtime') as integer)");
+				db.execSQL("create index birthdays_birthdate on birthdays (birthdate);");
+				db.execSQL("create index birthdays_month_day on birthdays (month_day);");
+				db.execSQL("create index birthdays_name on birthdays (name collate nocase);");
+			}
+		},
+
+		// version 4 adds the full text index of the names
+		new SchemaMigrator.Migration(4) {
+
+			@Override
+			public void apply(SchemaMigrator.Database db) {
+				for (String sql : BirthdaySchema.SEARCH_CREATE) {
+					db.execSQL(sql);
+				}
+				db.execSQL("insert into birthdays_search (docid, name) select _id, name from birthdays;");
+			}
+		},
+
+		// version 5 stores the birth dates as local epoch days in place of
+		// milliseconds. The milliseconds are copied across and then turned
+		// into days in Java, with the same time zone rules they were written
+		// with, as SQLite's localtime differs from them for older dates.
+		// Dropping the old table drops its indexes and search triggers, so
+		// they are made again; the search rows keep their docids as the row
+		// ids are copied across. While version 5 is the current version the
+		// indexes and triggers are made from the BirthdaySchema statements,
+		// so a fresh install and an upgrade end with the same schema; a later
+		// version that changes them must copy this version's SQL in here.
+		new SchemaMigrator.Migration(5) {
+
+			@Override
+			public void apply(SchemaMigrator.Database db) {
+				SchemaMigrator.rebuildTable(db, "birthdays",
+						"create table %s (_id integer primary key autoincrement, "
+						+ "name text not null, birth_day integer not null, "
+						+ "month_day integer not null default 0);",
+						"_id, name, birth_day, month_day",
+						"_id, name, birthdate, month_day");
+				convertBirthdatesToDays(db);
+				for (String sql : BirthdaySchema.INDEXES_CREATE) {
+					db.execSQL(sql);
+				}
+				for (String sql : BirthdaySchema.SEARCH_TRIGGERS_CREATE) {
+					db.execSQL(sql);
+				}
+			}
+		}
+	});
+
+	private BirthdayMigrations() {
+	}
+
+	/*
+	 * Replaces the milliseconds left in the birth_day column by the version 5
+	 * migration with the local epoch day they fall on, and works out the
+	 * month_day again from that day, a chunk of row ids at a time. Each chunk
+	 * is read in full and its query closed before any of its rows are
+	 * updated, and the update is compiled once for every row.
+	 */
+	private static void convertBirthdatesToDays(SchemaMigrator.Database db) {
+
+		AgeCalculator ageCalculator = new AgeCalculator();
+		long[] ids = new long[CONVERT_CHUNK_SIZE];
+		long[] millis = new long[CONVERT_CHUNK_SIZE];
+		SchemaMigrator.Statement update = db.compileStatement(
+				"update birthdays set birth_day = ?, month_day = ? where _id = ?");
+		try {
+			long after = 0;
+			while (true) {
+				int count = 0;
+				SchemaMigrator.LongRows rows = db.queryLongs("select _id, birth_day from birthdays "
+						+ "where _id > ? order by _id limit " + CONVERT_CHUNK_SIZE,
+						new Object[] {after});
+				try {
+					while (rows.next()) {
+						ids[count] = rows.getLong(0);
+						millis[count] = rows.getLong(1);
+						count++;
+					}
+				} finally {
+					rows.close();
+				}
+				if (count == 0) {
+					break;
+				}
+
+				for (int i = 0; i < count; i++) {
+					int birthEpochDay = ageCalculator.toEpochDay(millis[i]);
+					update.bindLong(1, birthEpochDay);
+					update.bindLong(2, BirthdaySchema.monthDayOf(birthEpochDay));
+					update.bindLong(3, ids[i]);
+					update.execute();
+				}
+				after = ids[count - 1];
+			}
+		} finally {
+			update.close();
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * A page of the paged birthday list. The rows are held in a
+ * BirthdayListModel, which keeps them by row id so they can be bound from
+ * its name buffer, along with the order they are shown in, which for the age
+ * and birth month sorts is not the row id order.
+ *
+ * @author Jim
+ *
+ */
+public final class BirthdayPage {
+
+	private final BirthdayListModel mRows = new BirthdayListModel();
+
+	// the row ids in the order they are shown
+	private long[] mOrder;
+	private int mSize;
+
+	/**
+	 * Creates an empty page
+	 *
+	 * @param capacity the number of rows a full page has
+	 */
+	public BirthdayPage(int capacity) {
+		mOrder = new long[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Loads a page from the rows of a page query, in the order they are read.
+	 * The rows are left open.
+	 *
+	 * @param rows the rows of a page query
+	 * @param skip the number of rows read before the page starts
+	 * @param pageSize the most rows to load after them
+	 * @return the loaded page
+	 */
+	public static BirthdayPage load(BirthdayRepository.Rows rows, int skip, int pageSize) {
+		BirthdayPage page = new BirthdayPage(pageSize);
+		int skipped = 0;
+		while (skipped < skip && rows.next()) {
+			skipped++;
+		}
+		while (page.mSize < pageSize && rows.next()) {
+			page.add(rows.getId(), rows.getName(), rows.getBirthEpochDay());
+		}
+		return page;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * @param offset the position of a row in the page
+	 * @return the row id of the row
+	 */
+	public long getId(int offset) {
+		return mOrder[offset];
+	}
+
+	public int getBirthEpochDay(int offset) {
+		return mRows.getBirthEpochDay(getRowPosition(offset));
+	}
+
+	/**
+	 * @return the rows of the page, by row id
+	 */
+	public BirthdayListModel getRows() {
+		return mRows;
+	}
+
+	/**
+	 * @param offset the position of a row in the page
+	 * @return the position of the row in getRows()
+	 */
+	public int getRowPosition(int offset) {
+		return mRows.indexOf(mOrder[offset]);
+	}
+
+	/**
+	 * @param rowId id of the birthday
+	 * @return the position of the row in the page, or -1 if it is not in it
+	 */
+	public int offsetOf(long rowId) {
+		if (mRows.indexOf(rowId) < 0) {
+			return -1;
+		}
+		for (int i = 0; i < mSize; i++) {
+			if (mOrder[i] == rowId) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a row after the last
+	 *
+	 * @param rowId id of the birthday
+	 * @param name the name of the birthday
+	 * @param birthEpochDay the birth date as a local epoch day
+	 */
+	public void add(long rowId, String name, int birthEpochDay) {
+		if (mSize == mOrder.length) {
+			long[] order = new long[mSize * 2];
+			System.arraycopy(mOrder, 0, order, 0, mSize);
+			mOrder = order;
+		}
+		mOrder[mSize++] = rowId;
+		mRows.put(rowId, name, birthEpochDay);
+	}
+
+	/**
+	 * Changes a row in its place, if it is in the page
+	 *
+	 * @param rowId id of the birthday
+	 * @param name the new name
+	 * @param birthEpochDay the new birth date as a local epoch day
+	 * @return true if the row was in the page
+	 */
+	public boolean update(long rowId, String name, int birthEpochDay) {
+		if (mRows.indexOf(rowId) < 0) {
+			return false;
+		}
+		mRows.put(rowId, name, birthEpochDay);
+		return true;
+	}
+
+	/**
+	 * Removes a row, moving the rows after it up
+	 *
+	 * @param rowId id of the birthday
+	 * @return true if the row was in the page
+	 */
+	public boolean remove(long rowId) {
+		int offset = offsetOf(rowId);
+		if (offset < 0) {
+			return false;
+		}
+		System.arraycopy(mOrder, offset + 1, mOrder, offset, mSize - offset - 1);
+		mSize--;
+		mRows.remove(rowId);
+		return true;
+	}
+
+	/**
+	 * Compares the rows of two pages, in order
+	 *
+	 * @param other the page to compare with
+	 * @return true if both have the same rows in the same order, with the
+	 *         same names and birth dates
+	 */
+	public boolean contentEquals(BirthdayPage other) {
+		if (other.mSize != mSize) {
+			return false;
+		}
+		for (int i = 0; i < mSize; i++) {
+			if (mOrder[i] != other.mOrder[i]) {
+				return false;
+			}
+		}
+		return mRows.contentEquals(other.mRows);
+	}
+}
@@ -0,0 +1,389 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * A window of fixed size pages over a list of birthdays too large to hold in
+ * memory, in any of the BirthdaySections sorts and with or without a search.
+ * Only a few pages are kept at a time: putting a page in evicts the pages
+ * furthest from the one being viewed, so memory stays the same however many
+ * birthdays there are.
+ *
+ * Pages are fetched by keyset on the sort key and row id of the sort. A page
+ * starts after the last row of the page before when that is held in full,
+ * and otherwise after the nearest anchor of the BirthdayPageIndex of the
+ * list, so a page anywhere in the list, as a fast scroll jumps to, costs a
+ * lookup of the index and a page of rows rather than a walk of every row
+ * before it.
+ *
+ * A single changed row is applied to the held pages in memory, as the list
+ * model does, so an edit never counts or walks the table. A deleted row
+ * moves every later row up one position, so it is taken out of its page and
+ * the first row of each later page is dropped; those pages are then short
+ * of the row that moved up from the page after, until they are fetched
+ * again. A new row in the order the rows were created has the highest row id
+ * and is appended to the last page. A new row in another sort moves every
+ * later row down one position, so the held pages from it on are fetched
+ * again, and are shown as they were until they arrive.
+ *
+ * The cache is not thread safe. loadPage() does the query and can be run on
+ * a background thread, with the start taken by getStart() on the thread that
+ * owns the cache and the result handed back to putPage() there.
+ *
+ * @author Jim
+ *
+ */
+public class BirthdayPageCache {
+
+	/**
+	 * Where to fetch a page from, taken on the thread that owns the cache so
+	 * the fetch can run on another
+	 */
+	public static final class PageStart {
+
+		final int mSortMode;
+		final String mFilter;
+		final long mAfterSortKey;
+		final long mAfterRowId;
+		final int mSkip;
+		final int mPageSize;
+
+		PageStart(BirthdayPageIndex index, long afterSortKey, long afterRowId, int skip) {
+			mSortMode = index.getSortMode();
+			mFilter = index.getFilter();
+			mAfterSortKey = afterSortKey;
+			mAfterRowId = afterRowId;
+			mSkip = skip;
+			mPageSize = index.getPageSize();
+		}
+	}
+
+	private final int mPageSize;
+
+	// the held pages, by slot, the page index in each slot or -1, and whether
+	// each needs fetching again after a change moved its rows
+	private final BirthdayPage[] mPages;
+	private final int[] mPageIndexes;
+	private final boolean[] mStale;
+
+	private BirthdayPageIndex mIndex;
+
+	/**
+	 * @param pageSize the number of birthdays in each page
+	 * @param maxPages the most pages to hold at once, at least 2 so the next
+	 *        page can be fetched while the current one is shown
+	 */
+	public BirthdayPageCache(int pageSize, int maxPages) {
+		mPageSize = pageSize;
+		mPages = new BirthdayPage[maxPages];
+		mPageIndexes = new int[maxPages];
+		mStale = new boolean[maxPages];
+		reset(new BirthdayPageIndex(BirthdaySections.SORT_CREATED, null, pageSize));
+	}
+
+	/**
+	 * Drops every page, and starts over with a new list
+	 *
+	 * @param index the index of the list, with the same page size
+	 */
+	public void reset(BirthdayPageIndex index) {
+		mIndex = index;
+		for (int i = 0; i < mPages.length; i++) {
+			mPages[i] = null;
+			mPageIndexes[i] = -1;
+			mStale[i] = false;
+		}
+	}
+
+	/**
+	 * @return the index of the list
+	 */
+	public BirthdayPageIndex getIndex() {
+		return mIndex;
+	}
+
+	/**
+	 * @return the number of birthdays in every page, held or not
+	 */
+	public int getCount() {
+		return mIndex.getCount();
+	}
+
+	public int getPageSize() {
+		return mPageSize;
+	}
+
+	/**
+	 * @return the number of pages needed for every birthday
+	 */
+	public int getPageCount() {
+		return (getCount() + mPageSize - 1) / mPageSize;
+	}
+
+	/**
+	 * @param position the position of a birthday
+	 * @return the index of the page holding the position
+	 */
+	public int pageOf(int position) {
+		return position / mPageSize;
+	}
+
+	/**
+	 * @param page the index of a page
+	 * @return the page, with the row at position p at p % getPageSize(), or
+	 *         null if it is not held
+	 */
+	public BirthdayPage getPage(int page) {
+		int slot = slotOf(page);
+		return (slot < 0) ? null : mPages[slot];
+	}
+
+	/**
+	 * @return the number of pages held
+	 */
+	public int getHeldPages() {
+		int held = 0;
+		for (int i = 0; i < mPages.length; i++) {
+			if (mPages[i] != null) {
+				held++;
+			}
+		}
+		return held;
+	}
+
+	/**
+	 * @param page the index of a page
+	 * @return where to fetch the page from with loadPage()
+	 */
+	public PageStart getStart(int page) {
+		if (page > 0 && isComplete(page - 1)) {
+			BirthdayPage previous = getPage(page - 1);
+			int last = previous.size() - 1;
+			return new PageStart(mIndex, BirthdaySchema.sortKeyOf(mIndex.getSortMode(),
+					previous.getBirthEpochDay(last)), previous.getId(last), 0);
+		}
+		return getStart(mIndex, page);
+	}
+
+	/**
+	 * Works out where to fetch a page from the index alone, which may be done
+	 * on the thread that loaded the index before it is handed to reset()
+	 *
+	 * @param index the index of the list
+	 * @param page the index of a page
+	 * @return where to fetch the page from with loadPage()
+	 */
+	public static PageStart getStart(BirthdayPageIndex index, int page) {
+		int position = page * index.getPageSize();
+		int anchor = index.anchorFor(position);
+		return new PageStart(index, index.getSortKey(anchor), index.getRowId(anchor),
+				position - index.getPosition(anchor));
+	}
+
+	/**
+	 * @param page the index of a page
+	 * @return true if the page is held with every row it should have, false
+	 *         if it is not held, is short of rows after a delete or has to be
+	 *         fetched again after an insert
+	 */
+	public boolean isComplete(int page) {
+		int slot = slotOf(page);
+		return slot >= 0 && !mStale[slot] && mPages[slot].size() >= expectedSize(page);
+	}
+
+	/**
+	 * Finds the held pages that are short of rows after a delete or moved by
+	 * an insert, which need fetching again
+	 *
+	 * @param pages filled with the page indexes, with room for maxPages
+	 * @return the number of page indexes written
+	 */
+	public int getIncompletePages(int[] pages) {
+		int count = 0;
+		for (int i = 0; i < mPages.length; i++) {
+			if (mPages[i] != null && !isComplete(mPageIndexes[i])) {
+				pages[count++] = mPageIndexes[i];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Applies a newly created birthday. In the order the rows were created
+	 * it has the highest row id, so it is appended to the last page if that
+	 * is held in full, otherwise it arrives with the page. In another sort the
+	 * held pages it moves down are fetched again.
+	 *
+	 * @param rowId id of the birthday
+	 * @param name the name of the birthday
+	 * @param birthEpochDay the birth date as a local epoch day
+	 */
+	public void rowInserted(long rowId, String name, int birthEpochDay) {
+
+		if (mIndex.getSortMode() != BirthdaySections.SORT_CREATED) {
+			mIndex.rowInserted(rowId, birthEpochDay);
+			markMovedFrom(BirthdaySchema.sortKeyOf(mIndex.getSortMode(), birthEpochDay), rowId);
+			return;
+		}
+
+		int page = pageOf(getCount());
+		boolean complete = isComplete(page);
+		mIndex.rowInserted(rowId, birthEpochDay);
+
+		BirthdayPage rows = getPage(page);
+		if (complete && (rows.size() == 0 || rows.getId(rows.size() - 1) < rowId)) {
+			rows.add(rowId, name, birthEpochDay);
+		}
+	}
+
+	/**
+	 * Applies an edited birthday to the page holding it, if any. A birth date
+	 * that moves the row in the sort is applied as a delete and an insert.
+	 *
+	 * @param rowId id of the birthday
+	 * @param oldBirthEpochDay the birth date the row had
+	 * @param name the new name
+	 * @param birthEpochDay the new birth date as a local epoch day
+	 */
+	public void rowUpdated(long rowId, int oldBirthEpochDay, String name, int birthEpochDay) {
+
+		int sortMode = mIndex.getSortMode();
+		if (BirthdaySchema.sortKeyOf(sortMode, oldBirthEpochDay)
+				!= BirthdaySchema.sortKeyOf(sortMode, birthEpochDay)) {
+			rowDeleted(rowId, oldBirthEpochDay);
+			rowInserted(rowId, name, birthEpochDay);
+			return;
+		}
+		for (int i = 0; i < mPages.length; i++) {
+			if (mPages[i] != null && mPages[i].update(rowId, name, birthEpochDay)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Applies a deleted birthday, moving the rows after it up one position.
+	 * The page holding it and the held pages after it are left short of
+	 * their last row, see getIncompletePages().
+	 *
+	 * @param rowId id of the birthday
+	 * @param birthEpochDay the birth date the row had
+	 */
+	public void rowDeleted(long rowId, int birthEpochDay) {
+
+		mIndex.rowDeleted(rowId, birthEpochDay);
+		long sortKey = BirthdaySchema.sortKeyOf(mIndex.getSortMode(), birthEpochDay);
+		int pageCount = getPageCount();
+		for (int i = 0; i < mPages.length; i++) {
+			BirthdayPage rows = mPages[i];
+			if (rows == null) {
+				continue;
+			}
+			if (mPageIndexes[i] >= pageCount) {
+				mPages[i] = null;
+				mPageIndexes[i] = -1;
+				continue;
+			}
+			if (!rows.remove(rowId) && rows.size() > 0 && compareFirst(rows, sortKey, rowId) > 0) {
+				// the row was before this page, so its first row now ends
+				// the page before
+				rows.remove(rows.getId(0));
+			}
+		}
+	}
+
+	/**
+	 * Holds a fetched page, evicting the pages furthest from the one being
+	 * viewed if the cache is full
+	 *
+	 * @param page the index of the page
+	 * @param rows the rows of the page, from loadPage()
+	 * @param viewedPage the index of the page being viewed
+	 */
+	public void putPage(int page, BirthdayPage rows, int viewedPage) {
+
+		int slot = slotOf(page);
+		if (slot < 0) {
+			slot = 0;
+			int furthest = -1;
+			for (int i = 0; i < mPages.length; i++) {
+				if (mPageIndexes[i] < 0) {
+					slot = i;
+					break;
+				}
+				int distance = Math.abs(mPageIndexes[i] - viewedPage);
+				if (distance > furthest) {
+					furthest = distance;
+					slot = i;
+				}
+			}
+		}
+
+		mPages[slot] = rows;
+		mPageIndexes[slot] = page;
+		mStale[slot] = false;
+	}
+
+	/**
+	 * Fetches the rows of a page, which may be run on a background thread
+	 *
+	 * @param repository where the birthdays are kept
+	 * @param start where the page starts, from getStart()
+	 * @return the rows of the page
+	 */
+	public static BirthdayPage loadPage(BirthdayRepository repository, PageStart start) {
+
+		BirthdayRepository.Rows rows = repository.fetchPage(start.mSortMode, start.mFilter,
+				start.mAfterSortKey, start.mAfterRowId, start.mSkip + start.mPageSize);
+		try {
+			return BirthdayPage.load(rows, start.mSkip, start.mPageSize);
+		} finally {
+			rows.close();
+		}
+	}
+
+	/*
+	 * Marks the held pages that do not end before a new row to be fetched
+	 * again, as it moves their rows down
+	 */
+	private void markMovedFrom(long sortKey, long rowId) {
+		for (int i = 0; i < mPages.length; i++) {
+			BirthdayPage rows = mPages[i];
+			if (rows == null) {
+				continue;
+			}
+			int last = rows.size() - 1;
+			if (last < 0 || mIndex.compare(BirthdaySchema.sortKeyOf(mIndex.getSortMode(),
+					rows.getBirthEpochDay(last)), rows.getId(last), sortKey, rowId) > 0
+					|| rows.size() < expectedSize(mPageIndexes[i])) {
+				mStale[i] = true;
+			}
+		}
+	}
+
+	/*
+	 * Compares the first row of a page with a row in the order of the sort
+	 */
+	private int compareFirst(BirthdayPage rows, long sortKey, long rowId) {
+		return mIndex.compare(BirthdaySchema.sortKeyOf(mIndex.getSortMode(),
+				rows.getBirthEpochDay(0)), rows.getId(0), sortKey, rowId);
+	}
+
+	/*
+	 * The number of rows a page has when it is held in full
+	 */
+	private int expectedSize(int page) {
+		return Math.max(Math.min(mPageSize, getCount() - page * mPageSize), 0);
+	}
+
+	private int slotOf(int page) {
+		for (int i = 0; i < mPageIndexes.length; i++) {
+			if (mPageIndexes[i] == page) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
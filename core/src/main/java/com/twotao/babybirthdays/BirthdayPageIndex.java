@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * Where the pages of a paged list start, so any page can be fetched by
+ * keyset wherever the list is scrolled or fast scrolled to, without walking
+ * the rows before it with an OFFSET.
+ *
+ * The index keeps an anchor for every page of the list as it was loaded:
+ * the sort key and row id of the last row before the page, and the number
+ * of rows up to and including that row. It is filled by a single pass over
+ * the keys of the sort, which only reads an index, and then holds one anchor
+ * for each page rather than a key for each row. A page is fetched after the
+ * anchor with the highest position not past its first row, skipping the few
+ * rows between them.
+ *
+ * A row that is created or deleted moves the position of every anchor that
+ * sorts after it, which is done in memory, so the anchors stay exact without
+ * the table being read again. Rows created after the load only make the gaps
+ * between the anchors they fall between a little longer.
+ *
+ * The index is not thread safe.
+ *
+ * @author Jim
+ *
+ */
+public class BirthdayPageIndex {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final int mSortMode;
+	private final String mFilter;
+	private final int mPageSize;
+	private int mCount;
+
+	// the anchors in the order of the sort, the first of which is before
+	// every row
+	private long[] mSortKeys = new long[INITIAL_CAPACITY];
+	private long[] mRowIds = new long[INITIAL_CAPACITY];
+	private int[] mPositions = new int[INITIAL_CAPACITY];
+	private int mSize;
+
+	/**
+	 * Creates an index of an empty list
+	 *
+	 * @param sortMode the BirthdaySections SORT_ constant of the list
+	 * @param filter the text searched for, or null for all birthdays
+	 * @param pageSize the number of birthdays in each page
+	 */
+	public BirthdayPageIndex(int sortMode, String filter, int pageSize) {
+		mSortMode = sortMode;
+		mFilter = filter;
+		mPageSize = pageSize;
+
+		// before every row in the order of the page query of the sort
+		switch (sortMode) {
+			case BirthdaySections.SORT_AGE:
+				add(Long.MAX_VALUE, Long.MAX_VALUE, 0);
+				break;
+			case BirthdaySections.SORT_BIRTH_MONTH:
+				add(Long.MIN_VALUE, Long.MIN_VALUE, 0);
+				break;
+			default:
+				add(0, 0, 0);
+				break;
+		}
+	}
+
+	/**
+	 * Builds the index from the keys of every row of a list, in one pass. The
+	 * keys are read to the end and left open.
+	 *
+	 * @param sortMode the BirthdaySections SORT_ constant of the list
+	 * @param filter the text searched for, or null for all birthdays
+	 * @param pageSize the number of birthdays in each page
+	 * @param keys the keys from BirthdayRepository.fetchKeys()
+	 * @return the loaded index
+	 */
+	public static BirthdayPageIndex load(int sortMode, String filter, int pageSize,
+			BirthdayRepository.Keys keys) {
+
+		BirthdayPageIndex index = new BirthdayPageIndex(sortMode, filter, pageSize);
+		int count = 0;
+		while (keys.next()) {
+			count++;
+			if (count % pageSize == 0) {
+				index.add(keys.getSortKey(), keys.getId(), count);
+			}
+		}
+		index.mCount = count;
+		return index;
+	}
+
+	public int getSortMode() {
+		return mSortMode;
+	}
+
+	/**
+	 * @return the text searched for, or null for all birthdays
+	 */
+	public String getFilter() {
+		return mFilter;
+	}
+
+	public int getPageSize() {
+		return mPageSize;
+	}
+
+	/**
+	 * @return the number of birthdays in the list
+	 */
+	public int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * @param position the position of a row
+	 * @return the anchor to fetch the row after, the one with the highest
+	 *         position not past it
+	 */
+	public int anchorFor(int position) {
+		int low = 0;
+		int high = mSize - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (mPositions[mid] <= position) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	public long getSortKey(int anchor) {
+		return mSortKeys[anchor];
+	}
+
+	public long getRowId(int anchor) {
+		return mRowIds[anchor];
+	}
+
+	/**
+	 * @param anchor an anchor from anchorFor()
+	 * @return the position of the first row after the anchor
+	 */
+	public int getPosition(int anchor) {
+		return mPositions[anchor];
+	}
+
+	/**
+	 * Applies a newly created birthday, moving the anchors after it down
+	 *
+	 * @param rowId id of the birthday
+	 * @param birthEpochDay the birth date as a local epoch day
+	 */
+	public void rowInserted(long rowId, int birthEpochDay) {
+		mCount++;
+		long sortKey = BirthdaySchema.sortKeyOf(mSortMode, birthEpochDay);
+		for (int i = firstAnchorFrom(sortKey, rowId); i < mSize; i++) {
+			mPositions[i]++;
+		}
+	}
+
+	/**
+	 * Applies a deleted birthday, moving the anchors from it on up. An anchor
+	 * of the deleted row itself stays where it is in the order.
+	 *
+	 * @param rowId id of the birthday
+	 * @param birthEpochDay the birth date the row had
+	 */
+	public void rowDeleted(long rowId, int birthEpochDay) {
+		mCount--;
+		long sortKey = BirthdaySchema.sortKeyOf(mSortMode, birthEpochDay);
+		for (int i = firstAnchorFrom(sortKey, rowId); i < mSize; i++) {
+			mPositions[i]--;
+		}
+	}
+
+	/**
+	 * Compares two rows in the order of the sort of the index
+	 *
+	 * @return less than 0 if the first row comes first, 0 if they are the
+	 *         same row, otherwise more than 0
+	 */
+	public int compare(long sortKey, long rowId, long otherSortKey, long otherRowId) {
+		return compare(mSortMode, sortKey, rowId, otherSortKey, otherRowId);
+	}
+
+	/**
+	 * Compares two rows in the order of a sort, as its page query does
+	 *
+	 * @param sortMode the BirthdaySections SORT_ constant
+	 * @return less than 0 if the first row comes first, 0 if they are the
+	 *         same row, otherwise more than 0
+	 */
+	public static int compare(int sortMode, long sortKey, long rowId, long otherSortKey,
+			long otherRowId) {
+		int order;
+		if (sortKey != otherSortKey) {
+			order = (sortKey < otherSortKey) ? -1 : 1;
+		} else {
+			order = (rowId < otherRowId) ? -1 : ((rowId == otherRowId) ? 0 : 1);
+		}
+		// youngest first, and the newest row first on the same day
+		return (sortMode == BirthdaySections.SORT_AGE) ? -order : order;
+	}
+
+	/*
+	 * The first anchor that does not sort before the row, the first anchor
+	 * being before every row
+	 */
+	private int firstAnchorFrom(long sortKey, long rowId) {
+		int low = 1;
+		int high = mSize;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(mSortKeys[mid], mRowIds[mid], sortKey, rowId) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private void add(long sortKey, long rowId, int position) {
+		if (mSize == mRowIds.length) {
+			int capacity = mSize * 2;
+			long[] sortKeys = new long[capacity];
+			long[] rowIds = new long[capacity];
+			int[] positions = new int[capacity];
+			System.arraycopy(mSortKeys, 0, sortKeys, 0, mSize);
+			System.arraycopy(mRowIds, 0, rowIds, 0, mSize);
+			System.arraycopy(mPositions, 0, positions, 0, mSize);
+			mSortKeys = sortKeys;
+			mRowIds = rowIds;
+			mPositions = positions;
+		}
+		mSortKeys[mSize] = sortKey;
+		mRowIds[mSize] = rowId;
+		mPositions[mSize] = position;
+		mSize++;
+	}
+}
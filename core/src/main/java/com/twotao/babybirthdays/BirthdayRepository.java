@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * Where the birthdays are kept, independent of the storage behind it. The
+ * app keeps them in the Android SQLite database, and the same operations can
+ * be run on a desktop JVM against a JDBC SQLite database or plain memory, so
+ * a workload can be measured off the device.
+ *
+ * Birth dates are local epoch days, the number of days since 1970-01-01 on
+ * the calendar, so a stored date is the same day in every time zone and ages
+ * are plain integer subtraction.
+ *
+ * The writes return whether they succeeded rather than throwing, in the same
+ * way as the original database adapter. Implementations are safe to use from
+ * more than one thread.
+ *
+ * @author Jim
+ *
+ */
+public interface BirthdayRepository {
+
+	/**
+	 * A forward only pass over the rows of a query, read one row at a time
+	 * without creating an object for each. Must be closed when done with.
+	 */
+	interface Rows {
+
+		/**
+		 * @return the number of rows, or -1 if it is not known up front
+		 */
+		int getCount();
+
+		/**
+		 * Moves to the next row
+		 *
+		 * @return false once there are no more rows
+		 */
+		boolean next();
+
+		long getId();
+
+		String getName();
+
+		/**
+		 * @return the birth date as a local epoch day, see AgeCalculator
+		 */
+		int getBirthEpochDay();
+
+		void close();
+	}
+
+	/**
+	 * A forward only pass over the sort keys of a query, without the names,
+	 * for finding where the pages of a long list start. Must be closed when
+	 * done with.
+	 */
+	interface Keys {
+
+		/**
+		 * Moves to the next row
+		 *
+		 * @return false once there are no more rows
+		 */
+		boolean next();
+
+		/**
+		 * @return the sort key of the row, see BirthdaySchema.sortKeyOf()
+		 */
+		long getSortKey();
+
+		long getId();
+
+		void close();
+	}
+
+	/**
+	 * Create a new birthday
+	 *
+	 * @param name the name of the person who has the birthday
+	 * @param birthEpochDay the birth date as a local epoch day
+	 * @return the new row id, or -1 if it could not be created
+	 */
+	long createBirthday(String name, int birthEpochDay);
+
+	/**
+	 * Update the name and birth date of a birthday
+	 *
+	 * @param rowId id of the birthday to update
+	 * @param name the new name
+	 * @param birthEpochDay the new birth date as a local epoch day
+	 * @return true if the birthday was updated
+	 */
+	boolean updateBirthday(long rowId, String name, int birthEpochDay);
+
+	/**
+	 * Delete a birthday
+	 *
+	 * @param rowId id of the birthday to delete
+	 * @return true if the birthday was deleted
+	 */
+	boolean deleteBirthday(long rowId);
+
+	/**
+	 * @param rowId id of the birthday to fetch
+	 * @return the birthday, or null if there is none with that id
+	 */
+	Birthday fetchBirthday(long rowId);
+
+	/**
+	 * @return every birthday, in the order they were created
+	 */
+	Rows fetchAll();
+
+	/**
+	 * Fetches a page of birthdays by keyset, so the cost of a page does not
+	 * depend on how far into the list it is
+	 *
+	 * @param sortMode the BirthdaySections SORT_ constant to order them by
+	 * @param filter the text typed to search for, or null for all birthdays
+	 * @param afterSortKey the sort key of the row the page starts after
+	 * @param afterRowId the row id of the row the page starts after
+	 * @param limit the most birthdays to return
+	 * @return the birthdays after the given row in the order of the sort
+	 */
+	Rows fetchPage(int sortMode, String filter, long afterSortKey, long afterRowId, int limit);
+
+	/**
+	 * Fetches the sort keys of every birthday in the order of a sort, which
+	 * is read from the indexes alone, to find where the pages of a list start
+	 * without walking the rows before a page each time one is fetched
+	 *
+	 * @param sortMode the BirthdaySections SORT_ constant to order them by
+	 * @param filter the text typed to search for, or null for all birthdays
+	 * @return the keys of the birthdays, in the order of the sort
+	 */
+	Keys fetchKeys(int sortMode, String filter);
+
+	/**
+	 * @return the number of birthdays
+	 */
+	int countBirthdays();
+
+	/**
+	 * Finds the birthdays where every word of the text starts a word of the
+	 * name, ignoring the case of ASCII letters, in the order they were
+	 * created. See NameSearch for what makes a word.
+	 *
+	 * @param text the text typed to search for
+	 * @return the matching birthdays, or every birthday if the text has no
+	 *         words
+	 */
+	Rows search(String text);
+
+	/**
+	 * Finds a stored birthday with the same name and birth date, with the
+	 * names compared as DuplicateIndex compares them. The first call reads
+	 * every row into an index that is then kept up to date by the writes, so
+	 * it should not be made on the UI thread. Later calls do not touch the
+	 * storage.
+	 *
+	 * @param name the name to look for
+	 * @param birthEpochDay the birth date to look for, as a local epoch day
+	 * @param ignoreRowId a row that is not a duplicate of itself, such as the
+	 *        one being edited, or 0
+	 * @return the row id of a duplicate, or 0 if there is none
+	 */
+	long findDuplicate(String name, int birthEpochDay, long ignoreRowId);
+
+	/**
+	 * Releases the storage, the repository must not be used afterwards
+	 */
+	void close();
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * Works out the texts of a list row: the name straight from the model's name
+ * buffer, and the birthday and age written into buffers the row owns. It
+ * creates no objects, so a row can be bound any number of times without
+ * allocating.
+ *
+ * BirthdayListAdapter binds every row through here and hands the texts to
+ * its views, and the unit tests and JVM benchmarks run the same code without
+ * Android.
+ *
+ * @author Jim
+ *
+ */
+public final class BirthdayRowBinder {
+
+	/**
+	 * The texts of a single row. A TextView keeps a reference to the array
+	 * passed to setText(char[], int, int), so every row needs buffers of its
+	 * own, and the birthday and age each need their own buffer.
+	 */
+	public static class RowText {
+
+		/**
+		 * The name, as a range of the model's name buffer
+		 */
+		public char[] nameChars;
+		public int nameOffset;
+		public int nameLength;
+
+		public final char[] birthdayChars = new char[AgeTextFormatter.TEXT_BUFFER_SIZE];
+		public int birthdayLength;
+
+		public final char[] ageChars = new char[AgeTextFormatter.TEXT_BUFFER_SIZE];
+		public int ageLength;
+	}
+
+	private final AgeTextFormatter mFormatter;
+
+	// works out the ages of rows that have no precomputed age
+	private final AgeCalculator mAgeCalculator = new AgeCalculator();
+
+	/**
+	 * @param formatter writes the birthday and age texts
+	 */
+	public BirthdayRowBinder(AgeTextFormatter formatter) {
+		mFormatter = formatter;
+	}
+
+	/**
+	 * Binds a row of a model from its precomputed age, working the age out
+	 * and adding it to the table for a row that was not in the batch pass
+	 *
+	 * @param row the texts to write
+	 * @param model the birthdays
+	 * @param ageLabels the precomputed ages of the rows in the model
+	 * @param rowId the row id of the birthday to bind
+	 */
+	public void bind(RowText row, BirthdayListModel model, AgeLabelTable ageLabels, long rowId) {
+
+		int position = model.indexOf(rowId);
+		bindName(row, model, position);
+
+		int labelIndex = ageLabels.indexOf(rowId);
+		if (labelIndex < 0) {
+			ageLabels.put(rowId, model.getBirthEpochDay(position));
+			labelIndex = ageLabels.indexOf(rowId);
+		}
+
+		row.birthdayLength = mFormatter.writeBirthdayText(row.birthdayChars,
+				ageLabels.getBirthMonth(labelIndex), ageLabels.getBirthDay(labelIndex));
+		row.ageLength = mFormatter.writeAgeText(row.ageChars,
+				ageLabels.getCount(labelIndex), ageLabels.getUnit(labelIndex));
+	}
+
+	/**
+	 * Binds a row of a page, working its age out as it is bound rather than
+	 * keeping it for every row
+	 *
+	 * @param row the texts to write
+	 * @param page the rows of the page holding the birthday, see
+	 *        BirthdayPage.getRows()
+	 * @param offset the position of the birthday in the rows
+	 * @param nowMillis the current time
+	 */
+	public void bindPaged(RowText row, BirthdayListModel page, int offset, long nowMillis) {
+
+		bindName(row, page, offset);
+
+		mAgeCalculator.setToday(nowMillis);
+		mAgeCalculator.computeFromEpochDay(page.getBirthEpochDay(offset));
+		row.birthdayLength = mFormatter.writeBirthdayText(row.birthdayChars,
+				mAgeCalculator.getBirthMonth(), mAgeCalculator.getBirthDay());
+		row.ageLength = mFormatter.writeAgeText(row.ageChars,
+				mAgeCalculator.getCount(), mAgeCalculator.getUnit());
+	}
+
+	/*
+	 * Points the name at the shared buffer of a model without creating a
+	 * String. The buffer is never written over, only replaced, so a view can
+	 * keep the reference it is given.
+	 */
+	private static void bindName(RowText row, BirthdayListModel model, int position) {
+		row.nameChars = model.getNameBuffer();
+		row.nameOffset = model.getNameOffset(position);
+		row.nameLength = model.getNameLength(position);
+	}
+}
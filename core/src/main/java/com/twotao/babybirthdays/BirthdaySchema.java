@@ -0,0 +1,289 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * The SQL of the current birthdays schema and of the statements that write
+ * to it, shared by every SQLite backed BirthdayRepository so the app and the
+ * desktop JVM run exactly the same SQL. The steps that upgrade databases of
+ * older versions are in BirthdayMigrations.
+ *
+ * @author Jim
+ *
+ */
+public final class BirthdaySchema {
+
+	/**
+	 * The version of the schema below
+	 */
+	public static final int VERSION = 5;
+
+	public static final String TABLE = "birthdays";
+
+	/**
+	 * Database creation sql statement. The birth_day column holds the birth
+	 * date as a local epoch day, the number of days since 1970-01-01 on the
+	 * calendar, so it does not depend on the time zone or the time of day.
+	 */
+	public static final String TABLE_CREATE =
+		"create table birthdays (_id integer primary key autoincrement, "
+		+ "name text not null, birth_day integer not null, "
+		+ "month_day integer not null default 0);";
+
+	/**
+	 * Indexes for the sorted and upcoming birthday queries. The month_day
+	 * column holds the birth month and day as month * 100 + day, so a range
+	 * of it is a range of the calendar regardless of the birth year.
+	 */
+	public static final String[] INDEXES_CREATE = {
+		"create index birthdays_birth_day on birthdays (birth_day);",
+		"create index birthdays_month_day on birthdays (month_day);",
+		"create index birthdays_name on birthdays (name collate nocase);"
+	};
+
+	/**
+	 * Full text index over the names, with the row id of each birthday as
+	 * its docid
+	 */
+	public static final String SEARCH_TABLE_CREATE =
+		"create virtual table birthdays_search using fts3 (name);";
+
+	/**
+	 * The triggers that keep the full text index in step with every write to
+	 * the birthdays table, however it is made. They are dropped along with
+	 * the table, so a migration that rebuilds it makes them again.
+	 */
+	public static final String[] SEARCH_TRIGGERS_CREATE = {
+		"create trigger birthdays_search_insert after insert on birthdays begin "
+			+ "insert into birthdays_search (docid, name) values (new._id, new.name); end;",
+		"create trigger birthdays_search_update after update of name on birthdays begin "
+			+ "update birthdays_search set name = new.name where docid = old._id; end;",
+		"create trigger birthdays_search_delete after delete on birthdays begin "
+			+ "delete from birthdays_search where docid = old._id; end;"
+	};
+
+	/**
+	 * The full text index and its triggers
+	 */
+	public static final String[] SEARCH_CREATE = {
+		SEARCH_TABLE_CREATE,
+		SEARCH_TRIGGERS_CREATE[0],
+		SEARCH_TRIGGERS_CREATE[1],
+		SEARCH_TRIGGERS_CREATE[2]
+	};
+
+	/**
+	 * The rows whose names match a NameSearch.toPrefixMatch() query
+	 */
+	public static final String SEARCH_QUERY =
+		"select birthdays._id, birthdays.name, birthdays.birth_day "
+		+ "from birthdays_search join birthdays on birthdays._id = birthdays_search.docid "
+		+ "where birthdays_search match ? order by birthdays._id";
+
+	public static final String FETCH_ALL_QUERY =
+		"select _id, name, birth_day from birthdays order by _id";
+
+	/**
+	 * Pages of rows by keyset, one for each BirthdaySections sort: the rows
+	 * after a sort key (?1) and row id (?2), in the order of the sort, up to a
+	 * limit (?3). Each is a range of the row id b-tree or of an index read in
+	 * order, so a page deep into the table costs the same as the first. The
+	 * age sort is youngest first, and the newest row first on the same day,
+	 * so the birth day index is read backwards.
+	 */
+	public static final String CREATED_PAGE_QUERY =
+		"select _id, name, birth_day from birthdays where _id > ?2%s order by _id limit ?3";
+	public static final String AGE_PAGE_QUERY =
+		"select _id, name, birth_day from birthdays where birth_day <= ?1 "
+		+ "and (birth_day < ?1 or _id < ?2)%s order by birth_day desc, _id desc limit ?3";
+	public static final String BIRTH_MONTH_PAGE_QUERY =
+		"select _id, name, birth_day from birthdays where month_day >= ?1 "
+		+ "and (month_day > ?1 or _id > ?2)%s order by month_day, _id limit ?3";
+
+	/**
+	 * The sort key and row id of every row, in the order of each sort, read
+	 * from the row id b-tree or an index alone
+	 */
+	public static final String CREATED_KEYS_QUERY =
+		"select 0, _id from birthdays%s order by _id";
+	public static final String AGE_KEYS_QUERY =
+		"select birth_day, _id from birthdays%s order by birth_day desc, _id desc";
+	public static final String BIRTH_MONTH_KEYS_QUERY =
+		"select month_day, _id from birthdays%s order by month_day, _id";
+
+	/**
+	 * Narrows a page query to the rows matching a NameSearch.toPrefixMatch()
+	 * query bound to ?4, and a keys query to one bound to ?1
+	 */
+	private static final String PAGE_MATCH =
+		" and _id in (select docid from birthdays_search where birthdays_search match ?4)";
+	private static final String KEYS_MATCH =
+		" where _id in (select docid from birthdays_search where birthdays_search match ?1)";
+
+	/**
+	 * Every row sorted by name, ignoring case, read in order from the name
+	 * index
+	 */
+	public static final String BY_NAME_QUERY =
+		"select _id, name, birth_day from birthdays order by name collate nocase";
+
+	/**
+	 * Every row sorted by age, youngest first, read in order from the birth
+	 * day index
+	 */
+	public static final String BY_AGE_QUERY =
+		"select _id, name, birth_day from birthdays order by birth_day desc";
+
+	/**
+	 * The birthdays from a month_day to the end of the year, in the order
+	 * they come up, up to a limit: a range scan of the month_day index
+	 */
+	public static final String UPCOMING_QUERY =
+		"select _id, name, birth_day from birthdays where month_day >= ? "
+		+ "order by month_day limit ?";
+
+	/**
+	 * The birthdays from the start of the year up to a month_day, which
+	 * follow the rows of UPCOMING_QUERY when it wraps around the end of the
+	 * year
+	 */
+	public static final String UPCOMING_WRAPPED_QUERY =
+		"select _id, name, birth_day from birthdays where month_day < ? "
+		+ "order by month_day limit ?";
+
+	/**
+	 * The birthdays born in a range of days, a range scan of the birth day
+	 * index, which is where the week and month milestones of a range of days
+	 * are found
+	 */
+	public static final String BORN_BETWEEN_QUERY =
+		"select _id, name, birth_day from birthdays where birth_day between ? and ?";
+
+	/**
+	 * The birthdays in a range of month_day, a range scan of the month_day
+	 * index, which is where the yearly milestones of a range of days are
+	 * found
+	 */
+	public static final String MONTH_DAYS_BETWEEN_QUERY =
+		"select _id, name, birth_day from birthdays where month_day between ? and ?";
+
+	/**
+	 * The lowest birth day after a day, a single step of the birth day index
+	 */
+	public static final String NEXT_BIRTH_DAY_QUERY =
+		"select birth_day from birthdays where birth_day > ? order by birth_day limit 1";
+
+	/**
+	 * The lowest month_day after a month_day of the birthdays born by a day,
+	 * read in order from the month_day index
+	 */
+	public static final String NEXT_MONTH_DAY_QUERY =
+		"select month_day from birthdays where month_day > ? and birth_day <= ? "
+		+ "order by month_day limit 1";
+
+	public static final String COUNT_QUERY =
+		"select count(*) from birthdays";
+
+	public static final String FETCH_QUERY =
+		"select _id, name, birth_day from birthdays where _id = ?";
+
+	/**
+	 * The birth day of a single row, read before the row is updated or
+	 * deleted so the change can be reported with the day it had
+	 */
+	public static final String BIRTH_DAY_QUERY =
+		"select birth_day from birthdays where _id = ?";
+
+	/**
+	 * Write statements, bound with parameters for every write
+	 */
+	public static final String INSERT_SQL =
+		"insert into birthdays (name, birth_day, month_day) values (?, ?, ?)";
+	public static final String UPDATE_SQL =
+		"update birthdays set name = ?, birth_day = ?, month_day = ? where _id = ?";
+	public static final String DELETE_SQL =
+		"delete from birthdays where _id = ?";
+
+	private BirthdaySchema() {
+	}
+
+	/**
+	 * @return every statement that creates the current schema, in order
+	 */
+	public static String[] createStatements() {
+		String[] statements = new String[1 + INDEXES_CREATE.length + SEARCH_CREATE.length];
+		statements[0] = TABLE_CREATE;
+		System.arraycopy(INDEXES_CREATE, 0, statements, 1, INDEXES_CREATE.length);
+		System.arraycopy(SEARCH_CREATE, 0, statements, 1 + INDEXES_CREATE.length,
+				SEARCH_CREATE.length);
+		return statements;
+	}
+
+	/**
+	 * @param sortMode the BirthdaySections SORT_ constant of the page
+	 * @param search whether the rows are narrowed by a search
+	 * @return the page query of the sort, bound with the sort key and row id
+	 *         the page starts after, the limit and then any search
+	 */
+	public static String pageQuery(int sortMode, boolean search) {
+		String match = search ? PAGE_MATCH : "";
+		switch (sortMode) {
+			case BirthdaySections.SORT_AGE:
+				return String.format(AGE_PAGE_QUERY, match);
+			case BirthdaySections.SORT_BIRTH_MONTH:
+				return String.format(BIRTH_MONTH_PAGE_QUERY, match);
+			default:
+				return String.format(CREATED_PAGE_QUERY, match);
+		}
+	}
+
+	/**
+	 * @param sortMode the BirthdaySections SORT_ constant of the keys
+	 * @param search whether the rows are narrowed by a search
+	 * @return the keys query of the sort, bound with any search
+	 */
+	public static String keysQuery(int sortMode, boolean search) {
+		String match = search ? KEYS_MATCH : "";
+		switch (sortMode) {
+			case BirthdaySections.SORT_AGE:
+				return String.format(AGE_KEYS_QUERY, match);
+			case BirthdaySections.SORT_BIRTH_MONTH:
+				return String.format(BIRTH_MONTH_KEYS_QUERY, match);
+			default:
+				return String.format(CREATED_KEYS_QUERY, match);
+		}
+	}
+
+	/**
+	 * Works out the sort key a page query compares a row by, after which
+	 * ties are broken by the row id
+	 *
+	 * @param sortMode the BirthdaySections SORT_ constant
+	 * @param birthEpochDay the birth date of the row
+	 * @return the birth day for the age sort, the month_day for the birth
+	 *         month sort, and 0 for the order the rows were created
+	 */
+	public static long sortKeyOf(int sortMode, int birthEpochDay) {
+		switch (sortMode) {
+			case BirthdaySections.SORT_AGE:
+				return birthEpochDay;
+			case BirthdaySections.SORT_BIRTH_MONTH:
+				return monthDayOf(birthEpochDay);
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Works out the month_day column of a birth date
+	 *
+	 * @param birthEpochDay the local epoch day of the birth date
+	 * @return the birth month and day as month * 100 + day
+	 */
+	public static int monthDayOf(int birthEpochDay) {
+		int date = AgeCalculator.civilFromEpochDay(birthEpochDay);
+		return AgeCalculator.monthOf(date) * 100 + AgeCalculator.dayOf(date);
+	}
+}
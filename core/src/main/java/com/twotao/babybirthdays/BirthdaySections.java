@@ -0,0 +1,328 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.util.Arrays;
+
+/**
+ * The display order of the birthday list, grouped into sections for fast
+ * scrolling: by age (days, weeks, months, then each year), by birth month,
+ * or a single section in the order the birthdays were added.
+ *
+ * The order is worked out in one pass when the list loads, by sorting a
+ * packed key for every row, and is then kept up to date with the rows that
+ * are added or removed, each placed with a binary search. The number of rows
+ * in each section is kept in a FenwickTree, so going from a position to its
+ * section, or from a section to its first position, is O(log n).
+ *
+ * The age sections depend on today, so refreshToday() regroups the rows when
+ * the calendar day changes. An instance is not thread safe.
+ *
+ * @author Jim
+ *
+ */
+public class BirthdaySections {
+
+	public static final int SORT_CREATED = 0;
+	public static final int SORT_AGE = 1;
+	public static final int SORT_BIRTH_MONTH = 2;
+
+	/**
+	 * The age sections: one each for the day, week and month ages, then one
+	 * for each year up to the last, which holds every older age
+	 */
+	public static final int AGE_SECTION_YEARS = AgeCalculator.UNIT_YEARS;
+	public static final int FIRST_SECTION_YEAR = 2;
+	public static final int LAST_SECTION_YEAR = 18;
+
+	private static final int NUM_AGE_SECTIONS =
+		AGE_SECTION_YEARS + LAST_SECTION_YEAR - FIRST_SECTION_YEAR + 1;
+	private static final int NUM_MONTHS_PER_YEAR = 12;
+
+	// the load sort packs the section, the order within it and the model
+	// position into one long, so a plain primitive sort does the work
+	private static final int POSITION_BITS = 26;
+	private static final int ORDER_BITS = 32;
+	private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+	private static final long ORDER_MASK = (1L << ORDER_BITS) - 1;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final int mSortMode;
+	private final AgeCalculator mAgeCalculator = new AgeCalculator();
+	private final FenwickTree mSectionCounts;
+
+	// the rows in display order, with the section and order within it of each
+	// as (section << 32 | order), which is what the rows are sorted by
+	private long[] mKeys;
+	private long[] mIds;
+	private int[] mBirthEpochDays;
+	private int mSize;
+
+	/**
+	 * Creates an empty index
+	 *
+	 * @param sortMode one of the SORT_ constants
+	 */
+	public BirthdaySections(int sortMode) {
+		mSortMode = sortMode;
+		mSectionCounts = new FenwickTree(sectionCountFor(sortMode));
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Builds the index for every row of the model, in a single pass and one
+	 * sort, replacing anything already in it
+	 *
+	 * @param sortMode one of the SORT_ constants
+	 * @param model the birthdays to order
+	 * @return the loaded index
+	 */
+	public static BirthdaySections load(int sortMode, BirthdayListModel model) {
+		BirthdaySections sections = new BirthdaySections(sortMode);
+		int size = model.size();
+		int[] births = new int[size];
+		for (int i = 0; i < size; i++) {
+			births[i] = model.getBirthEpochDay(i);
+		}
+		sections.rebuild(model, births);
+		return sections;
+	}
+
+	public int getSortMode() {
+		return mSortMode;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * @param position the position in display order
+	 * @return the row id shown at that position
+	 */
+	public long getRowId(int position) {
+		return mIds[position];
+	}
+
+	/**
+	 * @return the number of sections of the sort mode, some of which may be
+	 *         empty
+	 */
+	public int getSectionCount() {
+		return mSectionCounts.size();
+	}
+
+	/**
+	 * @param section the section
+	 * @return the first position of the section, or of the next section
+	 *         with rows if it is empty
+	 */
+	public int getPositionForSection(int section) {
+		if (section >= mSectionCounts.size()) {
+			return mSize;
+		}
+		return (int) mSectionCounts.prefixSum(Math.max(section, 0));
+	}
+
+	/**
+	 * @param position the position in display order
+	 * @return the section holding the position
+	 */
+	public int getSectionForPosition(int position) {
+		if (position < 0) {
+			return 0;
+		}
+		return Math.min(mSectionCounts.search(position), mSectionCounts.size() - 1);
+	}
+
+	/**
+	 * Adds a row in its place in the order
+	 *
+	 * @param rowId id of the birthday
+	 * @param birthEpochDay the birth date as a local epoch day
+	 */
+	public void put(long rowId, int birthEpochDay) {
+
+		long key = keyOf(birthEpochDay);
+		int index = -(search(key, rowId) + 1);
+		if (index < 0) {
+			return;
+		}
+
+		if (mSize == mIds.length) {
+			grow();
+		}
+		int moved = mSize - index;
+		System.arraycopy(mKeys, index, mKeys, index + 1, moved);
+		System.arraycopy(mIds, index, mIds, index + 1, moved);
+		System.arraycopy(mBirthEpochDays, index, mBirthEpochDays, index + 1, moved);
+
+		mKeys[index] = key;
+		mIds[index] = rowId;
+		mBirthEpochDays[index] = birthEpochDay;
+		mSize++;
+		mSectionCounts.add((int) (key >>> ORDER_BITS), 1);
+	}
+
+	/**
+	 * Removes a row, which is found from the birth date it was added with
+	 *
+	 * @param rowId id of the birthday
+	 * @param birthEpochDay the birth date the row was added with
+	 * @return true if the row was removed
+	 */
+	public boolean remove(long rowId, int birthEpochDay) {
+
+		long key = keyOf(birthEpochDay);
+		int index = search(key, rowId);
+		if (index < 0) {
+			return false;
+		}
+
+		int moved = mSize - index - 1;
+		System.arraycopy(mKeys, index + 1, mKeys, index, moved);
+		System.arraycopy(mIds, index + 1, mIds, index, moved);
+		System.arraycopy(mBirthEpochDays, index + 1, mBirthEpochDays, index, moved);
+		mSize--;
+		mSectionCounts.add((int) (key >>> ORDER_BITS), -1);
+		return true;
+	}
+
+	/**
+	 * Moves "today" to the current date, regrouping the rows by age if the
+	 * calendar day has changed since the last snapshot
+	 *
+	 * @return true if the order may have changed
+	 */
+	public boolean refreshToday() {
+
+		if (!mAgeCalculator.setToday(System.currentTimeMillis()) || mSortMode != SORT_AGE) {
+			return false;
+		}
+
+		// the rows stay in birth date order, only the section boundaries move
+		for (int i = 0; i < mSize; i++) {
+			mKeys[i] = keyOf(mBirthEpochDays[i]);
+		}
+		recount();
+		return true;
+	}
+
+	/*
+	 * Sorts the rows of the model into display order, the birth epoch days
+	 * given in model order
+	 */
+	private void rebuild(BirthdayListModel model, int[] births) {
+
+		int size = model.size();
+		long[] packed = new long[size];
+		for (int i = 0; i < size; i++) {
+			packed[i] = (keyOf(births[i]) << POSITION_BITS) | i;
+		}
+		Arrays.sort(packed);
+
+		allocate(Math.max(size, INITIAL_CAPACITY));
+		for (int i = 0; i < size; i++) {
+			int position = (int) (packed[i] & POSITION_MASK);
+			mKeys[i] = packed[i] >>> POSITION_BITS;
+			mIds[i] = model.getId(position);
+			mBirthEpochDays[i] = births[position];
+		}
+		mSize = size;
+		recount();
+	}
+
+	private void recount() {
+		mSectionCounts.clear();
+		for (int i = 0; i < mSize; i++) {
+			mSectionCounts.add((int) (mKeys[i] >>> ORDER_BITS), 1);
+		}
+	}
+
+	/*
+	 * The section of a birth date in the high half, and its order within the
+	 * section in the low half
+	 */
+	private long keyOf(int birthEpochDay) {
+
+		int section;
+		long order;
+		switch (mSortMode) {
+			case SORT_AGE:
+				mAgeCalculator.computeFromEpochDay(birthEpochDay);
+				int unit = mAgeCalculator.getUnit();
+				if (unit < AgeCalculator.UNIT_YEARS) {
+					section = unit;
+				} else {
+					int years = Math.max(mAgeCalculator.getCount(), FIRST_SECTION_YEAR);
+					section = AGE_SECTION_YEARS
+							+ Math.min(years, LAST_SECTION_YEAR) - FIRST_SECTION_YEAR;
+				}
+				// youngest first
+				order = (Integer.MAX_VALUE - (long) birthEpochDay) & ORDER_MASK;
+				break;
+			case SORT_BIRTH_MONTH:
+				int date = AgeCalculator.civilFromEpochDay(birthEpochDay);
+				section = AgeCalculator.monthOf(date) - 1;
+				order = AgeCalculator.dayOf(date);
+				break;
+			default:
+				section = 0;
+				order = 0;
+				break;
+		}
+		return ((long) section << ORDER_BITS) | order;
+	}
+
+	private static int sectionCountFor(int sortMode) {
+		switch (sortMode) {
+			case SORT_AGE:
+				return NUM_AGE_SECTIONS;
+			case SORT_BIRTH_MONTH:
+				return NUM_MONTHS_PER_YEAR;
+			default:
+				return 1;
+		}
+	}
+
+	/*
+	 * Binary search for the row by its key and then its id, returning its
+	 * index if found, otherwise (-(insertion point) - 1)
+	 */
+	private int search(long key, long rowId) {
+
+		int low = 0;
+		int high = mSize - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midKey = mKeys[mid];
+			if (midKey < key || (midKey == key && mIds[mid] < rowId)) {
+				low = mid + 1;
+			} else if (midKey > key || mIds[mid] > rowId) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private void allocate(int capacity) {
+		mKeys = new long[capacity];
+		mIds = new long[capacity];
+		mBirthEpochDays = new int[capacity];
+	}
+
+	private void grow() {
+		long[] keys = mKeys;
+		long[] ids = mIds;
+		int[] births = mBirthEpochDays;
+		allocate(mIds.length * 2);
+		System.arraycopy(keys, 0, mKeys, 0, mSize);
+		System.arraycopy(ids, 0, mIds, 0, mSize);
+		System.arraycopy(births, 0, mBirthEpochDays, 0, mSize);
+	}
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * A copy of the birthday list kept in a file, so the list can be shown on a
+ * cold start straight from the file before the database has been opened.
+ * The real load replaces it as soon as it arrives.
+ *
+ * The file holds the columns of a BirthdayListModel as they are in memory: a
+ * header, then the row ids, the birth epoch days, the name lengths and the
+ * name characters, each as one block. Reading it maps the file and copies
+ * each block out with a single bulk get, with no parsing per row.
+ *
+ * The header is the magic and format version, the schema version the rows
+ * were read with, the row and name character counts, and a CRC32 of
+ * everything after the header. A file of another version, of the wrong
+ * length, with a bad checksum or with row ids out of order is treated as
+ * missing and deleted, so a stale or corrupt snapshot only costs the wait
+ * for the real load.
+ *
+ * @author Jim
+ *
+ */
+public final class BirthdaySnapshot {
+
+	private static final int MAGIC = ('B' << 24) | ('B' << 16) | ('S' << 8) | 1;
+
+	// magic, schema version, row count, name character count and checksum
+	private static final int HEADER_SIZE = 5 * 4;
+
+	// a row id, a birth epoch day and a name length
+	private static final int ROW_SIZE = 8 + 4 + 4;
+
+	// snapshots larger than this are treated as corrupt rather than mapped
+	static final int MAX_SIZE = 16 * 1024 * 1024;
+
+	private static final int CHECKSUM_CHUNK_SIZE = 8 * 1024;
+
+	private BirthdaySnapshot() {
+	}
+
+	/**
+	 * Copies the rows of a model into a buffer ready to be written with
+	 * write(). This is a plain copy of the columns, so it is cheap enough to
+	 * do on the thread that owns the model, leaving the write to another.
+	 *
+	 * @param model the birthdays to keep
+	 * @return the encoded snapshot, positioned at 0
+	 */
+	public static ByteBuffer encode(BirthdayListModel model) {
+
+		int size = model.size();
+		int nameChars = 0;
+		for (int i = 0; i < size; i++) {
+			nameChars += model.getNameLength(i);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + size * ROW_SIZE + nameChars * 2);
+		buffer.position(HEADER_SIZE);
+		for (int i = 0; i < size; i++) {
+			buffer.putLong(model.getId(i));
+		}
+		for (int i = 0; i < size; i++) {
+			buffer.putInt(model.getBirthEpochDay(i));
+		}
+		for (int i = 0; i < size; i++) {
+			buffer.putInt(model.getStoredNameLength(i));
+		}
+		CharBuffer chars = buffer.asCharBuffer();
+		char[] names = model.getNameBuffer();
+		for (int i = 0; i < size; i++) {
+			chars.put(names, model.getNameOffset(i), model.getNameLength(i));
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), HEADER_SIZE, buffer.capacity() - HEADER_SIZE);
+
+		buffer.position(0);
+		buffer.putInt(MAGIC);
+		buffer.putInt(BirthdaySchema.VERSION);
+		buffer.putInt(size);
+		buffer.putInt(nameChars);
+		buffer.putInt((int) crc.getValue());
+		buffer.position(0);
+		return buffer;
+	}
+
+	/**
+	 * Reads the rows back from an encoded snapshot
+	 *
+	 * @param buffer the snapshot, from its position to its limit
+	 * @return the rows, or null if the snapshot is of another version or
+	 *         corrupt
+	 */
+	public static BirthdayListModel decode(ByteBuffer buffer) {
+
+		ByteBuffer in = buffer.slice();
+		if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC
+				|| in.getInt() != BirthdaySchema.VERSION) {
+			return null;
+		}
+		int size = in.getInt();
+		int nameChars = in.getInt();
+		int checksum = in.getInt();
+		if (size < 0 || nameChars < 0
+				|| (long) size * ROW_SIZE + (long) nameChars * 2 != in.remaining()) {
+			return null;
+		}
+		if (checksumOf(in) != checksum) {
+			return null;
+		}
+
+		long[] ids = new long[size];
+		int[] births = new int[size];
+		int[] lengths = new int[size];
+		char[] names = new char[nameChars];
+		in.asLongBuffer().get(ids);
+		in.position(in.position() + size * 8);
+		in.asIntBuffer().get(births);
+		in.position(in.position() + size * 4);
+		in.asIntBuffer().get(lengths);
+		in.position(in.position() + size * 4);
+		in.asCharBuffer().get(names);
+
+		// the checksum only says the file is as it was written, so check the
+		// columns are consistent before handing them to the model
+		int total = 0;
+		for (int i = 0; i < size; i++) {
+			if (lengths[i] < BirthdayListModel.NULL_NAME || (i > 0 && ids[i] <= ids[i - 1])) {
+				return null;
+			}
+			total += Math.max(lengths[i], 0);
+		}
+		if (total != nameChars) {
+			return null;
+		}
+
+		return BirthdayListModel.fromColumns(ids, births, lengths, names, size);
+	}
+
+	/**
+	 * Maps a snapshot file and reads its rows, deleting the file if it can
+	 * not be used
+	 *
+	 * @param file the snapshot file
+	 * @return the rows, or null if there is no usable snapshot
+	 */
+	public static BirthdayListModel read(File file) {
+
+		if (!file.exists()) {
+			return null;
+		}
+
+		BirthdayListModel model = null;
+		try {
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = in.getChannel();
+				long length = channel.size();
+				if (length <= MAX_SIZE) {
+					MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+					model = decode(mapped);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			model = null;
+		}
+
+		if (model == null) {
+			file.delete();
+		}
+		return model;
+	}
+
+	/**
+	 * Replaces a snapshot file with an encoded snapshot. The snapshot is
+	 * written to a temporary file and renamed over the old one, so a reader
+	 * never sees half of it. It is not synced, as a snapshot torn by a crash
+	 * fails its checksum and is simply not used.
+	 *
+	 * @param file the snapshot file
+	 * @param encoded the snapshot, from encode()
+	 * @throws IOException if the snapshot could not be written
+	 */
+	public static void write(File file, ByteBuffer encoded) throws IOException {
+
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer buffer = encoded.duplicate();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Could not replace " + file);
+		}
+	}
+
+	/*
+	 * Works out the CRC32 of the rest of a buffer without moving it, through
+	 * a small array as a mapped buffer has none of its own
+	 */
+	private static int checksumOf(ByteBuffer buffer) {
+
+		ByteBuffer in = buffer.duplicate();
+		byte[] chunk = new byte[CHECKSUM_CHUNK_SIZE];
+		CRC32 crc = new CRC32();
+		while (in.hasRemaining()) {
+			int length = Math.min(chunk.length, in.remaining());
+			in.get(chunk, 0, length);
+			crc.update(chunk, 0, length);
+		}
+		return (int) crc.getValue();
+	}
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.util.HashSet;
+
+/**
+ * Finds the birthday milestones falling in a range of days, and the day of
+ * the next one, straight from the birth_day and month_day indexes, so a
+ * reminder tick in a fresh process reads only the rows that are due rather
+ * than loading every birthday into a MilestoneQueue first.
+ *
+ * Each kind of milestone comes from a single range of an index: a one week
+ * milestone from the births seven days before, a one or six month milestone
+ * from the births a month or six months before, give or take the days a
+ * shorter month drops, and a yearly milestone from the same range of the
+ * calendar by month_day. The rows in those ranges are checked exactly with
+ * MilestoneQueue.newestMilestone(), so what is reported is the same as
+ * MilestoneQueue.pollDue() reports for the same days.
+ *
+ * @author Jim
+ *
+ */
+public final class DueMilestones {
+
+	/**
+	 * The index lookups the milestones are found with
+	 */
+	public interface Source {
+
+		/**
+		 * @param fromEpochDay the first birth day
+		 * @param toEpochDay the last birth day, inclusive
+		 * @return the birthdays born in the range
+		 */
+		BirthdayRepository.Rows fetchBornBetween(int fromEpochDay, int toEpochDay);
+
+		/**
+		 * @param fromMonthDay the first month_day
+		 * @param toMonthDay the last month_day, inclusive
+		 * @return the birthdays whose month_day is in the range
+		 */
+		BirthdayRepository.Rows fetchMonthDaysBetween(int fromMonthDay, int toMonthDay);
+
+		/**
+		 * @param afterEpochDay the day to look after
+		 * @return the lowest birth day after the given day, or
+		 *         Integer.MAX_VALUE if there is none
+		 */
+		int nextBirthEpochDay(int afterEpochDay);
+
+		/**
+		 * @param afterMonthDay the month_day to look after
+		 * @param bornByEpochDay the last birth day of the rows looked at
+		 * @return the lowest month_day after the given one of a birthday
+		 *         born by the given day, or Integer.MAX_VALUE if there is none
+		 */
+		int nextMonthDay(int afterMonthDay, int bornByEpochDay);
+	}
+
+	private static final int NUM_DAYS_IN_WEEK = 7;
+	private static final int NUM_DAYS_IN_YEAR = 366;
+
+	// the months of the month milestones, with the fewest and most days
+	// those months can take from a birth day
+	private static final int[] MONTHS = {1, 6};
+	private static final int[] MIN_DAYS = {28, 181};
+	private static final int[] MAX_DAYS = {31, 184};
+
+	private static final int FIRST_MONTH_DAY = 101;
+	private static final int LAST_MONTH_DAY = 1231;
+	private static final int FEB_28 = 228;
+	private static final int FEB_29 = 229;
+
+	private DueMilestones() {
+	}
+
+	/**
+	 * Hands the newest milestone falling in a range of days of every
+	 * birthday that has one to the listener, as MilestoneQueue.pollDue()
+	 * does for the days since its last poll
+	 *
+	 * @param source the index lookups
+	 * @param fromEpochDay the first day of the range, the day after the last
+	 *        tick
+	 * @param toEpochDay the last day of the range, usually today
+	 * @param listener receives the milestones, once per birthday
+	 * @return the number of milestones reported
+	 */
+	public static int pollDue(Source source, int fromEpochDay, int toEpochDay,
+			MilestoneQueue.OnMilestoneListener listener) {
+
+		if (toEpochDay < fromEpochDay) {
+			return 0;
+		}
+
+		// a birthday can fall in more than one of the ranges
+		HashSet<Long> reported = new HashSet<Long>();
+		if (toEpochDay - fromEpochDay + 1 >= NUM_DAYS_IN_YEAR) {
+			// every birthday old enough has a milestone in a whole year
+			return report(source.fetchBornBetween(Integer.MIN_VALUE, toEpochDay - NUM_DAYS_IN_WEEK),
+					fromEpochDay, toEpochDay, reported, listener);
+		}
+
+		int due = report(source.fetchBornBetween(fromEpochDay - NUM_DAYS_IN_WEEK,
+				toEpochDay - NUM_DAYS_IN_WEEK), fromEpochDay, toEpochDay, reported, listener);
+		for (int i = 0; i < MONTHS.length; i++) {
+			due += report(source.fetchBornBetween(fromEpochDay - MAX_DAYS[i],
+					toEpochDay - MIN_DAYS[i]), fromEpochDay, toEpochDay, reported, listener);
+		}
+
+		int fromMonthDay = BirthdaySchema.monthDayOf(fromEpochDay);
+		int toMonthDay = BirthdaySchema.monthDayOf(toEpochDay);
+		if (fromMonthDay <= toMonthDay) {
+			due += report(source.fetchMonthDaysBetween(fromMonthDay, withLeapDay(toMonthDay)),
+					fromEpochDay, toEpochDay, reported, listener);
+		} else {
+			// the range wraps around the end of the year
+			due += report(source.fetchMonthDaysBetween(fromMonthDay, LAST_MONTH_DAY),
+					fromEpochDay, toEpochDay, reported, listener);
+			due += report(source.fetchMonthDaysBetween(FIRST_MONTH_DAY, withLeapDay(toMonthDay)),
+					fromEpochDay, toEpochDay, reported, listener);
+		}
+		return due;
+	}
+
+	/**
+	 * Works out the day of the earliest milestone of any birthday falling on
+	 * or after a day, with a handful of index lookups
+	 *
+	 * @param source the index lookups
+	 * @param fromEpochDay the first day the milestone may fall on
+	 * @return the epoch day of the milestone, or Integer.MAX_VALUE if no
+	 *         birthday has one
+	 */
+	public static int nextDueEpochDay(Source source, int fromEpochDay) {
+
+		// the earliest of each kind of milestone is the earliest of all, as
+		// each is a milestone of some birthday and the earliest is of a kind
+		int next = Integer.MAX_VALUE;
+		int birth = source.nextBirthEpochDay(fromEpochDay - NUM_DAYS_IN_WEEK - 1);
+		if (birth != Integer.MAX_VALUE) {
+			next = birth + NUM_DAYS_IN_WEEK;
+		}
+
+		// a month milestone moves forwards with the birth day, so the first
+		// birth day whose milestone is not before the day gives the earliest
+		for (int i = 0; i < MONTHS.length; i++) {
+			birth = source.nextBirthEpochDay(fromEpochDay - MAX_DAYS[i] - 1);
+			while (birth != Integer.MAX_VALUE) {
+				int day = MilestoneQueue.milestoneEpochDay(birth, MONTHS[i]);
+				if (day >= fromEpochDay) {
+					next = Math.min(next, day);
+					break;
+				}
+				birth = source.nextBirthEpochDay(birth);
+			}
+		}
+
+		// every birthday of a row born before the day is a yearly milestone
+		int date = AgeCalculator.civilFromEpochDay(fromEpochDay);
+		int year = AgeCalculator.yearOf(date);
+		int bornBy = fromEpochDay - 1;
+		int monthDay = source.nextMonthDay(BirthdaySchema.monthDayOf(fromEpochDay) - 1, bornBy);
+		while (monthDay != Integer.MAX_VALUE) {
+			int day = birthdayEpochDay(year, monthDay);
+			if (day >= fromEpochDay) {
+				return Math.min(next, day);
+			}
+			monthDay = source.nextMonthDay(monthDay, bornBy);
+		}
+		monthDay = source.nextMonthDay(0, bornBy);
+		if (monthDay != Integer.MAX_VALUE) {
+			next = Math.min(next, birthdayEpochDay(year + 1, monthDay));
+		}
+		return next;
+	}
+
+	/*
+	 * Reports the newest milestone in the range of each row not reported
+	 * yet, and closes the rows
+	 */
+	private static int report(BirthdayRepository.Rows rows, int fromEpochDay, int toEpochDay,
+			HashSet<Long> reported, MilestoneQueue.OnMilestoneListener listener) {
+
+		int due = 0;
+		try {
+			while (rows.next()) {
+				int birth = rows.getBirthEpochDay();
+				int milestone = MilestoneQueue.newestMilestone(birth, fromEpochDay, toEpochDay);
+				if (milestone >= 0 && reported.add(rows.getId())) {
+					listener.onMilestone(rows.getId(), milestone,
+							MilestoneQueue.milestoneEpochDay(birth, milestone));
+					due++;
+				}
+			}
+		} finally {
+			rows.close();
+		}
+		return due;
+	}
+
+	/*
+	 * A birthday on the 29th of February falls on the 28th in other years,
+	 * so a range ending on the 28th takes in the 29th too
+	 */
+	private static int withLeapDay(int toMonthDay) {
+		return (toMonthDay == FEB_28) ? FEB_29 : toMonthDay;
+	}
+
+	/*
+	 * The day of a birthday in a year, on the 28th of February for the 29th
+	 * in a year that has none
+	 */
+	private static int birthdayEpochDay(int year, int monthDay) {
+		int day = AgeCalculator.epochDayFromCivil(year, monthDay / 100, monthDay % 100);
+		if (monthDay == FEB_29 && AgeCalculator.monthOf(AgeCalculator.civilFromEpochDay(day)) != 2) {
+			return day - 1;
+		}
+		return day;
+	}
+}
@@ -0,0 +1,334 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * Finds the birthdays that are already stored with the same name and birth
+ * date, so the same child is not entered twice, without asking the storage
+ * about every name.
+ *
+ * Names are compared as their words, the runs of letters and digits as in
+ * NameSearch, ignoring case, so "Emma  Smith" and "emma-smith" are the same
+ * name. The normalized name and the birth epoch day are hashed to a 64 bit
+ * key without creating any Strings, and the key alone decides a match.
+ *
+ * The keys are held in an open addressed hash index from key to row id,
+ * which may hold several rows of the same key, with a second one from row id
+ * to key so a row can be moved or removed by its id. In front of the index is
+ * a Bloom filter of one 64 bit word per block, so a name that is not a
+ * duplicate, the usual case during an import, is almost always turned away
+ * by reading a single word. The filter can not forget a key, so it is built
+ * again once as many rows have been removed as are in the index.
+ *
+ * The index is not thread safe.
+ *
+ * @author Jim
+ *
+ */
+public final class DuplicateIndex {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// row ids start at 1 and keys are never 0, so 0 marks an empty slot
+	private static final long EMPTY = 0;
+
+	// the slots of the index for each word of the filter
+	private static final int SLOTS_PER_BLOOM_WORD = 8;
+
+	private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+	private static final long FNV_PRIME = 0x100000001B3L;
+
+	// the entries by key, a key has one entry for each row that has it
+	private long[] mEntryKeys;
+	private long[] mEntryRowIds;
+
+	// the key of each row, by row id
+	private long[] mRowIds;
+	private long[] mRowKeys;
+	private int mSize;
+
+	private long[] mBloom;
+	private int mRemovedSinceBloom;
+
+	/**
+	 * Creates an empty index
+	 */
+	public DuplicateIndex() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Indexes the rows of a repository query. The rows are read to the end
+	 * and left open.
+	 *
+	 * @param rows all of the birthdays
+	 * @return the index of the rows
+	 */
+	public static DuplicateIndex load(BirthdayRepository.Rows rows) {
+
+		DuplicateIndex index = new DuplicateIndex();
+		int capacity = INITIAL_CAPACITY;
+		while (rows.getCount() * 2 > capacity) {
+			capacity *= 2;
+		}
+		index.allocate(capacity);
+		while (rows.next()) {
+			index.put(rows.getId(), rows.getName(), rows.getBirthEpochDay());
+		}
+		return index;
+	}
+
+	/**
+	 * Works out the key a birthday is compared by
+	 *
+	 * @param name the name, null is the same as a name with no words
+	 * @param birthEpochDay the birth date as a local epoch day
+	 * @return the key, never 0
+	 */
+	public static long keyOf(String name, int birthEpochDay) {
+
+		// FNV-1a over the lower case words, with one space between words
+		long hash = FNV_OFFSET;
+		if (name != null) {
+			boolean inWord = false;
+			boolean started = false;
+			for (int i = 0; i < name.length(); i++) {
+				char c = name.charAt(i);
+				if (Character.isLetterOrDigit(c)) {
+					if (!inWord && started) {
+						hash = (hash ^ ' ') * FNV_PRIME;
+					}
+					hash = (hash ^ Character.toLowerCase(c)) * FNV_PRIME;
+					inWord = true;
+					started = true;
+				} else {
+					inWord = false;
+				}
+			}
+		}
+		hash = (hash ^ birthEpochDay) * FNV_PRIME;
+
+		// spread the bits, as FNV leaves the high bits weak for short input
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		return (hash == EMPTY) ? 1 : hash;
+	}
+
+	/**
+	 * @return the number of rows indexed
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * Adds or moves a single row
+	 *
+	 * @param rowId id of the birthday
+	 * @param name the name of the birthday
+	 * @param birthEpochDay the birth date as a local epoch day
+	 */
+	public void put(long rowId, String name, int birthEpochDay) {
+
+		long key = keyOf(name, birthEpochDay);
+		int row = rowSlotFor(rowId);
+		if (mRowIds[row] != EMPTY) {
+			if (mRowKeys[row] == key) {
+				return;
+			}
+			removeEntry(mRowKeys[row], rowId);
+			mRowKeys[row] = key;
+			addEntry(key, rowId);
+			if (++mRemovedSinceBloom > mSize) {
+				rebuildBloom();
+			}
+			return;
+		}
+
+		if ((mSize + 1) * 2 > mRowIds.length) {
+			resize(mRowIds.length * 2);
+			row = rowSlotFor(rowId);
+		}
+		mRowIds[row] = rowId;
+		mRowKeys[row] = key;
+		mSize++;
+		addEntry(key, rowId);
+	}
+
+	/**
+	 * Removes a single row, if it is indexed
+	 *
+	 * @param rowId id of the birthday
+	 */
+	public void remove(long rowId) {
+
+		int row = rowSlotFor(rowId);
+		if (mRowIds[row] == EMPTY) {
+			return;
+		}
+		removeEntry(mRowKeys[row], rowId);
+		removeSlot(mRowIds, mRowKeys, row, true);
+		mSize--;
+
+		// the filter still holds the key, build it again once it has too
+		// many keys that are gone
+		if (++mRemovedSinceBloom > mSize) {
+			rebuildBloom();
+		}
+	}
+
+	/**
+	 * Finds a row with the same name and birth date
+	 *
+	 * @param name the name to look for
+	 * @param birthEpochDay the birth date to look for, as a local epoch day
+	 * @param ignoreRowId a row that is not a duplicate of itself, such as the
+	 *        one being edited, or 0
+	 * @return the row id of a duplicate, or 0 if there is none
+	 */
+	public long find(String name, int birthEpochDay, long ignoreRowId) {
+
+		long key = keyOf(name, birthEpochDay);
+		if (!mightContain(key)) {
+			return 0;
+		}
+
+		int mask = mEntryKeys.length - 1;
+		for (int i = entryHash(key) & mask; mEntryKeys[i] != EMPTY; i = (i + 1) & mask) {
+			if (mEntryKeys[i] == key && mEntryRowIds[i] != ignoreRowId) {
+				return mEntryRowIds[i];
+			}
+		}
+		return 0;
+	}
+
+	private boolean mightContain(long key) {
+		long bits = bloomBitsOf(key);
+		return (mBloom[bloomWordOf(key)] & bits) == bits;
+	}
+
+	private void addEntry(long key, long rowId) {
+
+		int mask = mEntryKeys.length - 1;
+		int i = entryHash(key) & mask;
+		while (mEntryKeys[i] != EMPTY) {
+			i = (i + 1) & mask;
+		}
+		mEntryKeys[i] = key;
+		mEntryRowIds[i] = rowId;
+		mBloom[bloomWordOf(key)] |= bloomBitsOf(key);
+	}
+
+	private void removeEntry(long key, long rowId) {
+
+		int mask = mEntryKeys.length - 1;
+		int i = entryHash(key) & mask;
+		while (mEntryKeys[i] != key || mEntryRowIds[i] != rowId) {
+			i = (i + 1) & mask;
+		}
+		removeSlot(mEntryKeys, mEntryRowIds, i, false);
+	}
+
+	/*
+	 * Empties a slot of one of the tables, shifting the following entries of
+	 * the probe run back as in AgeLabelTable, so lookups never stop early at
+	 * the hole that is left. The rows table is hashed by its first array and
+	 * the entries table by its first array as a key.
+	 */
+	private static void removeSlot(long[] hashed, long[] values, int index, boolean byRowId) {
+
+		int mask = hashed.length - 1;
+		int hole = index;
+		int next = (hole + 1) & mask;
+		while (hashed[next] != EMPTY) {
+			int home = (byRowId ? rowHash(hashed[next]) : entryHash(hashed[next])) & mask;
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				hashed[hole] = hashed[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		hashed[hole] = EMPTY;
+		values[hole] = EMPTY;
+	}
+
+	/*
+	 * Returns the slot that holds the row id, or the empty slot where it
+	 * belongs
+	 */
+	private int rowSlotFor(long rowId) {
+
+		int mask = mRowIds.length - 1;
+		int index = rowHash(rowId) & mask;
+		while (mRowIds[index] != EMPTY && mRowIds[index] != rowId) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	private void resize(int capacity) {
+
+		long[] rowIds = mRowIds;
+		long[] rowKeys = mRowKeys;
+
+		allocate(capacity);
+		for (int i = 0; i < rowIds.length; i++) {
+			if (rowIds[i] != EMPTY) {
+				int row = rowSlotFor(rowIds[i]);
+				mRowIds[row] = rowIds[i];
+				mRowKeys[row] = rowKeys[i];
+				addEntry(rowKeys[i], rowIds[i]);
+			}
+		}
+	}
+
+	private void rebuildBloom() {
+
+		for (int i = 0; i < mBloom.length; i++) {
+			mBloom[i] = 0;
+		}
+		for (int i = 0; i < mEntryKeys.length; i++) {
+			if (mEntryKeys[i] != EMPTY) {
+				mBloom[bloomWordOf(mEntryKeys[i])] |= bloomBitsOf(mEntryKeys[i]);
+			}
+		}
+		mRemovedSinceBloom = 0;
+	}
+
+	private void allocate(int capacity) {
+		mEntryKeys = new long[capacity];
+		mEntryRowIds = new long[capacity];
+		mRowIds = new long[capacity];
+		mRowKeys = new long[capacity];
+		mBloom = new long[capacity / SLOTS_PER_BLOOM_WORD];
+		mRemovedSinceBloom = 0;
+	}
+
+	/*
+	 * The word of the filter a key is in, chosen by its high bits
+	 */
+	private int bloomWordOf(long key) {
+		return (int) (key >>> 40) & (mBloom.length - 1);
+	}
+
+	/*
+	 * The four bits of its word a key sets, chosen by its low bits
+	 */
+	private static long bloomBitsOf(long key) {
+		return (1L << (key & 63)) | (1L << ((key >>> 6) & 63))
+				| (1L << ((key >>> 12) & 63)) | (1L << ((key >>> 18) & 63));
+	}
+
+	private static int entryHash(long key) {
+		return (int) (key ^ (key >>> 32));
+	}
+
+	private static int rowHash(long rowId) {
+		long h = rowId * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
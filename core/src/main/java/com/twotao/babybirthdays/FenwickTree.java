@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * A binary indexed (Fenwick) tree over a fixed number of buckets, which
+ * keeps running totals so adding to a bucket, summing a range of buckets and
+ * finding the bucket a running total falls in each take O(log n).
+ *
+ * Buckets are numbered from 0. The tree is not thread safe.
+ *
+ * @author Jim
+ *
+ */
+public final class FenwickTree {
+
+	// 1 based, mTree[i] holds the sum of the buckets (i - lowbit(i), i]
+	private final long[] mTree;
+	private final int mSize;
+
+	// the highest power of two no larger than the size, for search()
+	private final int mTopBit;
+
+	/**
+	 * @param size the number of buckets
+	 */
+	public FenwickTree(int size) {
+		mSize = size;
+		mTree = new long[size + 1];
+		mTopBit = (size == 0) ? 0 : Integer.highestOneBit(size);
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * @param index the bucket to add to
+	 * @param delta the amount to add, which may be negative
+	 */
+	public void add(int index, long delta) {
+		for (int i = index + 1; i <= mSize; i += i & -i) {
+			mTree[i] += delta;
+		}
+	}
+
+	/**
+	 * @param count the number of buckets to sum, from bucket 0
+	 * @return the sum of the buckets [0, count)
+	 */
+	public long prefixSum(int count) {
+		long sum = 0;
+		for (int i = count; i > 0; i -= i & -i) {
+			sum += mTree[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * @param from the first bucket to sum
+	 * @param to the bucket after the last one to sum
+	 * @return the sum of the buckets [from, to)
+	 */
+	public long sum(int from, int to) {
+		return prefixSum(to) - prefixSum(from);
+	}
+
+	/**
+	 * @param index the bucket
+	 * @return the value of the single bucket
+	 */
+	public long get(int index) {
+		return sum(index, index + 1);
+	}
+
+	/**
+	 * @return the sum of every bucket
+	 */
+	public long total() {
+		return prefixSum(mSize);
+	}
+
+	/**
+	 * Finds the bucket a running total falls in, which with non-negative
+	 * buckets is the first bucket whose prefix sum through it is more than
+	 * the target
+	 *
+	 * @param target the running total to look for
+	 * @return the bucket, or size() if the total of every bucket is not more
+	 *         than the target
+	 */
+	public int search(long target) {
+		int index = 0;
+		for (int bit = mTopBit; bit != 0; bit >>>= 1) {
+			int next = index + bit;
+			if (next <= mSize && mTree[next] <= target) {
+				index = next;
+				target -= mTree[next];
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Sets every bucket back to 0
+	 */
+	public void clear() {
+		for (int i = 0; i <= mSize; i++) {
+			mTree[i] = 0;
+		}
+	}
+}
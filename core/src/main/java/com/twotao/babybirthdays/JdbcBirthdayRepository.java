@@ -0,0 +1,389 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A BirthdayRepository over a JDBC connection to a SQLite database, such as
+ * one opened with the xerial driver, running the same BirthdaySchema SQL as
+ * the app. It lets the storage workload of the app be run and profiled on a
+ * desktop JVM.
+ *
+ * The write statements are prepared once and rebound for every write. The
+ * connection is used as it is given, so a caller can turn off auto commit to
+ * run a run of writes in one transaction. A JDBC connection is not safe to
+ * share between threads, so every use of it, including reading the rows of a
+ * query, is synchronized on the repository.
+ *
+ * Errors from the driver are thrown as IllegalStateException, in the same way
+ * the Android database throws its own unchecked SQLException.
+ *
+ * The DuplicateIndex behind findDuplicate() is built by its first call and
+ * then kept up to date by the writes of the repository. It is not told about
+ * a transaction the caller rolls back.
+ *
+ * @author Jim
+ *
+ */
+public class JdbcBirthdayRepository implements BirthdayRepository, DueMilestones.Source {
+
+	private final Connection mConnection;
+	private final PreparedStatement mInsertStatement;
+	private final PreparedStatement mUpdateStatement;
+	private final PreparedStatement mDeleteStatement;
+	private final PreparedStatement mFetchStatement;
+
+	// built on first use by findDuplicate()
+	private DuplicateIndex mDuplicates;
+
+	/**
+	 * @param connection an open connection to a database with the current
+	 *        schema, which is closed along with the repository
+	 * @throws SQLException if the statements could not be prepared
+	 */
+	public JdbcBirthdayRepository(Connection connection) throws SQLException {
+		mConnection = connection;
+		mInsertStatement = connection.prepareStatement(BirthdaySchema.INSERT_SQL,
+				Statement.RETURN_GENERATED_KEYS);
+		mUpdateStatement = connection.prepareStatement(BirthdaySchema.UPDATE_SQL);
+		mDeleteStatement = connection.prepareStatement(BirthdaySchema.DELETE_SQL);
+		mFetchStatement = connection.prepareStatement(BirthdaySchema.FETCH_QUERY);
+	}
+
+	/**
+	 * Creates the tables, indexes and triggers of the current schema in an
+	 * empty database
+	 *
+	 * @param connection an open connection to the database
+	 * @throws SQLException if the schema could not be created
+	 */
+	public static void createSchema(Connection connection) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			for (String sql : BirthdaySchema.createStatements()) {
+				statement.execute(sql);
+			}
+			statement.execute("pragma user_version = " + BirthdaySchema.VERSION);
+		} finally {
+			statement.close();
+		}
+	}
+
+	public synchronized long createBirthday(String name, int birthEpochDay) {
+		if (name == null) {
+			return -1;
+		}
+
+		try {
+			bindRow(mInsertStatement, name, birthEpochDay);
+			mInsertStatement.executeUpdate();
+			ResultSet keys = mInsertStatement.getGeneratedKeys();
+			long rowId;
+			try {
+				rowId = keys.next() ? keys.getLong(1) : -1;
+			} finally {
+				keys.close();
+			}
+			if (rowId > 0 && mDuplicates != null) {
+				mDuplicates.put(rowId, name, birthEpochDay);
+			}
+			return rowId;
+		} catch (SQLException e) {
+			throw new IllegalStateException("Error inserting birthday", e);
+		}
+	}
+
+	public synchronized boolean updateBirthday(long rowId, String name, int birthEpochDay) {
+		if (name == null) {
+			return false;
+		}
+
+		try {
+			bindRow(mUpdateStatement, name, birthEpochDay);
+			mUpdateStatement.setLong(4, rowId);
+			boolean updated = mUpdateStatement.executeUpdate() > 0;
+			if (updated && mDuplicates != null) {
+				mDuplicates.put(rowId, name, birthEpochDay);
+			}
+			return updated;
+		} catch (SQLException e) {
+			throw new IllegalStateException("Error updating birthday " + rowId, e);
+		}
+	}
+
+	public synchronized boolean deleteBirthday(long rowId) {
+		try {
+			mDeleteStatement.setLong(1, rowId);
+			boolean deleted = mDeleteStatement.executeUpdate() > 0;
+			if (deleted && mDuplicates != null) {
+				mDuplicates.remove(rowId);
+			}
+			return deleted;
+		} catch (SQLException e) {
+			throw new IllegalStateException("Error deleting birthday " + rowId, e);
+		}
+	}
+
+	public synchronized Birthday fetchBirthday(long rowId) {
+		try {
+			mFetchStatement.setLong(1, rowId);
+			ResultSet result = mFetchStatement.executeQuery();
+			try {
+				return result.next()
+						? new Birthday(result.getLong(1), result.getString(2), result.getInt(3))
+						: null;
+			} finally {
+				result.close();
+			}
+		} catch (SQLException e) {
+			throw new IllegalStateException("Error fetching birthday " + rowId, e);
+		}
+	}
+
+	public Rows fetchAll() {
+		return query(BirthdaySchema.FETCH_ALL_QUERY);
+	}
+
+	public Rows fetchPage(int sortMode, String filter, long afterSortKey, long afterRowId, int limit) {
+		String match = (filter == null) ? null : NameSearch.toPrefixMatch(filter);
+		String sql = BirthdaySchema.pageQuery(sortMode, match != null);
+		return (match == null) ? query(sql, afterSortKey, afterRowId, limit)
+				: query(sql, afterSortKey, afterRowId, limit, match);
+	}
+
+	public synchronized Keys fetchKeys(int sortMode, String filter) {
+		String match = (filter == null) ? null : NameSearch.toPrefixMatch(filter);
+		try {
+			PreparedStatement statement = mConnection.prepareStatement(
+					BirthdaySchema.keysQuery(sortMode, match != null));
+			if (match != null) {
+				statement.setString(1, match);
+			}
+			return new ResultSetKeys(statement, statement.executeQuery());
+		} catch (SQLException e) {
+			throw new IllegalStateException("Error querying birthdays", e);
+		}
+	}
+
+	public int countBirthdays() {
+		return (int) queryLong(-1, BirthdaySchema.COUNT_QUERY);
+	}
+
+	public Rows search(String text) {
+		String match = NameSearch.toPrefixMatch(text);
+		if (match == null) {
+			return fetchAll();
+		}
+		return query(BirthdaySchema.SEARCH_QUERY, match);
+	}
+
+	public Rows fetchBornBetween(int fromEpochDay, int toEpochDay) {
+		return query(BirthdaySchema.BORN_BETWEEN_QUERY, fromEpochDay, toEpochDay);
+	}
+
+	public Rows fetchMonthDaysBetween(int fromMonthDay, int toMonthDay) {
+		return query(BirthdaySchema.MONTH_DAYS_BETWEEN_QUERY, fromMonthDay, toMonthDay);
+	}
+
+	public int nextBirthEpochDay(int afterEpochDay) {
+		return (int) queryLong(Integer.MAX_VALUE, BirthdaySchema.NEXT_BIRTH_DAY_QUERY, afterEpochDay);
+	}
+
+	public int nextMonthDay(int afterMonthDay, int bornByEpochDay) {
+		return (int) queryLong(Integer.MAX_VALUE, BirthdaySchema.NEXT_MONTH_DAY_QUERY,
+				afterMonthDay, bornByEpochDay);
+	}
+
+	public synchronized long findDuplicate(String name, int birthEpochDay, long ignoreRowId) {
+		if (mDuplicates == null) {
+			Rows rows = fetchAll();
+			try {
+				mDuplicates = DuplicateIndex.load(rows);
+			} finally {
+				rows.close();
+			}
+		}
+		return mDuplicates.find(name, birthEpochDay, ignoreRowId);
+	}
+
+	public synchronized void close() {
+		try {
+			mInsertStatement.close();
+			mUpdateStatement.close();
+			mDeleteStatement.close();
+			mFetchStatement.close();
+			mConnection.close();
+		} catch (SQLException e) {
+			throw new IllegalStateException("Error closing the database", e);
+		}
+	}
+
+	/*
+	 * Binds the name, birth date and month_day of a row to the first three
+	 * parameters of a write statement
+	 */
+	private static void bindRow(PreparedStatement statement, String name, int birthEpochDay)
+			throws SQLException {
+		statement.setString(1, name);
+		statement.setInt(2, birthEpochDay);
+		statement.setInt(3, BirthdaySchema.monthDayOf(birthEpochDay));
+	}
+
+	/*
+	 * Runs a query of the _id, name and birth_day columns, bound with the
+	 * parameters, on a statement of its own that the rows close
+	 */
+	private synchronized Rows query(String sql, Object... parameters) {
+		try {
+			PreparedStatement statement = mConnection.prepareStatement(sql);
+			for (int i = 0; i < parameters.length; i++) {
+				statement.setObject(i + 1, parameters[i]);
+			}
+			return new ResultSetRows(statement, statement.executeQuery());
+		} catch (SQLException e) {
+			throw new IllegalStateException("Error querying birthdays", e);
+		}
+	}
+
+	/*
+	 * Runs a query for a single number, returning the given value if there
+	 * is no row
+	 */
+	private synchronized long queryLong(long none, String sql, Object... parameters) {
+		try {
+			PreparedStatement statement = mConnection.prepareStatement(sql);
+			try {
+				for (int i = 0; i < parameters.length; i++) {
+					statement.setObject(i + 1, parameters[i]);
+				}
+				ResultSet result = statement.executeQuery();
+				try {
+					return result.next() ? result.getLong(1) : none;
+				} finally {
+					result.close();
+				}
+			} finally {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			throw new IllegalStateException("Error querying birthdays", e);
+		}
+	}
+
+	/*
+	 * The rows of a query, read under the lock of the repository
+	 */
+	private class ResultSetRows implements Rows {
+
+		private final PreparedStatement mStatement;
+		private final ResultSet mResult;
+		private long mId;
+		private String mName;
+		private int mBirthEpochDay;
+
+		ResultSetRows(PreparedStatement statement, ResultSet result) {
+			mStatement = statement;
+			mResult = result;
+		}
+
+		public int getCount() {
+			return -1;
+		}
+
+		public boolean next() {
+			synchronized (JdbcBirthdayRepository.this) {
+				try {
+					if (!mResult.next()) {
+						return false;
+					}
+					mId = mResult.getLong(1);
+					mName = mResult.getString(2);
+					mBirthEpochDay = mResult.getInt(3);
+					return true;
+				} catch (SQLException e) {
+					throw new IllegalStateException("Error reading birthdays", e);
+				}
+			}
+		}
+
+		public long getId() {
+			return mId;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		public int getBirthEpochDay() {
+			return mBirthEpochDay;
+		}
+
+		public void close() {
+			synchronized (JdbcBirthdayRepository.this) {
+				try {
+					mResult.close();
+					mStatement.close();
+				} catch (SQLException e) {
+					throw new IllegalStateException("Error closing birthdays", e);
+				}
+			}
+		}
+	}
+
+	/*
+	 * The sort keys of a query, read under the lock of the repository
+	 */
+	private class ResultSetKeys implements Keys {
+
+		private final PreparedStatement mStatement;
+		private final ResultSet mResult;
+		private long mSortKey;
+		private long mId;
+
+		ResultSetKeys(PreparedStatement statement, ResultSet result) {
+			mStatement = statement;
+			mResult = result;
+		}
+
+		public boolean next() {
+			synchronized (JdbcBirthdayRepository.this) {
+				try {
+					if (!mResult.next()) {
+						return false;
+					}
+					mSortKey = mResult.getLong(1);
+					mId = mResult.getLong(2);
+					return true;
+				} catch (SQLException e) {
+					throw new IllegalStateException("Error reading birthdays", e);
+				}
+			}
+		}
+
+		public long getSortKey() {
+			return mSortKey;
+		}
+
+		public long getId() {
+			return mId;
+		}
+
+		public void close() {
+			synchronized (JdbcBirthdayRepository.this) {
+				try {
+					mResult.close();
+					mStatement.close();
+				} catch (SQLException e) {
+					throw new IllegalStateException("Error closing birthdays", e);
+				}
+			}
+		}
+	}
+}
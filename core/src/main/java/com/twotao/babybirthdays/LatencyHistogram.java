@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds that can be recorded into from any
+ * number of threads without locking. The buckets are log-linear, in the
+ * style of HdrHistogram: values below 32 get a bucket each, and every power
+ * of two above that is split into 16 buckets, so a percentile read back is
+ * always within about 6% of the recorded value, over the whole range of a
+ * long, in under 8KB.
+ *
+ * Recording is a single atomic increment of the bucket plus the running
+ * total and maximum. Reading while others record gives a view that may be
+ * a few values behind, which is fine for reporting.
+ *
+ * @author Jim
+ *
+ */
+public final class LatencyHistogram {
+
+	// each power of two is split into 1 << SUB_BUCKET_BITS buckets
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int BUCKET_COUNT = bucketOf(Long.MAX_VALUE) + 1;
+
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong mTotalCount = new AtomicLong();
+	private final AtomicLong mTotalNanos = new AtomicLong();
+	private final AtomicLong mMaxNanos = new AtomicLong();
+
+	/**
+	 * Records a single duration
+	 *
+	 * @param nanos the duration in nanoseconds, negative values count as 0
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+
+		mCounts.incrementAndGet(bucketOf(nanos));
+		mTotalCount.incrementAndGet();
+		mTotalNanos.addAndGet(nanos);
+
+		long max = mMaxNanos.get();
+		while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+			max = mMaxNanos.get();
+		}
+	}
+
+	public long getCount() {
+		return mTotalCount.get();
+	}
+
+	public long getMaxNanos() {
+		return mMaxNanos.get();
+	}
+
+	/**
+	 * @return the mean duration in nanoseconds, or 0 if nothing was recorded
+	 */
+	public long getMeanNanos() {
+		long count = mTotalCount.get();
+		return (count == 0) ? 0 : mTotalNanos.get() / count;
+	}
+
+	/**
+	 * @param percentile the percentile to find, 0 - 100
+	 * @return the largest value of the bucket holding the percentile, so the
+	 *         result never understates it, or 0 if nothing was recorded
+	 */
+	public long getNanosAtPercentile(double percentile) {
+
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			count += mCounts.get(i);
+		}
+		if (count == 0) {
+			return 0;
+		}
+
+		long wanted = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += mCounts.get(i);
+			if (seen >= wanted) {
+				return Math.min(highestValueOf(i), mMaxNanos.get());
+			}
+		}
+		return mMaxNanos.get();
+	}
+
+	/**
+	 * Clears everything recorded so far. Values recorded at the same time as
+	 * the reset may be partly kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			mCounts.set(i, 0);
+		}
+		mTotalCount.set(0);
+		mTotalNanos.set(0);
+		mMaxNanos.set(0);
+	}
+
+	/*
+	 * Returns the bucket of a value, the top SUB_BUCKET_BITS + 1 bits of the
+	 * value along with the number of bits below them
+	 */
+	static int bucketOf(long value) {
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = Math.max(0, magnitude - SUB_BUCKET_BITS);
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	/*
+	 * Returns the largest value that falls in a bucket
+	 */
+	static long highestValueOf(int bucket) {
+		int shift = Math.max(0, (bucket >> SUB_BUCKET_BITS) - 1);
+		long lowest = (long) (bucket - (shift << SUB_BUCKET_BITS)) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+
+/**
+ * A BirthdayRepository held entirely in memory, for measuring the code
+ * around the storage without the cost of the storage itself. Row ids are
+ * handed out in increasing order and never reused, as with the SQLite table,
+ * so the insertion order of the map is the row id order.
+ *
+ * @author Jim
+ *
+ */
+public class MemoryBirthdayRepository implements BirthdayRepository {
+
+	private final LinkedHashMap<Long, Birthday> mBirthdays = new LinkedHashMap<Long, Birthday>();
+	private final DuplicateIndex mDuplicates = new DuplicateIndex();
+	private long mLastId;
+
+	public synchronized long createBirthday(String name, int birthEpochDay) {
+		if (name == null) {
+			return -1;
+		}
+		long rowId = ++mLastId;
+		mBirthdays.put(rowId, new Birthday(rowId, name, birthEpochDay));
+		mDuplicates.put(rowId, name, birthEpochDay);
+		return rowId;
+	}
+
+	public synchronized boolean updateBirthday(long rowId, String name, int birthEpochDay) {
+		if (name == null || !mBirthdays.containsKey(rowId)) {
+			return false;
+		}
+		mBirthdays.put(rowId, new Birthday(rowId, name, birthEpochDay));
+		mDuplicates.put(rowId, name, birthEpochDay);
+		return true;
+	}
+
+	public synchronized boolean deleteBirthday(long rowId) {
+		mDuplicates.remove(rowId);
+		return mBirthdays.remove(rowId) != null;
+	}
+
+	public synchronized Birthday fetchBirthday(long rowId) {
+		return mBirthdays.get(rowId);
+	}
+
+	public synchronized Rows fetchAll() {
+		return new ArrayRows(mBirthdays.values().toArray(new Birthday[mBirthdays.size()]));
+	}
+
+	public synchronized Rows fetchPage(int sortMode, String filter, long afterSortKey,
+			long afterRowId, int limit) {
+
+		Birthday[] sorted = sorted(sortMode, filter);
+		Birthday[] page = new Birthday[Math.min(limit, sorted.length)];
+		int count = 0;
+		for (Birthday birthday : sorted) {
+			if (count == page.length) {
+				break;
+			}
+			long sortKey = BirthdaySchema.sortKeyOf(sortMode, birthday.getBirthEpochDay());
+			if (BirthdayPageIndex.compare(sortMode, sortKey, birthday.getId(),
+					afterSortKey, afterRowId) > 0) {
+				page[count++] = birthday;
+			}
+		}
+
+		Birthday[] rows = new Birthday[count];
+		System.arraycopy(page, 0, rows, 0, count);
+		return new ArrayRows(rows);
+	}
+
+	public synchronized Keys fetchKeys(int sortMode, String filter) {
+		return new ArrayKeys(sortMode, sorted(sortMode, filter));
+	}
+
+	public synchronized int countBirthdays() {
+		return mBirthdays.size();
+	}
+
+	public synchronized Rows search(String text) {
+		Birthday[] matches = new Birthday[mBirthdays.size()];
+		int count = 0;
+		for (Birthday birthday : mBirthdays.values()) {
+			if (NameSearch.matches(birthday.getName(), text)) {
+				matches[count++] = birthday;
+			}
+		}
+
+		Birthday[] rows = new Birthday[count];
+		System.arraycopy(matches, 0, rows, 0, count);
+		return new ArrayRows(rows);
+	}
+
+	public synchronized long findDuplicate(String name, int birthEpochDay, long ignoreRowId) {
+		return mDuplicates.find(name, birthEpochDay, ignoreRowId);
+	}
+
+	public synchronized void close() {
+		mBirthdays.clear();
+	}
+
+	/*
+	 * The birthdays matching a search, or every birthday for a null filter,
+	 * in the order of a sort as the page queries order them
+	 */
+	private Birthday[] sorted(final int sortMode, String filter) {
+		Birthday[] rows;
+		if (filter == null) {
+			rows = mBirthdays.values().toArray(new Birthday[mBirthdays.size()]);
+		} else {
+			ArrayRows matches = (ArrayRows) search(filter);
+			rows = matches.mRows;
+		}
+
+		Arrays.sort(rows, new Comparator<Birthday>() {
+
+			public int compare(Birthday a, Birthday b) {
+				return BirthdayPageIndex.compare(sortMode,
+						BirthdaySchema.sortKeyOf(sortMode, a.getBirthEpochDay()), a.getId(),
+						BirthdaySchema.sortKeyOf(sortMode, b.getBirthEpochDay()), b.getId());
+			}
+		});
+		return rows;
+	}
+
+	/*
+	 * The rows of a query, over a copy taken when it was made so later
+	 * writes do not disturb it
+	 */
+	private static class ArrayRows implements Rows {
+
+		private final Birthday[] mRows;
+		private int mPosition = -1;
+
+		ArrayRows(Birthday[] rows) {
+			mRows = rows;
+		}
+
+		public int getCount() {
+			return mRows.length;
+		}
+
+		public boolean next() {
+			if (mPosition < mRows.length) {
+				mPosition++;
+			}
+			return mPosition < mRows.length;
+		}
+
+		public long getId() {
+			return mRows[mPosition].getId();
+		}
+
+		public String getName() {
+			return mRows[mPosition].getName();
+		}
+
+		public int getBirthEpochDay() {
+			return mRows[mPosition].getBirthEpochDay();
+		}
+
+		public void close() {
+		}
+	}
+
+	/*
+	 * The sort keys of a query, over a copy taken when it was made
+	 */
+	private static class ArrayKeys implements Keys {
+
+		private final int mSortMode;
+		private final Birthday[] mRows;
+		private int mPosition = -1;
+
+		ArrayKeys(int sortMode, Birthday[] rows) {
+			mSortMode = sortMode;
+			mRows = rows;
+		}
+
+		public boolean next() {
+			if (mPosition < mRows.length) {
+				mPosition++;
+			}
+			return mPosition < mRows.length;
+		}
+
+		public long getSortKey() {
+			return BirthdaySchema.sortKeyOf(mSortMode, mRows[mPosition].getBirthEpochDay());
+		}
+
+		public long getId() {
+			return mRows[mPosition].getId();
+		}
+
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency timers for the hot paths, kept for the life of the
+ * process and dumped on demand as a plain text table.
+ *
+ * The metrics are declared once, as static fields of the class that records
+ * them, and every recording is written behind a check of isEnabled():
+ *
+ * <pre>
+ * long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+ * ...
+ * if (Metrics.isEnabled()) {
+ *     LOAD_TIMER.recordSince(start);
+ * }
+ * </pre>
+ *
+ * The metrics are off until setEnabled() is called, which a debug build does
+ * at startup, so a release build pays one read of a static field per check
+ * and never calls System.nanoTime(). A timer only allocates its histogram
+ * when it first records, so the declared timers take no more than their
+ * names while the metrics are off.
+ *
+ * @author Jim
+ *
+ */
+public final class Metrics {
+
+
+	/**
+	 * A named count of events
+	 */
+	public static final class Counter {
+
+		private final String mName;
+		private final AtomicLong mCount = new AtomicLong();
+
+		Counter(String name) {
+			mName = name;
+		}
+
+		public void increment() {
+			mCount.incrementAndGet();
+		}
+
+		public void add(long delta) {
+			mCount.addAndGet(delta);
+		}
+
+		public long get() {
+			return mCount.get();
+		}
+
+		public String getName() {
+			return mName;
+		}
+	}
+
+	/**
+	 * A named histogram of how long something took, allocated by the first
+	 * recording
+	 */
+	public static final class Timer {
+
+		private final String mName;
+		private volatile LatencyHistogram mHistogram;
+
+		Timer(String name) {
+			mName = name;
+		}
+
+		/**
+		 * @param startNanos the System.nanoTime() when the timed work began
+		 */
+		public void recordSince(long startNanos) {
+			histogram().record(System.nanoTime() - startNanos);
+		}
+
+		public void record(long nanos) {
+			histogram().record(nanos);
+		}
+
+		/**
+		 * @return the recorded durations, or null if nothing has been
+		 *         recorded
+		 */
+		public LatencyHistogram getHistogram() {
+			return mHistogram;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		private LatencyHistogram histogram() {
+			LatencyHistogram histogram = mHistogram;
+			if (histogram == null) {
+				synchronized (this) {
+					histogram = mHistogram;
+					if (histogram == null) {
+						histogram = new LatencyHistogram();
+						mHistogram = histogram;
+					}
+				}
+			}
+			return histogram;
+		}
+	}
+
+	private static final List<Counter> sCounters = new CopyOnWriteArrayList<Counter>();
+	private static final List<Timer> sTimers = new CopyOnWriteArrayList<Timer>();
+
+	private static final double[] PERCENTILES = {50, 90, 99};
+	private static final long NANOS_PER_MICRO = 1000;
+
+	// set once at startup, before the threads that record are started
+	private static boolean sEnabled;
+
+	private Metrics() {
+	}
+
+	/**
+	 * @return true if the metrics are being recorded
+	 */
+	public static boolean isEnabled() {
+		return sEnabled;
+	}
+
+	/**
+	 * Turns the recording of the metrics on or off, such as on for a debug
+	 * build. Called at startup, before any of the work that is measured.
+	 *
+	 * @param enabled whether to record the metrics
+	 */
+	public static void setEnabled(boolean enabled) {
+		sEnabled = enabled;
+	}
+
+	/**
+	 * @param name the name the counter is dumped under
+	 * @return a new counter, included in every dump
+	 */
+	public static Counter counter(String name) {
+		Counter counter = new Counter(name);
+		sCounters.add(counter);
+		return counter;
+	}
+
+	/**
+	 * @param name the name the timer is dumped under
+	 * @return a new timer, included in every dump
+	 */
+	public static Timer timer(String name) {
+		Timer timer = new Timer(name);
+		sTimers.add(timer);
+		return timer;
+	}
+
+	/**
+	 * Writes every counter, and the count, mean, percentiles and maximum of
+	 * every timer that has recorded anything in microseconds, one per line
+	 *
+	 * @param out where to write the table
+	 * @throws IOException if it could not be written
+	 */
+	public static void dump(Writer out) throws IOException {
+
+		for (Counter counter : sCounters) {
+			out.write(counter.getName() + " count=" + counter.get() + "\n");
+		}
+
+		for (Timer timer : sTimers) {
+			LatencyHistogram histogram = timer.getHistogram();
+			if (histogram == null) {
+				continue;
+			}
+			StringBuilder line = new StringBuilder(timer.getName());
+			line.append(" count=").append(histogram.getCount());
+			line.append(" mean=").append(histogram.getMeanNanos() / NANOS_PER_MICRO).append("us");
+			for (double percentile : PERCENTILES) {
+				line.append(" p").append((int) percentile).append('=')
+						.append(histogram.getNanosAtPercentile(percentile) / NANOS_PER_MICRO)
+						.append("us");
+			}
+			line.append(" max=").append(histogram.getMaxNanos() / NANOS_PER_MICRO).append("us");
+			out.write(line.append('\n').toString());
+		}
+	}
+
+	/**
+	 * Clears every counter and timer
+	 */
+	public static void reset() {
+		for (Counter counter : sCounters) {
+			counter.mCount.set(0);
+		}
+		for (Timer timer : sTimers) {
+			LatencyHistogram histogram = timer.getHistogram();
+			if (histogram != null) {
+				histogram.reset();
+			}
+		}
+	}
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * Lists every milestone of every birthday that falls in a window of days, in
+ * the order they fall, for printing a calendar. The milestones are the weeks
+ * 1 - 8, the months 2 - 24 and then each birthday from the third year on,
+ * the same steps the list moves through as a child gets older.
+ *
+ * The milestones are not worked out up front. Each birthday only keeps the
+ * step it is at, in a min-heap of primitive arrays ordered by the day of
+ * that step, and next() takes the earliest step and moves that birthday on
+ * to its following one. Memory therefore grows with the number of birthdays
+ * that have a milestone in the window, not with the number of milestones,
+ * and each call to next() costs O(log n).
+ *
+ * The results are read back through the getters after each call to next(),
+ * in the same way as BirthdayRepository.Rows, and milestones that fall on
+ * the same day come out in row id order. A projection is not thread safe.
+ *
+ * @author Jim
+ *
+ */
+public final class MilestoneProjection {
+
+	private static final int NUM_DAYS_IN_WEEK = 7;
+	private static final int NUM_MONTHS_PER_YEAR = 12;
+
+	// steps 0 - 7 are the weeks 1 - 8, steps 8 - 30 the months 2 - 24, and
+	// every step after that a birthday from the third year on
+	private static final int NUM_WEEK_STEPS = 8;
+	private static final int FIRST_MONTH = 2;
+	private static final int LAST_MONTH = 24;
+	private static final int FIRST_YEAR_STEP = NUM_WEEK_STEPS + LAST_MONTH - FIRST_MONTH + 1;
+	private static final int FIRST_YEAR = LAST_MONTH / NUM_MONTHS_PER_YEAR + 1;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final int mToEpochDay;
+
+	// the heap, one slot per birthday still to reach the end of the window
+	private long[] mRowIds;
+	private int[] mBirthEpochDays;
+	private int[] mSteps;
+	private int[] mDueEpochDays;
+	private int mSize;
+
+	// the milestone last returned by next()
+	private long mRowId;
+	private int mUnit;
+	private int mCount;
+	private int mEpochDay;
+
+	/**
+	 * Sets up the projection from the rows, which are read through once and
+	 * left open for the caller to close
+	 *
+	 * @param rows the birthdays to project
+	 * @param fromEpochDay the first day of the window
+	 * @param toEpochDay the last day of the window, inclusive
+	 */
+	public MilestoneProjection(BirthdayRepository.Rows rows, int fromEpochDay, int toEpochDay) {
+
+		mToEpochDay = toEpochDay;
+
+		int count = rows.getCount();
+		allocate(Math.max(count, INITIAL_CAPACITY));
+		while (rows.next()) {
+			int birthEpochDay = rows.getBirthEpochDay();
+			int step = firstStepFrom(birthEpochDay, fromEpochDay);
+			int due = epochDayOf(birthEpochDay, step);
+			if (due <= toEpochDay) {
+				if (mSize == mRowIds.length) {
+					grow();
+				}
+				mRowIds[mSize] = rows.getId();
+				mBirthEpochDays[mSize] = birthEpochDay;
+				mSteps[mSize] = step;
+				mDueEpochDays[mSize] = due;
+				mSize++;
+			}
+		}
+
+		// heapify once, rather than sifting each birthday in
+		for (int i = (mSize >>> 1) - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+	}
+
+	/**
+	 * Projects every birthday in the repository
+	 *
+	 * @param repository where the birthdays are kept
+	 * @param fromEpochDay the first day of the window
+	 * @param toEpochDay the last day of the window, inclusive
+	 * @return the projection, ready for the first call to next()
+	 */
+	public static MilestoneProjection project(BirthdayRepository repository,
+			int fromEpochDay, int toEpochDay) {
+
+		BirthdayRepository.Rows rows = repository.fetchAll();
+		try {
+			return new MilestoneProjection(rows, fromEpochDay, toEpochDay);
+		} finally {
+			rows.close();
+		}
+	}
+
+	/**
+	 * Moves to the next milestone in the window
+	 *
+	 * @return false once there are no more
+	 */
+	public boolean next() {
+
+		if (mSize == 0) {
+			return false;
+		}
+
+		int birthEpochDay = mBirthEpochDays[0];
+		int step = mSteps[0];
+		mRowId = mRowIds[0];
+		mEpochDay = mDueEpochDays[0];
+		if (step < NUM_WEEK_STEPS) {
+			mUnit = AgeCalculator.UNIT_WEEKS;
+			mCount = step + 1;
+		} else if (step < FIRST_YEAR_STEP) {
+			mUnit = AgeCalculator.UNIT_MONTHS;
+			mCount = step - NUM_WEEK_STEPS + FIRST_MONTH;
+		} else {
+			mUnit = AgeCalculator.UNIT_YEARS;
+			mCount = step - FIRST_YEAR_STEP + FIRST_YEAR;
+		}
+
+		// move the birthday on, or drop it once past the end of the window
+		int due = epochDayOf(birthEpochDay, step + 1);
+		if (due <= mToEpochDay) {
+			mSteps[0] = step + 1;
+			mDueEpochDays[0] = due;
+		} else {
+			mSize--;
+			mRowIds[0] = mRowIds[mSize];
+			mBirthEpochDays[0] = mBirthEpochDays[mSize];
+			mSteps[0] = mSteps[mSize];
+			mDueEpochDays[0] = mDueEpochDays[mSize];
+		}
+		if (mSize > 0) {
+			siftDown(0);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the row id of the birthday of the current milestone
+	 */
+	public long getRowId() {
+		return mRowId;
+	}
+
+	/**
+	 * @return AgeCalculator.UNIT_WEEKS, UNIT_MONTHS or UNIT_YEARS
+	 */
+	public int getUnit() {
+		return mUnit;
+	}
+
+	/**
+	 * @return the number of units of the current milestone
+	 */
+	public int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * @return the day the current milestone falls on
+	 */
+	public int getEpochDay() {
+		return mEpochDay;
+	}
+
+	/**
+	 * @return the number of birthdays that still have a milestone to come in
+	 *         the window
+	 */
+	public int getPendingBirthdays() {
+		return mSize;
+	}
+
+	/*
+	 * The day a step falls on, months and years counted by calendar date
+	 */
+	private static int epochDayOf(int birthEpochDay, int step) {
+		if (step < NUM_WEEK_STEPS) {
+			return birthEpochDay + (step + 1) * NUM_DAYS_IN_WEEK;
+		}
+		int months = (step < FIRST_YEAR_STEP) ? step - NUM_WEEK_STEPS + FIRST_MONTH
+				: (step - FIRST_YEAR_STEP + FIRST_YEAR) * NUM_MONTHS_PER_YEAR;
+		return MilestoneQueue.milestoneEpochDay(birthEpochDay, months);
+	}
+
+	/*
+	 * The first step falling on or after the given day, found by starting
+	 * from an estimate that is never too late and stepping forwards
+	 */
+	private static int firstStepFrom(int birthEpochDay, int fromEpochDay) {
+
+		int days = fromEpochDay - birthEpochDay;
+		int step;
+		if (days <= NUM_WEEK_STEPS * NUM_DAYS_IN_WEEK) {
+			step = Math.max(0, days / NUM_DAYS_IN_WEEK - 1);
+		} else if (days <= 2 * 366) {
+			step = NUM_WEEK_STEPS + Math.max(0, days / 31 - FIRST_MONTH);
+		} else {
+			step = FIRST_YEAR_STEP + Math.max(0, days / 366 - FIRST_YEAR);
+		}
+		while (epochDayOf(birthEpochDay, step) < fromEpochDay) {
+			step++;
+		}
+		return step;
+	}
+
+	private boolean before(int a, int b) {
+		return mDueEpochDays[a] < mDueEpochDays[b]
+				|| (mDueEpochDays[a] == mDueEpochDays[b] && mRowIds[a] < mRowIds[b]);
+	}
+
+	private void siftDown(int index) {
+		int half = mSize >>> 1;
+		while (index < half) {
+			int child = 2 * index + 1;
+			if (child + 1 < mSize && before(child + 1, child)) {
+				child++;
+			}
+			if (!before(child, index)) {
+				break;
+			}
+			swap(index, child);
+			index = child;
+		}
+	}
+
+	private void swap(int a, int b) {
+		long rowId = mRowIds[a];
+		mRowIds[a] = mRowIds[b];
+		mRowIds[b] = rowId;
+
+		int birth = mBirthEpochDays[a];
+		mBirthEpochDays[a] = mBirthEpochDays[b];
+		mBirthEpochDays[b] = birth;
+
+		int step = mSteps[a];
+		mSteps[a] = mSteps[b];
+		mSteps[b] = step;
+
+		int due = mDueEpochDays[a];
+		mDueEpochDays[a] = mDueEpochDays[b];
+		mDueEpochDays[b] = due;
+	}
+
+	private void allocate(int capacity) {
+		mRowIds = new long[capacity];
+		mBirthEpochDays = new int[capacity];
+		mSteps = new int[capacity];
+		mDueEpochDays = new int[capacity];
+	}
+
+	private void grow() {
+		long[] rowIds = mRowIds;
+		int[] births = mBirthEpochDays;
+		int[] steps = mSteps;
+		int[] dues = mDueEpochDays;
+		allocate(mRowIds.length * 2);
+		System.arraycopy(rowIds, 0, mRowIds, 0, mSize);
+		System.arraycopy(births, 0, mBirthEpochDays, 0, mSize);
+		System.arraycopy(steps, 0, mSteps, 0, mSize);
+		System.arraycopy(dues, 0, mDueEpochDays, 0, mSize);
+	}
+}
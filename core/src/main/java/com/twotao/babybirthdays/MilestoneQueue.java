@@ -0,0 +1,315 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import java.util.HashMap;
+
+/**
+ * Keeps the next milestone of every birthday (one week, one month, six
+ * months, then each birthday from the first year on) in a min-heap ordered
+ * by the day it falls on, so finding what is due never scans every row.
+ *
+ * The heap is indexed by row id, so a birthday that is added, edited or
+ * deleted is moved or removed in O(log n) without rebuilding the queue.
+ * pollDue() pops only the entries that are due and moves each one on to its
+ * next milestone, so a tick costs O(due log n) however many birthdays there
+ * are.
+ *
+ * Days are local epoch days, as worked out by AgeCalculator. The queue is
+ * not thread safe.
+ *
+ * @author Jim
+ *
+ */
+public final class MilestoneQueue {
+
+	/**
+	 * The milestone of a birthday that is one week old. Every other
+	 * milestone is given as the age it marks in months.
+	 */
+	public static final int MILESTONE_ONE_WEEK = 0;
+
+	private static final int NUM_DAYS_IN_WEEK = 7;
+	private static final int NUM_MONTHS_PER_YEAR = 12;
+
+	// the first milestones in months, after which every year is one
+	private static final int[] FIRST_MONTHS = {1, 6, NUM_MONTHS_PER_YEAR};
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * Receives each milestone popped by pollDue()
+	 */
+	public interface OnMilestoneListener {
+
+		/**
+		 * @param rowId id of the birthday
+		 * @param milestone MILESTONE_ONE_WEEK or the age in months
+		 * @param epochDay the day the milestone falls on
+		 */
+		void onMilestone(long rowId, int milestone, int epochDay);
+	}
+
+	/*
+	 * A birthday in the heap, which knows its own place in it
+	 */
+	private static final class Entry {
+		final long mRowId;
+		int mBirthEpochDay;
+		int mMilestone;
+		int mDueEpochDay;
+		int mHeapIndex;
+
+		Entry(long rowId) {
+			mRowId = rowId;
+		}
+	}
+
+	private final HashMap<Long, Entry> mEntries = new HashMap<Long, Entry>();
+	private Entry[] mHeap = new Entry[INITIAL_CAPACITY];
+	private int mSize;
+
+	/**
+	 * Adds a birthday, or moves it if it is already queued, to the first
+	 * milestone falling on or after the given day
+	 *
+	 * @param rowId id of the birthday
+	 * @param birthEpochDay the birth date
+	 * @param fromEpochDay the first day a milestone may fall on, usually today
+	 */
+	public void put(long rowId, int birthEpochDay, int fromEpochDay) {
+
+		Entry entry = mEntries.get(rowId);
+		if (entry == null) {
+			entry = new Entry(rowId);
+			mEntries.put(rowId, entry);
+			if (mSize == mHeap.length) {
+				Entry[] heap = new Entry[mHeap.length * 2];
+				System.arraycopy(mHeap, 0, heap, 0, mSize);
+				mHeap = heap;
+			}
+			entry.mHeapIndex = mSize;
+			mHeap[mSize++] = entry;
+		}
+
+		entry.mBirthEpochDay = birthEpochDay;
+		schedule(entry, fromEpochDay);
+		siftUp(entry.mHeapIndex);
+		siftDown(entry.mHeapIndex);
+	}
+
+	/**
+	 * Takes a birthday out of the queue
+	 *
+	 * @param rowId id of the birthday
+	 * @return true if it was queued
+	 */
+	public boolean remove(long rowId) {
+
+		Entry entry = mEntries.remove(rowId);
+		if (entry == null) {
+			return false;
+		}
+
+		int index = entry.mHeapIndex;
+		Entry last = mHeap[--mSize];
+		mHeap[mSize] = null;
+		if (last != entry) {
+			mHeap[index] = last;
+			last.mHeapIndex = index;
+			siftUp(index);
+			siftDown(last.mHeapIndex);
+		}
+		return true;
+	}
+
+	/**
+	 * Empties the queue
+	 */
+	public void clear() {
+		mEntries.clear();
+		for (int i = 0; i < mSize; i++) {
+			mHeap[i] = null;
+		}
+		mSize = 0;
+	}
+
+	/**
+	 * @return the number of birthdays queued
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * @return the day of the earliest queued milestone, or Integer.MAX_VALUE
+	 *         if the queue is empty
+	 */
+	public int peekDueEpochDay() {
+		return (mSize == 0) ? Integer.MAX_VALUE : mHeap[0].mDueEpochDay;
+	}
+
+	/**
+	 * Hands every milestone falling on or before today to the listener, and
+	 * moves each of those birthdays on to its next milestone after today.
+	 * Milestones missed because no tick ran on their day are reported once,
+	 * with the newest missed one.
+	 *
+	 * @param todayEpochDay the current day
+	 * @param listener receives the due milestones, in the order they fall
+	 * @return the number of milestones reported
+	 */
+	public int pollDue(int todayEpochDay, OnMilestoneListener listener) {
+
+		int due = 0;
+		while (mSize > 0 && mHeap[0].mDueEpochDay <= todayEpochDay) {
+			Entry entry = mHeap[0];
+
+			// the milestone before the next one is the newest that was due
+			schedule(entry, todayEpochDay + 1);
+			int milestone = previousMilestone(entry.mMilestone);
+			listener.onMilestone(entry.mRowId, milestone,
+					milestoneEpochDay(entry.mBirthEpochDay, milestone));
+			due++;
+			siftDown(0);
+		}
+		return due;
+	}
+
+	/**
+	 * Works out the day a milestone falls on. Months are counted by calendar
+	 * date, and a birth day past the end of a shorter month falls on its last
+	 * day.
+	 *
+	 * @param birthEpochDay the birth date
+	 * @param milestone MILESTONE_ONE_WEEK or the age in months
+	 * @return the epoch day of the milestone
+	 */
+	public static int milestoneEpochDay(int birthEpochDay, int milestone) {
+
+		if (milestone == MILESTONE_ONE_WEEK) {
+			return birthEpochDay + NUM_DAYS_IN_WEEK;
+		}
+
+		int date = AgeCalculator.civilFromEpochDay(birthEpochDay);
+		int months = AgeCalculator.monthOf(date) - 1 + milestone;
+		int year = AgeCalculator.yearOf(date) + months / NUM_MONTHS_PER_YEAR;
+		int month = months % NUM_MONTHS_PER_YEAR + 1;
+
+		int firstOfMonth = AgeCalculator.epochDayFromCivil(year, month, 1);
+		int daysInMonth = (month == NUM_MONTHS_PER_YEAR)
+				? AgeCalculator.epochDayFromCivil(year + 1, 1, 1) - firstOfMonth
+				: AgeCalculator.epochDayFromCivil(year, month + 1, 1) - firstOfMonth;
+		return firstOfMonth + Math.min(AgeCalculator.dayOf(date), daysInMonth) - 1;
+	}
+
+	/**
+	 * Works out the first milestone of a birthday falling on or after a day
+	 *
+	 * @param birthEpochDay the birth date
+	 * @param fromEpochDay the first day the milestone may fall on
+	 * @return MILESTONE_ONE_WEEK or the age in months
+	 */
+	public static int firstMilestone(int birthEpochDay, int fromEpochDay) {
+
+		int milestone = MILESTONE_ONE_WEEK;
+		if (birthEpochDay + NUM_DAYS_IN_WEEK < fromEpochDay) {
+			// start from the whole years already passed, then step forwards
+			int years = (fromEpochDay - birthEpochDay) / 366;
+			milestone = (years > 0) ? years * NUM_MONTHS_PER_YEAR : FIRST_MONTHS[0];
+			while (milestoneEpochDay(birthEpochDay, milestone) < fromEpochDay) {
+				milestone = nextMilestone(milestone);
+			}
+		}
+		return milestone;
+	}
+
+	/**
+	 * Works out the newest milestone of a birthday falling in a range of
+	 * days, the one pollDue() reports when the range was missed
+	 *
+	 * @param birthEpochDay the birth date
+	 * @param fromEpochDay the first day of the range
+	 * @param toEpochDay the last day of the range, inclusive
+	 * @return MILESTONE_ONE_WEEK or the age in months, or -1 if no milestone
+	 *         falls in the range
+	 */
+	public static int newestMilestone(int birthEpochDay, int fromEpochDay, int toEpochDay) {
+
+		int next = firstMilestone(birthEpochDay, toEpochDay + 1);
+		if (next == MILESTONE_ONE_WEEK) {
+			return -1;
+		}
+		int milestone = previousMilestone(next);
+		return (milestoneEpochDay(birthEpochDay, milestone) >= fromEpochDay) ? milestone : -1;
+	}
+
+	/*
+	 * Sets the entry to its first milestone on or after the given day, the
+	 * heap order is left to the caller
+	 */
+	private static void schedule(Entry entry, int fromEpochDay) {
+		entry.mMilestone = firstMilestone(entry.mBirthEpochDay, fromEpochDay);
+		entry.mDueEpochDay = milestoneEpochDay(entry.mBirthEpochDay, entry.mMilestone);
+	}
+
+	private static int nextMilestone(int milestone) {
+		if (milestone == MILESTONE_ONE_WEEK) {
+			return FIRST_MONTHS[0];
+		}
+		for (int i = 0; i < FIRST_MONTHS.length; i++) {
+			if (milestone < FIRST_MONTHS[i]) {
+				return FIRST_MONTHS[i];
+			}
+		}
+		return milestone + NUM_MONTHS_PER_YEAR;
+	}
+
+	private static int previousMilestone(int milestone) {
+		if (milestone > NUM_MONTHS_PER_YEAR) {
+			return milestone - NUM_MONTHS_PER_YEAR;
+		}
+		for (int i = FIRST_MONTHS.length - 1; i >= 0; i--) {
+			if (milestone > FIRST_MONTHS[i]) {
+				return FIRST_MONTHS[i];
+			}
+		}
+		return MILESTONE_ONE_WEEK;
+	}
+
+	private void siftUp(int index) {
+		Entry entry = mHeap[index];
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (mHeap[parent].mDueEpochDay <= entry.mDueEpochDay) {
+				break;
+			}
+			mHeap[index] = mHeap[parent];
+			mHeap[index].mHeapIndex = index;
+			index = parent;
+		}
+		mHeap[index] = entry;
+		entry.mHeapIndex = index;
+	}
+
+	private void siftDown(int index) {
+		Entry entry = mHeap[index];
+		int half = mSize >>> 1;
+		while (index < half) {
+			int child = 2 * index + 1;
+			if (child + 1 < mSize && mHeap[child + 1].mDueEpochDay < mHeap[child].mDueEpochDay) {
+				child++;
+			}
+			if (entry.mDueEpochDay <= mHeap[child].mDueEpochDay) {
+				break;
+			}
+			mHeap[index] = mHeap[child];
+			mHeap[index].mHeapIndex = index;
+			index = child;
+		}
+		mHeap[index] = entry;
+		entry.mHeapIndex = index;
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * The word prefix matching of the name search. The SQLite repositories hand
+ * toPrefixMatch() to a full text index, and matches() gives the same answer
+ * for storage that has no index.
+ *
+ * Words and case follow the "simple" tokenizer of the full text index, so
+ * both give the same answer: a word is a run of ASCII letters and digits and
+ * of any characters outside ASCII, and only the case of the ASCII letters is
+ * ignored, so "emile" finds "Emile" but an accented lower case letter does
+ * not find its capital.
+ *
+ * @author Jim
+ *
+ */
+public final class NameSearch {
+
+	private NameSearch() {
+	}
+
+	/**
+	 * Turns typed text into a full text query where every word is a prefix,
+	 * dropping the ASCII characters that are not letters or digits so the
+	 * user can not type query syntax
+	 *
+	 * @param text the text typed to search for
+	 * @return the query, such as "jo* sm*" for "Jo Sm", or null if there are
+	 *         no words
+	 */
+	public static String toPrefixMatch(String text) {
+
+		StringBuilder match = new StringBuilder();
+		boolean inWord = false;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (isWordChar(c)) {
+				if (!inWord && match.length() > 0) {
+					match.append(' ');
+				}
+				match.append(foldCase(c));
+				inWord = true;
+			} else if (inWord) {
+				match.append('*');
+				inWord = false;
+			}
+		}
+		if (inWord) {
+			match.append('*');
+		}
+
+		return (match.length() == 0) ? null : match.toString();
+	}
+
+	/**
+	 * Checks a name against typed text, without an index
+	 *
+	 * @param name the name to check
+	 * @param text the text typed to search for
+	 * @return true if every word of the text starts a word of the name, or
+	 *         the text has no words
+	 */
+	public static boolean matches(String name, String text) {
+
+		int pos = 0;
+		while (true) {
+			// find the next word of the text
+			while (pos < text.length() && !isWordChar(text.charAt(pos))) {
+				pos++;
+			}
+			if (pos == text.length()) {
+				return true;
+			}
+			int end = pos;
+			while (end < text.length() && isWordChar(text.charAt(end))) {
+				end++;
+			}
+
+			if (!startsAWord(name, text, pos, end)) {
+				return false;
+			}
+			pos = end;
+		}
+	}
+
+	/*
+	 * Returns true if the characters of text from start to end begin one of
+	 * the words of the name
+	 */
+	private static boolean startsAWord(String name, String text, int start, int end) {
+
+		int length = end - start;
+		for (int i = 0; i + length <= name.length(); i++) {
+			boolean wordStart = (i == 0) || !isWordChar(name.charAt(i - 1));
+			if (wordStart && regionMatches(name, i, text, start, length)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean regionMatches(String name, int offset, String text, int start,
+			int length) {
+		for (int i = 0; i < length; i++) {
+			if (foldCase(name.charAt(offset + i)) != foldCase(text.charAt(start + i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Returns true for the characters the simple tokenizer keeps in a word:
+	 * ASCII letters and digits, and everything outside ASCII
+	 */
+	private static boolean isWordChar(char c) {
+		return c >= 0x80 || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+				|| (c >= '0' && c <= '9');
+	}
+
+	/*
+	 * Lower cases the ASCII letters only, as the simple tokenizer does
+	 */
+	private static char foldCase(char c) {
+		return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+	}
+}
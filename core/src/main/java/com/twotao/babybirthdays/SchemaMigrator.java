@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+/**
+ * Upgrades the database schema by applying an ordered list of migration
+ * steps, each moving the schema up by one version, so no data is thrown away
+ * when the database version changes.
+ *
+ * The steps are run against a Database, the few operations they need, so
+ * the same steps upgrade the app's Android database and a JDBC SQLite
+ * database on a desktop JVM. The caller runs migrate() inside a transaction,
+ * as SQLiteOpenHelper does for onUpgrade(), so all of the steps of an
+ * upgrade commit together or not at all. Steps that need to rewrite a table
+ * use rebuildTable(), which copies the rows across in chunks of row ids so
+ * that no single statement has to hold the whole table.
+ *
+ * @author Jim
+ *
+ */
+public class SchemaMigrator {
+
+	// rows copied by each INSERT ... SELECT of a table rebuild
+	private static final int REBUILD_CHUNK_SIZE = 5000;
+
+	/**
+	 * The database being upgraded. Errors are thrown unchecked, as the
+	 * Android database does.
+	 */
+	public interface Database {
+
+		void execSQL(String sql);
+
+		/**
+		 * @param sql a statement with ? parameters
+		 * @param bindArgs the values of the parameters, Long or String
+		 */
+		void execSQL(String sql, Object[] bindArgs);
+
+		/**
+		 * @param sql a query with ? parameters giving a single integer
+		 * @param bindArgs the values of the parameters, Long or String
+		 * @return the integer in the first column of the first row
+		 */
+		long longForQuery(String sql, Object[] bindArgs);
+
+		/**
+		 * @param sql a query with ? parameters whose columns are integers
+		 * @param bindArgs the values of the parameters, Long or String
+		 * @return the rows, which must be closed
+		 */
+		LongRows queryLongs(String sql, Object[] bindArgs);
+
+		/**
+		 * @param sql a statement with ? parameters, to be run many times
+		 * @return the compiled statement, which must be closed
+		 */
+		Statement compileStatement(String sql);
+	}
+
+	/**
+	 * A statement compiled once by Database.compileStatement() and run with
+	 * new values each time, so a step that writes row by row does not parse
+	 * its SQL for every row
+	 */
+	public interface Statement {
+
+		/**
+		 * @param index the parameter to set, from 1
+		 * @param value its value
+		 */
+		void bindLong(int index, long value);
+
+		void execute();
+
+		void close();
+	}
+
+	/**
+	 * A forward only pass over the rows of Database.queryLongs()
+	 */
+	public interface LongRows {
+
+		/**
+		 * Moves to the next row
+		 *
+		 * @return false once there are no more rows
+		 */
+		boolean next();
+
+		long getLong(int column);
+
+		void close();
+	}
+
+	/**
+	 * Told how long each step of migrate() took, so it can be logged
+	 */
+	public interface Listener {
+
+		/**
+		 * @param toVersion the version the step upgraded to
+		 * @param elapsedMillis how long the step took
+		 */
+		void onMigrated(int toVersion, long elapsedMillis);
+	}
+
+	/**
+	 * A single step of the schema, from version toVersion - 1 to toVersion
+	 */
+	public abstract static class Migration {
+
+		final int mToVersion;
+
+		/**
+		 * @param toVersion the version the schema is at after this step
+		 */
+		public Migration(int toVersion) {
+			mToVersion = toVersion;
+		}
+
+		/**
+		 * Applies the step, inside the upgrade transaction
+		 *
+		 * @param db the database being upgraded
+		 */
+		public abstract void apply(Database db);
+	}
+
+	private final Migration[] mMigrations;
+
+	/**
+	 * @param migrations the steps, in order of increasing version
+	 */
+	public SchemaMigrator(Migration[] migrations) {
+		mMigrations = migrations;
+	}
+
+	/**
+	 * Checks there is a step for every version between the two versions
+	 *
+	 * @param oldVersion the version the database is at
+	 * @param newVersion the version to upgrade to
+	 * @return true if migrate() can upgrade between them
+	 */
+	public boolean canMigrate(int oldVersion, int newVersion) {
+
+		int version = oldVersion;
+		for (int i = 0; i < mMigrations.length; i++) {
+			if (mMigrations[i].mToVersion == version + 1 && version < newVersion) {
+				version++;
+			}
+		}
+		return version == newVersion;
+	}
+
+	/**
+	 * Applies every step after oldVersion up to and including newVersion, in
+	 * order, telling the listener how long each one took
+	 *
+	 * @param db the database to upgrade, in a transaction
+	 * @param oldVersion the version the database is at
+	 * @param newVersion the version to upgrade to
+	 * @param listener told about each step as it is applied
+	 * @return how long the whole upgrade took, in milliseconds
+	 */
+	public long migrate(Database db, int oldVersion, int newVersion, Listener listener) {
+
+		long start = System.nanoTime();
+		for (int i = 0; i < mMigrations.length; i++) {
+			Migration migration = mMigrations[i];
+			if (migration.mToVersion > oldVersion && migration.mToVersion <= newVersion) {
+				long stepStart = System.nanoTime();
+				migration.apply(db);
+				listener.onMigrated(migration.mToVersion, millisSince(stepStart));
+			}
+		}
+		return millisSince(start);
+	}
+
+	/**
+	 * Rewrites a table into a new schema. The new table is created under a
+	 * temporary name and filled in chunks of rows in row id order, each with
+	 * a single INSERT ... SELECT, before it replaces the old table. The
+	 * AUTOINCREMENT sequence of the old table is carried over, so row ids are
+	 * never reused.
+	 *
+	 * @param db the database being upgraded
+	 * @param table the table to rewrite, its row id column must be _id
+	 * @param createSql the create statement of the new table, with the table
+	 *        name given as %s
+	 * @param columns the columns of the new table to fill, including _id
+	 * @param selectExpressions the expressions over the old table that give
+	 *        the values of the columns, in the same order
+	 * @return the number of rows copied
+	 */
+	public static long rebuildTable(Database db, String table, String createSql,
+			String columns, String selectExpressions) {
+
+		String newTable = table + "_rebuild";
+		db.execSQL("drop table if exists " + newTable);
+		db.execSQL(String.format(createSql, newTable));
+
+		String copy = "insert into " + newTable + " (" + columns + ") select "
+				+ selectExpressions + " from " + table + " where _id > ? order by _id limit "
+				+ REBUILD_CHUNK_SIZE;
+		String lastId = "select ifnull(max(_id), 0) from " + newTable;
+
+		long copied = 0;
+		long after = 0;
+		while (true) {
+			db.execSQL(copy, new Object[] {after});
+			long chunk = db.longForQuery("select changes()", null);
+			if (chunk == 0) {
+				break;
+			}
+			copied += chunk;
+			after = db.longForQuery(lastId, null);
+		}
+
+		// keep the highest row id ever handed out, not just the highest left
+		long seq = db.longForQuery("select ifnull(max(seq), 0) from sqlite_sequence where name = ?",
+				new Object[] {table});
+
+		db.execSQL("drop table " + table);
+		db.execSQL("alter table " + newTable + " rename to " + table);
+		if (seq > 0) {
+			db.execSQL("update sqlite_sequence set seq = max(seq, ?) where name = ?",
+					new Object[] {seq, table});
+		}
+		return copied;
+	}
+
+	private static long millisSince(long startNanos) {
+		return (System.nanoTime() - startNanos) / 1000000L;
+	}
+}
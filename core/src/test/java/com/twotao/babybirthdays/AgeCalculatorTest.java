@@ -0,0 +1,353 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.text.DateFormatSymbols;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks the ages worked out by AgeCalculator, and that binding the age of a
+ * list row allocates nothing once it has warmed up.
+ *
+ * The dates and ages are checked for every day from 1900 to 2100 against a
+ * reference: the dates of a GregorianCalendar, and the age rules of the
+ * original list adapter, which worked on the milliseconds between two dates
+ * and on their Calendar fields.
+ *
+ * @author Jim
+ *
+ */
+public class AgeCalculatorTest {
+
+	// a fixed "today", 2012-06-15
+	private static final long TODAY_MILLIS = 1339761600000L;
+
+	// the binding is run a few times first so it is compiled, as compiling
+	// it allocates on the thread that runs it
+	private static final int WARM_UP_RUNS = 10;
+	private static final int ROWS = 100000;
+
+	private static final int FIRST_YEAR = 1900;
+	private static final int LAST_YEAR = 2100;
+
+	private static final int NUM_DAYS_IN_WEEK = 7;
+	private static final int NUM_DAYS_IN_YEAR = 365;
+	private static final int NUM_MONTHS_PER_YEAR = 12;
+	private static final int NUM_MONTHS_FOR_DISPLAY = 2;
+
+	// the ages the month rules apply to, with some either side
+	private static final int MIN_AGE = -NUM_DAYS_IN_WEEK;
+	private static final int MAX_AGE = 800;
+
+	private static final String[] SINGULAR_UNITS = {"day", "week", "month", "year"};
+	private static final String[] PLURAL_UNITS = {"days", "weeks", "months", "years"};
+
+	// every date of the range by its index from 1900-01-01, as UTC midnight
+	// milliseconds and the Calendar month (0 - 11) and day of month
+	private static int sFirstEpochDay;
+	private static long[] sMillis;
+	private static int[] sMonths;
+	private static int[] sDays;
+	private static int[] sYears;
+
+	@BeforeClass
+	public static void setUpDates() {
+
+		GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+		calendar.clear();
+		calendar.set(FIRST_YEAR, Calendar.JANUARY, 1);
+		sFirstEpochDay = (int) (calendar.getTimeInMillis() / AgeCalculator.MILLISECONDS_IN_DAY);
+
+		GregorianCalendar end = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+		end.clear();
+		end.set(LAST_YEAR + 1, Calendar.JANUARY, 1);
+		int count = (int) ((end.getTimeInMillis() - calendar.getTimeInMillis())
+				/ AgeCalculator.MILLISECONDS_IN_DAY);
+
+		sMillis = new long[count];
+		sMonths = new int[count];
+		sDays = new int[count];
+		sYears = new int[count];
+		for (int i = 0; i < count; i++) {
+			sMillis[i] = calendar.getTimeInMillis();
+			sYears[i] = calendar.get(Calendar.YEAR);
+			sMonths[i] = calendar.get(Calendar.MONTH);
+			sDays[i] = calendar.get(Calendar.DAY_OF_MONTH);
+			calendar.add(Calendar.DAY_OF_MONTH, 1);
+		}
+	}
+
+	@Test
+	public void everyDateMatchesTheCalendar() {
+
+		for (int i = 0; i < sMillis.length; i++) {
+			int epochDay = sFirstEpochDay + i;
+			assertEquals(sMillis[i] / AgeCalculator.MILLISECONDS_IN_DAY, epochDay);
+
+			int date = AgeCalculator.civilFromEpochDay(epochDay);
+			assertEquals(sYears[i], AgeCalculator.yearOf(date));
+			assertEquals(sMonths[i] + 1, AgeCalculator.monthOf(date));
+			assertEquals(sDays[i], AgeCalculator.dayOf(date));
+			assertEquals(epochDay, AgeCalculator.epochDayFromCivil(sYears[i], sMonths[i] + 1,
+					sDays[i]));
+		}
+	}
+
+	@Test
+	public void everyDateIsTheSameDayInEveryTimeZone() {
+
+		String[] zones = {
+			"UTC", "America/New_York", "America/Sao_Paulo", "Europe/London",
+			"Asia/Kolkata", "Australia/Lord_Howe", "Pacific/Apia"
+		};
+		for (String zone : zones) {
+			TimeZone timeZone = TimeZone.getTimeZone(zone);
+			AgeCalculator ageCalculator = new AgeCalculator(timeZone);
+			GregorianCalendar calendar = new GregorianCalendar(timeZone);
+
+			for (int i = 0; i < sMillis.length; i++) {
+				int epochDay = sFirstEpochDay + i;
+				calendar.clear();
+				calendar.set(sYears[i], sMonths[i], sDays[i], 0, 0, 0);
+				long startOfDay = calendar.getTimeInMillis();
+				if (calendar.get(Calendar.DAY_OF_MONTH) != sDays[i]) {
+					// a day the zone skipped, as Samoa did on 2011-12-30
+					continue;
+				}
+				calendar.set(sYears[i], sMonths[i], sDays[i], 23, 59, 59);
+				long endOfDay = calendar.getTimeInMillis();
+
+				// a day that starts with a daylight saving jump begins at 1am
+				assertEquals(zone + " " + epochDay, epochDay, ageCalculator.toEpochDay(startOfDay));
+				assertEquals(zone + " " + epochDay, epochDay, ageCalculator.toEpochDay(endOfDay));
+				assertEquals(zone + " " + epochDay, epochDay,
+						ageCalculator.toEpochDay(ageCalculator.toMillis(epochDay)));
+			}
+		}
+	}
+
+	/*
+	 * Every today in the range with every birth date the month rules can
+	 * apply to, where the ages depend on the calendar
+	 */
+	@Test
+	public void everyYoungAgeMatchesTheReference() {
+
+		AgeCalculator ageCalculator = new AgeCalculator(TimeZone.getTimeZone("UTC"));
+		int[] expected = new int[2];
+		for (int today = 0; today < sMillis.length; today++) {
+			ageCalculator.setToday(sMillis[today] + AgeCalculator.MILLISECONDS_IN_DAY / 2);
+			int from = Math.max(today - MAX_AGE, 0);
+			int to = Math.min(today - MIN_AGE, sMillis.length - 1);
+			for (int birth = from; birth <= to; birth++) {
+				ageCalculator.computeFromEpochDay(sFirstEpochDay + birth);
+				referenceAge(birth, today, expected);
+				if (ageCalculator.getUnit() != expected[0] || ageCalculator.getCount() != expected[1]) {
+					assertEquals("born " + birth + " today " + today,
+							expected[0] + " " + expected[1],
+							ageCalculator.getUnit() + " " + ageCalculator.getCount());
+				}
+			}
+		}
+	}
+
+	/*
+	 * Every birth date in the range against a today in every month of a few
+	 * years, with the texts the original adapter showed
+	 */
+	@Test
+	public void everyBirthDateMatchesTheReferenceText() {
+
+		AgeCalculator ageCalculator = new AgeCalculator(TimeZone.getTimeZone("UTC"));
+		AgeTextFormatter formatter = new AgeTextFormatter(SINGULAR_UNITS, PLURAL_UNITS);
+		char[] chars = new char[AgeTextFormatter.TEXT_BUFFER_SIZE];
+		int[] expected = new int[2];
+
+		int[] years = {1900, 1999, 2000, 2012, 2100};
+		for (int year : years) {
+			for (int month = 0; month < NUM_MONTHS_PER_YEAR; month++) {
+				int today = indexOf(year, month, (month == 1) ? 29 : 31);
+				ageCalculator.setToday(sMillis[today] + AgeCalculator.MILLISECONDS_IN_DAY / 2);
+
+				for (int birth = 0; birth < sMillis.length; birth++) {
+					ageCalculator.computeFromEpochDay(sFirstEpochDay + birth);
+					referenceAge(birth, today, expected);
+					String text = expected[1] + " "
+							+ ((expected[1] == 1) ? SINGULAR_UNITS : PLURAL_UNITS)[expected[0]];
+					int length = formatter.writeAgeText(chars, ageCalculator.getCount(),
+							ageCalculator.getUnit());
+					assertEquals(text, new String(chars, 0, length));
+					assertEquals(sMonths[birth] + 1, ageCalculator.getBirthMonth());
+					assertEquals(sDays[birth], ageCalculator.getBirthDay());
+				}
+			}
+		}
+	}
+
+	/*
+	 * The index of a date, or of the last day of the month if the day is
+	 * past it
+	 */
+	private static int indexOf(int year, int month, int day) {
+		GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+		calendar.clear();
+		calendar.set(year, month, 1);
+		int lastDay = calendar.getActualMaximum(Calendar.DAY_OF_MONTH);
+		calendar.set(Calendar.DAY_OF_MONTH, Math.min(day, lastDay));
+		return (int) (calendar.getTimeInMillis() / AgeCalculator.MILLISECONDS_IN_DAY)
+				- sFirstEpochDay;
+	}
+
+	/*
+	 * The age rules of the original list adapter, from the milliseconds
+	 * between the dates and their Calendar fields, giving the AgeCalculator
+	 * unit and count
+	 */
+	private static void referenceAge(int birth, int today, int[] age) {
+
+		int ageInDays = (int) ((sMillis[today] - sMillis[birth]) / AgeCalculator.MILLISECONDS_IN_DAY);
+		if (ageInDays < NUM_DAYS_IN_WEEK) {
+			age[0] = AgeCalculator.UNIT_DAYS;
+			age[1] = ageInDays;
+			return;
+		}
+		if (ageInDays < AgeCalculator.NUM_DAYS_FOR_WEEKS_DISPLAY) {
+			age[0] = AgeCalculator.UNIT_WEEKS;
+			age[1] = ageInDays / NUM_DAYS_IN_WEEK;
+			return;
+		}
+
+		int ageInYears = ageInDays / NUM_DAYS_IN_YEAR;
+		if (ageInDays >= AgeCalculator.NUM_DAYS_FOR_MONTHS_DISPLAY) {
+			age[0] = AgeCalculator.UNIT_YEARS;
+			age[1] = ageInYears;
+			return;
+		}
+
+		int ageInMonths = ageInYears * NUM_MONTHS_PER_YEAR;
+		int monthDiff = sMonths[today] - sMonths[birth];
+		if (monthDiff < 0) {
+			ageInMonths += NUM_MONTHS_PER_YEAR + monthDiff;
+		} else if (monthDiff == 0 && sDays[today] < sDays[birth]) {
+			ageInMonths += NUM_MONTHS_PER_YEAR;
+		} else {
+			ageInMonths += monthDiff;
+		}
+		if (sDays[today] < sDays[birth]) {
+			ageInMonths--;
+		}
+
+		if (ageInMonths < NUM_MONTHS_FOR_DISPLAY) {
+			age[0] = AgeCalculator.UNIT_WEEKS;
+			age[1] = ageInDays / NUM_DAYS_IN_WEEK;
+		} else {
+			age[0] = AgeCalculator.UNIT_MONTHS;
+			age[1] = ageInMonths;
+		}
+	}
+
+	@Test
+	public void bindingARowAllocatesNothing() {
+
+		Object bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		BirthdayListModel model = newModel();
+		AgeLabelTable ageLabels = new AgeLabelTable();
+		ageLabels.loadMissing(model);
+		BirthdayRowBinder binder = new BirthdayRowBinder(newFormatter());
+		BirthdayRowBinder.RowText row = new BirthdayRowBinder.RowText();
+
+		for (int i = 0; i < WARM_UP_RUNS; i++) {
+			bindRows(binder, row, model, ageLabels, ROWS);
+		}
+
+		long threadId = Thread.currentThread().getId();
+		threads.getThreadAllocatedBytes(threadId);
+		long before = threads.getThreadAllocatedBytes(threadId);
+		int total = bindRows(binder, row, model, ageLabels, ROWS);
+		long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+		assertEquals("bytes allocated binding " + ROWS + " rows (" + total + " chars)",
+				0, allocated);
+	}
+
+	@Test
+	public void bindsEveryTextIntoItsOwnBuffer() {
+
+		BirthdayListModel model = newModel();
+		BirthdayRowBinder binder = new BirthdayRowBinder(newFormatter());
+		BirthdayRowBinder.RowText row = new BirthdayRowBinder.RowText();
+		AgeCalculator ageCalculator = new AgeCalculator();
+		ageCalculator.setToday(TODAY_MILLIS);
+
+		for (int i = 0; i < model.size(); i++) {
+			binder.bindPaged(row, model, i, TODAY_MILLIS);
+			ageCalculator.computeFromEpochDay(model.getBirthEpochDay(i));
+
+			assertEquals(model.getName(i), new String(row.nameChars, row.nameOffset, row.nameLength));
+			assertEquals(new DateFormatSymbols().getShortMonths()[ageCalculator.getBirthMonth() - 1]
+					+ String.format("-%02d", ageCalculator.getBirthDay()),
+					new String(row.birthdayChars, 0, row.birthdayLength));
+			assertEquals(ageCalculator.getCount() + " " + (ageCalculator.getCount() == 1
+					? SINGULAR_UNITS : PLURAL_UNITS)[ageCalculator.getUnit()],
+					new String(row.ageChars, 0, row.ageLength));
+		}
+	}
+
+	/*
+	 * A model of random birth dates over the last ten years
+	 */
+	private static BirthdayListModel newModel() {
+		AgeCalculator ageCalculator = new AgeCalculator();
+		ageCalculator.setToday(TODAY_MILLIS);
+		MemoryBirthdayRepository repository = new MemoryBirthdayRepository();
+		Random random = new Random(42);
+		for (int i = 0; i < 1024; i++) {
+			repository.createBirthday("Baby " + i,
+					ageCalculator.getTodayEpochDay() - random.nextInt(10 * 365));
+		}
+		BirthdayRepository.Rows rows = repository.fetchAll();
+		try {
+			return BirthdayListModel.load(rows);
+		} finally {
+			rows.close();
+		}
+	}
+
+	private static AgeTextFormatter newFormatter() {
+		return new AgeTextFormatter(SINGULAR_UNITS, PLURAL_UNITS);
+	}
+
+	/*
+	 * Binds rows of the model the way the list adapter does, both from the
+	 * precomputed ages and as a paged row works its age out
+	 */
+	private static int bindRows(BirthdayRowBinder binder, BirthdayRowBinder.RowText row,
+			BirthdayListModel model, AgeLabelTable ageLabels, int rows) {
+		int total = 0;
+		int mask = model.size() - 1;
+		for (int i = 0; i < rows; i++) {
+			binder.bind(row, model, ageLabels, model.getId(i & mask));
+			total += row.nameLength + row.birthdayLength + row.ageLength;
+			binder.bindPaged(row, model, i & mask, TODAY_MILLIS);
+			total += row.nameLength + row.birthdayLength + row.ageLength;
+		}
+		return total;
+	}
+}
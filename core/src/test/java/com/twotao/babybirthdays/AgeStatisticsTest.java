@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the statistics counted without keeping the rows against the ones
+ * that keep them, before and after the window of birth days moves and as
+ * rows are added, moved and deleted.
+ *
+ * @author Jim
+ *
+ */
+public class AgeStatisticsTest {
+
+	private static final int ROWS = 20000;
+
+	// the ages and ranges of ages checked, in days
+	private static final int[][] AGE_RANGES = {
+		{0, 7}, {0, 56}, {56, 730}, {730, Integer.MAX_VALUE}, {-100, 0}, {100, 4000},
+		{365, 366}, {0, Integer.MAX_VALUE}
+	};
+
+	// marks a deleted row among the birth days of the rows
+	private static final int DELETED = Integer.MIN_VALUE;
+
+	private MemoryBirthdayRepository mRepository;
+	private AgeStatistics mKept;
+	private AgeStatistics mCounted;
+
+	@Before
+	public void setUp() {
+		mRepository = new MemoryBirthdayRepository();
+		Random random = new Random(ROWS);
+		int today = new AgeCalculator().getTodayEpochDay();
+		for (int i = 0; i < ROWS; i++) {
+			// mostly babies, some due dates, and some past the window
+			int age = (i % 10 == 0) ? random.nextInt(40000) : random.nextInt(3000) - 100;
+			mRepository.createBirthday("Baby " + i, today - age);
+		}
+
+		BirthdayRepository.Rows rows = mRepository.fetchAll();
+		mKept = AgeStatistics.load(BirthdayListModel.load(rows));
+		rows.close();
+		rows = mRepository.fetchAll();
+		mCounted = AgeStatistics.count(rows);
+		rows.close();
+	}
+
+	@Test
+	public void countedMatchesKept() {
+		assertTrue(mKept.keepsRows());
+		assertFalse(mCounted.keepsRows());
+		assertSameStatistics();
+	}
+
+	@Test
+	public void countedMatchesKeptAfterTheWindowMoves() {
+		int windowStart = mKept.getWindowStart();
+		for (int shift : new int[] {300, 1000, -1300, -200}) {
+			windowStart += shift;
+			mKept.rebuild(windowStart);
+			mCounted.rebuild(windowStart);
+			if (shift > 0) {
+				// rows that moved out of the window are still counted
+				assertSameStatistics();
+			}
+		}
+	}
+
+	@Test
+	public void countedFollowsChangesByBirthDay() {
+		Random random = new Random(7);
+		int today = mKept.getTodayEpochDay();
+		int[] birthEpochDays = new int[ROWS + 1];
+		BirthdayRepository.Rows rows = mRepository.fetchAll();
+		while (rows.next()) {
+			birthEpochDays[(int) rows.getId()] = rows.getBirthEpochDay();
+		}
+		rows.close();
+
+		long nextId = ROWS + 1;
+		for (int i = 0; i < 5000; i++) {
+			int birthEpochDay = today - random.nextInt(20000) + 100;
+			long rowId = 1 + random.nextInt(ROWS);
+			switch (random.nextInt(3)) {
+				case 0:
+					mKept.put(nextId++, birthEpochDay);
+					mCounted.add(birthEpochDay);
+					break;
+				case 1:
+					if (birthEpochDays[(int) rowId] != DELETED) {
+						mKept.put(rowId, birthEpochDay);
+						mCounted.move(birthEpochDays[(int) rowId], birthEpochDay);
+						birthEpochDays[(int) rowId] = birthEpochDay;
+					}
+					break;
+				default:
+					if (birthEpochDays[(int) rowId] != DELETED) {
+						mKept.remove(rowId);
+						mCounted.subtract(birthEpochDays[(int) rowId]);
+						birthEpochDays[(int) rowId] = DELETED;
+					}
+					break;
+			}
+		}
+		assertSameStatistics();
+	}
+
+	@Test
+	public void keptCanNotChangeByBirthDay() {
+		try {
+			mKept.add(0);
+			fail();
+		} catch (IllegalStateException expected) {
+		}
+		try {
+			mKept.move(0, 1);
+			fail();
+		} catch (IllegalStateException expected) {
+		}
+		try {
+			mKept.subtract(0);
+			fail();
+		} catch (IllegalStateException expected) {
+		}
+	}
+
+	@Test
+	public void countedCanNotChangeARow() {
+		try {
+			mCounted.put(1, 0);
+			fail();
+		} catch (IllegalStateException expected) {
+		}
+		try {
+			mCounted.remove(1);
+			fail();
+		} catch (IllegalStateException expected) {
+		}
+	}
+
+	private void assertSameStatistics() {
+		assertEquals(mKept.size(), mCounted.size());
+		for (int group = 0; group < AgeStatistics.GROUP_COUNT; group++) {
+			assertEquals(mKept.getGroupCount(group), mCounted.getGroupCount(group));
+			assertEquals(mKept.getGroupAverageAge(group), mCounted.getGroupAverageAge(group));
+		}
+		for (int[] range : AGE_RANGES) {
+			assertEquals(mKept.countAged(range[0], range[1]), mCounted.countAged(range[0], range[1]));
+			assertEquals(mKept.averageAged(range[0], range[1]),
+					mCounted.averageAged(range[0], range[1]));
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Checks the CSV dates the codec accepts, and the ones it rejects as a
+ * malformed file, and that binary records up to the longest name read back.
+ *
+ * @author Jim
+ *
+ */
+public class BirthdayCodecTest {
+
+	@Test
+	public void readsTheLastDayOfEveryMonth() throws IOException {
+		StringBuilder csv = new StringBuilder("name,birthdate\n");
+		int[] lastDays = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+		for (int month = 1; month <= 12; month++) {
+			csv.append("Baby ").append(month).append(",2020-").append(month < 10 ? "0" : "")
+					.append(month).append('-').append(lastDays[month - 1]).append('\n');
+		}
+
+		BirthdayCodec.Reader reader = readerOf(csv.toString());
+		for (int month = 1; month <= 12; month++) {
+			assertTrue(reader.next());
+			assertEquals(AgeCalculator.epochDayFromCivil(2020, month, lastDays[month - 1]),
+					reader.getBirthEpochDay());
+		}
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void rejectsDaysPastTheEndOfTheMonth() throws IOException {
+		String[] dates = {"2020-02-30", "2020-02-31", "2019-02-29", "1900-02-29", "2020-04-31",
+				"2020-06-31", "2020-09-31", "2020-11-31", "2020-01-32", "2020-13-01", "2020-00-10"};
+		for (String date : dates) {
+			BirthdayCodec.Reader reader = readerOf("name,birthdate\nAda,2000-02-29\nBob," + date + "\n");
+			assertTrue(reader.next());
+			try {
+				reader.next();
+				fail(date + " was read as " + AgeCalculator.civilFromEpochDay(reader.getBirthEpochDay()));
+			} catch (IOException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void readsBackTheLongestBinaryName() throws IOException {
+		char[] longest = new char[BirthdayCodec.MAX_NAME_BYTES];
+		Arrays.fill(longest, 'a');
+		String name = new String(longest);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BirthdayCodec.Writer writer = BirthdayCodec.newWriter(Channels.newChannel(bytes),
+				BirthdayCodec.FORMAT_BINARY);
+		writer.write("Ada", 100);
+		writer.write(name, 200);
+		writer.write("Bob", 300);
+		try {
+			writer.write(name + 'a', 400);
+			fail("a name longer than a record was written");
+		} catch (IOException expected) {
+		}
+		writer.flush();
+
+		BirthdayCodec.Reader reader = BirthdayCodec.newReader(
+				Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())),
+				BirthdayCodec.FORMAT_BINARY);
+		assertTrue(reader.next());
+		assertEquals("Ada", reader.getName());
+		assertTrue(reader.next());
+		assertEquals(name, reader.getName());
+		assertEquals(200, reader.getBirthEpochDay());
+		assertTrue(reader.next());
+		assertEquals("Bob", reader.getName());
+		assertFalse(reader.next());
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsABinaryNameLongerThanARecord() throws IOException {
+		// the header and a name length of 65,534 bytes, which once hung the
+		// reader
+		byte[] file = new byte[8 + 70000];
+		file[0] = 'B';
+		file[1] = 'B';
+		file[2] = 'D';
+		file[3] = 1;
+		int length = 65534;
+		file[4] = (byte) ((length & 0x7F) | 0x80);
+		file[5] = (byte) (((length >>> 7) & 0x7F) | 0x80);
+		file[6] = (byte) (length >>> 14);
+
+		BirthdayCodec.Reader reader = BirthdayCodec.newReader(
+				Channels.newChannel(new ByteArrayInputStream(file)), BirthdayCodec.FORMAT_BINARY);
+		reader.next();
+	}
+
+	private static BirthdayCodec.Reader readerOf(String csv) {
+		return BirthdayCodec.newReader(
+				Channels.newChannel(new ByteArrayInputStream(csv.getBytes())), BirthdayCodec.FORMAT_CSV);
+	}
+}
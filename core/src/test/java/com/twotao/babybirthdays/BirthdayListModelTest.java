@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * Checks the packed columns of BirthdayListModel, in particular that the
+ * name buffer survives renames and compaction.
+ *
+ * @author Jim
+ *
+ */
+public class BirthdayListModelTest {
+
+	@Test
+	public void renamingToShorterNamesCompactsWithoutTheOldName() {
+		BirthdayListModel model = new BirthdayListModel();
+		model.put(1, repeat('a', 1000), 100);
+		model.put(1, repeat('b', 999), 100);
+		model.put(1, repeat('c', 500), 100);
+
+		assertEquals(1, model.size());
+		assertEquals(repeat('c', 500), model.getName(0));
+	}
+
+	@Test
+	public void appendingAfterARemoveCompactsWithoutTheRemovedName() {
+		BirthdayListModel model = new BirthdayListModel();
+		model.put(1, repeat('a', 10), 100);
+		model.put(2, repeat('b', 180), 100);
+		model.remove(2);
+		model.put(3, repeat('c', 10), 100);
+
+		assertEquals(2, model.size());
+		assertEquals(repeat('a', 10), model.getName(0));
+		assertEquals(repeat('c', 10), model.getName(1));
+	}
+
+	@Test
+	public void nullNamesAreKept() {
+		BirthdayListModel model = new BirthdayListModel();
+		model.put(1, "Emma", 100);
+		model.put(1, null, 101);
+		assertNull(model.getName(0));
+		assertEquals(0, model.getNameLength(0));
+		assertEquals(101, model.getBirthEpochDay(0));
+	}
+
+	@Test
+	public void randomChangesMatchAMap() {
+		Random random = new Random(42);
+		BirthdayListModel model = new BirthdayListModel();
+		TreeMap<Long, String> names = new TreeMap<Long, String>();
+		TreeMap<Long, Integer> days = new TreeMap<Long, Integer>();
+
+		for (int i = 0; i < 20000; i++) {
+			long rowId = 1 + random.nextInt(500);
+			if (random.nextInt(4) == 0) {
+				model.remove(rowId);
+				names.remove(rowId);
+				days.remove(rowId);
+			} else {
+				String name = random.nextInt(20) == 0 ? null
+						: repeat((char) ('a' + random.nextInt(26)), random.nextInt(200));
+				int day = random.nextInt(30000);
+				model.put(rowId, name, day);
+				names.put(rowId, name);
+				days.put(rowId, day);
+			}
+		}
+
+		assertEquals(names.size(), model.size());
+		int position = 0;
+		for (Long rowId : names.keySet()) {
+			assertEquals(rowId.longValue(), model.getId(position));
+			assertEquals(position, model.indexOf(rowId));
+			assertEquals(names.get(rowId), model.getName(position));
+			assertEquals(days.get(rowId).intValue(), model.getBirthEpochDay(position));
+			position++;
+		}
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+}
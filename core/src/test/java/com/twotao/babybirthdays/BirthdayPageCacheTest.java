@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the pages held by BirthdayPageCache against the rows of a
+ * repository in each sort, as pages are jumped to and single rows are
+ * created, edited and deleted, and checks the page and keys queries of the
+ * SQLite schema give the same rows as the memory repository.
+ *
+ * @author Jim
+ *
+ */
+public class BirthdayPageCacheTest {
+
+	private static final int PAGE_SIZE = 50;
+	private static final int MAX_PAGES = 4;
+
+	private static final int[] SORT_MODES = {BirthdaySections.SORT_CREATED,
+			BirthdaySections.SORT_AGE, BirthdaySections.SORT_BIRTH_MONTH};
+
+	/*
+	 * Counts the lookups that read every row, which an edit must not need
+	 */
+	private static class CountingRepository extends MemoryBirthdayRepository {
+
+		int scans;
+
+		@Override
+		public synchronized Keys fetchKeys(int sortMode, String filter) {
+			scans++;
+			return super.fetchKeys(sortMode, filter);
+		}
+
+		@Override
+		public synchronized int countBirthdays() {
+			scans++;
+			return super.countBirthdays();
+		}
+	}
+
+	private CountingRepository mRepository;
+	private BirthdayPageCache mCache;
+	private final Random mRandom = new Random(42);
+
+	@Before
+	public void setUp() {
+		mRepository = new CountingRepository();
+		for (int i = 0; i < 5 * PAGE_SIZE; i++) {
+			mRepository.createBirthday(nameOf(i), randomBirthEpochDay());
+		}
+		mCache = new BirthdayPageCache(PAGE_SIZE, MAX_PAGES);
+	}
+
+	@Test
+	public void firstPageStartsAtTheTop() {
+		for (int sortMode : SORT_MODES) {
+			reset(sortMode, null);
+			BirthdayPage rows = BirthdayPageCache.loadPage(mRepository, mCache.getStart(0));
+			assertEquals(PAGE_SIZE, rows.size());
+			assertTrue(rows.contentEquals(expectedPage(0)));
+		}
+	}
+
+	@Test
+	public void anyPageIsFoundFromTheIndex() {
+		for (int sortMode : SORT_MODES) {
+			reset(sortMode, null);
+			for (int page = mCache.getPageCount() - 1; page >= 0; page--) {
+				BirthdayPage rows = BirthdayPageCache.loadPage(mRepository, mCache.getStart(page));
+				assertTrue(rows.contentEquals(expectedPage(page)));
+			}
+			assertEquals(0, mRepository.scans);
+		}
+	}
+
+	@Test
+	public void searchIsPagedInEachSort() {
+		for (int sortMode : SORT_MODES) {
+			reset(sortMode, "Ava");
+			assertTrue(mCache.getCount() > PAGE_SIZE);
+			holdPages(1, 0);
+			assertPagesMatch();
+		}
+	}
+
+	@Test
+	public void deleteLeavesLaterPagesShortAndRefetchesByKeyset() {
+		reset(BirthdaySections.SORT_CREATED, null);
+		holdPages(0, 1, 2);
+
+		delete(10);
+
+		int[] pages = new int[MAX_PAGES];
+		assertEquals(3, mCache.getIncompletePages(pages));
+		assertEquals(PAGE_SIZE - 1, mCache.getPage(1).size());
+		assertEquals(PAGE_SIZE + 2, mCache.getPage(1).getId(0));
+
+		refetchIncompletePages();
+		assertPagesMatch();
+		assertEquals(0, mRepository.scans);
+	}
+
+	@Test
+	public void insertIsAppendedToTheLastPage() {
+		reset(BirthdaySections.SORT_CREATED, null);
+		holdPages(3, 4);
+		delete(5 * PAGE_SIZE);
+		refetchIncompletePages();
+
+		long rowId = mRepository.createBirthday("New", 17000);
+		mCache.rowInserted(rowId, "New", 17000);
+		assertTrue(mCache.isComplete(4));
+		assertEquals(rowId, mCache.getPage(4).getId(PAGE_SIZE - 1));
+		assertPagesMatch();
+		assertEquals(0, mRepository.scans);
+	}
+
+	@Test
+	public void insertInASortRefetchesThePagesItMoves() {
+		reset(BirthdaySections.SORT_AGE, null);
+		holdPages(0, 1, 2);
+
+		// younger than every row, so it goes first and moves every page
+		long rowId = mRepository.createBirthday("New", 20000);
+		mCache.rowInserted(rowId, "New", 20000);
+
+		int[] pages = new int[MAX_PAGES];
+		assertEquals(3, mCache.getIncompletePages(pages));
+		refetchIncompletePages();
+		assertEquals(rowId, mCache.getPage(0).getId(0));
+		assertPagesMatch();
+		assertEquals(0, mRepository.scans);
+	}
+
+	@Test
+	public void randomEditsKeepThePagesInStepInEachSort() {
+		for (int sortMode : SORT_MODES) {
+			reset(sortMode, null);
+			holdPages(0, 1, 2, 3);
+
+			for (int i = 0; i < 1000; i++) {
+				int count = mCache.getCount();
+				int action = mRandom.nextInt(3);
+				if (action == 0 || count < 2) {
+					int birth = randomBirthEpochDay();
+					long rowId = mRepository.createBirthday(nameOf(i), birth);
+					mCache.rowInserted(rowId, nameOf(i), birth);
+				} else {
+					Birthday birthday = mRepository.fetchBirthday(randomRowId());
+					if (action == 1) {
+						int birth = mRandom.nextBoolean() ? birthday.getBirthEpochDay()
+								: randomBirthEpochDay();
+						mRepository.updateBirthday(birthday.getId(), "Edited " + i, birth);
+						mCache.rowUpdated(birthday.getId(), birthday.getBirthEpochDay(),
+								"Edited " + i, birth);
+					} else {
+						delete(birthday.getId());
+					}
+				}
+				refetchIncompletePages();
+				assertPagesMatch();
+
+				// now and then jump somewhere else, as a fast scroll does
+				if (i % 50 == 0) {
+					int page = mRandom.nextInt(mCache.getPageCount());
+					mCache.putPage(page, BirthdayPageCache.loadPage(mRepository,
+							mCache.getStart(page)), page);
+				}
+			}
+			assertEquals(0, mRepository.scans);
+		}
+	}
+
+	@Test
+	public void sqlitePagesMatchTheMemoryRepository() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+		JdbcBirthdayRepository.createSchema(connection);
+		JdbcBirthdayRepository sqlite = new JdbcBirthdayRepository(connection);
+		try {
+			for (int i = 0; i < 3 * PAGE_SIZE; i++) {
+				Birthday birthday = mRepository.fetchBirthday(i + 1);
+				sqlite.createBirthday(birthday.getName(), birthday.getBirthEpochDay());
+			}
+			mRepository.deleteBirthday(3);
+			sqlite.deleteBirthday(3);
+			for (int i = 3 * PAGE_SIZE + 1; i <= 5 * PAGE_SIZE; i++) {
+				mRepository.deleteBirthday(i);
+			}
+
+			for (int sortMode : SORT_MODES) {
+				for (String filter : new String[] {null, "ava", "no such name"}) {
+					BirthdayPageIndex memoryIndex = loadIndex(mRepository, sortMode, filter);
+					BirthdayPageIndex sqliteIndex = loadIndex(sqlite, sortMode, filter);
+					assertEquals(memoryIndex.getCount(), sqliteIndex.getCount());
+
+					int pageCount = (memoryIndex.getCount() + PAGE_SIZE - 1) / PAGE_SIZE;
+					for (int page = 0; page < pageCount; page++) {
+						BirthdayPage expected = BirthdayPageCache.loadPage(mRepository,
+								BirthdayPageCache.getStart(memoryIndex, page));
+						BirthdayPage actual = BirthdayPageCache.loadPage(sqlite,
+								BirthdayPageCache.getStart(sqliteIndex, page));
+						assertTrue(expected.contentEquals(actual));
+					}
+				}
+			}
+		} finally {
+			sqlite.close();
+		}
+	}
+
+	private void reset(int sortMode, String filter) {
+		mCache.reset(loadIndex(mRepository, sortMode, filter));
+		mRepository.scans = 0;
+	}
+
+	private void holdPages(int... pages) {
+		for (int page : pages) {
+			mCache.putPage(page, BirthdayPageCache.loadPage(mRepository, mCache.getStart(page)),
+					page);
+		}
+	}
+
+	private void delete(long rowId) {
+		int birth = mRepository.fetchBirthday(rowId).getBirthEpochDay();
+		mRepository.deleteBirthday(rowId);
+		mCache.rowDeleted(rowId, birth);
+	}
+
+	/*
+	 * What the pager does after an edit, without the background thread
+	 */
+	private void refetchIncompletePages() {
+		int[] pages = new int[MAX_PAGES];
+		int count = mCache.getIncompletePages(pages);
+		for (int i = 0; i < count; i++) {
+			mCache.putPage(pages[i], BirthdayPageCache.loadPage(mRepository,
+					mCache.getStart(pages[i])), pages[i]);
+		}
+	}
+
+	/*
+	 * Compares every held page with the rows at its positions
+	 */
+	private void assertPagesMatch() {
+		int scans = mRepository.scans;
+		BirthdayPageIndex index = mCache.getIndex();
+		assertEquals(loadIndex(mRepository, index.getSortMode(), index.getFilter()).getCount(),
+				mCache.getCount());
+		for (int page = 0; page < mCache.getPageCount(); page++) {
+			BirthdayPage rows = mCache.getPage(page);
+			if (rows != null) {
+				assertTrue(expectedPage(page).contentEquals(rows));
+			}
+		}
+		mRepository.scans = scans;
+	}
+
+	/*
+	 * The rows at the positions of a page, read from the top of the list
+	 */
+	private BirthdayPage expectedPage(int page) {
+		BirthdayPageIndex index = mCache.getIndex();
+		BirthdayPageIndex top = new BirthdayPageIndex(index.getSortMode(), index.getFilter(),
+				PAGE_SIZE);
+		BirthdayRepository.Rows rows = mRepository.fetchPage(index.getSortMode(),
+				index.getFilter(), top.getSortKey(0), top.getRowId(0), Integer.MAX_VALUE);
+		try {
+			return BirthdayPage.load(rows, page * PAGE_SIZE, PAGE_SIZE);
+		} finally {
+			rows.close();
+		}
+	}
+
+	private static BirthdayPageIndex loadIndex(BirthdayRepository repository, int sortMode,
+			String filter) {
+		BirthdayRepository.Keys keys = repository.fetchKeys(sortMode, filter);
+		try {
+			return BirthdayPageIndex.load(sortMode, filter, PAGE_SIZE, keys);
+		} finally {
+			keys.close();
+		}
+	}
+
+	private static String nameOf(int i) {
+		return ((i % 3 == 0) ? "Ava " : "Baby ") + i;
+	}
+
+	/*
+	 * Birth days over a few years, so many rows share a day and a month_day
+	 */
+	private int randomBirthEpochDay() {
+		return 15000 + mRandom.nextInt(3 * 365);
+	}
+
+	/*
+	 * A row id still in the repository
+	 */
+	private long randomRowId() {
+		while (true) {
+			long rowId = 1 + mRandom.nextInt(5 * PAGE_SIZE + 1000);
+			if (mRepository.fetchBirthday(rowId) != null) {
+				return rowId;
+			}
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the sorted, upcoming and milestone
+ * queries read their rows in order from the birthdays indexes, rather than
+ * scanning the table and sorting it, and that the upcoming queries wrap
+ * around the end of the year.
+ *
+ * @author Jim
+ *
+ */
+public class BirthdaySchemaTest {
+
+	private Connection mConnection;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+		JdbcBirthdayRepository.createSchema(mConnection);
+
+		JdbcBirthdayRepository repository = new JdbcBirthdayRepository(mConnection);
+		for (int i = 0; i < 1000; i++) {
+			repository.createBirthday("Baby " + i, AgeCalculator.epochDayFromCivil(2010, 1, 1) + i * 7);
+		}
+		execute("analyze");
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		mConnection.close();
+	}
+
+	@Test
+	public void byNameReadsTheNameIndex() throws SQLException {
+		assertReadsIndex(BirthdaySchema.BY_NAME_QUERY, "birthdays_name");
+	}
+
+	@Test
+	public void byAgeReadsTheBirthDayIndex() throws SQLException {
+		assertReadsIndex(BirthdaySchema.BY_AGE_QUERY, "birthdays_birth_day");
+	}
+
+	@Test
+	public void upcomingIsARangeOfTheMonthDayIndex() throws SQLException {
+		assertSearchesIndex(BirthdaySchema.UPCOMING_QUERY, "birthdays_month_day");
+		assertSearchesIndex(BirthdaySchema.UPCOMING_WRAPPED_QUERY, "birthdays_month_day");
+	}
+
+	@Test
+	public void milestoneQueriesAreRangesOfTheIndexes() throws SQLException {
+		assertSearchesIndex(BirthdaySchema.BORN_BETWEEN_QUERY, "birthdays_birth_day");
+		assertSearchesIndex(BirthdaySchema.NEXT_BIRTH_DAY_QUERY, "birthdays_birth_day");
+		assertSearchesIndex(BirthdaySchema.MONTH_DAYS_BETWEEN_QUERY, "birthdays_month_day");
+		assertSearchesIndex(BirthdaySchema.NEXT_MONTH_DAY_QUERY, "birthdays_month_day");
+	}
+
+	@Test
+	public void pagesAreRangesOfTheIndexes() throws SQLException {
+		assertSearchesIndex(BirthdaySchema.pageQuery(BirthdaySections.SORT_AGE, false),
+				"birthdays_birth_day");
+		assertSearchesIndex(BirthdaySchema.pageQuery(BirthdaySections.SORT_BIRTH_MONTH, false),
+				"birthdays_month_day");
+
+		String plan = plan(BirthdaySchema.pageQuery(BirthdaySections.SORT_CREATED, false));
+		assertTrue(plan, plan.contains("USING INTEGER PRIMARY KEY"));
+		assertFalse(plan, plan.contains("TEMP B-TREE"));
+	}
+
+	@Test
+	public void keysReadTheIndexesAlone() throws SQLException {
+		String plan = plan(BirthdaySchema.keysQuery(BirthdaySections.SORT_AGE, false));
+		assertTrue(plan, plan.contains("USING COVERING INDEX birthdays_birth_day"));
+		assertFalse(plan, plan.contains("TEMP B-TREE"));
+
+		plan = plan(BirthdaySchema.keysQuery(BirthdaySections.SORT_BIRTH_MONTH, false));
+		assertTrue(plan, plan.contains("USING COVERING INDEX birthdays_month_day"));
+		assertFalse(plan, plan.contains("TEMP B-TREE"));
+	}
+
+	@Test
+	public void upcomingWrapsAroundTheEndOfTheYear() throws SQLException {
+
+		List<Integer> monthDays = monthDays(BirthdaySchema.UPCOMING_QUERY, 1225, 50);
+		monthDays.addAll(monthDays(BirthdaySchema.UPCOMING_WRAPPED_QUERY, 1225, 50 - monthDays.size()));
+
+		assertEquals(50, monthDays.size());
+		assertTrue(monthDays.get(0) >= 1225);
+		assertTrue(monthDays.get(49) < 1225);
+		boolean wrapped = false;
+		for (int i = 1; i < monthDays.size(); i++) {
+			if (monthDays.get(i) < monthDays.get(i - 1)) {
+				assertFalse("wrapped twice", wrapped);
+				wrapped = true;
+			}
+		}
+		assertTrue(wrapped);
+	}
+
+	/*
+	 * Asserts the query walks the index in order, with no sort of its own,
+	 * whether or not the index alone covers the columns it reads
+	 */
+	private void assertReadsIndex(String sql, String index) throws SQLException {
+		String plan = plan(sql);
+		assertTrue(plan, plan.contains("USING INDEX " + index)
+				|| plan.contains("USING COVERING INDEX " + index));
+		assertFalse(plan, plan.contains("TEMP B-TREE"));
+	}
+
+	/*
+	 * Asserts the query is a range search of the index, with no sort of its
+	 * own, whether or not the index alone covers the columns it reads
+	 */
+	private void assertSearchesIndex(String sql, String index) throws SQLException {
+		String plan = plan(sql);
+		assertTrue(plan, plan.contains("SEARCH TABLE birthdays USING INDEX " + index)
+				|| plan.contains("SEARCH TABLE birthdays USING COVERING INDEX " + index));
+		assertFalse(plan, plan.contains("TEMP B-TREE"));
+	}
+
+	private String plan(String sql) throws SQLException {
+		PreparedStatement statement = mConnection.prepareStatement("explain query plan " + sql);
+		try {
+			// the plan does not depend on the values, but they must be bound
+			int parameters = statement.getParameterMetaData().getParameterCount();
+			for (int i = 1; i <= parameters; i++) {
+				statement.setInt(i, 1);
+			}
+			ResultSet rs = statement.executeQuery();
+			StringBuilder plan = new StringBuilder();
+			while (rs.next()) {
+				plan.append(rs.getString("detail")).append('\n');
+			}
+			return plan.toString();
+		} finally {
+			statement.close();
+		}
+	}
+
+	private List<Integer> monthDays(String sql, int monthDay, int limit) throws SQLException {
+		List<Integer> monthDays = new ArrayList<Integer>();
+		PreparedStatement statement = mConnection.prepareStatement(sql);
+		try {
+			statement.setInt(1, monthDay);
+			statement.setInt(2, limit);
+			ResultSet rs = statement.executeQuery();
+			while (rs.next()) {
+				monthDays.add(BirthdaySchema.monthDayOf(rs.getInt(3)));
+			}
+		} finally {
+			statement.close();
+		}
+		return monthDays;
+	}
+
+	private void execute(String sql) throws SQLException {
+		PreparedStatement statement = mConnection.prepareStatement(sql);
+		try {
+			statement.execute();
+		} finally {
+			statement.close();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks a BirthdaySnapshot reads back the list it was written from, and
+ * that a file that is corrupt, cut short, of another schema version or too
+ * large is turned away and deleted rather than shown.
+ *
+ * @author Jim
+ *
+ */
+public class BirthdaySnapshotTest {
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private File mFile;
+	private BirthdayListModel mModel;
+
+	@Before
+	public void setUp() throws IOException {
+		mFile = new File(mFolder.getRoot(), "birthdays.snapshot");
+
+		mModel = new BirthdayListModel();
+		mModel.put(1, "Emma Smith", 15000);
+		mModel.put(2, null, 15001);
+		mModel.put(3, "", 15002);
+		mModel.put(5, "Zo\u00eb \u674e", -3);
+		Random random = new Random(23);
+		for (long rowId = 10; rowId < 500; rowId += 1 + random.nextInt(3)) {
+			mModel.put(rowId, "Baby " + rowId, 14000 + random.nextInt(3000));
+		}
+		// an edit leaves the old name behind in the buffer
+		mModel.put(1, "Emma Jones", 15000);
+		mModel.remove(3);
+	}
+
+	@Test
+	public void roundTripsThroughTheFile() throws IOException {
+		BirthdaySnapshot.write(mFile, BirthdaySnapshot.encode(mModel));
+		BirthdayListModel read = BirthdaySnapshot.read(mFile);
+		assertTrue(mModel.contentEquals(read));
+		assertTrue(mFile.exists());
+	}
+
+	@Test
+	public void roundTripsAnEmptyList() throws IOException {
+		BirthdaySnapshot.write(mFile, BirthdaySnapshot.encode(new BirthdayListModel()));
+		assertEquals(0, BirthdaySnapshot.read(mFile).size());
+	}
+
+	@Test
+	public void missingFileIsNoSnapshot() {
+		assertNull(BirthdaySnapshot.read(mFile));
+	}
+
+	@Test
+	public void anyFlippedBitIsTurnedAway() throws IOException {
+		ByteBuffer encoded = BirthdaySnapshot.encode(mModel);
+		Random random = new Random(24);
+		for (int i = 0; i < 200; i++) {
+			ByteBuffer corrupt = copyOf(encoded);
+			int index = (i < 20) ? i : random.nextInt(corrupt.capacity());
+			corrupt.put(index, (byte) (corrupt.get(index) ^ (1 << random.nextInt(8))));
+			assertTurnedAway(corrupt);
+		}
+	}
+
+	@Test
+	public void truncatedFileIsTurnedAway() throws IOException {
+		ByteBuffer encoded = BirthdaySnapshot.encode(mModel);
+		for (int length : new int[] {0, 3, 19, 20, 21, encoded.capacity() / 2,
+				encoded.capacity() - 1}) {
+			ByteBuffer truncated = copyOf(encoded);
+			truncated.limit(length);
+			assertTurnedAway(truncated);
+		}
+	}
+
+	@Test
+	public void otherSchemaVersionIsTurnedAway() throws IOException {
+		for (int version : new int[] {BirthdaySchema.VERSION - 1, BirthdaySchema.VERSION + 1}) {
+			ByteBuffer encoded = BirthdaySnapshot.encode(mModel);
+			encoded.putInt(4, version);
+			assertTurnedAway(encoded);
+		}
+	}
+
+	@Test
+	public void fileOverTheMaximumSizeIsNotMapped() throws IOException {
+		BirthdaySnapshot.write(mFile, BirthdaySnapshot.encode(mModel));
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+		try {
+			file.setLength(BirthdaySnapshot.MAX_SIZE + 1L);
+		} finally {
+			file.close();
+		}
+		assertNull(BirthdaySnapshot.read(mFile));
+		assertFalse(mFile.exists());
+	}
+
+	/*
+	 * Asserts a snapshot is not decoded, and that its file is not read and
+	 * is deleted
+	 */
+	private void assertTurnedAway(ByteBuffer snapshot) throws IOException {
+		assertNull(BirthdaySnapshot.decode(snapshot.duplicate()));
+		BirthdaySnapshot.write(mFile, snapshot);
+		assertNull(BirthdaySnapshot.read(mFile));
+		assertFalse(mFile.exists());
+	}
+
+	private static ByteBuffer copyOf(ByteBuffer buffer) {
+		ByteBuffer copy = ByteBuffer.allocate(buffer.capacity());
+		copy.put(buffer.duplicate());
+		copy.position(0);
+		return copy;
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the milestones found through the indexes of a SQLite repository
+ * against a MilestoneQueue loaded with every birthday, over random ranges of
+ * days and ranges that cross the end of a year or a leap day.
+ *
+ * @author Jim
+ *
+ */
+public class DueMilestonesTest {
+
+	private static final int FIRST_BIRTH = AgeCalculator.epochDayFromCivil(2008, 1, 1);
+	private static final int LAST_BIRTH = AgeCalculator.epochDayFromCivil(2013, 12, 31);
+
+	private Connection mConnection;
+	private JdbcBirthdayRepository mRepository;
+	private final List<Long> mRowIds = new ArrayList<Long>();
+	private final List<Integer> mBirthDays = new ArrayList<Integer>();
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+		JdbcBirthdayRepository.createSchema(mConnection);
+		mRepository = new JdbcBirthdayRepository(mConnection);
+
+		// the ends of long months and the leap day, which fall on other days
+		// in shorter months and other years
+		int[][] dates = {{2008, 2, 29}, {2012, 2, 29}, {2010, 1, 31}, {2011, 8, 31},
+				{2011, 12, 31}, {2012, 1, 1}, {2011, 2, 28}, {2012, 3, 31}};
+		for (int[] date : dates) {
+			add(AgeCalculator.epochDayFromCivil(date[0], date[1], date[2]));
+		}
+		Random random = new Random(17);
+		for (int i = 0; i < 400; i++) {
+			add(FIRST_BIRTH + random.nextInt(LAST_BIRTH - FIRST_BIRTH + 1));
+		}
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		mRepository.close();
+	}
+
+	@Test
+	public void findsWhatTheQueueFindsInRandomRanges() {
+		Random random = new Random(23);
+		for (int i = 0; i < 300; i++) {
+			int from = FIRST_BIRTH + random.nextInt(LAST_BIRTH - FIRST_BIRTH + 400);
+			int length = (i % 3 == 0) ? random.nextInt(500) + 1 : random.nextInt(10) + 1;
+			assertSameAsQueue(from, from + length - 1);
+		}
+	}
+
+	@Test
+	public void findsWhatTheQueueFindsAcrossTheEndOfAYear() {
+		for (int year = 2008; year <= 2014; year++) {
+			int newYear = AgeCalculator.epochDayFromCivil(year, 1, 1);
+			for (int before = 0; before <= 3; before++) {
+				for (int after = 0; after <= 3; after++) {
+					assertSameAsQueue(newYear - before - 1, newYear + after);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void findsWhatTheQueueFindsAroundTheLeapDay() {
+		for (int year = 2009; year <= 2016; year++) {
+			int march = AgeCalculator.epochDayFromCivil(year, 3, 1);
+			for (int from = march - 3; from <= march; from++) {
+				for (int to = from; to <= march + 1; to++) {
+					assertSameAsQueue(from, to);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void findsNothingInAnEmptyRange() {
+		int day = AgeCalculator.epochDayFromCivil(2012, 6, 1);
+		assertEquals(new TreeMap<Long, Integer>(), due(day, day - 1));
+	}
+
+	/*
+	 * Asserts the index lookups report the same milestones as a full queue
+	 * polled over the range, and find the same next day after it
+	 */
+	private void assertSameAsQueue(int from, int to) {
+
+		MilestoneQueue queue = new MilestoneQueue();
+		for (int i = 0; i < mRowIds.size(); i++) {
+			queue.put(mRowIds.get(i), mBirthDays.get(i), from);
+		}
+		final TreeMap<Long, Integer> expected = new TreeMap<Long, Integer>();
+		queue.pollDue(to, new MilestoneQueue.OnMilestoneListener() {
+
+			public void onMilestone(long rowId, int milestone, int epochDay) {
+				expected.put(rowId, milestone);
+			}
+		});
+
+		String range = from + ".." + to;
+		assertEquals(range, expected, due(from, to));
+		assertEquals(range, queue.peekDueEpochDay(), DueMilestones.nextDueEpochDay(mRepository, to + 1));
+	}
+
+	private TreeMap<Long, Integer> due(int from, int to) {
+		final TreeMap<Long, Integer> due = new TreeMap<Long, Integer>();
+		int count = DueMilestones.pollDue(mRepository, from, to, new MilestoneQueue.OnMilestoneListener() {
+
+			public void onMilestone(long rowId, int milestone, int epochDay) {
+				assertEquals(null, due.put(rowId, milestone));
+			}
+		});
+		assertEquals(due.size(), count);
+		return due;
+	}
+
+	private void add(int birthEpochDay) {
+		mRowIds.add(mRepository.createBirthday("Baby " + mRowIds.size(), birthEpochDay));
+		mBirthDays.add(birthEpochDay);
+	}
+}
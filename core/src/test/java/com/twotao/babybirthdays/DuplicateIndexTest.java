@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks DuplicateIndex against a plain map of every row, through random
+ * puts, moves and removes that share keys between rows, empty the probe runs
+ * of both tables and build the Bloom filter again many times over.
+ *
+ * @author Jim
+ *
+ */
+public class DuplicateIndexTest {
+
+	private static final int BIRTH = 15000;
+
+	// written in different ways to be the same name
+	private static final String[][] SPELLINGS = {
+		{"Emma Smith", "emma  smith", "EMMA-SMITH", " Emma, Smith."},
+		{"Noah", "noah", "NOAH!"},
+		{"Mia Rose Lee", "mia rose-lee", "Mia  ROSE  lee"},
+	};
+
+	private final DuplicateIndex mIndex = new DuplicateIndex();
+
+	// the name, as its lower case words, and the birth day of each row
+	private final Map<Long, String> mNames = new HashMap<Long, String>();
+	private final Map<Long, Integer> mBirthDays = new HashMap<Long, Integer>();
+
+	@Test
+	public void namesMatchByTheirWordsIgnoringCase() {
+		for (String[] spellings : SPELLINGS) {
+			for (String spelling : spellings) {
+				assertEquals(DuplicateIndex.keyOf(spellings[0], BIRTH),
+						DuplicateIndex.keyOf(spelling, BIRTH));
+			}
+			assertTrue(DuplicateIndex.keyOf(spellings[0], BIRTH)
+					!= DuplicateIndex.keyOf(spellings[0], BIRTH + 1));
+		}
+		assertTrue(DuplicateIndex.keyOf("Emma Smith", BIRTH)
+				!= DuplicateIndex.keyOf("EmmaSmith", BIRTH));
+		assertEquals(DuplicateIndex.keyOf(null, BIRTH), DuplicateIndex.keyOf(" - ", BIRTH));
+	}
+
+	@Test
+	public void rowsSharingAKeyAreFoundUntilTheLastIsRemoved() {
+		put(1, "Emma Smith", BIRTH);
+		put(2, "emma smith", BIRTH);
+		put(3, "EMMA-SMITH", BIRTH);
+
+		assertEquals(0, mIndex.find("Emma Smith", BIRTH + 1, 0));
+		assertTrue(mIndex.find("Emma Smith", BIRTH, 1) != 1);
+		remove(2);
+		remove(1);
+		assertEquals(3, mIndex.find("emma smith", BIRTH, 0));
+		assertEquals(0, mIndex.find("emma smith", BIRTH, 3));
+		remove(3);
+		assertEquals(0, mIndex.find("emma smith", BIRTH, 0));
+		assertEquals(0, mIndex.size());
+	}
+
+	@Test
+	public void movedRowIsFoundUnderItsNewKeyOnly() {
+		put(1, "Noah", BIRTH);
+		put(1, "Mia Rose Lee", BIRTH + 3);
+		assertEquals(1, mIndex.size());
+		assertEquals(0, mIndex.find("Noah", BIRTH, 0));
+		assertEquals(1, mIndex.find("mia rose-lee", BIRTH + 3, 0));
+	}
+
+	@Test
+	public void randomChangesMatchAPlainMap() {
+		Random random = new Random(25);
+		List<Long> rowIds = new ArrayList<Long>();
+		long nextRowId = 1;
+
+		for (int i = 0; i < 20000; i++) {
+			int action = random.nextInt(10);
+			if (action < 4 || rowIds.isEmpty()) {
+				long rowId = nextRowId++;
+				rowIds.add(rowId);
+				put(rowId, randomName(random), randomBirth(random));
+			} else if (action < 6) {
+				put(rowIds.get(random.nextInt(rowIds.size())), randomName(random),
+						randomBirth(random));
+			} else if (action < 9) {
+				remove(rowIds.remove(random.nextInt(rowIds.size())));
+			} else {
+				// any row id, which may already be gone
+				remove(1 + random.nextInt((int) nextRowId));
+			}
+			assertFinds(randomName(random), randomBirth(random), random);
+		}
+
+		// the filter and the index hold every key still there, and no other
+		for (long rowId : mNames.keySet()) {
+			String name = mNames.get(rowId);
+			assertTrue(mIndex.find(name, mBirthDays.get(rowId), 0) != 0);
+			assertFinds(name, mBirthDays.get(rowId), random);
+		}
+	}
+
+	@Test
+	public void loadIndexesEveryRow() {
+		MemoryBirthdayRepository repository = new MemoryBirthdayRepository();
+		Random random = new Random(26);
+		for (int i = 0; i < 500; i++) {
+			String name = randomName(random);
+			int birth = randomBirth(random);
+			long rowId = repository.createBirthday(name, birth);
+			mNames.put(rowId, wordsOf(name));
+			mBirthDays.put(rowId, birth);
+		}
+
+		BirthdayRepository.Rows rows = repository.fetchAll();
+		DuplicateIndex index;
+		try {
+			index = DuplicateIndex.load(rows);
+		} finally {
+			rows.close();
+		}
+		assertEquals(500, index.size());
+		for (long rowId : mNames.keySet()) {
+			assertTrue(index.find(mNames.get(rowId), mBirthDays.get(rowId), 0) != 0);
+		}
+	}
+
+	/*
+	 * Asserts the index finds a row with the values, other than a random
+	 * ignored one, exactly when the map has one
+	 */
+	private void assertFinds(String name, int birth, Random random) {
+		long ignore = random.nextBoolean() ? 0 : 1 + random.nextInt(mNames.size() + 1);
+		long found = mIndex.find(name, birth, ignore);
+
+		String words = wordsOf(name);
+		boolean expected = false;
+		for (Map.Entry<Long, String> row : mNames.entrySet()) {
+			if (row.getKey() != ignore && row.getValue().equals(words)
+					&& mBirthDays.get(row.getKey()) == birth) {
+				expected = true;
+			}
+		}
+		String values = name + " " + birth + " ignoring " + ignore;
+		if (!expected) {
+			assertEquals(values, 0, found);
+		} else {
+			assertTrue(values, found != 0 && found != ignore);
+			assertEquals(values, words, mNames.get(found));
+			assertEquals(values, birth, (int) mBirthDays.get(found));
+		}
+	}
+
+	private void put(long rowId, String name, int birth) {
+		mIndex.put(rowId, name, birth);
+		mNames.put(rowId, wordsOf(name));
+		mBirthDays.put(rowId, birth);
+		assertEquals(mNames.size(), mIndex.size());
+	}
+
+	private void remove(long rowId) {
+		mIndex.remove(rowId);
+		mNames.remove(rowId);
+		mBirthDays.remove(rowId);
+		assertEquals(mNames.size(), mIndex.size());
+	}
+
+	/*
+	 * Few names and days, so many rows share a key
+	 */
+	private static String randomName(Random random) {
+		String[] spellings = SPELLINGS[random.nextInt(SPELLINGS.length)];
+		String name = spellings[random.nextInt(spellings.length)];
+		return random.nextInt(4) == 0 ? name + " " + random.nextInt(50) : name;
+	}
+
+	private static int randomBirth(Random random) {
+		return BIRTH + random.nextInt(20);
+	}
+
+	/*
+	 * The lower case words of a name, one space between them
+	 */
+	private static String wordsOf(String name) {
+		StringBuilder words = new StringBuilder();
+		for (String word : name.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+			if (word.length() > 0) {
+				if (words.length() > 0) {
+					words.append(' ');
+				}
+				words.append(word);
+			}
+		}
+		return words.toString();
+	}
+}
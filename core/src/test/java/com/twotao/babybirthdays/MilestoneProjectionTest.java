@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the milestones streamed by MilestoneProjection against every
+ * milestone of every birthday worked out by brute force with a
+ * GregorianCalendar, over random windows and windows that cross the end of a
+ * year or a leap day.
+ *
+ * @author Jim
+ *
+ */
+public class MilestoneProjectionTest {
+
+	private static final int FIRST_BIRTH = AgeCalculator.epochDayFromCivil(2004, 1, 1);
+	private static final int LAST_BIRTH = AgeCalculator.epochDayFromCivil(2013, 12, 31);
+
+	// the weeks 1 - 8, the months 2 - 24 and the birthdays from the third on
+	private static final int NUM_WEEKS = 8;
+	private static final int FIRST_MONTH = 2;
+	private static final int LAST_MONTH = 24;
+	private static final int FIRST_YEAR = 3;
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private MemoryBirthdayRepository mRepository;
+
+	@Before
+	public void setUp() {
+		mRepository = new MemoryBirthdayRepository();
+
+		// the ends of long months and the leap day, which fall on other days
+		// in shorter months and other years
+		int[][] dates = {{2008, 2, 29}, {2012, 2, 29}, {2010, 1, 31}, {2011, 8, 31},
+				{2011, 12, 31}, {2012, 1, 1}, {2011, 2, 28}, {2012, 3, 31}, {2012, 10, 31}};
+		for (int[] date : dates) {
+			mRepository.createBirthday("Baby " + date[0] + date[1] + date[2],
+					AgeCalculator.epochDayFromCivil(date[0], date[1], date[2]));
+		}
+		Random random = new Random(18);
+		for (int i = 0; i < 200; i++) {
+			mRepository.createBirthday("Baby " + i,
+					FIRST_BIRTH + random.nextInt(LAST_BIRTH - FIRST_BIRTH + 1));
+		}
+	}
+
+	@Test
+	public void streamsWhatBruteForceFindsInRandomWindows() {
+		Random random = new Random(19);
+		for (int i = 0; i < 200; i++) {
+			int from = FIRST_BIRTH + random.nextInt(LAST_BIRTH - FIRST_BIRTH + 800);
+			int length = (i % 4 == 0) ? random.nextInt(800) + 1 : random.nextInt(40) + 1;
+			assertSameAsBruteForce(from, from + length - 1);
+		}
+	}
+
+	@Test
+	public void streamsWhatBruteForceFindsAcrossTheEndOfAYear() {
+		for (int year = 2008; year <= 2015; year++) {
+			int newYear = AgeCalculator.epochDayFromCivil(year, 1, 1);
+			for (int before = 0; before <= 3; before++) {
+				for (int after = 0; after <= 3; after++) {
+					assertSameAsBruteForce(newYear - before - 1, newYear + after);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void streamsWhatBruteForceFindsAroundTheLeapDay() {
+		for (int year = 2008; year <= 2016; year++) {
+			int march = AgeCalculator.epochDayFromCivil(year, 3, 1);
+			for (int from = march - 3; from <= march; from++) {
+				for (int to = from; to <= march + 1; to++) {
+					assertSameAsBruteForce(from, to);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void windowBeforeEveryBirthHasNoMilestones() {
+		MilestoneProjection projection = MilestoneProjection.project(mRepository,
+				FIRST_BIRTH - 100, FIRST_BIRTH);
+		assertEquals(0, projection.getPendingBirthdays());
+		assertFalse(projection.next());
+	}
+
+	/*
+	 * Asserts the projection streams the same milestones as brute force, in
+	 * the order of their day and then the row id
+	 */
+	private void assertSameAsBruteForce(int from, int to) {
+
+		List<String> expected = new ArrayList<String>();
+		BirthdayRepository.Rows rows = mRepository.fetchAll();
+		try {
+			while (rows.next()) {
+				addMilestones(expected, rows.getId(), rows.getBirthEpochDay(), from, to);
+			}
+		} finally {
+			rows.close();
+		}
+		Collections.sort(expected);
+
+		List<String> actual = new ArrayList<String>();
+		MilestoneProjection projection = MilestoneProjection.project(mRepository, from, to);
+		while (projection.next()) {
+			actual.add(milestone(projection.getEpochDay(), projection.getRowId(),
+					projection.getUnit(), projection.getCount()));
+		}
+		assertEquals(0, projection.getPendingBirthdays());
+		assertEquals(from + ".." + to, expected, actual);
+	}
+
+	/*
+	 * Every milestone of a birthday in the window, counting the months on
+	 * a calendar, which moves a day past the end of a shorter month back to
+	 * its last day
+	 */
+	private static void addMilestones(List<String> milestones, long rowId, int birth,
+			int from, int to) {
+
+		for (int week = 1; week <= NUM_WEEKS; week++) {
+			add(milestones, birth + week * 7, rowId, AgeCalculator.UNIT_WEEKS, week, from, to);
+		}
+		for (int month = FIRST_MONTH; month <= LAST_MONTH; month++) {
+			add(milestones, addMonths(birth, month), rowId, AgeCalculator.UNIT_MONTHS, month,
+					from, to);
+		}
+		for (int year = FIRST_YEAR; addMonths(birth, year * 12) <= to; year++) {
+			add(milestones, addMonths(birth, year * 12), rowId, AgeCalculator.UNIT_YEARS, year,
+					from, to);
+		}
+	}
+
+	private static void add(List<String> milestones, int epochDay, long rowId, int unit,
+			int count, int from, int to) {
+		if (epochDay >= from && epochDay <= to) {
+			milestones.add(milestone(epochDay, rowId, unit, count));
+		}
+	}
+
+	private static int addMonths(int epochDay, int months) {
+		GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+		calendar.setTimeInMillis(epochDay * MILLIS_PER_DAY);
+		calendar.add(Calendar.MONTH, months);
+		return (int) (calendar.getTimeInMillis() / MILLIS_PER_DAY);
+	}
+
+	/*
+	 * A milestone as text that sorts by day and then row id
+	 */
+	private static String milestone(int epochDay, long rowId, int unit, int count) {
+		return String.format("%08d %08d %d %d", epochDay, rowId, unit, count);
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the same searches against the full text index of a SQLite repository
+ * and the plain matching of the memory repository, and checks they find the
+ * same rows.
+ *
+ * @author Jim
+ *
+ */
+public class NameSearchTest {
+
+	private static final String[] NAMES = {
+		"John Smith", "Jo Smithers", "\u00c9mile Zola", "\u00c9MILE", "\u00e9mile", "Zo\u00eb O\u2019Brien",
+		"Mary-Kate Olsen", "Ann2 Lee", "Bj\u00f8rn Borg", "\u00dcnal", "li wei"
+	};
+
+	private static final String[] SEARCHES = {
+		"jo", "JO SM", "smith", "\u00c9mile", "\u00c9m", "\u00e9mile", "emile", "EMILE", "zola", "Zo\u00eb",
+		"zoe", "O\u2019Brien", "brien", "o", "mary kate", "kate", "ann2", "ann", "2", "bj\u00f8rn",
+		"BJ\u00d8RN", "\u00fcn", "\u00dcn", "li wei", "wei li", "x", "", "  ", "*", "\"jo\"", "jo OR zola",
+		"-jo", "j*", "NEAR", "o'brien"
+	};
+
+	private Connection mConnection;
+	private JdbcBirthdayRepository mIndexed;
+	private MemoryBirthdayRepository mScanned;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+		JdbcBirthdayRepository.createSchema(mConnection);
+		mIndexed = new JdbcBirthdayRepository(mConnection);
+		mScanned = new MemoryBirthdayRepository();
+
+		for (int i = 0; i < NAMES.length; i++) {
+			assertEquals(mScanned.createBirthday(NAMES[i], i), mIndexed.createBirthday(NAMES[i], i));
+		}
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		mConnection.close();
+	}
+
+	@Test
+	public void indexAndScanFindTheSameRows() {
+		for (String search : SEARCHES) {
+			assertEquals(search, ids(mScanned.search(search)), ids(mIndexed.search(search)));
+		}
+	}
+
+	@Test
+	public void findsNamesOutsideAsciiAsTyped() {
+		assertEquals(ids(3L, 4L), ids(mIndexed.search("\u00c9mile")));
+		assertEquals(ids(3L, 4L), ids(mIndexed.search("\u00c9m")));
+		assertEquals(ids(5L), ids(mIndexed.search("\u00e9mile")));
+		assertEquals(ids(6L), ids(mIndexed.search("O\u2019Brien")));
+	}
+
+	@Test
+	public void ignoresTheCaseOfAsciiLetters() {
+		assertEquals(ids(1L, 2L), ids(mIndexed.search("JO SM")));
+		assertEquals(ids(11L), ids(mIndexed.search("LI Wei")));
+	}
+
+	private static List<Long> ids(BirthdayRepository.Rows rows) {
+		List<Long> ids = new ArrayList<Long>();
+		try {
+			while (rows.next()) {
+				ids.add(rows.getId());
+			}
+		} finally {
+			rows.close();
+		}
+		return ids;
+	}
+
+	private static List<Long> ids(Long... ids) {
+		List<Long> list = new ArrayList<Long>();
+		for (Long id : ids) {
+			list.add(id);
+		}
+		return list;
+	}
+}
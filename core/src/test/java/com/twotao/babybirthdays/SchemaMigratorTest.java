@@ -0,0 +1,346 @@
+/**
+ * Copyright (C) 2012 - TwoTau, LLC
+ */
+
+package com.twotao.babybirthdays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Upgrades a version 2 database of 100,000 birthdays to the current version
+ * with the app's migration steps, over a JDBC connection to SQLite, and
+ * checks no row, row id or birth date is lost on the way.
+ *
+ * @author Jim
+ *
+ */
+public class SchemaMigratorTest {
+
+	private static final int ROWS = 100000;
+
+	private static final String VERSION_2_CREATE =
+		"create table birthdays (_id integer primary key autoincrement, "
+		+ "name text not null, birthdate integer not null);";
+
+	/*
+	 * The steps' view of a JDBC connection, preparing each statement once
+	 */
+	private static class JdbcDatabase implements SchemaMigrator.Database {
+
+		private final Connection mConnection;
+		private final Map<String, PreparedStatement> mStatements =
+				new HashMap<String, PreparedStatement>();
+
+		JdbcDatabase(Connection connection) {
+			mConnection = connection;
+		}
+
+		public void execSQL(String sql) {
+			try {
+				Statement statement = mConnection.createStatement();
+				try {
+					statement.execute(sql);
+				} finally {
+					statement.close();
+				}
+			} catch (SQLException e) {
+				throw new IllegalStateException(sql, e);
+			}
+		}
+
+		public void execSQL(String sql, Object[] bindArgs) {
+			try {
+				prepare(sql, bindArgs).executeUpdate();
+			} catch (SQLException e) {
+				throw new IllegalStateException(sql, e);
+			}
+		}
+
+		public long longForQuery(String sql, Object[] bindArgs) {
+			try {
+				ResultSet rs = prepare(sql, bindArgs).executeQuery();
+				try {
+					rs.next();
+					return rs.getLong(1);
+				} finally {
+					rs.close();
+				}
+			} catch (SQLException e) {
+				throw new IllegalStateException(sql, e);
+			}
+		}
+
+		public SchemaMigrator.LongRows queryLongs(final String sql, Object[] bindArgs) {
+			final ResultSet rs;
+			try {
+				rs = prepare(sql, bindArgs).executeQuery();
+			} catch (SQLException e) {
+				throw new IllegalStateException(sql, e);
+			}
+			return new SchemaMigrator.LongRows() {
+
+				public boolean next() {
+					try {
+						return rs.next();
+					} catch (SQLException e) {
+						throw new IllegalStateException(sql, e);
+					}
+				}
+
+				public long getLong(int column) {
+					try {
+						return rs.getLong(column + 1);
+					} catch (SQLException e) {
+						throw new IllegalStateException(sql, e);
+					}
+				}
+
+				public void close() {
+					try {
+						rs.close();
+					} catch (SQLException e) {
+						throw new IllegalStateException(sql, e);
+					}
+				}
+			};
+		}
+
+		public SchemaMigrator.Statement compileStatement(final String sql) {
+			final PreparedStatement statement;
+			try {
+				statement = mConnection.prepareStatement(sql);
+			} catch (SQLException e) {
+				throw new IllegalStateException(sql, e);
+			}
+			return new SchemaMigrator.Statement() {
+
+				public void bindLong(int index, long value) {
+					try {
+						statement.setLong(index, value);
+					} catch (SQLException e) {
+						throw new IllegalStateException(sql, e);
+					}
+				}
+
+				public void execute() {
+					try {
+						statement.executeUpdate();
+					} catch (SQLException e) {
+						throw new IllegalStateException(sql, e);
+					}
+				}
+
+				public void close() {
+					try {
+						statement.close();
+					} catch (SQLException e) {
+						throw new IllegalStateException(sql, e);
+					}
+				}
+			};
+		}
+
+		void close() throws SQLException {
+			for (PreparedStatement statement : mStatements.values()) {
+				statement.close();
+			}
+		}
+
+		private PreparedStatement prepare(String sql, Object[] bindArgs) throws SQLException {
+			PreparedStatement statement = mStatements.get(sql);
+			if (statement == null) {
+				statement = mConnection.prepareStatement(sql);
+				mStatements.put(sql, statement);
+			}
+			if (bindArgs != null) {
+				for (int i = 0; i < bindArgs.length; i++) {
+					statement.setObject(i + 1, bindArgs[i]);
+				}
+			}
+			return statement;
+		}
+	}
+
+	private Connection mConnection;
+
+	// the birth date each row was written with, and the rows deleted, by
+	// row id
+	private int[] mBirthEpochDays;
+	private boolean[] mDeleted;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+		mConnection.setAutoCommit(false);
+		update(VERSION_2_CREATE);
+
+		// birth dates written the way version 2 wrote them, as the
+		// milliseconds of a time on the day in the default time zone
+		Random random = new Random(2);
+		Calendar calendar = Calendar.getInstance();
+		mBirthEpochDays = new int[ROWS + 1];
+		mDeleted = new boolean[ROWS + 1];
+		PreparedStatement insert = mConnection.prepareStatement(
+				"insert into birthdays (name, birthdate) values (?, ?)");
+		for (int id = 1; id <= ROWS; id++) {
+			int day = AgeCalculator.epochDayFromCivil(1940, 1, 1) + random.nextInt(30000);
+			int date = AgeCalculator.civilFromEpochDay(day);
+			calendar.clear();
+			calendar.set(AgeCalculator.yearOf(date), AgeCalculator.monthOf(date) - 1,
+					AgeCalculator.dayOf(date), 6 + random.nextInt(15), random.nextInt(60));
+			insert.setString(1, "Baby " + id);
+			insert.setLong(2, calendar.getTimeInMillis());
+			insert.addBatch();
+			mBirthEpochDays[id] = day;
+		}
+		insert.executeBatch();
+		insert.close();
+
+		// the sequence is left above the highest row id still in the table
+		for (int id = ROWS; id > 0; id -= 997) {
+			update("delete from birthdays where _id = " + id);
+			mDeleted[id] = true;
+		}
+		mConnection.commit();
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		mConnection.close();
+	}
+
+	@Test
+	public void everyStepFromVersion2IsThere() {
+		assertTrue(BirthdayMigrations.MIGRATOR.canMigrate(2, BirthdaySchema.VERSION));
+		assertFalse(BirthdayMigrations.MIGRATOR.canMigrate(1, BirthdaySchema.VERSION));
+	}
+
+	@Test
+	public void upgradeKeepsEveryRow() throws SQLException {
+
+		final List<Integer> versions = new ArrayList<Integer>();
+		JdbcDatabase db = new JdbcDatabase(mConnection);
+		long elapsed = BirthdayMigrations.MIGRATOR.migrate(db, 2, BirthdaySchema.VERSION,
+				new SchemaMigrator.Listener() {
+
+					public void onMigrated(int toVersion, long elapsedMillis) {
+						assertTrue(elapsedMillis >= 0);
+						versions.add(toVersion);
+					}
+				});
+		db.close();
+		mConnection.commit();
+
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int version = 3; version <= BirthdaySchema.VERSION; version++) {
+			expected.add(version);
+		}
+		assertEquals(expected, versions);
+		assertTrue(elapsed >= 0);
+
+		// every row, with its id, name and birth date
+		int rows = 0;
+		Statement statement = mConnection.createStatement();
+		ResultSet rs = statement.executeQuery(
+				"select _id, name, birth_day, month_day from birthdays order by _id");
+		while (rs.next()) {
+			int id = rs.getInt(1);
+			assertFalse("row " + id + " was deleted", mDeleted[id]);
+			int day = mBirthEpochDays[id];
+			assertEquals("Baby " + id, rs.getString(2));
+			assertEquals("birth date of row " + id, day, rs.getInt(3));
+			int date = AgeCalculator.civilFromEpochDay(day);
+			assertEquals(AgeCalculator.monthOf(date) * 100 + AgeCalculator.dayOf(date), rs.getInt(4));
+			rows++;
+		}
+		rs.close();
+		int kept = 0;
+		for (int id = 1; id <= ROWS; id++) {
+			if (!mDeleted[id]) {
+				kept++;
+			}
+		}
+		assertEquals(kept, rows);
+
+		// the same indexes and triggers as a new install
+		assertEquals(schemaOf(freshDatabase()), schemaOf(mConnection));
+
+		// the search index has every name, and is kept up to date
+		assertEquals(rows, queryLong("select count(*) from birthdays_search"));
+		assertEquals(12345, queryLong("select docid from birthdays_search where name match '12345'"));
+		update("insert into birthdays (name, birth_day, month_day) values ('Zebedee', 0, 101)");
+		long newId = queryLong("select docid from birthdays_search where name match 'zebedee'");
+
+		// a deleted row id is never handed out again
+		assertEquals(ROWS + 1, newId);
+		statement.close();
+	}
+
+	private Connection freshDatabase() throws SQLException {
+		Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+		JdbcBirthdayRepository.createSchema(connection);
+		return connection;
+	}
+
+	/*
+	 * The names and SQL of the indexes and triggers, and the columns of the
+	 * birthdays table
+	 */
+	private static List<String> schemaOf(Connection connection) throws SQLException {
+		List<String> schema = new ArrayList<String>();
+		Statement statement = connection.createStatement();
+		ResultSet rs = statement.executeQuery("select type, name, sql from sqlite_master "
+				+ "where type in ('index', 'trigger') order by name");
+		while (rs.next()) {
+			schema.add(rs.getString(1) + " " + rs.getString(2) + ": " + rs.getString(3));
+		}
+		rs.close();
+		rs = statement.executeQuery("pragma table_info(birthdays)");
+		while (rs.next()) {
+			schema.add("column " + rs.getString("name") + " " + rs.getString("type"));
+		}
+		rs.close();
+		statement.close();
+		return schema;
+	}
+
+	private void update(String sql) throws SQLException {
+		Statement statement = mConnection.createStatement();
+		try {
+			statement.executeUpdate(sql);
+		} finally {
+			statement.close();
+		}
+	}
+
+	private long queryLong(String sql) throws SQLException {
+		Statement statement = mConnection.createStatement();
+		try {
+			ResultSet rs = statement.executeQuery(sql);
+			assertTrue(sql, rs.next());
+			return rs.getLong(1);
+		} finally {
+			statement.close();
+		}
+	}
+}